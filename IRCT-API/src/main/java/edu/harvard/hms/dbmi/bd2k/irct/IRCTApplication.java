@@ -49,10 +49,22 @@ import java.util.*;
 @ApplicationScoped
 public class IRCTApplication {
 
+	/**
+	 * Size of the download cache in megabytes if
+	 * <code>global/download_cache_size</code> is not configured
+	 */
+	public static final long DEFAULT_DOWNLOAD_CACHE_SIZE = 10240;
+
 	@javax.annotation.Resource(mappedName = "java:global/resultDataFolder")
 	private String resultDataFolder = null;
 	
 	private String whitelistLocation;
+
+	private String resultSetFormat;
+
+	private boolean downloadCacheEnabled;
+
+	private long downloadCacheSize;
 	
 	// key is the name string, value is a JsonArray for resources
 	private Map<String, JsonArray> whitelist;
@@ -122,6 +134,9 @@ public class IRCTApplication {
 		logger.info("Loading Whitelists");
 		loadWhiteLists();
 		logger.info("Finihsed loading whitelists");
+
+		loadResultSetFormat();
+		loadDownloadCache();
 		
 		logger.info("Finished Starting IRCT Application");
 	}
@@ -467,6 +482,54 @@ public class IRCTApplication {
 		}
 	}
 
+	/**
+	 * Loads the storage format used for new tabular results.
+	 *
+	 * <p>Like the whitelist this is optional. If <code>global/result_set_format</code>
+	 * is not configured the tab delimited <code>FileResultSet</code> is used, setting it
+	 * to <code>indexed</code> stores new results as an <code>IndexedFileResultSet</code>.
+	 * Existing results keep the format they were created with.
+	 */
+	private void loadResultSetFormat() {
+		try {
+			Context ctx = new InitialContext();
+			resultSetFormat = (String) ctx.lookup("global/result_set_format");
+			ctx.close();
+		} catch (NamingException e) {
+			resultSetFormat = "file";
+		}
+		logger.info("Using the " + resultSetFormat + " result set format");
+	}
+
+	private void loadDownloadCache() {
+		try {
+			Context ctx = new InitialContext();
+			downloadCacheEnabled = !"false".equalsIgnoreCase(String.valueOf(ctx
+					.lookup("global/download_cache")));
+			ctx.close();
+		} catch (NamingException e) {
+			downloadCacheEnabled = true;
+		}
+		logger.info("Download cache is " + (downloadCacheEnabled ? "enabled" : "disabled"));
+
+		long sizeInMegabytes = DEFAULT_DOWNLOAD_CACHE_SIZE;
+		try {
+			Context ctx = new InitialContext();
+			sizeInMegabytes = Long.parseLong(String.valueOf(ctx
+					.lookup("global/download_cache_size")).trim());
+			ctx.close();
+		} catch (NamingException e) {
+			// Use the default size
+		} catch (NumberFormatException e) {
+			logger.warn("global/download_cache_size is not a number, using "
+					+ DEFAULT_DOWNLOAD_CACHE_SIZE + " MB");
+		}
+		downloadCacheSize = Math.max(0, sizeInMegabytes) * 1024 * 1024;
+		if (downloadCacheEnabled) {
+			logger.info("Download cache size is " + sizeInMegabytes + " MB");
+		}
+	}
+
 	/**
 	 * Get the name of the result data folder
 	 *
@@ -498,4 +561,33 @@ public class IRCTApplication {
 		return whitelistEnabled;
 	}
 
+	/**
+	 * Returns the storage format used for new tabular results
+	 *
+	 * @return Result set format
+	 */
+	public String getResultSetFormat() {
+		return resultSetFormat;
+	}
+
+	/**
+	 * Returns true if downloads of results are kept on disk, so they can be
+	 * served again or in parts without converting the result again
+	 *
+	 * @return Download cache is enabled
+	 */
+	public boolean isDownloadCacheEnabled() {
+		return downloadCacheEnabled;
+	}
+
+	/**
+	 * Returns the maximum number of bytes the downloads of results may take
+	 * up on disk, the least recently used downloads are removed beyond it
+	 *
+	 * @return Download cache size in bytes
+	 */
+	public long getDownloadCacheSize() {
+		return downloadCacheSize;
+	}
+
 }
@@ -0,0 +1,23 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.action;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+/**
+ * An action whose results can be handed to a callback once they are
+ * available, so no thread has to wait for them
+ */
+public interface CallbackAction extends Action {
+	/**
+	 * Hands the results of the action to the callback once they are
+	 * available. The method does not wait for the results, the callback may
+	 * be called from another thread or before the method returns.
+	 *
+	 * @param user User running the action
+	 * @param callback Callback that is handed the results
+	 */
+	void getResults(User user, ResultCallback callback);
+}
@@ -47,8 +47,10 @@ public class JoinAction implements Action {
 	
 	@Override
 	public void updateActionParams(Map<String, Result> updatedParams) {
+		// The result set fields are read from the string values when the join
+		// is run
 		for(String key : updatedParams.keySet()) {
-			this.join.getObjectValues().put(key, updatedParams.get(key).getId().toString());
+			this.join.getStringValues().put(key, updatedParams.get(key).getId().toString());
 		}
 	}
 	
@@ -59,9 +61,11 @@ public class JoinAction implements Action {
 
 		try {
 			JoinImplementation joinImplementation = (JoinImplementation) join.getJoinImplementation();
-			joinImplementation.setup(new HashMap<String, Object>());
 			result = ActionUtilities.createResult(joinImplementation.getJoinDataType());
 			result.setUser(user);
+			// Pass the join parameters such as the block size and parallelism
+			// to the implementation
+			joinImplementation.setup(new HashMap<String, Object>(join.getStringValues()));
 			
 			join.getObjectValues().putAll(ActionUtilities.convertResultSetFieldToObject(user, join.getJoinType().getFields(), join.getStringValues()));
 			
@@ -100,6 +100,15 @@ public class ProcessAction implements Action {
 		return this.result;
 	}
 
+	/**
+	 * Returns the resource the action runs on
+	 * 
+	 * @return Resource
+	 */
+	public Resource getResource() {
+		return this.resource;
+	}
+
 	/**
 	 * Get the process
 	 * 
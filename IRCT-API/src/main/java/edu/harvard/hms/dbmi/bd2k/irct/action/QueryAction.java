@@ -10,6 +10,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.query.Query;
 import edu.harvard.hms.dbmi.bd2k.irct.model.query.WhereClause;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.Resource;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.QueryResourceImplementationInterface;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Persistable;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
@@ -20,13 +21,16 @@ import org.apache.log4j.Logger;
 import javax.naming.NamingException;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Implements the Action interface to run a query on a specific instance
+ * Implements the Action interface to run a query on a specific instance. A
+ * query runs as long as the resource takes, unless the resultTimeout resource
+ * parameter limits it to a number of seconds.
  *
  */
-public class QueryAction implements Action {
-
+public class QueryAction implements CallbackAction {
 	private Query query;
 	private Resource resource;
 	private ActionStatus status;
@@ -99,24 +103,66 @@ public class QueryAction implements Action {
 	}
 
 	@Override
-	public Result getResults(User user){
+	public Result getResults(User user) throws ResourceInterfaceException {
+		final CountDownLatch finished = new CountDownLatch(1);
+		getResults(user, new ResultCallback() {
+			@Override
+			public void onResult(Result result) {
+				finished.countDown();
+			}
+		});
+		try {
+			finished.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResourceInterfaceException("Interrupted while waiting for the result");
+		}
+		return this.result;
+	}
+
+	@Override
+	public void getResults(final User user, final ResultCallback callback) {
 		logger.debug("getResults() starting");
 
 		try {
-			this.result = ((QueryResourceImplementationInterface) resource
-					.getImplementingInterface()).getResults(user, result);
+			QueryResourceImplementationInterface queryInterface = (QueryResourceImplementationInterface) resource
+					.getImplementingInterface();
+			Result polledResult = queryInterface.getResults(user, result);
 
-			if (this.result == null)
+			if (polledResult == null)
 				throw new ResourceInterfaceException("getResults() after retrieving result, result is null");
+			this.result = polledResult;
 
-			while ((this.result.getResultStatus() != ResultStatus.ERROR)
+			if ((this.result.getResultStatus() != ResultStatus.ERROR)
 					&& (this.result.getResultStatus() != ResultStatus.COMPLETE)) {
-				Thread.sleep(3000);
-				this.result = ((QueryResourceImplementationInterface) resource
-						.getImplementingInterface())
-						.getResults(user, result);
+				// The result is finished once the resource is done, no thread
+				// waits for it in the meantime
+				ResultScheduler resultScheduler = new ResultScheduler(
+						Utilities.getManagedScheduledExecutorService(),
+						Utilities.getManagedExecutorService());
+				resultScheduler.schedule(queryInterface, user, result,
+						getResultTimeout(), TimeUnit.SECONDS, new ResultCallback() {
+							@Override
+							public void onResult(Result finishedResult) {
+								result = finishedResult;
+								finishResult(callback);
+							}
+						});
+				return;
 			}
+		} catch (Exception e) {
+			this.result.setResultStatus(ResultStatus.ERROR);
+			this.result.setMessage(e.getMessage());
+		}
+		finishResult(callback);
+	}
 
+	/**
+	 * Stores the finished result and hands it to the callback. The result
+	 * is only closed once the resource has stopped writing to it.
+	 */
+	private void finishResult(ResultCallback callback) {
+		try {
 			if (this.result.getResultStatus() == ResultStatus.COMPLETE) {
 				if (((Persistable) result.getData()).isPersisted()) {
 					((Persistable) result.getData()).merge();
@@ -142,7 +188,33 @@ public class QueryAction implements Action {
 			this.status = ActionStatus.ERROR;
 		}
 
-		return this.result;
+		callback.onResult(this.result);
+	}
+
+	/**
+	 * Returns the number of seconds the result may take, or 0 if there is no
+	 * limit
+	 */
+	private long getResultTimeout() {
+		Map<String, String> parameters = resource.getParameters();
+		if ((parameters != null) && (parameters.get("resultTimeout") != null)) {
+			try {
+				return Long.parseLong(parameters.get("resultTimeout").trim());
+			} catch (NumberFormatException e) {
+				logger.warn("getResultTimeout() invalid resultTimeout "
+						+ parameters.get("resultTimeout"));
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the resource the action runs on
+	 * 
+	 * @return Resource
+	 */
+	public Resource getResource() {
+		return this.resource;
 	}
 
 	/**
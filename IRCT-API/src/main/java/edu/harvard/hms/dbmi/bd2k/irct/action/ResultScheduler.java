@@ -0,0 +1,374 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.action;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.CallbackQueryResourceImplementationInterface;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.QueryResourceImplementationInterface;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+/**
+ * Tells a callback about the results of queries that are running on a
+ * resource once they are complete or have errored, without a thread waiting
+ * for them.
+ *
+ * Resources that implement CallbackQueryResourceImplementationInterface
+ * signal the result themselves. All other resources are polled: the scheduled
+ * executor only times the polls, each poll runs on the executor. Polling
+ * starts quickly so short queries return with little delay, and backs off to
+ * the maximum delay for long running queries. Without a scheduled executor
+ * the result is polled from the calling thread.
+ *
+ * A result has no time limit unless a timeout is given. A result that does
+ * not finish in time is returned with an error, once the poll that may be
+ * running has returned. The callback is called once, on the executor if
+ * there is one.
+ */
+public final class ResultScheduler {
+	static final long INITIAL_DELAY = 100;
+	static final long MAXIMUM_DELAY = 3000;
+
+	private static Logger logger = Logger.getLogger(ResultScheduler.class);
+
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a result scheduler
+	 *
+	 * @param scheduler
+	 *            Scheduled executor the polls are timed on, or null to poll
+	 *            from the calling thread
+	 * @param executor
+	 *            Executor the polls and callbacks are run on, or null to run
+	 *            them on the scheduled executor
+	 */
+	public ResultScheduler(ScheduledExecutorService scheduler,
+			ExecutorService executor) {
+		this.scheduler = scheduler;
+		this.executor = executor;
+	}
+
+	/**
+	 * Tells the callback about the result once it is complete or has errored
+	 *
+	 * @param queryInterface
+	 *            Resource implementation running the query
+	 * @param user
+	 *            User running the query
+	 * @param result
+	 *            Result of the query
+	 * @param timeout
+	 *            Maximum time to wait, or 0 to wait as long as the query runs
+	 * @param unit
+	 *            Unit of the timeout
+	 * @param callback
+	 *            Callback that is handed the finished result, with an ERROR
+	 *            status if it did not finish within the timeout
+	 */
+	public void schedule(QueryResourceImplementationInterface queryInterface,
+			User user, Result result, long timeout, TimeUnit unit,
+			ResultCallback callback) {
+		if (scheduler == null) {
+			callback.onResult(pollOnCallingThread(queryInterface, user,
+					result, timeout, unit));
+			return;
+		}
+
+		Poll poll = new Poll(queryInterface, user, result, timeout, unit,
+				callback);
+		poll.start();
+	}
+
+	/**
+	 * Waits until the result is complete or has errored. The calling thread
+	 * is blocked for the whole query, so this must not be called from a task
+	 * of the executor.
+	 *
+	 * @param queryInterface
+	 *            Resource implementation running the query
+	 * @param user
+	 *            User running the query
+	 * @param result
+	 *            Result of the query
+	 * @param timeout
+	 *            Maximum time to wait, or 0 to wait as long as the query runs
+	 * @param unit
+	 *            Unit of the timeout
+	 * @return The finished result, with an ERROR status if it did not finish
+	 *         within the timeout
+	 * @throws InterruptedException
+	 *             The wait was interrupted
+	 */
+	public Result awaitResult(QueryResourceImplementationInterface queryInterface,
+			User user, Result result, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		final CountDownLatch finished = new CountDownLatch(1);
+		final Result[] finishedResult = new Result[1];
+		schedule(queryInterface, user, result, timeout, unit,
+				new ResultCallback() {
+					@Override
+					public void onResult(Result result) {
+						finishedResult[0] = result;
+						finished.countDown();
+					}
+				});
+		finished.await();
+		return finishedResult[0];
+	}
+
+	private Result pollOnCallingThread(
+			QueryResourceImplementationInterface queryInterface, User user,
+			Result result, long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long delay = INITIAL_DELAY;
+		while (true) {
+			long sleep = delay;
+			if (timeout > 0) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline
+						- System.nanoTime());
+				if (remaining <= 0) {
+					return timedOut(result, timeout, unit);
+				}
+				sleep = Math.min(delay, remaining);
+			}
+			try {
+				Thread.sleep(sleep);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				result.setResultStatus(ResultStatus.ERROR);
+				result.setMessage("Interrupted while waiting for the result");
+				return result;
+			}
+
+			result = poll(queryInterface, user, result);
+			if (isFinished(result)) {
+				return result;
+			}
+			delay = Math.min(delay * 2, MAXIMUM_DELAY);
+		}
+	}
+
+	private static Result poll(
+			QueryResourceImplementationInterface queryInterface, User user,
+			Result result) {
+		try {
+			Result polledResult = queryInterface.getResults(user, result);
+			if (polledResult == null) {
+				throw new ResourceInterfaceException(
+						"getResults() after retrieving result, result is null");
+			}
+			return polledResult;
+		} catch (Exception e) {
+			result.setResultStatus(ResultStatus.ERROR);
+			result.setMessage(e.getMessage());
+			return result;
+		}
+	}
+
+	private static boolean isFinished(Result result) {
+		return (result.getResultStatus() == ResultStatus.ERROR)
+				|| (result.getResultStatus() == ResultStatus.COMPLETE);
+	}
+
+	private static Result timedOut(Result result, long timeout, TimeUnit unit) {
+		result.setResultStatus(ResultStatus.ERROR);
+		result.setMessage("The result did not finish within " + timeout
+				+ " " + unit.toString().toLowerCase());
+		return result;
+	}
+
+	/**
+	 * Waits for one result. Only one poll of the result runs at a time, and
+	 * the result is handed to the callback once, after the last poll has
+	 * returned.
+	 */
+	private class Poll implements Runnable {
+		private final QueryResourceImplementationInterface queryInterface;
+		private final User user;
+		private final long timeout;
+		private final TimeUnit unit;
+		private final ResultCallback callback;
+		private Result result;
+		private long delay;
+		private boolean polling;
+		private boolean timedOut;
+		private boolean finished;
+		private ScheduledFuture<?> nextPoll;
+		private ScheduledFuture<?> deadline;
+
+		Poll(QueryResourceImplementationInterface queryInterface, User user,
+				Result result, long timeout, TimeUnit unit,
+				ResultCallback callback) {
+			this.queryInterface = queryInterface;
+			this.user = user;
+			this.result = result;
+			this.timeout = timeout;
+			this.unit = unit;
+			this.callback = callback;
+		}
+
+		void start() {
+			if (timeout > 0) {
+				try {
+					Runnable timer = new Runnable() {
+						@Override
+						public void run() {
+							timeOut();
+						}
+					};
+					synchronized (this) {
+						deadline = scheduler.schedule(timer, timeout, unit);
+					}
+				} catch (RejectedExecutionException e) {
+					rejected(e);
+					return;
+				}
+			}
+
+			if (queryInterface instanceof CallbackQueryResourceImplementationInterface) {
+				try {
+					((CallbackQueryResourceImplementationInterface) queryInterface)
+							.registerResultCallback(user, result,
+									new ResultCallback() {
+										@Override
+										public void onResult(Result result) {
+											finish(result);
+										}
+									});
+				} catch (RuntimeException e) {
+					result.setResultStatus(ResultStatus.ERROR);
+					result.setMessage(e.getMessage());
+					finish(result);
+				}
+			} else {
+				schedule(INITIAL_DELAY);
+			}
+		}
+
+		private synchronized void schedule(long delay) {
+			if (finished || timedOut) {
+				return;
+			}
+			this.delay = delay;
+			Runnable dispatcher = new Runnable() {
+				@Override
+				public void run() {
+					dispatch(Poll.this);
+				}
+			};
+			try {
+				nextPoll = scheduler.schedule(dispatcher, delay,
+						TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				rejected(e);
+			}
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (finished || timedOut) {
+					return;
+				}
+				polling = true;
+			}
+			Result polledResult = poll(queryInterface, user, result);
+
+			boolean expired;
+			synchronized (this) {
+				polling = false;
+				result = polledResult;
+				expired = timedOut;
+			}
+			if (isFinished(polledResult)) {
+				finish(polledResult);
+			} else if (expired) {
+				finish(timedOut(polledResult, timeout, unit));
+			} else {
+				schedule(Math.min(delay * 2, MAXIMUM_DELAY));
+			}
+		}
+
+		private void timeOut() {
+			Result expiredResult;
+			synchronized (this) {
+				if (finished) {
+					return;
+				}
+				timedOut = true;
+				if (nextPoll != null) {
+					nextPoll.cancel(false);
+				}
+				if (polling) {
+					// The running poll returns the result once it is done
+					return;
+				}
+				expiredResult = result;
+			}
+			finish(timedOut(expiredResult, timeout, unit));
+		}
+
+		private void rejected(RejectedExecutionException e) {
+			Result rejectedResult;
+			synchronized (this) {
+				rejectedResult = result;
+			}
+			rejectedResult.setResultStatus(ResultStatus.ERROR);
+			rejectedResult.setMessage("Unable to schedule the result: "
+					+ e.getMessage());
+			finish(rejectedResult);
+		}
+
+		private void finish(final Result finishedResult) {
+			synchronized (this) {
+				if (finished) {
+					return;
+				}
+				finished = true;
+				if (nextPoll != null) {
+					nextPoll.cancel(false);
+				}
+				if (deadline != null) {
+					deadline.cancel(false);
+				}
+			}
+			dispatch(new Runnable() {
+				@Override
+				public void run() {
+					callback.onResult(finishedResult);
+				}
+			});
+		}
+
+		/**
+		 * Runs a task on the executor, or on the current thread if there is
+		 * no executor or it does not accept the task
+		 */
+		private void dispatch(Runnable task) {
+			if (executor != null) {
+				try {
+					executor.execute(task);
+					return;
+				} catch (RejectedExecutionException e) {
+					logger.warn("dispatch() executor rejected the task, running it on "
+							+ Thread.currentThread().getName());
+				}
+			}
+			task.run();
+		}
+	}
+}
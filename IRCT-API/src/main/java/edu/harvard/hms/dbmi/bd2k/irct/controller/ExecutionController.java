@@ -6,11 +6,16 @@ package edu.harvard.hms.dbmi.bd2k.irct.controller;
 import edu.harvard.hms.dbmi.bd2k.irct.action.JoinAction;
 import edu.harvard.hms.dbmi.bd2k.irct.action.ProcessAction;
 import edu.harvard.hms.dbmi.bd2k.irct.action.QueryAction;
+import edu.harvard.hms.dbmi.bd2k.irct.executable.ExecutableChildNode;
 import edu.harvard.hms.dbmi.bd2k.irct.executable.ExecutableLeafNode;
+import edu.harvard.hms.dbmi.bd2k.irct.executable.ExecutableResultNode;
 import edu.harvard.hms.dbmi.bd2k.irct.executable.ExecutionPlan;
 import edu.harvard.hms.dbmi.bd2k.irct.model.join.Join;
 import edu.harvard.hms.dbmi.bd2k.irct.model.process.IRCTProcess;
 import edu.harvard.hms.dbmi.bd2k.irct.model.query.Query;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.Field;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Persistable;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
@@ -29,7 +34,6 @@ import javax.persistence.PersistenceContext;
 import javax.transaction.UserTransaction;
 import java.io.Serializable;
 import java.util.Date;
-import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 /**
@@ -39,7 +43,6 @@ import java.util.logging.Logger;
  */
 @Stateless
 public class ExecutionController implements Serializable{
-
 	@Inject
 	Logger log;
 
@@ -52,6 +55,9 @@ public class ExecutionController implements Serializable{
 	@Inject
 	private ResourceController rc;
 
+	@Inject
+	private ResultStatusRegistry resultStatusRegistry;
+
 	/**
 	 * Runs the process
 	 *
@@ -70,6 +76,7 @@ public class ExecutionController implements Serializable{
 
 		newResult.setResultStatus(ResultStatus.RUNNING);
 		entityManager.persist(newResult);
+		resultStatusRegistry.update(newResult);
 
 		ProcessAction pa = new ProcessAction();
 		pa.setup(process.getResources().get(0), process);
@@ -78,7 +85,7 @@ public class ExecutionController implements Serializable{
 		eln.setAction(pa);
 
 		ExecutionPlan exp = new ExecutionPlan();
-		exp.setup(eln, user);
+		exp.setup(eln, user, mes);
 
 		runExecutionPlan(exp, newResult);
 
@@ -104,6 +111,7 @@ public class ExecutionController implements Serializable{
 
 		newResult.setResultStatus(ResultStatus.RUNNING);
 		entityManager.persist(newResult);
+		resultStatusRegistry.update(newResult);
 
 		QueryAction qa = new QueryAction();
 		edu.harvard.hms.dbmi.bd2k.irct.model.resource.Resource resource = (edu.harvard.hms.dbmi.bd2k.irct.model.resource.Resource) query.getResources().toArray()[0];
@@ -116,7 +124,7 @@ public class ExecutionController implements Serializable{
 		eln.setAction(qa);
 
 		ExecutionPlan exp = new ExecutionPlan();
-		exp.setup(eln, user);
+		exp.setup(eln, user, mes);
 
 		runExecutionPlan(exp, newResult);
 
@@ -140,22 +148,37 @@ public class ExecutionController implements Serializable{
 
 		newResult.setResultStatus(ResultStatus.RUNNING);
 		entityManager.persist(newResult);
+		resultStatusRegistry.update(newResult);
 
 		JoinAction ja = new JoinAction();
 		ja.setup(join);
 
-		ExecutableLeafNode eln = new ExecutableLeafNode();
-		eln.setAction(ja);
+		// The join is run once the results it joins are available, results
+		// that are still running are added as children of the join
+		ExecutableChildNode ecn = new ExecutableChildNode();
+		ecn.setAction(ja);
+		for (Field field : join.getJoinType().getFields()) {
+			if (field.getDataTypes().contains(PrimitiveDataType.RESULTSET)) {
+				Long inputId = getResultId(join.getStringValues().get(field.getPath()));
+				ResultStatusRegistry.Entry entry = resultStatusRegistry.get(inputId);
+				if (entry != null && !entry.isFinal()) {
+					ecn.addChild(field.getPath(), new ExecutableResultNode(
+							resultStatusRegistry, inputId));
+				}
+			}
+		}
 
 		ExecutionPlan exp = new ExecutionPlan();
-		exp.setup(eln, user);
+		exp.setup(ecn, user, mes);
 		runExecutionPlan(exp, newResult);
 
 		return newResult.getId();
 	}
 
 	/**
-	 * Runs an execution plan
+	 * Runs an execution plan. The plan is started on the managed executor and
+	 * the result is stored once the plan hands over its results, no thread
+	 * waits for the plan in the meantime.
 	 *
 	 * @param executionPlan
 	 *            Execution Plan
@@ -168,52 +191,71 @@ public class ExecutionController implements Serializable{
 	public void runExecutionPlan(final ExecutionPlan executionPlan,
 			final Result result) throws PersistableException {
 
-		Callable<Result> runPlan = new Callable<Result>() {
+		Runnable startPlan = new Runnable() {
 			@Override
-			public Result call() {
+			public void run() {
 				try {
 					result.setStartTime(new Date());
-					executionPlan.run();
-
-					Result finalResult = executionPlan.getResults();
-
-					if ((finalResult.getResultStatus() == ResultStatus.COMPLETE) && (finalResult.getData() instanceof Persistable)) {
-						result.setDataType(finalResult.getDataType());
-						result.setData(finalResult.getData());
-						result.setResultSetLocation(finalResult.getResultSetLocation());
-						result.setMessage(finalResult.getMessage());
-
-						if(((Persistable) result.getData()).isPersisted()) {
-							((Persistable) result.getData()).merge();
-						} else {
-							((Persistable) result.getData()).persist();
+					executionPlan.run(new ResultCallback() {
+						@Override
+						public void onResult(Result finalResult) {
+							finishExecutionPlan(result, finalResult);
 						}
-						result.setResultStatus(ResultStatus.AVAILABLE);
-					} else {
-						result.setResultStatus(ResultStatus.ERROR);
-						result.setMessage(finalResult.getMessage());
-					}
-
-					result.setEndTime(new Date());
-					UserTransaction userTransaction = lookup();
-					userTransaction.begin();
-					entityManager.merge(result);
-					userTransaction.commit();
-				} catch (PersistableException e) {
-					result.setResultStatus(ResultStatus.ERROR);
-					result.setMessage(e.getMessage());
+					});
 				} catch (Exception e) {
-					e.printStackTrace();
 					log.info(e.getMessage());
 					result.setResultStatus(ResultStatus.ERROR);
-				} finally {
-
+					result.setMessage(e.getMessage());
+					resultStatusRegistry.update(result);
 				}
-				return result;
 			}
 		};
 
-		mes.submit(runPlan);
+		mes.execute(startPlan);
+	}
+
+	private void finishExecutionPlan(Result result, Result finalResult) {
+		try {
+			if ((finalResult != null) && (finalResult.getResultStatus() == ResultStatus.COMPLETE) && (finalResult.getData() instanceof Persistable)) {
+				result.setDataType(finalResult.getDataType());
+				result.setData(finalResult.getData());
+				result.setResultSetLocation(finalResult.getResultSetLocation());
+				result.setMessage(finalResult.getMessage());
+
+				if(((Persistable) result.getData()).isPersisted()) {
+					((Persistable) result.getData()).merge();
+				} else {
+					((Persistable) result.getData()).persist();
+				}
+				result.setResultStatus(ResultStatus.AVAILABLE);
+			} else {
+				result.setResultStatus(ResultStatus.ERROR);
+				result.setMessage(finalResult == null ? null : finalResult.getMessage());
+			}
+
+			result.setEndTime(new Date());
+			UserTransaction userTransaction = lookup();
+			userTransaction.begin();
+			entityManager.merge(result);
+			userTransaction.commit();
+		} catch (PersistableException e) {
+			result.setResultStatus(ResultStatus.ERROR);
+			result.setMessage(e.getMessage());
+		} catch (Exception e) {
+			e.printStackTrace();
+			log.info(e.getMessage());
+			result.setResultStatus(ResultStatus.ERROR);
+		} finally {
+			resultStatusRegistry.update(result);
+		}
+	}
+
+	private Long getResultId(String resultId) {
+		try {
+			return resultId == null ? null : Long.valueOf(resultId);
+		} catch (NumberFormatException e) {
+			return null;
+		}
 	}
 
 	private UserTransaction lookup() throws NamingException {
@@ -14,9 +14,24 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import org.apache.log4j.Logger;
 
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A stateless controller that manages the relationships, and paths for a
@@ -33,6 +48,15 @@ public class PathController {
 	@Inject
 	private IRCTEventListener irctEventListener;
 
+	@javax.annotation.Resource(name = "DefaultManagedExecutorService")
+	private ManagedExecutorService mes;
+
+	public static final int DEFAULT_PATH_PARALLELISM = 8;
+	public static final long DEFAULT_PATH_TIMEOUT = 60;
+	public static final long DEFAULT_SEARCH_TIMEOUT = 30;
+
+	private static final ConcurrentMap<String, Semaphore> pathPermits = new ConcurrentHashMap<String, Semaphore>();
+
 	/**
 	 * Traverses the path in the resource with the given relationship
 	 * 
@@ -67,9 +91,80 @@ public class PathController {
 		return null;
 	}
 
+	/**
+	 * Traverses many paths at the same time. The number of paths of a resource
+	 * that are traversed at the same time, across all requests, is bound by
+	 * the pathParallelism parameter of the resource. A path that takes longer
+	 * than the pathTimeout parameter (in seconds) fails the whole request.
+	 * 
+	 * @param resources
+	 *            Resource of each path
+	 * @param resourcePaths
+	 *            Paths in the resources
+	 * @param relationshipName
+	 *            Name of the relationship type
+	 * @param user
+	 *            User
+	 * @return Entities of each path, in the order of the paths
+	 * @throws ResourceInterfaceException
+	 *             A resource interface exception occurred
+	 */
+	public List<List<Entity>> traversePaths(List<Resource> resources,
+			List<Entity> resourcePaths, String relationshipName, User user)
+			throws ResourceInterfaceException {
+		if (resources.size() == 1) {
+			Resource resource = resources.get(0);
+			return Collections.singletonList(traversePath(resource, resourcePaths.get(0),
+					resource.getRelationshipByName(relationshipName), user));
+		}
+
+		List<PathTraversal> traversals = new ArrayList<PathTraversal>();
+		try {
+			for (int i = 0; i < resources.size(); i++) {
+				Resource resource = resources.get(i);
+				Entity resourcePath = resourcePaths.get(i);
+				long timeout = getResourceParameter(resource, "pathTimeout", DEFAULT_PATH_TIMEOUT) * 1000;
+
+				Semaphore permits = getPathPermits(resource);
+				if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+					throw new ResourceInterfaceException("Timed out waiting to traverse "
+							+ resourcePath.getPui());
+				}
+				PathTraversal traversal = new PathTraversal(resource, resourcePath,
+						resource.getRelationshipByName(relationshipName), user, permits,
+						System.currentTimeMillis() + timeout);
+				try {
+					traversal.future = mes.submit(traversal);
+				} catch (RejectedExecutionException e) {
+					traversal.release();
+					throw new ResourceInterfaceException("Unable to traverse " + resourcePath.getPui());
+				}
+				traversals.add(traversal);
+			}
+
+			List<List<Entity>> entities = new ArrayList<List<Entity>>();
+			for (PathTraversal traversal : traversals) {
+				entities.add(traversal.get());
+			}
+			return entities;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResourceInterfaceException("Interrupted while traversing paths");
+		} finally {
+			for (PathTraversal traversal : traversals) {
+				if (traversal.future.cancel(true)) {
+					traversal.release();
+				}
+			}
+		}
+	}
+
 	/**
 	 * Searches a resource for a given searchTerm. If the resource is null it
-	 * searches all resources for that term regardless of path.
+	 * searches all resources for that term regardless of path. All resources
+	 * and terms are searched at the same time, entities that are found more
+	 * than once are only returned once. A resource that takes longer than its
+	 * searchTimeout parameter (in seconds) is left out of the matches.
 	 * 
 	 * @param resource
 	 *            Resource
@@ -84,35 +179,100 @@ public class PathController {
 	public List<Entity> searchForTerm(Resource resource, Entity resourcePath,
 			FindInformationInterface findInformation, User user)
 			throws ResourceInterfaceException {
-		List<Entity> matches = new ArrayList<Entity>();
 		List<FindInformationInterface> findInformationList = new ArrayList<FindInformationInterface>();
 		findInformationList.add(findInformation);
 		
 		irctEventListener.beforeFind(resource, resourcePath, findInformationList, user);
 		
+		List<Search> searches = new ArrayList<Search>();
 		for (FindInformationInterface findInformationEntry : findInformationList) {
 			if (resource == null) {
 				for (Resource searchResource : rc.getPathResources()) {
-					matches.addAll(find(
-							(PathResourceImplementationInterface) searchResource
-									.getImplementingInterface(), null,
+					searches.add(new Search(searchResource, null,
 							findInformationEntry, user));
 				}
 				
 			} else {
 				if (resource.getImplementingInterface() instanceof PathResourceImplementationInterface) {
-					matches.addAll(find(
-							(PathResourceImplementationInterface) resource
-									.getImplementingInterface(),
-							resourcePath, findInformationEntry, user));
+					searches.add(new Search(resource, resourcePath,
+							findInformationEntry, user));
 				}
 			}
-		}		
+		}
+
+		List<Entity> matches = mergeMatches(runSearches(searches));
 		irctEventListener.afterFind(matches, findInformation, user);
 		
 		return matches;
 	}
 
+	/**
+	 * Merges the entities of the searches in order, leaving out entities with
+	 * a PUI that was already matched
+	 * 
+	 * @param results
+	 *            Entities of each search
+	 * @return Matches
+	 */
+	static List<Entity> mergeMatches(List<List<Entity>> results) {
+		List<Entity> matches = new ArrayList<Entity>();
+		Set<String> matchedPuis = new HashSet<String>();
+		for (List<Entity> entities : results) {
+			for (Entity entity : entities) {
+				if (entity.getPui() == null || matchedPuis.add(entity.getPui())) {
+					matches.add(entity);
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Runs all the searches at the same time and returns their entities in
+	 * the order of the searches. Searches that have not finished before the
+	 * search timeout of their resource are cancelled and left out, so a slow
+	 * resource does not hold back the matches of the other resources.
+	 */
+	private List<List<Entity>> runSearches(List<Search> searches) {
+		List<List<Entity>> results = new ArrayList<List<Entity>>();
+		if (searches.size() == 1) {
+			results.add(searches.get(0).call());
+			return results;
+		}
+
+		List<Future<List<Entity>>> futures = new ArrayList<Future<List<Entity>>>();
+		long start = System.currentTimeMillis();
+		try {
+			for (Search search : searches) {
+				futures.add(mes.submit(search));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Resource resource = searches.get(i).resource;
+				long timeout = getResourceParameter(resource, "searchTimeout", DEFAULT_SEARCH_TIMEOUT);
+				try {
+					results.add(futures.get(i).get(Math.max(0, start + timeout * 1000 - System.currentTimeMillis()),
+							TimeUnit.MILLISECONDS));
+				} catch (TimeoutException e) {
+					logger.warn("searchForTerm() Search on resource " + resource.getName()
+							+ " did not finish within " + timeout + " seconds");
+				} catch (ExecutionException e) {
+					logger.error("searchForTerm() Unable to search for term on resource "
+							+ resource.getName() + " message: " + e.getCause().getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("searchForTerm() Interrupted, returning the matches found so far");
+		} catch (RejectedExecutionException e) {
+			logger.error("searchForTerm() Unable to start search: " + e.getMessage());
+		} finally {
+			for (Future<List<Entity>> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
 	private List<Entity> find(PathResourceImplementationInterface resource,
 			Entity resourcePath, FindInformationInterface findInformation,
 			User user) {
@@ -144,4 +304,109 @@ public class PathController {
 
 		return returns;
 	}
+
+	private static Semaphore getPathPermits(Resource resource) {
+		Semaphore permits = pathPermits.get(resource.getName());
+		if (permits == null) {
+			int parallelism = (int) Math.max(1,
+					getResourceParameter(resource, "pathParallelism", DEFAULT_PATH_PARALLELISM));
+			Semaphore newPermits = new Semaphore(parallelism);
+			permits = pathPermits.putIfAbsent(resource.getName(), newPermits);
+			if (permits == null) {
+				permits = newPermits;
+			}
+		}
+		return permits;
+	}
+
+	private static long getResourceParameter(Resource resource, String name, long defaultValue) {
+		Map<String, String> parameters = resource.getParameters();
+		if (parameters == null || parameters.get(name) == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(parameters.get(name).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * A search for a term in a single resource
+	 */
+	private class Search implements Callable<List<Entity>> {
+		private final Resource resource;
+		private final Entity resourcePath;
+		private final FindInformationInterface findInformation;
+		private final User user;
+
+		Search(Resource resource, Entity resourcePath,
+				FindInformationInterface findInformation, User user) {
+			this.resource = resource;
+			this.resourcePath = resourcePath;
+			this.findInformation = findInformation;
+			this.user = user;
+		}
+
+		@Override
+		public List<Entity> call() {
+			return find((PathResourceImplementationInterface) resource.getImplementingInterface(),
+					resourcePath, findInformation, user);
+		}
+	}
+
+	/**
+	 * Traverses a single path while holding a permit of its resource. The
+	 * permit is released once, either when the traversal ends or when it is
+	 * cancelled before it started.
+	 */
+	private class PathTraversal implements Callable<List<Entity>> {
+		private final Resource resource;
+		private final Entity resourcePath;
+		private final OntologyRelationship relationship;
+		private final User user;
+		private final Semaphore permits;
+		private final long deadline;
+		private final AtomicBoolean released = new AtomicBoolean();
+		private Future<List<Entity>> future;
+
+		PathTraversal(Resource resource, Entity resourcePath, OntologyRelationship relationship,
+				User user, Semaphore permits, long deadline) {
+			this.resource = resource;
+			this.resourcePath = resourcePath;
+			this.relationship = relationship;
+			this.user = user;
+			this.permits = permits;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public List<Entity> call() throws ResourceInterfaceException {
+			try {
+				return traversePath(resource, resourcePath, relationship, user);
+			} finally {
+				release();
+			}
+		}
+
+		List<Entity> get() throws ResourceInterfaceException, InterruptedException {
+			try {
+				return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				throw new ResourceInterfaceException("Timed out traversing " + resourcePath.getPui());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof ResourceInterfaceException) {
+					throw (ResourceInterfaceException) e.getCause();
+				}
+				logger.error("traversePaths() Exception:", e.getCause());
+				throw new ResourceInterfaceException(String.valueOf(e.getCause().getMessage()));
+			}
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				permits.release();
+			}
+		}
+	}
 }
@@ -13,19 +13,34 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultDataType;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.FileResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.IndexedFileResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,6 +66,9 @@ public class ResultController {
 	@Inject
 	private IRCTEventListener irctEventListener;
 
+	@Inject
+	private ResultStatusRegistry resultStatusRegistry;
+
 	/**
 	 * Returns a list of results that are available for the user to download
 	 * 
@@ -113,14 +131,7 @@ public class ResultController {
 			return null;
 		}
 		
-		List<DataConverterImplementation> rdc = irctApp
-				.getResultDataConverters().get(results.get(0).getDataType());
-
-		List<String> converterNames = new ArrayList<String>();
-		for (DataConverterImplementation rd : rdc) {
-			converterNames.add(rd.getFormat());
-		}
-		return converterNames;
+		return getAvailableFormats(results.get(0).getDataType());
 	}
 
 	/**
@@ -193,9 +204,156 @@ public class ResultController {
 		return results.get(0);
 	}
 
+	/**
+	 * Returns the latest status of a result if the user has access to it.
+	 * The status is read from the result status registry, only results that
+	 * are not in the registry are read from the database. Unlike the other
+	 * methods no result events are fired.
+	 * 
+	 * @param user
+	 *            User
+	 * @param resultId
+	 *            Result Id
+	 * @return Status of the result, or null if the result is not found
+	 */
+	public ResultStatusRegistry.Entry getResultStatusEntry(User user, Long resultId) {
+		ResultStatusRegistry.Entry entry = resultStatusRegistry.get(resultId);
+		if (entry == null) {
+			List<Result> results = findResults(user, resultId);
+			if ((results == null) || (results.isEmpty())) {
+				return null;
+			}
+			// Results that are still running may be updated by another node,
+			// so only final states are kept
+			entry = new ResultStatusRegistry.Entry(results.get(0));
+			if (entry.isFinal()) {
+				resultStatusRegistry.update(results.get(0));
+			}
+			return entry;
+		}
+		if (!entry.isAccessibleBy(user)) {
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the latest status of many results at once. Results that are not
+	 * in the result status registry are read from the database with a single
+	 * query. The row count is added to available tabular results, and is kept
+	 * in the registry so it is only read once.
+	 * 
+	 * @param user
+	 *            User
+	 * @param resultIds
+	 *            Result Ids
+	 * @return Status of the results the user has access to, by result id
+	 */
+	public Map<Long, ResultStatusRegistry.Entry> getResultStatusEntries(User user, Collection<Long> resultIds) {
+		Map<Long, ResultStatusRegistry.Entry> entries = new LinkedHashMap<Long, ResultStatusRegistry.Entry>();
+		Set<Long> missing = new LinkedHashSet<Long>();
+		for (Long resultId : resultIds) {
+			ResultStatusRegistry.Entry entry = resultStatusRegistry.get(resultId);
+			if (entry == null) {
+				missing.add(resultId);
+			} else if (entry.isAccessibleBy(user)) {
+				entries.put(resultId, entry);
+			}
+		}
+
+		if (!missing.isEmpty()) {
+			CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+
+			CriteriaQuery<Result> criteria = cb.createQuery(Result.class);
+			Root<Result> resultRoot = criteria.from(Result.class);
+			criteria.select(resultRoot);
+
+			Predicate restrictions = cb.or(cb.isNull(resultRoot.get("user")),
+					cb.equal(resultRoot.get("user"), user));
+			restrictions = cb.and(restrictions, resultRoot.get("id").in(missing));
+			criteria.where(restrictions);
+
+			for (Result result : entityManager.createQuery(criteria).getResultList()) {
+				ResultStatusRegistry.Entry entry = new ResultStatusRegistry.Entry(result);
+				if (entry.isFinal()) {
+					entry = resultStatusRegistry.update(result);
+				}
+				entries.put(result.getId(), entry);
+			}
+		}
+
+		for (Map.Entry<Long, ResultStatusRegistry.Entry> entry : entries.entrySet()) {
+			ResultStatusRegistry.Entry status = entry.getValue();
+			if (status.getRowCount() == null && status.getResultStatus() == ResultStatus.AVAILABLE
+					&& status.getDataType() == ResultDataType.TABULAR) {
+				Long rowCount = readRowCount(status.getResultSetLocation());
+				if (rowCount != null) {
+					entry.setValue(resultStatusRegistry.setRowCount(status, rowCount));
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the formats a result of the given data type can be downloaded
+	 * in
+	 * 
+	 * @param dataType
+	 *            Data Type
+	 * @return Available Formats
+	 */
+	public List<String> getAvailableFormats(ResultDataType dataType) {
+		List<String> converterNames = new ArrayList<String>();
+		List<DataConverterImplementation> rdc = irctApp
+				.getResultDataConverters().get(dataType);
+		if (rdc != null) {
+			for (DataConverterImplementation rd : rdc) {
+				converterNames.add(rd.getFormat());
+			}
+		}
+		return converterNames;
+	}
+
+	/**
+	 * Reads the number of rows from the info file of a persisted result set,
+	 * without opening the result set itself
+	 */
+	private Long readRowCount(String resultSetLocation) {
+		if (resultSetLocation == null) {
+			return null;
+		}
+		Path infoFile = Paths.get(resultSetLocation + ".info");
+		if (!Files.isReadable(infoFile)) {
+			return null;
+		}
+		try (JsonReader jsonReader = Json.createReader(Files.newBufferedReader(infoFile, StandardCharsets.UTF_8))) {
+			JsonObject info = jsonReader.readObject();
+			if (!info.containsKey("size")) {
+				return null;
+			}
+			return info.getJsonNumber("size").longValue();
+		} catch (IOException | JsonException | ClassCastException e) {
+			logger.log(Level.FINE, "readRowCount() Unable to read " + infoFile, e);
+			return null;
+		}
+	}
+
 	private List<Result> getResults(User user, Long resultId) {
 		irctEventListener.beforeGetResult(user, resultId);
+
+		List<Result> results = findResults(user, resultId);
+
+		if ((results == null) || (results.isEmpty())) {
+			return null;
+		}
+		
+		irctEventListener.afterGetResult(results.get(0));
 		
+		return results;
+	}
+
+	private List<Result> findResults(User user, Long resultId) {
 		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
 
 		CriteriaQuery<Result> criteria = cb.createQuery(Result.class);
@@ -210,15 +368,7 @@ public class ResultController {
 				cb.equal(resultRoot.get("id"), resultId));
 		criteria.where(restrictions);
 
-		List<Result> results = entityManager.createQuery(criteria).getResultList();
-
-		if ((results == null) || (results.isEmpty())) {
-			return null;
-		}
-		
-		irctEventListener.afterGetResult(results.get(0));
-		
-		return results;
+		return entityManager.createQuery(criteria).getResultList();
 	}
 
 	/**
@@ -241,12 +391,19 @@ public class ResultController {
 		result.setStartTime(new Date());
 		
 		if (resultDataType == ResultDataType.TABULAR) {
-			FileResultSet frs = new FileResultSet();
-			frs.persist(irctApp.getResultDataFolder()
-					+ "/" + result.getId());
+			if ("indexed".equalsIgnoreCase(irctApp.getResultSetFormat())) {
+				IndexedFileResultSet ifrs = new IndexedFileResultSet();
+				ifrs.persist(irctApp.getResultDataFolder()
+						+ "/" + result.getId());
+				result.setData(ifrs);
+			} else {
+				FileResultSet frs = new FileResultSet();
+				frs.persist(irctApp.getResultDataFolder()
+						+ "/" + result.getId());
+				result.setData(frs);
+			}
 			result.setResultSetLocation(irctApp.getResultDataFolder()
 					+ "/" + result.getId());
-			result.setData(frs);
 		} else if (resultDataType == ResultDataType.JSON) {
 			throw new PersistableException("ResultDataType JSON is not implemented");
 		} else {
@@ -268,6 +425,7 @@ public class ResultController {
 	public void mergeResult(Result result) {
 		irctEventListener.beforeSaveResult(result);
 		entityManager.merge(result);
+		resultStatusRegistry.update(result);
 		irctEventListener.afterSaveResult(result);
 	}
 
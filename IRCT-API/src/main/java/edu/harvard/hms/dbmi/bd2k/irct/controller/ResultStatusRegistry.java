@@ -0,0 +1,268 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.controller;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest status of results in memory, so polling the status of a
+ * result does not have to query the database. The execution controller
+ * updates the registry whenever the status of a result changes, listeners
+ * can be added to be told about the updates of a result until they are
+ * removed.
+ *
+ * The registry only knows about the results that were run or read on this
+ * node. A result that is not in the registry has to be read from the
+ * database.
+ */
+@ApplicationScoped
+public class ResultStatusRegistry {
+	public static final long MAXIMUM_SIZE = 10000;
+	public static final long EXPIRE_AFTER_ACCESS = 3600;
+
+	private final Cache<Long, Entry> entries = CacheBuilder.newBuilder()
+			.maximumSize(MAXIMUM_SIZE)
+			.expireAfterAccess(EXPIRE_AFTER_ACCESS, TimeUnit.SECONDS).build();
+
+	private final ConcurrentMap<Long, List<Listener>> listeners = new ConcurrentHashMap<Long, List<Listener>>();
+
+	/**
+	 * Returns the latest status of a result
+	 *
+	 * @param resultId
+	 *            Result Id
+	 * @return Status, or null if the result is not known
+	 */
+	public Entry get(Long resultId) {
+		if (resultId == null) {
+			return null;
+		}
+		return entries.getIfPresent(resultId);
+	}
+
+	/**
+	 * Records the current status of a result and tells the listeners of that
+	 * result about it
+	 *
+	 * @param result
+	 *            Result
+	 * @return Status that was recorded, or null if the result has no id yet
+	 */
+	public Entry update(Result result) {
+		if (result == null || result.getId() == null) {
+			return null;
+		}
+		Entry entry = new Entry(result);
+		entries.put(entry.getResultId(), entry);
+
+		List<Listener> resultListeners = listeners.get(entry.getResultId());
+		if (resultListeners != null) {
+			for (Listener listener : resultListeners) {
+				listener.statusChanged(entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Adds a listener that is told about every update of the status of a
+	 * result, including updates that do not change the status. The listener
+	 * is kept until it is removed, it may remove itself while it is told.
+	 *
+	 * @param resultId
+	 *            Result Id
+	 * @param listener
+	 *            Listener
+	 */
+	public void addListener(Long resultId, Listener listener) {
+		List<Listener> resultListeners = listeners.get(resultId);
+		if (resultListeners == null) {
+			List<Listener> newListeners = new CopyOnWriteArrayList<Listener>();
+			resultListeners = listeners.putIfAbsent(resultId, newListeners);
+			if (resultListeners == null) {
+				resultListeners = newListeners;
+			}
+		}
+		resultListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener
+	 *
+	 * @param resultId
+	 *            Result Id
+	 * @param listener
+	 *            Listener
+	 */
+	public void removeListener(Long resultId, Listener listener) {
+		List<Listener> resultListeners = listeners.get(resultId);
+		if (resultListeners != null) {
+			resultListeners.remove(listener);
+			if (resultListeners.isEmpty()) {
+				listeners.remove(resultId, resultListeners);
+			}
+		}
+	}
+
+	/**
+	 * Records the number of rows of a result, if the status of the result has
+	 * not changed since the given entry was recorded
+	 *
+	 * @param entry
+	 *            Status the row count belongs to
+	 * @param rowCount
+	 *            Number of rows
+	 * @return Status with the row count
+	 */
+	public Entry setRowCount(Entry entry, long rowCount) {
+		Entry counted = entry.withRowCount(rowCount);
+		entries.asMap().replace(entry.getResultId(), entry, counted);
+		return counted;
+	}
+
+	/**
+	 * Removes a result
+	 *
+	 * @param resultId
+	 *            Result Id
+	 */
+	public void invalidate(Long resultId) {
+		entries.invalidate(resultId);
+	}
+
+	/**
+	 * Is told about the updates of the status of a result
+	 */
+	public interface Listener {
+		void statusChanged(Entry entry);
+	}
+
+	/**
+	 * The status of a result at the time it was recorded
+	 */
+	public static final class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final Long resultId;
+		private final String userId;
+		private final String resourceActionId;
+		private final ResultStatus resultStatus;
+		private final Date startTime;
+		private final Date endTime;
+		private final ResultDataType dataType;
+		private final String resultSetLocation;
+		private final String message;
+		private final Long rowCount;
+
+		Entry(Result result) {
+			this.resultId = result.getId();
+			this.userId = result.getUser() == null ? null : result.getUser().getUserId();
+			this.resourceActionId = result.getResourceActionId();
+			this.resultStatus = result.getResultStatus();
+			this.startTime = copy(result.getStartTime());
+			this.endTime = copy(result.getEndTime());
+			this.dataType = result.getDataType();
+			this.resultSetLocation = result.getResultSetLocation();
+			this.message = result.getMessage();
+			this.rowCount = null;
+		}
+
+		private Entry(Entry entry, Long rowCount) {
+			this.resultId = entry.resultId;
+			this.userId = entry.userId;
+			this.resourceActionId = entry.resourceActionId;
+			this.resultStatus = entry.resultStatus;
+			this.startTime = entry.startTime;
+			this.endTime = entry.endTime;
+			this.dataType = entry.dataType;
+			this.resultSetLocation = entry.resultSetLocation;
+			this.message = entry.message;
+			this.rowCount = rowCount;
+		}
+
+		Entry withRowCount(long rowCount) {
+			return new Entry(this, rowCount);
+		}
+
+		/**
+		 * Returns true if the user has access to the result
+		 *
+		 * @param user
+		 *            User
+		 * @return Has access
+		 */
+		public boolean isAccessibleBy(User user) {
+			return userId == null || (user != null && userId.equals(user.getUserId()));
+		}
+
+		/**
+		 * Returns true if the status of the result will not change anymore
+		 *
+		 * @return Is final
+		 */
+		public boolean isFinal() {
+			return resultStatus == ResultStatus.AVAILABLE || resultStatus == ResultStatus.ERROR;
+		}
+
+		public Long getResultId() {
+			return resultId;
+		}
+
+		public String getResourceActionId() {
+			return resourceActionId;
+		}
+
+		public ResultStatus getResultStatus() {
+			return resultStatus;
+		}
+
+		public Date getStartTime() {
+			return copy(startTime);
+		}
+
+		public Date getEndTime() {
+			return copy(endTime);
+		}
+
+		public ResultDataType getDataType() {
+			return dataType;
+		}
+
+		public String getResultSetLocation() {
+			return resultSetLocation;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * Returns the number of rows of the result
+		 *
+		 * @return Number of rows, or null if it is not known
+		 */
+		public Long getRowCount() {
+			return rowCount;
+		}
+
+		private static Date copy(Date date) {
+			return date == null ? null : new Date(date.getTime());
+		}
+	}
+}
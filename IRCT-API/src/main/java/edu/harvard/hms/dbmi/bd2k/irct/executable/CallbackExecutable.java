@@ -0,0 +1,23 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.executable;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
+
+/**
+ * An executable whose results can be handed to a callback once they are
+ * available, so the execution scheduler does not have to wait for them
+ */
+public interface CallbackExecutable extends Executable {
+	/**
+	 * Hands the results to the callback once they are available. The method
+	 * does not wait for the results, the callback may be called from another
+	 * thread or before the method returns.
+	 *
+	 * @param callback Callback that is handed the results
+	 * @throws ResourceInterfaceException An error occurred
+	 */
+	void getResults(ResultCallback callback) throws ResourceInterfaceException;
+}
@@ -3,54 +3,67 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package edu.harvard.hms.dbmi.bd2k.irct.executable;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import edu.harvard.hms.dbmi.bd2k.irct.action.Action;
+import edu.harvard.hms.dbmi.bd2k.irct.action.CallbackAction;
 import edu.harvard.hms.dbmi.bd2k.irct.event.IRCTEventListener;
 import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
-import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import edu.harvard.hms.dbmi.bd2k.irct.util.Utilities;
 
 /**
  * A child node in an execution tree that can be executed. It can have children of its own.
  */
-public class ExecutableChildNode implements Executable {
+public class ExecutableChildNode implements CallbackExecutable {
 
 	private User user;
 	private boolean blocking;
 	private Action action;
-	private Map<String, Executable> children;
-	private Map<String, Result> childrenResults;
+	private Map<String, Executable> children = new LinkedHashMap<String, Executable>();
 	private ExecutableStatus state;
+	private ExecutionScheduler executionScheduler;
 	
 	private IRCTEventListener irctEventListener;
 
 	@Override
 	public void setup(User user) {
 		this.user = user;
-		this.children = new HashMap<String, Executable>();
-		this.childrenResults = new HashMap<String, Result>();
 		this.state = ExecutableStatus.CREATED;
 		this.irctEventListener = Utilities.getIRCTEventListener();
 	}
 
+	/**
+	 * Runs the children and then the action of this node. The calling thread
+	 * waits for the children, so this must not be called from a task of the
+	 * executor. Execution plans with an executor schedule the node instead.
+	 */
 	@Override
 	public void run() throws ResourceInterfaceException {
-		irctEventListener.beforeAction(user, action);
-		
-		if (isBlocking() && !children.isEmpty()) {
-			runSequentially();
-		} else if (!children.isEmpty()){
-			runConcurrently();
+		Map<String, Result> childrenResults = new LinkedHashMap<String, Result>();
+		if (!children.isEmpty()) {
+			childrenResults = getExecutionScheduler().runChildren(user,
+					children, isBlocking());
 		}
+		runAction(childrenResults);
+	}
+
+	/**
+	 * Runs the action of this node once the results of its children are
+	 * available
+	 * 
+	 * @param childrenResults Results of the children keyed by their id
+	 * @throws ResourceInterfaceException An error occurred
+	 */
+	void runAction(Map<String, Result> childrenResults) throws ResourceInterfaceException {
+		if (irctEventListener != null) {
+			irctEventListener.beforeAction(user, action);
+		}
+		
 		if(!childrenResults.isEmpty()) {
 			action.updateActionParams(childrenResults);
 		}
@@ -59,39 +72,20 @@ public class ExecutableChildNode implements Executable {
 		this.action.run(this.user);
 		this.state = ExecutableStatus.COMPLETED;
 		
-		irctEventListener.afterAction(user, action);
-	}
-
-	private void runSequentially() throws ResourceInterfaceException {
-		for (String key : this.children.keySet()) {
-			Executable executable = this.children.get(key);
-			executable.setup(this.user);
-			executable.run();
-			childrenResults.put(key, executable.getResults());
+		if (irctEventListener != null) {
+			irctEventListener.afterAction(user, action);
 		}
 	}
 
-	private void runConcurrently() {
-		List<ExecutorThread> myThreads = new ArrayList<ExecutorThread>();
-		for (String key : this.children.keySet()) {
-			myThreads.add(new ExecutorThread(key, this.children.get(key),
-					this.user));
-		}
-		ExecutorService taskExecutor = Executors.newFixedThreadPool(10);
-		for (ExecutorThread executorThread : myThreads) {
-			taskExecutor.execute(executorThread);
-		}
-		taskExecutor.shutdown();
-		try {
-			taskExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-
-		for (ExecutorThread executorThread : myThreads) {
-			childrenResults.put(executorThread.getId(),
-					executorThread.getResult());
+	private ExecutionScheduler getExecutionScheduler() throws ResourceInterfaceException {
+		if (this.executionScheduler == null) {
+			ExecutorService executor = Utilities.getManagedExecutorService();
+			if (executor == null) {
+				throw new ResourceInterfaceException("Unable to find the managed executor service");
+			}
+			this.executionScheduler = new ExecutionScheduler(executor);
 		}
+		return this.executionScheduler;
 	}
 
 	@Override
@@ -104,6 +98,15 @@ public class ExecutableChildNode implements Executable {
 		return this.action.getResults(this.user);
 	}
 
+	@Override
+	public void getResults(ResultCallback callback) throws ResourceInterfaceException {
+		if (this.action instanceof CallbackAction) {
+			((CallbackAction) this.action).getResults(this.user, callback);
+		} else {
+			callback.onResult(this.action.getResults(this.user));
+		}
+	}
+
 	/**
 	 * Returns the action that is to be executed
 	 * 
@@ -123,79 +126,53 @@ public class ExecutableChildNode implements Executable {
 	}
 
 	/**
-	 * Returns if the actions should be run synchronously
+	 * Adds a child whose result is passed to the action of this node
 	 * 
-	 * TRUE - Synchronously
-	 * FALSE - Asynchronously
-	 * @return Blocking
+	 * @param id Id of the child
+	 * @param child Child executable
 	 */
-	public boolean isBlocking() {
-		return blocking;
+	public void addChild(String id, Executable child) {
+		this.children.put(id, child);
 	}
 
 	/**
-	 * Sets if the actions should be run synchronously
-	 * 
-	 * TRUE - Synchronously
-	 * FALSE - Asynchronously
+	 * Returns the children of this node keyed by their id
 	 * 
-	 * @param blocking Blocking
+	 * @return Children
 	 */
-	public void setBlocking(boolean blocking) {
-		this.blocking = blocking;
+	public Map<String, Executable> getChildren() {
+		return children;
 	}
-}
-
-/**
- * A subclass that implements a runnable execution thread for actions
- */
-class ExecutorThread implements Runnable {
-
-	private String id;
-	private User user;
-	private Executable executable;
-	private Result result;
 
 	/**
-	 * Create the executor thread with the executable component
+	 * Sets the scheduler that is used to run the children
 	 * 
-	 * @param id Id of the executable
-	 * @param executable Executable
-	 * @param session Session to run it in
+	 * @param executionScheduler Execution scheduler
 	 */
-	public ExecutorThread(String id, Executable executable,
-			User user) {
-		this.user = user;
-		this.executable = executable;
-	}
-
-	@Override
-	public void run() {
-		executable.setup(this.user);
-		try {
-			executable.run();
-			this.result = executable.getResults();
-		} catch (ResourceInterfaceException e) {
-			result.setResultStatus(ResultStatus.ERROR);
-		}
+	public void setExecutionScheduler(ExecutionScheduler executionScheduler) {
+		this.executionScheduler = executionScheduler;
 	}
 
 	/**
-	 * Returns the results
+	 * Returns if the actions should be run synchronously
 	 * 
-	 * @return Results
+	 * TRUE - Synchronously
+	 * FALSE - Asynchronously
+	 * @return Blocking
 	 */
-	public Result getResult() {
-		return this.result;
+	public boolean isBlocking() {
+		return blocking;
 	}
 
 	/**
-	 * Sets the results
+	 * Sets if the actions should be run synchronously
+	 * 
+	 * TRUE - Synchronously
+	 * FALSE - Asynchronously
 	 * 
-	 * @return Results
+	 * @param blocking Blocking
 	 */
-	public String getId() {
-		return this.id;
+	public void setBlocking(boolean blocking) {
+		this.blocking = blocking;
 	}
-
-}
\ No newline at end of file
+}
@@ -4,8 +4,10 @@
 package edu.harvard.hms.dbmi.bd2k.irct.executable;
 
 import edu.harvard.hms.dbmi.bd2k.irct.action.Action;
+import edu.harvard.hms.dbmi.bd2k.irct.action.CallbackAction;
 import edu.harvard.hms.dbmi.bd2k.irct.event.IRCTEventListener;
 import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import edu.harvard.hms.dbmi.bd2k.irct.util.Utilities;
@@ -14,7 +16,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.util.Utilities;
  * A leaf node in an execution tree that can be executed. It does not have any
  * children
  */
-public class ExecutableLeafNode implements Executable {
+public class ExecutableLeafNode implements CallbackExecutable {
 
 	private User user;
 	private Action action;
@@ -51,6 +53,15 @@ public class ExecutableLeafNode implements Executable {
 		return this.action.getResults(this.user);
 	}
 
+	@Override
+	public void getResults(ResultCallback callback) throws ResourceInterfaceException {
+		if (this.action instanceof CallbackAction) {
+			((CallbackAction) this.action).getResults(this.user, callback);
+		} else {
+			callback.onResult(this.action.getResults(this.user));
+		}
+	}
+
 	/**
 	 * Returns the action that is to be executed
 	 * 
@@ -0,0 +1,126 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.executable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.harvard.hms.dbmi.bd2k.irct.controller.ResultStatusRegistry;
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+/**
+ * An executable that waits for a result that is already running, so an
+ * action that uses that result as an input is only run once it is available.
+ * The status of the result is read from the result status registry, and the
+ * result is handed over by a listener of the registry once it is final, so no
+ * thread waits for it.
+ */
+public class ExecutableResultNode implements CallbackExecutable {
+	private final ResultStatusRegistry resultStatusRegistry;
+	private final Long resultId;
+
+	private volatile ExecutableStatus state;
+
+	/**
+	 * Creates an executable that waits for a result
+	 *
+	 * @param resultStatusRegistry Registry the status of the result is read from
+	 * @param resultId Id of the result
+	 */
+	public ExecutableResultNode(ResultStatusRegistry resultStatusRegistry,
+			Long resultId) {
+		this.resultStatusRegistry = resultStatusRegistry;
+		this.resultId = resultId;
+	}
+
+	@Override
+	public void setup(User user) {
+		this.state = ExecutableStatus.CREATED;
+	}
+
+	@Override
+	public void run() throws ResourceInterfaceException {
+		this.state = ExecutableStatus.RUNNING;
+	}
+
+	@Override
+	public ExecutableStatus getStatus() {
+		return this.state;
+	}
+
+	/**
+	 * Waits until the result is final. The calling thread is blocked, so this
+	 * must not be called from a task of the executor.
+	 */
+	@Override
+	public Result getResults() throws ResourceInterfaceException {
+		final CountDownLatch finished = new CountDownLatch(1);
+		final Result[] finalResult = new Result[1];
+		getResults(new ResultCallback() {
+			@Override
+			public void onResult(Result result) {
+				finalResult[0] = result;
+				finished.countDown();
+			}
+		});
+		try {
+			finished.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResourceInterfaceException(
+					"Interrupted while waiting for result " + resultId);
+		}
+		return finalResult[0];
+	}
+
+	@Override
+	public void getResults(final ResultCallback callback) {
+		final AtomicBoolean handedOver = new AtomicBoolean();
+		ResultStatusRegistry.Listener listener = new ResultStatusRegistry.Listener() {
+			@Override
+			public void statusChanged(ResultStatusRegistry.Entry entry) {
+				if (entry.isFinal() && handedOver.compareAndSet(false, true)) {
+					resultStatusRegistry.removeListener(resultId, this);
+					handOver(entry, callback);
+				}
+			}
+		};
+
+		resultStatusRegistry.addListener(resultId, listener);
+		// The status may have changed before the listener was added
+		ResultStatusRegistry.Entry entry = resultStatusRegistry.get(resultId);
+		if ((entry == null || entry.isFinal())
+				&& handedOver.compareAndSet(false, true)) {
+			resultStatusRegistry.removeListener(resultId, listener);
+			handOver(entry, callback);
+		}
+	}
+
+	private void handOver(ResultStatusRegistry.Entry entry,
+			ResultCallback callback) {
+		Result result = new Result();
+		result.setId(resultId);
+		if (entry != null && entry.getResultStatus() == ResultStatus.ERROR) {
+			result.setResultStatus(ResultStatus.ERROR);
+			result.setMessage(entry.getMessage());
+		} else {
+			result.setResultStatus(ResultStatus.COMPLETE);
+		}
+		this.state = ExecutableStatus.COMPLETED;
+		callback.onResult(result);
+	}
+
+	/**
+	 * Returns the id of the result that is waited for
+	 *
+	 * @return Result Id
+	 */
+	public Long getResultId() {
+		return resultId;
+	}
+}
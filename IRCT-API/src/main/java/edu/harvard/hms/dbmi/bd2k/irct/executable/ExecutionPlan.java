@@ -3,9 +3,11 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package edu.harvard.hms.dbmi.bd2k.irct.executable;
 
+import java.util.concurrent.ExecutorService;
 
 import edu.harvard.hms.dbmi.bd2k.irct.event.IRCTEventListener;
 import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import edu.harvard.hms.dbmi.bd2k.irct.util.Utilities;
@@ -23,6 +25,7 @@ public class ExecutionPlan {
 	private Executable executable;
 	private Result results;
 	private User user;
+	private ExecutorService executor;
 
 	private IRCTEventListener irctEventListener;
 	
@@ -42,6 +45,20 @@ public class ExecutionPlan {
 		this.irctEventListener = Utilities.getIRCTEventListener();
 	}
 
+	/**
+	 * Setup the execution plan with the base executable and the shared
+	 * executor that child executables are scheduled on
+	 * 
+	 * @param executable
+	 *            Base executable
+	 * @param user User to run as
+	 * @param executor Shared executor
+	 */
+	public void setup(Executable executable, User user, ExecutorService executor) {
+		setup(executable, user);
+		this.executor = executor;
+	}
+
 	/**
 	 * Run the base execution plan
 	 */
@@ -50,6 +67,10 @@ public class ExecutionPlan {
 		
 		this.status = ExecutableStatus.RUNNING;
 		try {
+			if ((this.executor != null) && (this.executable instanceof ExecutableChildNode)) {
+				((ExecutableChildNode) this.executable)
+						.setExecutionScheduler(new ExecutionScheduler(this.executor));
+			}
 			this.executable.setup(user);
 			this.executable.run();
 			this.results = this.executable.getResults();
@@ -61,6 +82,37 @@ public class ExecutionPlan {
 		irctEventListener.afterExecutionPlan(user, executable);
 	}
 
+	/**
+	 * Run the base execution plan without waiting for it. If the plan has a
+	 * shared executor the executables are scheduled on it and the callback is
+	 * called once the results are available, otherwise the plan is run on the
+	 * calling thread.
+	 * 
+	 * @param callback
+	 *            Callback that is handed the results, a result with an ERROR
+	 *            status if the plan failed
+	 */
+	public void run(final ResultCallback callback) {
+		if (this.executor == null) {
+			run();
+			callback.onResult(this.results);
+			return;
+		}
+
+		irctEventListener.beforeExecutionPlan(user, executable);
+		this.status = ExecutableStatus.RUNNING;
+		new ExecutionScheduler(this.executor).run(user, executable,
+				new ResultCallback() {
+					@Override
+					public void onResult(Result result) {
+						results = result;
+						status = ExecutableStatus.COMPLETED;
+						irctEventListener.afterExecutionPlan(user, executable);
+						callback.onResult(result);
+					}
+				});
+	}
+
 	/**
 	 * Return the results of the execution plan if they are available
 	 * 
@@ -0,0 +1,525 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.executable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import edu.harvard.hms.dbmi.bd2k.irct.action.Action;
+import edu.harvard.hms.dbmi.bd2k.irct.action.ProcessAction;
+import edu.harvard.hms.dbmi.bd2k.irct.action.QueryAction;
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.Resource;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+/**
+ * Runs the children of an executable node as a dependency graph on a shared
+ * executor. A node is submitted as soon as all of its own children have
+ * completed. Executables whose results are not available when they have run,
+ * such as running queries or results of other plans, hand them over through a
+ * callback, and their node is completed on the executor once they do. No task
+ * of run therefore waits for another task, and a plan only holds an executor
+ * thread while one of its executables is doing work.
+ *
+ * runChildren is the exception: its calling thread waits until all children
+ * have completed, so it must not be called from a task of the same executor.
+ *
+ * The number of actions running against a single resource at the same time
+ * is capped by the resourceConcurrency parameter of the resource, further
+ * actions for that resource are queued until a slot is released. The first
+ * failure stops any further scheduling and is rethrown to the caller.
+ */
+public class ExecutionScheduler {
+	public static final int DEFAULT_RESOURCE_CONCURRENCY = 4;
+
+	private static Logger logger = Logger.getLogger(ExecutionScheduler.class);
+	private static final ConcurrentMap<String, ResourceSlots> resourceSlots = new ConcurrentHashMap<String, ResourceSlots>();
+
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a scheduler that runs on the given executor
+	 *
+	 * @param executor
+	 *            Shared executor
+	 */
+	public ExecutionScheduler(ExecutorService executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("An executor is required");
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * Runs the children and waits until all of them have completed. The
+	 * calling thread is blocked, so this must not be called from a task of
+	 * the executor.
+	 *
+	 * @param user
+	 *            User running the children
+	 * @param children
+	 *            Children keyed by their id
+	 * @param sequential
+	 *            TRUE - The children are run one after another
+	 *            FALSE - The children are run concurrently
+	 * @return Results of the children keyed by their id
+	 * @throws ResourceInterfaceException
+	 *             A child failed or the wait was interrupted
+	 */
+	public Map<String, Result> runChildren(User user,
+			Map<String, Executable> children, boolean sequential)
+			throws ResourceInterfaceException {
+		ScheduledNode root = new ScheduledNode(null, null, null);
+		root.addChildren(children, sequential);
+		if (root.children.isEmpty()) {
+			return root.childrenResults;
+		}
+
+		final CountDownLatch done = new CountDownLatch(1);
+		ScheduledRun run = new ScheduledRun(user) {
+			@Override
+			void finished() {
+				done.countDown();
+			}
+		};
+		run.start(root);
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			run.fail(new ResourceInterfaceException(
+					"Interrupted while waiting for child executables"));
+			Thread.currentThread().interrupt();
+		}
+
+		if (run.failure != null) {
+			throw run.failure;
+		}
+		return root.childrenResults;
+	}
+
+	/**
+	 * Runs an executable and its children without waiting for them. The
+	 * callback is handed the result of the executable once it is available,
+	 * or a result with an ERROR status if the executable or one of its
+	 * children failed.
+	 *
+	 * @param user
+	 *            User running the executable
+	 * @param executable
+	 *            Executable
+	 * @param callback
+	 *            Callback that is handed the result
+	 */
+	public void run(User user, Executable executable,
+			final ResultCallback callback) {
+		final String id = "root";
+		Map<String, Executable> children = new LinkedHashMap<String, Executable>();
+		children.put(id, executable);
+		final ScheduledNode root = new ScheduledNode(null, null, null);
+		root.addChildren(children, false);
+
+		ScheduledRun run = new ScheduledRun(user) {
+			@Override
+			void finished() {
+				Result result;
+				if (failure != null) {
+					result = new Result();
+					result.setResultStatus(ResultStatus.ERROR);
+					result.setMessage(failure.getMessage());
+				} else {
+					result = root.childrenResults.get(id);
+				}
+				callback.onResult(result);
+			}
+		};
+		run.start(root);
+	}
+
+	private ResourceSlots getResourceSlots(Executable executable) {
+		if (!(executable instanceof ExecutableLeafNode || executable instanceof ExecutableChildNode)) {
+			return null;
+		}
+		Action action = (executable instanceof ExecutableLeafNode) ? ((ExecutableLeafNode) executable)
+				.getAction() : ((ExecutableChildNode) executable).getAction();
+
+		Resource resource = null;
+		if (action instanceof QueryAction) {
+			resource = ((QueryAction) action).getResource();
+		} else if (action instanceof ProcessAction) {
+			resource = ((ProcessAction) action).getResource();
+		}
+		if (resource == null || resource.getName() == null) {
+			return null;
+		}
+
+		int concurrency = getResourceConcurrency(resource);
+		ResourceSlots slots = resourceSlots.get(resource.getName());
+		if (slots == null) {
+			ResourceSlots newSlots = new ResourceSlots(concurrency);
+			slots = resourceSlots.putIfAbsent(resource.getName(), newSlots);
+			if (slots == null) {
+				return newSlots;
+			}
+		}
+		// The parameter may have changed since the slots were created
+		for (Runnable queued : slots.setPermits(concurrency)) {
+			queued.run();
+		}
+		return slots;
+	}
+
+	private static int getResourceConcurrency(Resource resource) {
+		Map<String, String> parameters = resource.getParameters();
+		if (parameters == null || parameters.get("resourceConcurrency") == null) {
+			return DEFAULT_RESOURCE_CONCURRENCY;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(parameters.get("resourceConcurrency").trim()));
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid resourceConcurrency " + parameters.get("resourceConcurrency")
+					+ " for " + resource.getName());
+			return DEFAULT_RESOURCE_CONCURRENCY;
+		}
+	}
+
+	/**
+	 * A single node of the dependency graph
+	 */
+	private class ScheduledNode {
+		private final String id;
+		private final Executable executable;
+		private final ScheduledNode parent;
+		private final List<ScheduledNode> children = new ArrayList<ScheduledNode>();
+		private final Map<String, Result> childrenResults = Collections
+				.synchronizedMap(new HashMap<String, Result>());
+		private boolean sequential;
+		private int nextChild;
+		private int remaining;
+
+		ScheduledNode(String id, Executable executable, ScheduledNode parent) {
+			this.id = id;
+			this.executable = executable;
+			this.parent = parent;
+		}
+
+		void addChildren(Map<String, Executable> executables, boolean sequential) {
+			this.sequential = sequential;
+			for (String key : executables.keySet()) {
+				Executable child = executables.get(key);
+				ScheduledNode childNode = new ScheduledNode(key, child, this);
+				if (child instanceof ExecutableChildNode) {
+					ExecutableChildNode childNodeExecutable = (ExecutableChildNode) child;
+					childNode.addChildren(childNodeExecutable.getChildren(),
+							childNodeExecutable.isBlocking());
+				}
+				this.children.add(childNode);
+			}
+			this.remaining = this.children.size();
+		}
+	}
+
+	/**
+	 * The state of one call to runChildren or run
+	 */
+	private abstract class ScheduledRun {
+		private final User user;
+		private final Set<Thread> running = new HashSet<Thread>();
+		private final AtomicBoolean finished = new AtomicBoolean();
+		protected volatile ResourceInterfaceException failure;
+
+		ScheduledRun(User user) {
+			this.user = user;
+		}
+
+		/**
+		 * Called once, when all nodes have completed or the first one failed
+		 */
+		abstract void finished();
+
+		private void finish() {
+			if (finished.compareAndSet(false, true)) {
+				finished();
+			}
+		}
+
+		void start(ScheduledNode node) {
+			if (node.children.isEmpty()) {
+				submit(node);
+				return;
+			}
+
+			List<ScheduledNode> ready = new ArrayList<ScheduledNode>();
+			synchronized (node) {
+				if (node.sequential) {
+					ready.add(node.children.get(node.nextChild++));
+				} else {
+					ready.addAll(node.children);
+					node.nextChild = node.children.size();
+				}
+			}
+			for (ScheduledNode child : ready) {
+				start(child);
+			}
+		}
+
+		void complete(ScheduledNode node, Result result) {
+			ScheduledNode parent = node.parent;
+			parent.childrenResults.put(node.id, result);
+
+			ScheduledNode next = null;
+			boolean parentReady;
+			synchronized (parent) {
+				parent.remaining--;
+				parentReady = parent.remaining == 0;
+				if (!parentReady && parent.sequential) {
+					next = parent.children.get(parent.nextChild++);
+				}
+			}
+
+			if (failure != null) {
+				return;
+			}
+			if (next != null) {
+				start(next);
+			} else if (parentReady) {
+				if (parent.parent == null) {
+					finish();
+				} else {
+					submit(parent);
+				}
+			}
+		}
+
+		void fail(ResourceInterfaceException e) {
+			synchronized (this) {
+				if (failure != null) {
+					return;
+				}
+				failure = e;
+				for (Thread thread : running) {
+					thread.interrupt();
+				}
+			}
+			finish();
+		}
+
+		void submit(final ScheduledNode node) {
+			if (failure != null) {
+				return;
+			}
+			final ResourceSlots slots = getResourceSlots(node.executable);
+			final AtomicBoolean released = new AtomicBoolean();
+			// The slot is held until the result is available, which may be
+			// after the task has returned
+			final Runnable releaseSlot = new Runnable() {
+				@Override
+				public void run() {
+					if (released.compareAndSet(false, true)) {
+						release(slots);
+					}
+				}
+			};
+			final Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					Thread thread = Thread.currentThread();
+					boolean handedOver = false;
+					try {
+						synchronized (ScheduledRun.this) {
+							if (failure != null) {
+								return;
+							}
+							running.add(thread);
+						}
+						handedOver = execute(node, releaseSlot);
+					} finally {
+						synchronized (ScheduledRun.this) {
+							running.remove(thread);
+						}
+						if (!handedOver) {
+							releaseSlot.run();
+						}
+					}
+				}
+			};
+
+			Runnable dispatcher = new Runnable() {
+				@Override
+				public void run() {
+					dispatch(task, releaseSlot);
+				}
+			};
+			if (slots == null || slots.acquire(dispatcher)) {
+				dispatch(task, releaseSlot);
+			}
+		}
+
+		private void dispatch(Runnable task, Runnable releaseSlot) {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				releaseSlot.run();
+				fail(new ResourceInterfaceException(
+						"Unable to schedule child executable: " + e.getMessage()));
+			}
+		}
+
+		private void release(ResourceSlots slots) {
+			if (slots == null) {
+				return;
+			}
+			Runnable queued = slots.release();
+			if (queued != null) {
+				queued.run();
+			}
+		}
+
+		/**
+		 * Runs a node. A node whose results are not available yet hands them
+		 * over through a callback, which completes the node on the executor
+		 * once they are.
+		 *
+		 * @return If the results were handed over to a callback
+		 */
+		private boolean execute(final ScheduledNode node,
+				final Runnable releaseSlot) {
+			try {
+				Executable executable = node.executable;
+				executable.setup(user);
+				if (executable instanceof ExecutableChildNode) {
+					((ExecutableChildNode) executable)
+							.runAction(node.childrenResults);
+				} else {
+					executable.run();
+				}
+
+				if (executable instanceof CallbackExecutable) {
+					((CallbackExecutable) executable)
+							.getResults(new ResultCallback() {
+								@Override
+								public void onResult(final Result result) {
+									continueWith(new Runnable() {
+										@Override
+										public void run() {
+											releaseSlot.run();
+											resultAvailable(node, result);
+										}
+									});
+								}
+							});
+					return true;
+				}
+				resultAvailable(node, executable.getResults());
+			} catch (ResourceInterfaceException e) {
+				fail(e);
+			} catch (RuntimeException e) {
+				logger.error("Child executable " + node.id + " failed", e);
+				fail(new ResourceInterfaceException(e.getMessage()));
+			}
+			return false;
+		}
+
+		/**
+		 * Runs the continuation of a node on the executor, or on the current
+		 * thread if the executor does not accept it
+		 */
+		private void continueWith(Runnable continuation) {
+			try {
+				executor.execute(continuation);
+			} catch (RejectedExecutionException e) {
+				logger.warn("Executor rejected the continuation, running it on "
+						+ Thread.currentThread().getName());
+				continuation.run();
+			}
+		}
+
+		private void resultAvailable(ScheduledNode node, Result result) {
+			if (result == null) {
+				fail(new ResourceInterfaceException("Child executable "
+						+ node.id + " did not return a result"));
+				return;
+			}
+			if (result.getResultStatus() == ResultStatus.ERROR) {
+				fail(new ResourceInterfaceException("Child executable "
+						+ node.id + " failed: " + result.getMessage()));
+				return;
+			}
+			complete(node, result);
+		}
+	}
+
+	/**
+	 * Limits the number of concurrent tasks that are running on a resource.
+	 * Tasks that can not run yet are kept in order and handed the slot of the
+	 * next task that completes.
+	 */
+	private static class ResourceSlots {
+		private int permits;
+		private int available;
+		private final Queue<Runnable> waiting = new LinkedList<Runnable>();
+
+		ResourceSlots(int permits) {
+			this.permits = permits;
+			this.available = permits;
+		}
+
+		/**
+		 * Changes the number of tasks that can run at the same time. Tasks
+		 * that are already running keep their slot.
+		 *
+		 * @return Waiting tasks that can run now
+		 */
+		synchronized List<Runnable> setPermits(int permits) {
+			available += permits - this.permits;
+			this.permits = permits;
+			List<Runnable> ready = new ArrayList<Runnable>();
+			while (available > 0 && !waiting.isEmpty()) {
+				available--;
+				ready.add(waiting.poll());
+			}
+			return ready;
+		}
+
+		synchronized boolean acquire(Runnable task) {
+			if (available > 0) {
+				available--;
+				return true;
+			}
+			waiting.add(task);
+			return false;
+		}
+
+		synchronized Runnable release() {
+			if (available < 0) {
+				// The number of slots was lowered while this task ran
+				available++;
+				return null;
+			}
+			Runnable next = waiting.poll();
+			if (next == null) {
+				available++;
+			}
+			return next;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.ontology.Entity;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+/**
+ * Provides an implementation that describes the API for any resource that
+ * caches the responses of the underlying service, so the cached responses can
+ * be removed once the service has changed.
+ */
+public interface CacheResourceImplementationInterface extends
+		ResourceImplementationInterface {
+
+	/**
+	 * Removes the cached responses of a path and of the paths below it that
+	 * are visible to a user
+	 *
+	 * @param path
+	 *            Path, or null for all paths of the resource
+	 * @param user
+	 *            User, or null for the responses of all users
+	 */
+	void invalidateCache(Entity path, User user);
+
+}
@@ -0,0 +1,33 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+/**
+ * Provides an implementation that describes the API for a resource that can
+ * signal when the results of a query are available, so that the results do
+ * not have to be polled for
+ */
+public interface CallbackQueryResourceImplementationInterface extends
+		QueryResourceImplementationInterface {
+	/**
+	 * Registers a callback that is called once with the result when the query
+	 * is complete or has errored. The callback may be called from any thread,
+	 * including the calling thread if the query has already finished.
+	 * 
+	 * @param user
+	 *            User running the query
+	 * @param result
+	 *            Result of the query
+	 * @param callback
+	 *            Callback
+	 * @throws ResourceInterfaceException
+	 *             A resource exception occurred
+	 */
+	void registerResultCallback(User user, Result result,
+			ResultCallback callback) throws ResourceInterfaceException;
+}
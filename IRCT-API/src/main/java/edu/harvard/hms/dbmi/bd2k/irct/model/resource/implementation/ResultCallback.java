@@ -0,0 +1,20 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+
+/**
+ * A callback that is notified once a result has finished running, either
+ * because it is complete or because an error occurred
+ */
+public interface ResultCallback {
+	/**
+	 * Called once the result is complete or has errored
+	 * 
+	 * @param result
+	 *            Result
+	 */
+	void onResult(Result result);
+}
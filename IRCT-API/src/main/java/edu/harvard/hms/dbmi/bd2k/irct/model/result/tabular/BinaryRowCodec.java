@@ -0,0 +1,243 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+
+/**
+ * Encodes and decodes rows into a typed binary representation. Each row is
+ * written as a four byte length followed by one entry per column. Every entry
+ * starts with a single byte marking the value as null or present, followed by
+ * the value in a fixed width encoding for the numeric data types, or a length
+ * prefixed UTF-8 string for all other data types.
+ */
+public final class BinaryRowCodec {
+	/**
+	 * Number of bytes used to store the length of a row
+	 */
+	public static final int ROW_HEADER_SIZE = 4;
+
+	private static final byte NULL_VALUE = 0;
+	private static final byte PRESENT_VALUE = 1;
+
+	private BinaryRowCodec() {
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode the given row, including
+	 * the row header
+	 *
+	 * @param columns
+	 *            Columns of the result set
+	 * @param row
+	 *            Row
+	 * @param strings
+	 *            Scratch array of at least the column size that will hold the
+	 *            UTF-8 encoding of any variable width values
+	 * @return Encoded size in bytes
+	 */
+	public static int encodedSize(Column[] columns, Row row, byte[][] strings) {
+		int size = ROW_HEADER_SIZE;
+		for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+			Object value = row.getColumn(columnIndex);
+			strings[columnIndex] = null;
+			size++;
+			if (value == null) {
+				continue;
+			}
+			int width = fixedWidth(columns[columnIndex].getDataType());
+			if (width != -1) {
+				size += width;
+			} else {
+				strings[columnIndex] = toText(
+						columns[columnIndex].getDataType(), value).getBytes(
+						StandardCharsets.UTF_8);
+				size += 4 + strings[columnIndex].length;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the row to the buffer. The buffer must have at least
+	 * encodedSize() bytes remaining, and encodedSize() must have been called
+	 * with the same strings array immediately before.
+	 *
+	 * @param columns
+	 *            Columns of the result set
+	 * @param row
+	 *            Row
+	 * @param strings
+	 *            UTF-8 encoded variable width values from encodedSize()
+	 * @param encodedSize
+	 *            The size returned by encodedSize()
+	 * @param buffer
+	 *            Buffer to write to
+	 */
+	public static void encode(Column[] columns, Row row, byte[][] strings,
+			int encodedSize, ByteBuffer buffer) {
+		buffer.putInt(encodedSize - ROW_HEADER_SIZE);
+		for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+			Object value = row.getColumn(columnIndex);
+			if (value == null) {
+				buffer.put(NULL_VALUE);
+				continue;
+			}
+			buffer.put(PRESENT_VALUE);
+
+			switch (columns[columnIndex].getDataType()) {
+			case BOOLEAN:
+				buffer.put((Boolean) value ? (byte) 1 : (byte) 0);
+				break;
+			case BYTE:
+				buffer.put((Byte) value);
+				break;
+			case DOUBLE:
+				buffer.putDouble(((Number) value).doubleValue());
+				break;
+			case FLOAT:
+				buffer.putFloat(((Number) value).floatValue());
+				break;
+			case INTEGER:
+				buffer.putInt(((Number) value).intValue());
+				break;
+			case LONG:
+			case RESULTSET:
+				buffer.putLong(((Number) value).longValue());
+				break;
+			default:
+				buffer.putInt(strings[columnIndex].length);
+				buffer.put(strings[columnIndex]);
+			}
+		}
+	}
+
+	/**
+	 * Reads a row from the buffer. The buffer must be positioned at the start
+	 * of the row header and will be positioned after the row when this
+	 * returns.
+	 *
+	 * @param columns
+	 *            Columns of the result set
+	 * @param buffer
+	 *            Buffer to read from
+	 * @return Row
+	 */
+	public static Row decode(Column[] columns, ByteBuffer buffer) {
+		buffer.getInt();
+		Row row = new Row(columns.length);
+		for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+			if (buffer.get() == NULL_VALUE) {
+				continue;
+			}
+
+			switch (columns[columnIndex].getDataType()) {
+			case BOOLEAN:
+				row.setColumn(columnIndex, buffer.get() == 1);
+				break;
+			case BYTE:
+				row.setColumn(columnIndex, buffer.get());
+				break;
+			case DOUBLE:
+				row.setColumn(columnIndex, buffer.getDouble());
+				break;
+			case FLOAT:
+				row.setColumn(columnIndex, buffer.getFloat());
+				break;
+			case INTEGER:
+				row.setColumn(columnIndex, buffer.getInt());
+				break;
+			case LONG:
+			case RESULTSET:
+				row.setColumn(columnIndex, buffer.getLong());
+				break;
+			default:
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				row.setColumn(columnIndex, new String(bytes,
+						StandardCharsets.UTF_8));
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * Returns the number of bytes used to store a value of the given data
+	 * type, or -1 if the data type is stored as a length prefixed string
+	 *
+	 * @param dataType
+	 *            Data type
+	 * @return Width in bytes
+	 */
+	public static int fixedWidth(PrimitiveDataType dataType) {
+		switch (dataType) {
+		case BOOLEAN:
+		case BYTE:
+			return 1;
+		case FLOAT:
+		case INTEGER:
+			return 4;
+		case DOUBLE:
+		case LONG:
+		case RESULTSET:
+			return 8;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes used by an entry of an encoded row,
+	 * including the byte that marks the value as null or present
+	 *
+	 * @param dataType
+	 *            Data type of the column
+	 * @param bytes
+	 *            Encoded rows
+	 * @param position
+	 *            Position of the entry
+	 * @return Size of the entry in bytes
+	 */
+	public static int entrySize(PrimitiveDataType dataType, byte[] bytes,
+			int position) {
+		if (bytes[position] == NULL_VALUE) {
+			return 1;
+		}
+		int width = fixedWidth(dataType);
+		if (width != -1) {
+			return 1 + width;
+		}
+		return 5 + ((bytes[position + 1] & 0xFF) << 24
+				| (bytes[position + 2] & 0xFF) << 16
+				| (bytes[position + 3] & 0xFF) << 8 | (bytes[position + 4] & 0xFF));
+	}
+
+	/**
+	 * Returns a value as the text it is stored as, if its data type is not
+	 * stored in a fixed width encoding
+	 *
+	 * @param dataType
+	 *            Data type of the column
+	 * @param value
+	 *            Value
+	 * @return Text
+	 */
+	static String toText(PrimitiveDataType dataType, Object value) {
+		if (value instanceof Date) {
+			String pattern = "yyyy-MM-dd HH:mm:ss";
+			if (dataType == PrimitiveDataType.DATE) {
+				pattern = "yyyy-MM-dd";
+			} else if (dataType == PrimitiveDataType.TIME) {
+				pattern = "HH:mm:ss";
+			}
+			return new SimpleDateFormat(pattern).format((Date) value);
+		}
+		return value.toString();
+	}
+}
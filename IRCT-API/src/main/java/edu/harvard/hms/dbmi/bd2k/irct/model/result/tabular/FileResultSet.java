@@ -12,10 +12,11 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.RowSetExeception;
 import javax.json.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.*;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -28,7 +29,8 @@ import java.util.*;
  * @author Jeremy R. Easton-Marks
  *
  */
-public class FileResultSet extends ResultSetImpl implements Persistable {
+public class FileResultSet extends ResultSetImpl implements Persistable,
+		JsonStreamable {
 	private long size;
 	private int maxReadSize = 40000;
 	private char DELIMITER = '\t';
@@ -42,14 +44,23 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 	private ByteBuffer read;
 	// private long rowPosition = -1;
 	private Row currentRow;
+	// Row that the read channel is positioned at the start of
+	private long fileRow = 0;
+	// Number of rows that have been written to the data file
+	private long persistedRows = 0;
+	private boolean temporaryDataFile = false;
 
 	private boolean persisted = false;
 
-	private Map<Long, Row> pendingData;
-	private int MAXPENDING = 100000;
+	private SortedMap<Long, Row> pendingData;
+	private int MAXPENDING = 10000;
+
+	private static final int WRITE_BUFFER_SIZE = 1048576;
+	private static final int JSON_READ_BUFFER_SIZE = 1048576;
+	private ByteBuffer writeBuffer;
 
 	public FileResultSet() {
-		this.pendingData = new HashMap<Long, Row>();
+		this.pendingData = new TreeMap<Long, Row>();
 	}
 
 	@Override
@@ -62,6 +73,10 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 	public void close() throws ResultSetException {
 		try {
 			dataReadFC.close();
+			// Remove rows that were written out but never persisted
+			if (this.temporaryDataFile) {
+				Files.deleteIfExists(dataFile);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -74,7 +89,9 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 
 		// Setup the initial variables
 		this.fileName = fileName;
-		this.pendingData = new HashMap<Long, Row>();
+		this.pendingData = new TreeMap<Long, Row>();
+		this.persistedRows = 0;
+		this.fileRow = 0;
 
 		// Initialize the buffer to read
 		read = ByteBuffer.allocate(maxReadSize);
@@ -114,7 +131,9 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 	}
 
 	/**
-	 * Adds a new row to the file result set
+	 * Adds a new row to the file result set. Once the maximum number of
+	 * pending rows has been reached the appended rows are written to the end
+	 * of the data file before the new row is added.
 	 * 
 	 * @throws ResultSetException
 	 *             If a ResultSetException occurs
@@ -126,8 +145,8 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 		if (isClosed()) {
 			throw new ResultSetException("ResultSet is closed");
 		}
-		if (this.pendingData.size() == MAXPENDING) {
-			throw new PersistableException("Maximum Pending Size Reached");
+		if (this.pendingData.size() >= MAXPENDING) {
+			spillPendingRows();
 		}
 
 		Row newRow = new Row(this.getColumnSize());
@@ -180,13 +199,13 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 			} else {
 				if (newRow == getRowPosition()) {
 					return true;
-				} else if (newRow > getRowPosition()) {
-					moveForward(newRow - getRowPosition());
-				} else {
-					moveBackward(getRowPosition() - newRow);
+				} else if (newRow > fileRow) {
+					moveForward(newRow - fileRow);
+				} else if (newRow < fileRow) {
+					moveBackward(fileRow - newRow);
 				}
-				this.setRowPosition(newRow);
 			}
+			this.fileRow = newRow;
 			this.setRowPosition(newRow);
 
 			// Read the line and load it as the currentRow
@@ -298,51 +317,48 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 
 	private void moveBackward(long rowMovement) throws IOException,
 			PersistableException {
-		long originalPosition = dataReadFC.position();
+		// The byte before the current position ends the previous row
+		long scanEnd = dataReadFC.position() - 1;
 		long currentCount = 0;
-		long offset = 0;
 
-		while (currentCount < rowMovement) {
-			long newPosition = originalPosition - offset - maxReadSize;
+		while (scanEnd > 0) {
+			long newPosition = scanEnd - maxReadSize;
 			if (newPosition <= 0) {
 				newPosition = 0;
 			}
 
 			dataReadFC.position(newPosition);
-
 			read.clear();
+			read.limit((int) (scanEnd - newPosition));
 			int nRead = dataReadFC.read(read);
 
-			byte[] byteArray = read.array();
-			int startPosition = nRead;
-			if (nRead >= originalPosition) {
-				startPosition = (int) originalPosition - 2;
+			if (nRead == -1) {
+				read.clear();
+				throw new PersistableException("Unable to find row");
 			}
-			for (int position = startPosition; position >= 0; position--) {
+
+			byte[] byteArray = read.array();
+			for (int position = nRead - 1; position >= 0; position--) {
 				char charRead = (char) byteArray[position];
 
 				if ((charRead == '\r') || (charRead == '\n')) {
 					currentCount++;
 					if (currentCount == rowMovement) {
-						dataReadFC.position(originalPosition - offset
-								- startPosition + position - 1);
-						break;
+						dataReadFC.position(newPosition + position + 1);
+						return;
 					}
 				}
 			}
-			offset += maxReadSize;
-
-			if (nRead == -1) {
-				read.clear();
-				throw new PersistableException("Unable to find row");
-			}
-
-			if ((newPosition == 0) && (currentCount < rowMovement)) {
-				read.clear();
-				throw new PersistableException("Unable to find row");
-			}
+			scanEnd = newPosition;
 		}
 
+		// The first row is not preceded by a new line
+		if (currentCount == rowMovement - 1) {
+			dataReadFC.position(0);
+			return;
+		}
+		read.clear();
+		throw new PersistableException("Unable to find row");
 	}
 
 	private Row loadCurrentLine() throws IOException, ResultSetException {
@@ -446,12 +462,21 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 		// Initialize the buffer to read
 		read = ByteBuffer.allocate(maxReadSize);
 		// Set up the paths
+		Path spilledDataFile = this.temporaryDataFile ? dataFile : null;
 		infoFile = Paths.get(fileName + ".info");
 		dataFile = Paths.get(fileName + ".data");
 		// Check to see if the file exists
 		try {
-			Files.createFile(dataFile);
+			if (spilledDataFile != null) {
+				// Move the rows that have already been written into place
+				dataReadFC.close();
+				Files.move(spilledDataFile, dataFile);
+				this.temporaryDataFile = false;
+			} else {
+				Files.createFile(dataFile);
+			}
 			dataReadFC = FileChannel.open(dataFile, StandardOpenOption.READ);
+			this.fileRow = 0;
 		} catch (IOException e) {
 			if (dataReadFC != null) {
 				try {
@@ -475,32 +500,16 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 					+ " has been persisted");
 		}
 
-		try (SeekableByteChannel dataOutStream = Files.newByteChannel(dataFile,
-				StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+		try {
 			// Write the information to the info File
 			Files.write(infoFile, toJson().toString().getBytes());
 
 			// Write pending data to file
-			Long[] keys = new Long[0];
-			keys = this.pendingData.keySet().toArray(keys);
-			Arrays.sort(keys);
-
-			for (Long key : keys) {
-				writeRowToFile(dataOutStream, this.pendingData.get(key));
-				ByteBuffer bb = ByteBuffer
-						.wrap(new byte[] { (byte) ((byte) '\n' & 0x00FF) });
-				dataOutStream.write(bb);
-			}
+			writePendingRows();
 
-			// Reset the FileChannel and position
-			dataReadFC.close();
-			dataReadFC = FileChannel.open(dataFile, StandardOpenOption.READ);
-
-			// Reset the variables and clear out the pending results
-			dataOutStream.close();
+			// Reset the variables
 			this.current = true;
 			this.persisted = true;
-			this.pendingData.clear();
 		} catch (IOException | ResultSetException e) {
 			throw new PersistableException("Unable to persist the result set",
 					e);
@@ -518,43 +527,15 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 			return;
 		}
 
-		// Create temporary file
-		Path tempDataFile = Paths.get(fileName + ".temp");
-
-		// Write all changes to temporary file
-		try (SeekableByteChannel dataOutStream = Files.newByteChannel(
-				tempDataFile, StandardOpenOption.CREATE,
-				StandardOpenOption.APPEND)) {
+		try {
 			// Write the information to the info File
 			Files.write(infoFile, toJson().toString().getBytes());
 
-			for (long rowIndex = 0; rowIndex < this.getSize(); rowIndex++) {
-				if (this.pendingData.containsKey(rowIndex)) {
-					writeRowToFile(dataOutStream,
-							this.pendingData.get(rowIndex));
-				} else {
-					this.absolute(rowIndex);
-					writeRowToFile(dataOutStream, this.currentRow);
-				}
-				ByteBuffer bb = ByteBuffer
-						.wrap(new byte[] { (byte) ((byte) '\n' & 0x00FF) });
-				dataOutStream.write(bb);
-			}
-			dataOutStream.close();
-
-			// Replace the current file with the temporary file
-			Files.copy(tempDataFile, dataFile,
-					StandardCopyOption.REPLACE_EXISTING);
-			Files.delete(tempDataFile);
-
-			// Reset the FileChannel and position
-			dataReadFC.close();
-			dataReadFC = FileChannel.open(dataFile, StandardOpenOption.READ);
+			// Write pending data to file
+			writePendingRows();
 
-			// Reset the variables and clear out the pending results
+			// Reset the variables
 			this.current = true;
-			this.persisted = true;
-			this.pendingData.clear();
 		} catch (IOException | ResultSetException e) {
 			throw new PersistableException("Unable to persist the result set",
 					e);
@@ -562,6 +543,181 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 
 	}
 
+	/**
+	 * Writes the rows that are pending to the data file. If only new rows are
+	 * pending they are appended to the data file, otherwise the updated rows
+	 * are merged into the data file.
+	 * 
+	 * @throws IOException
+	 *             An error occurred writing the data file
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	private void writePendingRows() throws IOException, ResultSetException {
+		if (this.pendingData.headMap(this.persistedRows).isEmpty()) {
+			appendPendingRows();
+		} else {
+			mergeDataFile();
+		}
+	}
+
+	/**
+	 * Writes the rows that have been appended since the data file was last
+	 * written to the end of the data file so that only a limited number of
+	 * rows are kept in memory. If the result set has not been given a
+	 * location yet the rows are written to a temporary file that is moved
+	 * into place when the result set is persisted.
+	 * 
+	 * @throws PersistableException
+	 *             An error occurred writing the rows
+	 */
+	private void spillPendingRows() throws PersistableException {
+		try {
+			if (dataFile == null) {
+				dataFile = Files.createTempFile("irct", ".data");
+				this.temporaryDataFile = true;
+				read = ByteBuffer.allocate(maxReadSize);
+				dataReadFC = FileChannel.open(dataFile, StandardOpenOption.READ);
+				this.fileRow = 0;
+			}
+			appendPendingRows();
+		} catch (IOException | ResultSetException e) {
+			throw new PersistableException("Unable to write the pending rows",
+					e);
+		}
+	}
+
+	private void appendPendingRows() throws IOException, ResultSetException {
+		SortedMap<Long, Row> newRows = this.pendingData
+				.tailMap(this.persistedRows);
+		if (newRows.isEmpty()) {
+			return;
+		}
+
+		try (FileChannel dataOutFC = FileChannel.open(dataFile,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND)) {
+			ByteBuffer buffer = getWriteBuffer();
+			for (Row row : newRows.values()) {
+				writeRowToFile(dataOutFC, buffer, row);
+			}
+			flushWriteBuffer(dataOutFC, buffer);
+		}
+
+		// Clearing the tail view removes the rows from the pending data
+		this.persistedRows += newRows.size();
+		newRows.clear();
+	}
+
+	/**
+	 * Merges the rows that have been updated since they were written into the
+	 * data file. The unchanged segments between the updated rows are copied
+	 * from the current data file as they are, without being read back in as
+	 * rows, and only the updated rows are written out again. Any new rows are
+	 * appended to the end.
+	 * 
+	 * @throws IOException
+	 *             An error occurred writing the data file
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	private void mergeDataFile() throws IOException, ResultSetException {
+		// Create temporary file
+		Path tempDataFile = Paths.get(fileName + ".temp");
+
+		try (FileChannel dataOutFC = FileChannel.open(tempDataFile,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = getWriteBuffer();
+			long copyPosition = 0;
+			long scanPosition = 0;
+			long scanRow = 0;
+
+			for (Map.Entry<Long, Row> updatedRow : this.pendingData.headMap(
+					this.persistedRows).entrySet()) {
+				// Find the start of the updated row and copy everything before it
+				scanPosition = skipRows(scanPosition, updatedRow.getKey()
+						- scanRow);
+				flushWriteBuffer(dataOutFC, buffer);
+				transferSegment(copyPosition, scanPosition, dataOutFC);
+
+				// Write the updated row and skip over the original
+				writeRowToFile(dataOutFC, buffer, updatedRow.getValue());
+				scanPosition = skipRows(scanPosition, 1);
+				scanRow = updatedRow.getKey() + 1;
+				copyPosition = scanPosition;
+			}
+			flushWriteBuffer(dataOutFC, buffer);
+			transferSegment(copyPosition, dataReadFC.size(), dataOutFC);
+
+			// Write the new rows to the end
+			for (Row row : this.pendingData.tailMap(this.persistedRows)
+					.values()) {
+				writeRowToFile(dataOutFC, buffer, row);
+			}
+			flushWriteBuffer(dataOutFC, buffer);
+		}
+
+		// Replace the current file with the temporary file
+		dataReadFC.close();
+		Files.move(tempDataFile, dataFile, StandardCopyOption.REPLACE_EXISTING);
+
+		// Reset the FileChannel and position
+		dataReadFC = FileChannel.open(dataFile, StandardOpenOption.READ);
+		this.fileRow = 0;
+
+		// Clear out the pending results
+		this.persistedRows = this.getSize();
+		this.pendingData.clear();
+	}
+
+	/**
+	 * Returns the position in the data file after skipping the given number of
+	 * rows from the start position
+	 * 
+	 * @param position
+	 *            Start position
+	 * @param rows
+	 *            Number of rows to skip
+	 * @return Position
+	 * @throws IOException
+	 *             The rows could not be found
+	 */
+	private long skipRows(long position, long rows) throws IOException {
+		long currentCount = 0;
+
+		while (currentCount < rows) {
+			read.clear();
+			int nRead = dataReadFC.read(read, position);
+			if (nRead == -1) {
+				throw new IOException("Unable to find row");
+			}
+
+			byte[] byteArray = read.array();
+			int bytePosition = 0;
+			for (; bytePosition < nRead; bytePosition++) {
+				char charRead = (char) byteArray[bytePosition];
+
+				if ((charRead == '\r') || (charRead == '\n')) {
+					currentCount++;
+					if (currentCount == rows) {
+						bytePosition++;
+						break;
+					}
+				}
+			}
+			position += bytePosition;
+		}
+		return position;
+	}
+
+	private void transferSegment(long start, long end, FileChannel dataOutFC)
+			throws IOException {
+		while (start < end) {
+			start += dataReadFC.transferTo(start, end - start, dataOutFC);
+		}
+	}
+
 	public void refresh() throws PersistableException {
 		// Throw an exception if the file has not been initially persisted
 		if (!this.persisted) {
@@ -594,9 +750,10 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 
 			// Set the size
 			this.size = jsonReader.getInt("size");
+			this.persistedRows = this.size;
 
 			// Clear out any pending data
-			this.pendingData = new HashMap<Long, Row>();
+			this.pendingData = new TreeMap<Long, Row>();
 			this.current = true;
 
 		} catch (IOException | ResultSetException e) {
@@ -613,26 +770,154 @@ public class FileResultSet extends ResultSetImpl implements Persistable {
 
 	}
 
-	private void writeRowToFile(SeekableByteChannel dataOutStream, Row row)
-			throws ResultSetException, IOException {
-		// Loop through columns and write the serialized data to file with
-		// delimiter between.
+	private void writeRowToFile(WritableByteChannel dataOutChannel,
+			ByteBuffer buffer, Row row) throws ResultSetException, IOException {
+		// Loop through columns and write the serialized data to the buffer
+		// with delimiter between, flushing the buffer as it fills
 		for (int columnIndex = 0; columnIndex < this.getColumnSize(); columnIndex++) {
-			
 			byte[] outBytes = this.getColumn(columnIndex).getDataType()
 					.toBytes(row.getColumn(columnIndex));
 
-			ByteBuffer bb = ByteBuffer.wrap(outBytes);
-			dataOutStream.write(bb);
+			if (outBytes.length > buffer.remaining()) {
+				flushWriteBuffer(dataOutChannel, buffer);
+			}
+			if (outBytes.length > buffer.capacity()) {
+				writeFully(dataOutChannel, ByteBuffer.wrap(outBytes));
+			} else {
+				buffer.put(outBytes);
+			}
+
+			if (!buffer.hasRemaining()) {
+				flushWriteBuffer(dataOutChannel, buffer);
+			}
 			if (columnIndex != this.getColumnSize() - 1) {
-				bb = ByteBuffer
-						.wrap(new byte[] { (byte) ((byte) this.DELIMITER & 0x00FF) });
-				dataOutStream.write(bb);
+				buffer.put((byte) (this.DELIMITER & 0x00FF));
+			} else {
+				buffer.put((byte) ('\n' & 0x00FF));
 			}
+		}
+	}
 
+	private ByteBuffer getWriteBuffer() {
+		if (this.writeBuffer == null) {
+			this.writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		}
+		this.writeBuffer.clear();
+		return this.writeBuffer;
+	}
+
+	private void flushWriteBuffer(WritableByteChannel dataOutChannel,
+			ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		writeFully(dataOutChannel, buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(WritableByteChannel dataOutChannel,
+			ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			dataOutChannel.write(buffer);
 		}
 	}
 	
+	/**
+	 * Writes the result set as JSON. If all columns are strings and every row
+	 * has been written to the data file, the data file is read front to back
+	 * in large blocks and each stored value is transcoded straight from its
+	 * UTF-16 bytes, the same way the values are split when a row is read.
+	 * Otherwise every value is read back as a String.
+	 */
+	@Override
+	public void writeJson(OutputStream outputStream) throws ResultSetException,
+			IOException {
+		JsonRowWriter writer = new JsonRowWriter(outputStream);
+		writer.startDocument(getColumns());
+
+		boolean stringColumns = true;
+		for (Column column : getColumns()) {
+			stringColumns &= column.getDataType() == PrimitiveDataType.STRING;
+		}
+		if (stringColumns && this.persisted && this.pendingData.isEmpty()
+				&& !this.temporaryDataFile) {
+			transcodeDataFile(writer);
+		} else {
+			writer.writeRows(this);
+		}
+
+		writer.endDocument();
+	}
+
+	/**
+	 * Writes the page of rows that a query returns as JSON. The values of the
+	 * data file are delimited text, so every row up to the end of the page is
+	 * read back.
+	 */
+	@Override
+	public void writeJson(OutputStream outputStream, ResultSetQuery query)
+			throws ResultSetException, IOException {
+		JsonRowWriter writer = new JsonRowWriter(outputStream);
+		writer.startDocument(query.getProjectedColumns());
+		long nextRow = writer.writeRows(this, query);
+		writer.endDocument(query.createPageToken(nextRow));
+	}
+
+	private void transcodeDataFile(JsonRowWriter writer) throws IOException,
+			ResultSetException {
+		int columnSize = getColumnSize();
+		ByteBuffer block = ByteBuffer.allocate(JSON_READ_BUFFER_SIZE);
+		byte[] cell = new byte[1024];
+		int cellLength = 0;
+		int currentColumn = 0;
+		boolean outsideQuote = true;
+		boolean inRow = false;
+		long rows = 0;
+
+		try (FileChannel dataFC = FileChannel.open(dataFile,
+				StandardOpenOption.READ)) {
+			while (rows < this.size && dataFC.read(block) != -1) {
+				byte[] bytes = block.array();
+				int limit = block.position();
+				for (int index = 0; index < limit && rows < this.size; index++) {
+					byte readByte = bytes[index];
+					boolean endOfLine = (readByte == '\r') || (readByte == '\n');
+
+					if (endOfLine || ((readByte == DELIMITER) && outsideQuote)) {
+						if (!inRow) {
+							writer.startRow();
+							inRow = true;
+						}
+						if (currentColumn < columnSize
+								&& !((cellLength == 1) && (cell[0] == 0))) {
+							writer.writeUtf16Cell(currentColumn, cell, 0,
+									cellLength);
+						}
+						cellLength = 0;
+						currentColumn++;
+						if (endOfLine) {
+							writer.endRow();
+							inRow = false;
+							currentColumn = 0;
+							outsideQuote = true;
+							rows++;
+						}
+					} else if (readByte == QUOTE) {
+						// Quotes are not part of the value, like when a row is read
+						outsideQuote = !outsideQuote;
+					} else {
+						if (cellLength == cell.length) {
+							cell = Arrays.copyOf(cell, cell.length * 2);
+						}
+						cell[cellLength++] = readByte;
+					}
+				}
+				block.clear();
+			}
+		}
+		if (inRow) {
+			writer.endRow();
+		}
+	}
+
 	@Override
 	public List<File> getFileList() {
 		List<File> files = new ArrayList<File>();
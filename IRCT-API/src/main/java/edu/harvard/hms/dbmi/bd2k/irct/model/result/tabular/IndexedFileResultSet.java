@@ -0,0 +1,1287 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Persistable;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.RowSetExeception;
+
+import javax.json.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * An implementation of a Result Set that is persistable to the file system in
+ * a typed binary format with a row index.
+ *
+ * Rows are stored in the data file using the BinaryRowCodec. The index file
+ * holds the offset of every row in the data file as an eight byte value, so
+ * moving to any row only requires reading one index entry and the row itself.
+ * Updated rows are appended to the end of the data file and their index entry
+ * is replaced, so a merge never has to rewrite rows that have not changed. The
+ * versions of the rows that have been replaced are left in the data file until
+ * they take up more than half of it, at which point a persist or merge copies
+ * the current rows into a new data file.
+ *
+ * Rows that are appended before the result set has a location are written to
+ * temporary files once the maximum pending size is reached, which are moved
+ * into place when the result set is persisted.
+ *
+ */
+public class IndexedFileResultSet extends ResultSetImpl implements
+		Persistable, JsonStreamable {
+	private static final int INDEX_ENTRY_SIZE = 8;
+	private static final int JSON_READ_BUFFER_SIZE = 1048576;
+
+	private long size;
+	private int maxReadSize = 65536;
+
+	private String fileName;
+	private Path infoFile;
+	private Path dataFile;
+	private Path indexFile;
+	private FileChannel dataFC;
+	private FileChannel indexFC;
+
+	private ByteBuffer dataBlock;
+	private long dataBlockStart = -1;
+	private long dataBlockEnd = -1;
+	private ByteBuffer indexBlock;
+	private long indexBlockFirstRow = -1;
+	private long indexBlockRows = 0;
+
+	private Row currentRow;
+	private long persistedSize;
+
+	private boolean persisted = false;
+	private boolean temporaryFiles = false;
+	private long obsoleteBytes;
+
+	private SortedMap<Long, Row> pendingData;
+	private int MAXPENDING = 100000;
+
+	public IndexedFileResultSet() {
+		this.pendingData = new TreeMap<Long, Row>();
+	}
+
+	@Override
+	public boolean isAvailable(String location) {
+		return Files.isReadable(Paths.get(location + ".info"))
+				&& Files.isReadable(Paths.get(location + ".data"))
+				&& Files.isReadable(Paths.get(location + ".index"));
+	}
+
+	@Override
+	public void close() throws ResultSetException {
+		try {
+			if (dataFC != null) {
+				dataFC.close();
+			}
+			if (indexFC != null) {
+				indexFC.close();
+			}
+			// Remove rows that were written out but never persisted
+			if (this.temporaryFiles) {
+				Files.deleteIfExists(dataFile);
+				Files.deleteIfExists(indexFile);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		this.closed = true;
+	}
+
+	@Override
+	public void load(String fileName) throws ResultSetException,
+			PersistableException {
+		this.pendingData = new TreeMap<Long, Row>();
+
+		try {
+			setupFiles(fileName);
+			if (Files.isReadable(infoFile) && Files.isReadable(dataFile)
+					&& Files.isReadable(indexFile)) {
+				this.persisted = true;
+				openChannels();
+				refresh();
+			} else {
+				this.persisted = false;
+				this.current = true;
+				Files.createFile(dataFile);
+				Files.createFile(indexFile);
+				openChannels();
+			}
+		} catch (IOException e) {
+			closeChannels();
+			throw new PersistableException("Unable to initiate the result set",
+					e);
+		}
+	}
+
+	/**
+	 * Adds a new row to the indexed file result set. Once the number of
+	 * pending rows reaches the maximum pending size, all pending rows are
+	 * written out to the files before the new row is added, or to temporary
+	 * files if the result set has not been persisted yet.
+	 *
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 * @throws PersistableException
+	 *             If a PersistableException occurs
+	 */
+	@Override
+	public void appendRow() throws ResultSetException, PersistableException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		if (this.pendingData.size() >= MAXPENDING) {
+			try {
+				if (dataFC == null) {
+					dataFile = Files.createTempFile("irct", ".data");
+					indexFile = Files.createTempFile("irct", ".index");
+					this.temporaryFiles = true;
+					openChannels();
+				}
+				writePending();
+			} catch (IOException e) {
+				throw new PersistableException(
+						"Unable to write pending rows", e);
+			}
+		}
+
+		Row newRow = new Row(this.getColumnSize());
+		this.currentRow = newRow;
+
+		pendingData.put(getSize(), newRow);
+
+		this.setRowPosition(this.getSize());
+		this.size++;
+		this.current = false;
+	}
+
+	@Override
+	public long getSize() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		return size;
+	}
+
+	@Override
+	public boolean absolute(long newRow) throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		if ((newRow > getSize() - 1) || (newRow < 0)) {
+			throw new RowSetExeception("Row is not in ResultSet");
+		}
+		if (newRow == getRowPosition() && this.currentRow != null) {
+			return true;
+		}
+
+		if (this.pendingData.containsKey(newRow)) {
+			this.currentRow = this.pendingData.get(newRow);
+		} else {
+			try {
+				this.currentRow = readRow(newRow);
+			} catch (IOException e) {
+				throw new ResultSetException("Unable to read the result set", e);
+			}
+		}
+		this.setRowPosition(newRow);
+		return true;
+	}
+
+	@Override
+	public void afterLast() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		this.setRowPosition(size);
+		this.currentRow = null;
+	}
+
+	@Override
+	public void beforeFirst() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		this.setRowPosition(-1);
+		this.currentRow = null;
+	}
+
+	@Override
+	public boolean first() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		if (this.size == 0) {
+			return false;
+		}
+		return absolute(0);
+	}
+
+	@Override
+	public boolean last() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		if (this.size == 0) {
+			return false;
+		}
+		return absolute(this.size - 1);
+	}
+
+	@Override
+	public boolean isLast() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		return getRowPosition() == this.size - 1;
+	}
+
+	@Override
+	public boolean next() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+
+		try {
+			return relative(1);
+		} catch (ResultSetException re) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean relative(long rows) throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		try {
+			return absolute(getRow() + rows);
+		} catch (ResultSetException re) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean previous() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		return relative(-1);
+	}
+
+	@Override
+	public long getRow() throws ResultSetException {
+		if (isClosed()) {
+			throw new ResultSetException("ResultSet is closed");
+		}
+		return getRowPosition();
+	}
+
+	/**
+	 * Reads a persisted row from the data file. Reads are served from a block
+	 * of the data file that is kept in memory, so moving through the rows in
+	 * order only reads from disk once per block.
+	 *
+	 * @param rowIndex
+	 *            Row index
+	 * @return Row
+	 * @throws IOException
+	 *             An error occurred reading the files
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	private Row readRow(long rowIndex) throws IOException, ResultSetException {
+		long offset = readOffset(rowIndex);
+
+		if ((offset < dataBlockStart)
+				|| (offset + BinaryRowCodec.ROW_HEADER_SIZE > dataBlockEnd)) {
+			fillDataBlock(offset);
+			if (offset + BinaryRowCodec.ROW_HEADER_SIZE > dataBlockEnd) {
+				throw new ResultSetException("Unable to find row");
+			}
+		}
+		int rowLength = BinaryRowCodec.ROW_HEADER_SIZE
+				+ dataBlock.getInt((int) (offset - dataBlockStart));
+
+		if (rowLength > dataBlock.capacity()) {
+			ByteBuffer rowBuffer = ByteBuffer.allocate(rowLength);
+			readFully(dataFC, rowBuffer, offset);
+			if (rowBuffer.hasRemaining()) {
+				throw new ResultSetException("Unable to find row");
+			}
+			rowBuffer.flip();
+			return BinaryRowCodec.decode(getColumns(), rowBuffer);
+		}
+
+		if (offset + rowLength > dataBlockEnd) {
+			fillDataBlock(offset);
+			if (offset + rowLength > dataBlockEnd) {
+				throw new ResultSetException("Unable to find row");
+			}
+		}
+		ByteBuffer rowBuffer = dataBlock.duplicate();
+		rowBuffer.limit((int) (offset - dataBlockStart) + rowLength);
+		rowBuffer.position((int) (offset - dataBlockStart));
+
+		return BinaryRowCodec.decode(getColumns(), rowBuffer);
+	}
+
+	/**
+	 * Returns the offset of a row in the data file from the index
+	 *
+	 * @param rowIndex
+	 *            Row index
+	 * @return Offset
+	 * @throws IOException
+	 *             An error occurred reading the index
+	 */
+	private long readOffset(long rowIndex) throws IOException {
+		if ((rowIndex < indexBlockFirstRow)
+				|| (rowIndex >= indexBlockFirstRow + indexBlockRows)) {
+			indexBlock.clear();
+			readFully(indexFC, indexBlock, rowIndex * INDEX_ENTRY_SIZE);
+			indexBlock.flip();
+			indexBlockFirstRow = rowIndex;
+			indexBlockRows = indexBlock.limit() / INDEX_ENTRY_SIZE;
+			if (indexBlockRows == 0) {
+				indexBlockFirstRow = -1;
+				throw new IOException("Row " + rowIndex + " is not indexed");
+			}
+		}
+		return indexBlock.getLong((int) (rowIndex - indexBlockFirstRow)
+				* INDEX_ENTRY_SIZE);
+	}
+
+	private void fillDataBlock(long offset) throws IOException {
+		dataBlock.clear();
+		readFully(dataFC, dataBlock, offset);
+		dataBlock.flip();
+		dataBlockStart = offset;
+		dataBlockEnd = offset + dataBlock.limit();
+	}
+
+	private void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int nRead = channel.read(buffer, position);
+			if (nRead == -1) {
+				break;
+			}
+			position += nRead;
+		}
+	}
+
+	private void invalidateBlocks() {
+		dataBlockStart = -1;
+		dataBlockEnd = -1;
+		indexBlockFirstRow = -1;
+		indexBlockRows = 0;
+	}
+
+	/**
+	 * Writes all pending rows to the data file and updates the index. Rows
+	 * that have already been persisted have their new version appended to the
+	 * data file and their index entry replaced. New rows are appended to both
+	 * files.
+	 *
+	 * @throws IOException
+	 *             An error occurred writing the files
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	private void writePending() throws IOException, ResultSetException {
+		if (this.pendingData.isEmpty()) {
+			return;
+		}
+		Column[] columns = getColumns();
+		byte[][] strings = new byte[columns.length][];
+
+		ByteBuffer dataOut = ByteBuffer.allocate(maxReadSize * 4);
+		ByteBuffer indexOut = ByteBuffer.allocate(INDEX_ENTRY_SIZE * 8192);
+		ByteBuffer indexUpdate = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+		long dataEnd = dataFC.size();
+		long indexEnd = persistedSize * INDEX_ENTRY_SIZE;
+
+		for (Map.Entry<Long, Row> entry : this.pendingData.entrySet()) {
+			int rowLength = BinaryRowCodec.encodedSize(columns,
+					entry.getValue(), strings);
+			if (rowLength > dataOut.remaining()) {
+				dataEnd = flush(dataFC, dataOut, dataEnd);
+				if (rowLength > dataOut.capacity()) {
+					dataOut = ByteBuffer.allocate(rowLength);
+				}
+			}
+			long offset = dataEnd + dataOut.position();
+			BinaryRowCodec.encode(columns, entry.getValue(), strings,
+					rowLength, dataOut);
+
+			if (entry.getKey() < persistedSize) {
+				obsoleteBytes += storedRowLength(entry.getKey());
+				indexUpdate.clear();
+				indexUpdate.putLong(offset);
+				flush(indexFC, indexUpdate, entry.getKey() * INDEX_ENTRY_SIZE);
+			} else {
+				if (!indexOut.hasRemaining()) {
+					indexEnd = flush(indexFC, indexOut, indexEnd);
+				}
+				indexOut.putLong(offset);
+			}
+		}
+		flush(dataFC, dataOut, dataEnd);
+		flush(indexFC, indexOut, indexEnd);
+
+		this.persistedSize = this.size;
+		this.pendingData.clear();
+		invalidateBlocks();
+	}
+
+	/**
+	 * Returns the length of the version of a row that is in the data file
+	 */
+	private long storedRowLength(long rowIndex) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(BinaryRowCodec.ROW_HEADER_SIZE);
+		readFully(dataFC, header, readOffset(rowIndex));
+		return BinaryRowCodec.ROW_HEADER_SIZE + header.getInt(0);
+	}
+
+	/**
+	 * Copies the current version of every row into a new data file and index,
+	 * which replace the files once all rows have been copied. All rows have
+	 * to be written to the files.
+	 *
+	 * @throws IOException
+	 *             An error occurred writing the files
+	 * @throws ResultSetException
+	 *             A row is not in the files
+	 */
+	private void compact() throws IOException, ResultSetException {
+		Path folder = dataFile.toAbsolutePath().getParent();
+		Path compactData = Files.createTempFile(folder, "irct", ".data");
+		Path compactIndex = Files.createTempFile(folder, "irct", ".index");
+		try {
+			try (FileChannel dataOutFC = FileChannel.open(compactData,
+					StandardOpenOption.WRITE);
+					FileChannel indexOutFC = FileChannel.open(compactIndex,
+							StandardOpenOption.WRITE)) {
+				RowReader reader = new RowReader(maxReadSize);
+				ByteBuffer dataOut = ByteBuffer.allocate(maxReadSize * 4);
+				ByteBuffer indexOut = ByteBuffer
+						.allocate(INDEX_ENTRY_SIZE * 8192);
+				long dataEnd = 0;
+				long indexEnd = 0;
+				for (long rowIndex = 0; rowIndex < this.persistedSize; rowIndex++) {
+					int position = reader.locate(rowIndex);
+					ByteBuffer row = reader.getBlock().duplicate();
+					row.limit(position + BinaryRowCodec.ROW_HEADER_SIZE
+							+ row.getInt(position));
+					row.position(position);
+					if (row.remaining() > dataOut.remaining()) {
+						dataEnd = flush(dataOutFC, dataOut, dataEnd);
+					}
+					if (!indexOut.hasRemaining()) {
+						indexEnd = flush(indexOutFC, indexOut, indexEnd);
+					}
+					indexOut.putLong(dataEnd + dataOut.position());
+					if (row.remaining() > dataOut.capacity()) {
+						while (row.hasRemaining()) {
+							dataEnd += dataOutFC.write(row, dataEnd);
+						}
+					} else {
+						dataOut.put(row);
+					}
+				}
+				flush(dataOutFC, dataOut, dataEnd);
+				flush(indexOutFC, indexOut, indexEnd);
+				dataOutFC.force(false);
+				indexOutFC.force(false);
+			}
+
+			dataFC.close();
+			indexFC.close();
+			Files.move(compactData, dataFile,
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.move(compactIndex, indexFile,
+					StandardCopyOption.REPLACE_EXISTING);
+			openChannels();
+			obsoleteBytes = 0;
+		} finally {
+			Files.deleteIfExists(compactData);
+			Files.deleteIfExists(compactIndex);
+		}
+	}
+
+	private void compactIfObsolete() throws IOException, ResultSetException {
+		if (obsoleteBytes > dataFC.size() / 2) {
+			compact();
+		}
+	}
+
+	private long flush(FileChannel channel, ByteBuffer buffer, long position)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		buffer.clear();
+		return position;
+	}
+
+	/**
+	 * Sets the value of a cell at the given column at the current position
+	 *
+	 * @param columnIndex
+	 *            Column Index
+	 * @param value
+	 *            Value
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	private void setCell(int columnIndex, Object value)
+			throws ResultSetException {
+		if (columnIndex >= getColumnSize()) {
+			throw new ResultSetException("Column not found");
+		}
+		if (this.currentRow == null) {
+			throw new RowSetExeception("Row is not in ResultSet");
+		}
+		this.currentRow.setColumn(columnIndex, value);
+		this.pendingData.put(this.getRowPosition(), this.currentRow);
+		this.current = false;
+	}
+
+	/**
+	 * Returns a cell from the given column at the current position
+	 *
+	 * @param columnIndex
+	 *            Column Index
+	 * @return Value
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	private Object getCell(int columnIndex) throws ResultSetException {
+		if (columnIndex >= getColumnSize()) {
+			throw new ResultSetException("Column not found");
+		}
+		if (this.currentRow == null) {
+			throw new RowSetExeception("Row is not in ResultSet");
+		}
+		return this.currentRow.getColumn(columnIndex);
+	}
+
+	@Override
+	public void persist(String fileName) throws PersistableException {
+		if (this.persisted) {
+			throw new PersistableException(this.fileName
+					+ " has been persisted");
+		}
+
+		Path spilledDataFile = this.temporaryFiles ? dataFile : null;
+		Path spilledIndexFile = this.temporaryFiles ? indexFile : null;
+		try {
+			setupFiles(fileName);
+			if (spilledDataFile != null) {
+				// Move the rows that have already been written into place
+				closeChannels();
+				Files.move(spilledDataFile, dataFile);
+				Files.move(spilledIndexFile, indexFile);
+				this.temporaryFiles = false;
+			} else {
+				Files.createFile(dataFile);
+				Files.createFile(indexFile);
+			}
+			openChannels();
+		} catch (IOException e) {
+			closeChannels();
+			throw new PersistableException("Unable to initiate the result set",
+					e);
+		}
+
+		persist();
+	}
+
+	@Override
+	public void persist() throws PersistableException {
+		if (this.persisted) {
+			throw new PersistableException(this.fileName
+					+ " has been persisted");
+		}
+
+		try {
+			writePending();
+			compactIfObsolete();
+			Files.write(infoFile, toJson().toString().getBytes());
+
+			this.current = true;
+			this.persisted = true;
+		} catch (IOException | ResultSetException e) {
+			throw new PersistableException("Unable to persist the result set",
+					e);
+		}
+	}
+
+	@Override
+	public void merge() throws PersistableException {
+		if (!this.persisted) {
+			throw new PersistableException(this.fileName
+					+ " has not been persisted");
+		}
+		if (this.current) {
+			return;
+		}
+
+		try {
+			writePending();
+			compactIfObsolete();
+			dataFC.force(false);
+			indexFC.force(false);
+			Files.write(infoFile, toJson().toString().getBytes());
+
+			this.current = true;
+		} catch (IOException | ResultSetException e) {
+			throw new PersistableException("Unable to persist the result set",
+					e);
+		}
+	}
+
+	@Override
+	public void refresh() throws PersistableException {
+		if (!this.persisted) {
+			throw new PersistableException(this.fileName
+					+ " has not been persisted");
+		}
+
+		try {
+			JsonObject jsonReader = Json.createReader(
+					new StringReader(new String(Files.readAllBytes(infoFile))))
+					.readObject();
+
+			JsonArray jsonColArray = jsonReader.getJsonArray("columns");
+			for (int i = 0; i < jsonColArray.size(); i++) {
+				JsonObject job = (JsonObject) jsonColArray.get(i);
+				Column newColumn = new Column();
+				newColumn.setDataType(PrimitiveDataType.valueOf(job
+						.getString("dataType")));
+				newColumn.setName(job.getString("name"));
+				this.appendColumn(newColumn);
+			}
+
+			// The index may hold rows that were flushed after the last merge,
+			// only the rows recorded in the info file are part of the result
+			this.size = Math.min(jsonReader.getJsonNumber("size").longValue(),
+					indexFC.size() / INDEX_ENTRY_SIZE);
+			this.persistedSize = this.size;
+
+			this.pendingData = new TreeMap<Long, Row>();
+			this.currentRow = null;
+			this.setRowPosition(-1);
+			invalidateBlocks();
+			this.current = true;
+		} catch (IOException | ResultSetException e) {
+			throw new PersistableException("Unable to refresh the result set",
+					e);
+		}
+	}
+
+	private void setupFiles(String fileName) {
+		this.fileName = fileName;
+		infoFile = Paths.get(fileName + ".info");
+		dataFile = Paths.get(fileName + ".data");
+		indexFile = Paths.get(fileName + ".index");
+	}
+
+	private void openChannels() throws IOException {
+		dataBlock = ByteBuffer.allocateDirect(maxReadSize);
+		indexBlock = ByteBuffer.allocateDirect(maxReadSize);
+		invalidateBlocks();
+		dataFC = FileChannel.open(dataFile, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		indexFC = FileChannel.open(indexFile, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	private void closeChannels() throws PersistableException {
+		try {
+			if (dataFC != null) {
+				dataFC.close();
+			}
+			if (indexFC != null) {
+				indexFC.close();
+			}
+		} catch (IOException closeException) {
+			throw new PersistableException(
+					"Unable to initiate the result set", closeException);
+		}
+	}
+
+	/**
+	 * Writes the result set as JSON. If every row has been written to the
+	 * files, the index is read in order and the rows are read through a large
+	 * block of the data file, string values are copied from their stored
+	 * UTF-8 bytes without being decoded. Otherwise every value is read back as
+	 * a String.
+	 */
+	@Override
+	public void writeJson(OutputStream outputStream) throws ResultSetException,
+			IOException {
+		JsonRowWriter writer = new JsonRowWriter(outputStream);
+		Column[] columns = getColumns();
+		writer.startDocument(columns);
+
+		if (!this.persisted || !this.pendingData.isEmpty()) {
+			writer.writeRows(this);
+			writer.endDocument();
+			return;
+		}
+
+		RowReader reader = new RowReader(JSON_READ_BUFFER_SIZE);
+		for (long rowIndex = 0; rowIndex < this.size; rowIndex++) {
+			int position = reader.locate(rowIndex)
+					+ BinaryRowCodec.ROW_HEADER_SIZE;
+			ByteBuffer values = reader.getBlock();
+			writer.startRow();
+			for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+				PrimitiveDataType dataType = columns[columnIndex].getDataType();
+				transcodeCell(writer, columnIndex, dataType, values, position);
+				position += BinaryRowCodec.entrySize(dataType, values.array(),
+						position);
+			}
+			writer.endRow();
+		}
+
+		writer.endDocument();
+	}
+
+	/**
+	 * Writes the page of rows that a query returns as JSON. If every row has
+	 * been written to the files, the predicates are evaluated on the stored
+	 * bytes of the rows, and only the entries of a row up to the last column
+	 * the query uses are read. The returned values are copied like they are
+	 * by writeJson(). Without predicates the page starts at its first row,
+	 * the rows before it are not read. Otherwise every value is read back.
+	 */
+	@Override
+	public void writeJson(OutputStream outputStream, ResultSetQuery query)
+			throws ResultSetException, IOException {
+		JsonRowWriter writer = new JsonRowWriter(outputStream);
+		writer.startDocument(query.getProjectedColumns());
+
+		long nextRow;
+		if (!this.persisted || !this.pendingData.isEmpty()) {
+			nextRow = writer.writeRows(this, query);
+		} else {
+			nextRow = writeRows(writer, query);
+		}
+
+		writer.endDocument(query.createPageToken(nextRow));
+	}
+
+	private long writeRows(JsonRowWriter writer, ResultSetQuery query)
+			throws IOException, ResultSetException {
+		Column[] columns = getColumns();
+		int[] projection = query.getProjection();
+		List<ResultSetQuery.Predicate> predicates = query.getPredicates();
+		int lastColumn = -1;
+		for (int columnIndex : projection) {
+			lastColumn = Math.max(lastColumn, columnIndex);
+		}
+		for (ResultSetQuery.Predicate predicate : predicates) {
+			lastColumn = Math.max(lastColumn, predicate.getColumnIndex());
+		}
+		int[] positions = new int[lastColumn + 1];
+
+		RowReader reader = new RowReader(maxReadSize);
+		long skip = query.getSkip();
+		int rows = 0;
+		long rowIndex = query.getStartRow();
+		for (; rowIndex < this.size && rows < query.getLimit(); rowIndex++) {
+			int position = reader.locate(rowIndex)
+					+ BinaryRowCodec.ROW_HEADER_SIZE;
+			ByteBuffer values = reader.getBlock();
+			byte[] bytes = values.array();
+			for (int columnIndex = 0; columnIndex <= lastColumn; columnIndex++) {
+				positions[columnIndex] = position;
+				position += BinaryRowCodec.entrySize(
+						columns[columnIndex].getDataType(), bytes, position);
+			}
+
+			boolean matches = true;
+			for (ResultSetQuery.Predicate predicate : predicates) {
+				if (!predicate.matches(bytes,
+						positions[predicate.getColumnIndex()])) {
+					matches = false;
+					break;
+				}
+			}
+			if (!matches) {
+				continue;
+			}
+			if (skip > 0) {
+				skip--;
+				continue;
+			}
+
+			writer.startRow();
+			for (int index = 0; index < projection.length; index++) {
+				transcodeCell(writer, index,
+						columns[projection[index]].getDataType(), values,
+						positions[projection[index]]);
+			}
+			writer.endRow();
+			rows++;
+		}
+		return rowIndex < this.size ? rowIndex : -1;
+	}
+
+	/**
+	 * Writes an entry of a stored row as a value of the current JSON row
+	 *
+	 * @param writer
+	 *            Writer
+	 * @param cellIndex
+	 *            Index of the value in the JSON row
+	 * @param dataType
+	 *            Data type of the column
+	 * @param values
+	 *            Buffer holding the stored row
+	 * @param position
+	 *            Position of the entry in the buffer
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	private void transcodeCell(JsonRowWriter writer, int cellIndex,
+			PrimitiveDataType dataType, ByteBuffer values, int position)
+			throws IOException {
+		byte[] bytes = values.array();
+		if (bytes[position++] == 0) {
+			return;
+		}
+
+		switch (dataType) {
+		case BOOLEAN:
+			writer.writeCell(cellIndex, String.valueOf(bytes[position] == 1));
+			break;
+		case BYTE:
+			writer.writeCell(cellIndex, String.valueOf(bytes[position]));
+			break;
+		case DOUBLE:
+			writer.writeCell(cellIndex, String.valueOf(values.getDouble(position)));
+			break;
+		case FLOAT:
+			writer.writeCell(cellIndex, String.valueOf(values.getFloat(position)));
+			break;
+		case INTEGER:
+			writer.writeCell(cellIndex, String.valueOf(values.getInt(position)));
+			break;
+		case LONG:
+		case RESULTSET:
+			writer.writeCell(cellIndex, String.valueOf(values.getLong(position)));
+			break;
+		default:
+			writer.writeUtf8Cell(cellIndex, bytes, position + 4,
+					values.getInt(position));
+		}
+	}
+
+	/**
+	 * Reads persisted rows through a block of the data file and a block of
+	 * the index, which are only read again once a row is outside of them.
+	 * Rows that are larger than the block are read on their own.
+	 */
+	private final class RowReader {
+		private final ByteBuffer index = ByteBuffer
+				.allocate(INDEX_ENTRY_SIZE * 8192);
+		private long indexFirstRow = -1;
+		private final ByteBuffer block;
+		private long blockStart = -1;
+		private long blockEnd = -1;
+		private ByteBuffer rowBuffer;
+
+		RowReader(int blockSize) {
+			this.block = ByteBuffer.allocate(blockSize);
+		}
+
+		/**
+		 * Reads a row
+		 *
+		 * @param rowIndex
+		 *            Row index
+		 * @return Position of the row in the buffer returned by getBlock()
+		 * @throws IOException
+		 *             An error occurred reading the files
+		 * @throws ResultSetException
+		 *             The row is not in the files
+		 */
+		int locate(long rowIndex) throws IOException, ResultSetException {
+			if (indexFirstRow == -1 || rowIndex < indexFirstRow
+					|| rowIndex >= indexFirstRow + index.limit()
+							/ INDEX_ENTRY_SIZE) {
+				indexFirstRow = rowIndex;
+				index.clear();
+				readFully(indexFC, index, rowIndex * INDEX_ENTRY_SIZE);
+				index.flip();
+				if (index.limit() < INDEX_ENTRY_SIZE) {
+					indexFirstRow = -1;
+					throw new ResultSetException("Row " + rowIndex
+							+ " is not indexed");
+				}
+			}
+			long offset = index.getLong((int) (rowIndex - indexFirstRow)
+					* INDEX_ENTRY_SIZE);
+
+			if ((offset < blockStart)
+					|| (offset + BinaryRowCodec.ROW_HEADER_SIZE > blockEnd)) {
+				fill(offset);
+			}
+			if (offset + BinaryRowCodec.ROW_HEADER_SIZE > blockEnd) {
+				throw new ResultSetException("Unable to find row");
+			}
+			int rowLength = BinaryRowCodec.ROW_HEADER_SIZE
+					+ block.getInt((int) (offset - blockStart));
+
+			rowBuffer = block;
+			long rowStart = blockStart;
+			if (rowLength > block.capacity()) {
+				rowBuffer = ByteBuffer.allocate(rowLength);
+				readFully(dataFC, rowBuffer, offset);
+				rowStart = offset;
+			} else if (offset + rowLength > blockEnd) {
+				fill(offset);
+				rowStart = blockStart;
+			}
+			if (offset + rowLength > rowStart + rowBuffer.position()) {
+				throw new ResultSetException("Unable to find row");
+			}
+			return (int) (offset - rowStart);
+		}
+
+		/**
+		 * Returns the buffer that holds the row that was read last
+		 */
+		ByteBuffer getBlock() {
+			return rowBuffer;
+		}
+
+		private void fill(long offset) throws IOException {
+			block.clear();
+			readFully(dataFC, block, offset);
+			blockStart = offset;
+			blockEnd = offset + block.position();
+		}
+	}
+
+	@Override
+	public List<File> getFileList() {
+		List<File> files = new ArrayList<File>();
+		files.add(infoFile.toFile());
+		files.add(dataFile.toFile());
+		files.add(indexFile.toFile());
+		return files;
+	}
+
+	public boolean isCurrent() {
+		return this.current;
+	}
+
+	public boolean isPersisted() {
+		return this.persisted;
+	}
+
+	// Data Retrieval and editing
+	// BOOLEAN
+	@Override
+	public boolean getBoolean(int columnIndex) throws ResultSetException {
+		return (Boolean) getCell(columnIndex);
+	}
+
+	@Override
+	public boolean getBoolean(String columnLabel) throws ResultSetException {
+		return getBoolean(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateBoolean(int columnIndex, boolean value)
+			throws ResultSetException {
+		setCell(columnIndex, value);
+	}
+
+	@Override
+	public void updateBoolean(String columnLabel, boolean value)
+			throws ResultSetException {
+		updateBoolean(findColumn(columnLabel), value);
+	}
+
+	// BYTE
+	@Override
+	public byte getByte(int columnIndex) throws ResultSetException {
+		return (Byte) getCell(columnIndex);
+	}
+
+	@Override
+	public byte getByte(String columnLabel) throws ResultSetException {
+		return getByte(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateByte(int columnIndex, byte value)
+			throws ResultSetException {
+		setCell(columnIndex, value);
+	}
+
+	@Override
+	public void updateByte(String columnLabel, byte value)
+			throws ResultSetException {
+		updateByte(findColumn(columnLabel), value);
+	}
+
+	// DATE
+	@Override
+	public Date getDate(int columnIndex) throws ResultSetException {
+		String dateString = getString(columnIndex);
+
+		PrimitiveDataType dt = getColumn(columnIndex).getDataType();
+
+		String pattern = null;
+		if (dt == PrimitiveDataType.DATE) {
+			pattern = "yyyy-MM-dd";
+		} else if (dt == PrimitiveDataType.DATETIME) {
+			pattern = "yyyy-MM-dd HH:mm:ss";
+		} else if (dt == PrimitiveDataType.TIME) {
+			pattern = "HH:mm:ss";
+		}
+		DateFormat formatter = new SimpleDateFormat(pattern);
+
+		try {
+			return formatter.parse(dateString);
+		} catch (ParseException e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	@Override
+	public Date getDate(String columnLabel) throws ResultSetException {
+		return getDate(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateDate(int columnIndex, Date value)
+			throws ResultSetException {
+		PrimitiveDataType dt = getColumn(columnIndex).getDataType();
+
+		String pattern = null;
+		if (dt == PrimitiveDataType.DATE) {
+			pattern = "yyyy-MM-dd";
+		} else if (dt == PrimitiveDataType.DATETIME) {
+			pattern = "yyyy-MM-dd HH:mm:ss";
+		} else if (dt == PrimitiveDataType.TIME) {
+			pattern = "HH:mm:ss";
+		}
+		DateFormat formatter = new SimpleDateFormat(pattern);
+
+		setCell(columnIndex, formatter.format(value));
+	}
+
+	@Override
+	public void updateDate(String columnLabel, Date value)
+			throws ResultSetException {
+		updateDate(findColumn(columnLabel), value);
+	}
+
+	// DOUBLE
+	@Override
+	public double getDouble(int columnIndex) throws ResultSetException {
+		return (Double) getCell(columnIndex);
+	}
+
+	@Override
+	public double getDouble(String columnLabel) throws ResultSetException {
+		return getDouble(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateDouble(int columnIndex, double value)
+			throws ResultSetException {
+		setCell(columnIndex, value);
+	}
+
+	@Override
+	public void updateDouble(String columnLabel, double value)
+			throws ResultSetException {
+		updateDouble(findColumn(columnLabel), value);
+	}
+
+	// FLOAT
+	@Override
+	public float getFloat(int columnIndex) throws ResultSetException {
+		return (Float) getCell(columnIndex);
+	}
+
+	@Override
+	public float getFloat(String columnLabel) throws ResultSetException {
+		return getFloat(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateFloat(int columnIndex, float value)
+			throws ResultSetException {
+		setCell(columnIndex, value);
+	}
+
+	@Override
+	public void updateFloat(String columnLabel, float value)
+			throws ResultSetException {
+		updateFloat(findColumn(columnLabel), value);
+	}
+
+	// INT
+	@Override
+	public int getInt(int columnIndex) throws ResultSetException {
+		return (Integer) getCell(columnIndex);
+	}
+
+	@Override
+	public int getInt(String columnLabel) throws ResultSetException {
+		return getInt(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateInt(int columnIndex, int value) throws ResultSetException {
+		setCell(columnIndex, value);
+	}
+
+	@Override
+	public void updateInt(String columnLabel, int value)
+			throws ResultSetException {
+		updateInt(findColumn(columnLabel), value);
+	}
+
+	// LONG
+	@Override
+	public long getLong(int columnIndex) throws ResultSetException {
+		return (Long) getCell(columnIndex);
+	}
+
+	@Override
+	public long getLong(String columnLabel) throws ResultSetException {
+		return getLong(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateLong(int columnIndex, long value)
+			throws ResultSetException {
+		setCell(columnIndex, value);
+	}
+
+	@Override
+	public void updateLong(String columnLabel, long value)
+			throws ResultSetException {
+		updateLong(findColumn(columnLabel), value);
+	}
+
+	// STRING
+	@Override
+	public String getString(int columnIndex) throws ResultSetException {
+		Object value = getCell(columnIndex);
+		if (value == null) {
+			return null;
+		}
+		return value.toString();
+	}
+
+	@Override
+	public String getString(String columnLabel) throws ResultSetException {
+		return getString(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateString(int columnIndex, String value)
+			throws ResultSetException {
+		setCell(columnIndex, value);
+	}
+
+	@Override
+	public void updateString(String columnLabel, String value)
+			throws ResultSetException {
+		updateString(findColumn(columnLabel), value);
+	}
+
+	// OBJECT
+	public Object getObject(int columnIndex) throws ResultSetException {
+		return getCell(columnIndex);
+	}
+
+	public void updateObject(int columnIndex, Object obj)
+			throws ResultSetException {
+		setCell(columnIndex, obj);
+	}
+
+	@Override
+	public Row getCurrentRow() throws ResultSetException {
+		return currentRow;
+	}
+
+	// MAXPENDING
+	public int getMaxPending() {
+		return this.MAXPENDING;
+	}
+
+	/**
+	 * Returns a JSONObject representation of the object. This returns only the
+	 * attributes associated with this object and not their representation.
+	 *
+	 * This is equivalent of toJson(1);
+	 *
+	 * @return JSON Representation
+	 */
+	public JsonObject toJson() {
+		return toJson(1);
+	}
+
+	/**
+	 * Returns a JSONObject representation of the object. This returns only the
+	 * attributes associated with this object and not their representation.
+	 *
+	 *
+	 * @param depth
+	 *            Depth to travel
+	 * @return JSON Representation
+	 */
+	public JsonObject toJson(int depth) {
+		depth--;
+		JsonObjectBuilder jsonBuilder = Json.createObjectBuilder();
+		jsonBuilder.add("size", this.size);
+		jsonBuilder.add("format", "indexed");
+		JsonArrayBuilder jsonColArray = Json.createArrayBuilder();
+		try {
+			if (getColumns() != null) {
+				for (Column column : getColumns()) {
+					jsonColArray.add(column.toJson());
+				}
+			}
+		} catch (ResultSetException e) {
+			e.printStackTrace();
+		}
+
+		jsonBuilder.add("columns", jsonColArray);
+		return jsonBuilder.build();
+
+	}
+
+}
@@ -0,0 +1,478 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+
+/**
+ * Writes a tabular result as UTF-8 encoded JSON straight to an output stream.
+ * The document has the same layout as the JSON download: an object with the
+ * columns, and a data array with an array per row that holds an object per
+ * value that is not null.
+ *
+ * Values can be written from Strings, or from the UTF-8 or UTF-16 bytes they
+ * are stored as, in which case they are escaped and encoded without creating
+ * a String. The opening of the object of each column is encoded once, and a
+ * single buffer is reused for the whole document.
+ */
+public final class JsonRowWriter {
+	public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+	private static final byte[] HEX = "0123456789abcdef"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+	private final OutputStream outputStream;
+	private final byte[] buffer;
+	private int position;
+
+	private byte[][] cellPrefixes;
+	private boolean firstRow = true;
+	private boolean firstCell;
+	private char[] units = new char[256];
+
+	/**
+	 * Creates a writer with the default buffer size
+	 *
+	 * @param outputStream
+	 *            Stream to write to
+	 */
+	public JsonRowWriter(OutputStream outputStream) {
+		this(outputStream, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a writer
+	 *
+	 * @param outputStream
+	 *            Stream to write to
+	 * @param bufferSize
+	 *            Number of bytes to buffer before writing to the stream
+	 */
+	public JsonRowWriter(OutputStream outputStream, int bufferSize) {
+		this.outputStream = outputStream;
+		this.buffer = new byte[Math.max(16, bufferSize)];
+	}
+
+	/**
+	 * Writes the columns and opens the data array
+	 *
+	 * @param columns
+	 *            Columns of the result
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void startDocument(Column[] columns) throws IOException {
+		putAscii("{\"columns\":[");
+		cellPrefixes = new byte[columns.length][];
+		for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+			if (columnIndex != 0) {
+				put(',');
+			}
+			putBytes(columns[columnIndex].toJson().toString()
+					.getBytes(StandardCharsets.UTF_8));
+			cellPrefixes[columnIndex] = encodeCellPrefix(columns[columnIndex]
+					.getName());
+		}
+		putAscii("],\"data\":[");
+	}
+
+	/**
+	 * Writes all rows of a result set, reading every value as a String
+	 *
+	 * @param resultSet
+	 *            Result set
+	 * @throws ResultSetException
+	 *             An error occurred reading the result set
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void writeRows(ResultSet resultSet) throws ResultSetException,
+			IOException {
+		int columnSize = resultSet.getColumnSize();
+		resultSet.beforeFirst();
+		while (resultSet.next()) {
+			startRow();
+			for (int columnIndex = 0; columnIndex < columnSize; columnIndex++) {
+				writeCell(columnIndex, resultSet.getString(columnIndex));
+			}
+			endRow();
+		}
+	}
+
+	/**
+	 * Writes the page of rows of a result set that a query returns, reading
+	 * every value back from the result set. The document must have been
+	 * started with the columns the query returns.
+	 *
+	 * @param resultSet
+	 *            Result set
+	 * @param query
+	 *            Query
+	 * @return Row the next page starts at, or -1 if there are no more rows
+	 * @throws ResultSetException
+	 *             An error occurred reading the result set
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public long writeRows(ResultSet resultSet, ResultSetQuery query)
+			throws ResultSetException, IOException {
+		Column[] columns = resultSet.getColumns();
+		int[] projection = query.getProjection();
+		long size = resultSet.getSize();
+		long skip = query.getSkip();
+		int rows = 0;
+		long rowIndex = query.getStartRow();
+		// Only the start row is sought, the rest of the page is read in order
+		boolean hasRow = rowIndex < size && resultSet.absolute(rowIndex);
+		while (hasRow) {
+			if (query.matches(resultSet)) {
+				if (skip > 0) {
+					skip--;
+				} else {
+					startRow();
+					for (int index = 0; index < projection.length; index++) {
+						Object value = resultSet.getObject(projection[index]);
+						writeCell(index, value == null ? null : BinaryRowCodec
+								.toText(columns[projection[index]].getDataType(),
+										value));
+					}
+					endRow();
+					rows++;
+				}
+			}
+			rowIndex++;
+			hasRow = rows < query.getLimit() && rowIndex < size
+					&& resultSet.next();
+		}
+		return rowIndex < size ? rowIndex : -1;
+	}
+
+	/**
+	 * Opens a row
+	 *
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void startRow() throws IOException {
+		if (!firstRow) {
+			put(',');
+		}
+		put('[');
+		firstRow = false;
+		firstCell = true;
+	}
+
+	/**
+	 * Writes a value of the current row
+	 *
+	 * @param columnIndex
+	 *            Column of the value
+	 * @param value
+	 *            Value, nothing is written if it is null
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void writeCell(int columnIndex, String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		startCell(columnIndex);
+		putEscaped(value);
+		endCell();
+	}
+
+	/**
+	 * Writes a value of the current row from its UTF-8 encoding
+	 *
+	 * @param columnIndex
+	 *            Column of the value
+	 * @param bytes
+	 *            Array holding the value
+	 * @param offset
+	 *            Start of the value
+	 * @param length
+	 *            Length of the value in bytes
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void writeUtf8Cell(int columnIndex, byte[] bytes, int offset,
+			int length) throws IOException {
+		startCell(columnIndex);
+		int end = offset + length;
+		int runStart = offset;
+		for (int index = offset; index < end; index++) {
+			int b = bytes[index];
+			// Multi byte sequences are copied as they are
+			if (b < 0 || (b >= 0x20 && b != '"' && b != '\\')) {
+				continue;
+			}
+			putBytes(bytes, runStart, index - runStart);
+			putEscapedAscii(b);
+			runStart = index + 1;
+		}
+		putBytes(bytes, runStart, end - runStart);
+		endCell();
+	}
+
+	/**
+	 * Writes a value of the current row from its UTF-16 encoding, as it is
+	 * read back by String: an optional byte order mark, big endian without
+	 * one, and with leading and trailing white space removed.
+	 *
+	 * @param columnIndex
+	 *            Column of the value
+	 * @param bytes
+	 *            Array holding the value
+	 * @param offset
+	 *            Start of the value
+	 * @param length
+	 *            Length of the value in bytes
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void writeUtf16Cell(int columnIndex, byte[] bytes, int offset,
+			int length) throws IOException {
+		boolean bigEndian = true;
+		if (length >= 2) {
+			int first = bytes[offset] & 0xFF;
+			int second = bytes[offset + 1] & 0xFF;
+			if (first == 0xFE && second == 0xFF) {
+				offset += 2;
+				length -= 2;
+			} else if (first == 0xFF && second == 0xFE) {
+				bigEndian = false;
+				offset += 2;
+				length -= 2;
+			}
+		}
+
+		int unitCount = (length + 1) / 2;
+		if (units.length < unitCount) {
+			units = new char[Math.max(unitCount, units.length * 2)];
+		}
+		for (int unit = 0; unit < length / 2; unit++) {
+			int high = bytes[offset + unit * 2] & 0xFF;
+			int low = bytes[offset + unit * 2 + 1] & 0xFF;
+			units[unit] = (char) (bigEndian ? (high << 8) | low : (low << 8)
+					| high);
+		}
+		if (length % 2 != 0) {
+			// A trailing single byte can not be decoded
+			units[unitCount - 1] = (char) REPLACEMENT_CHARACTER;
+		}
+
+		int start = 0;
+		int end = unitCount;
+		while (start < end && units[start] <= ' ') {
+			start++;
+		}
+		while (end > start && units[end - 1] <= ' ') {
+			end--;
+		}
+
+		startCell(columnIndex);
+		putEscaped(units, start, end);
+		endCell();
+	}
+
+	/**
+	 * Closes the current row
+	 *
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void endRow() throws IOException {
+		put(']');
+	}
+
+	/**
+	 * Closes the data array and the document, and flushes the stream
+	 *
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void endDocument() throws IOException {
+		putAscii("]}");
+		flush();
+	}
+
+	/**
+	 * Closes the data array, adds the token of the next page of a query and
+	 * closes the document, and flushes the stream
+	 *
+	 * @param nextPageToken
+	 *            Page token, or null if there are no more rows
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void endDocument(String nextPageToken) throws IOException {
+		putAscii("],\"nextPageToken\":");
+		if (nextPageToken == null) {
+			putAscii("null");
+		} else {
+			put('"');
+			putEscaped(nextPageToken);
+			put('"');
+		}
+		put('}');
+		flush();
+	}
+
+	/**
+	 * Writes the buffered bytes to the stream and flushes it
+	 *
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		outputStream.flush();
+	}
+
+	private void startCell(int columnIndex) throws IOException {
+		if (!firstCell) {
+			put(',');
+		}
+		putBytes(cellPrefixes[columnIndex]);
+		firstCell = false;
+	}
+
+	private void endCell() throws IOException {
+		put('"');
+		put('}');
+	}
+
+	private static byte[] encodeCellPrefix(String name) throws IOException {
+		ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+		JsonRowWriter writer = new JsonRowWriter(prefix, 256);
+		writer.putAscii("{\"");
+		writer.putEscaped(name);
+		writer.putAscii("\":\"");
+		writer.flushBuffer();
+		return prefix.toByteArray();
+	}
+
+	private void putEscaped(String value) throws IOException {
+		char[] chars = value.toCharArray();
+		putEscaped(chars, 0, chars.length);
+	}
+
+	private void putEscaped(char[] chars, int start, int end)
+			throws IOException {
+		for (int index = start; index < end; index++) {
+			int c = chars[index];
+			if (Character.isHighSurrogate((char) c)) {
+				if (index + 1 < end
+						&& Character.isLowSurrogate(chars[index + 1])) {
+					putCodePoint(Character.toCodePoint((char) c,
+							chars[++index]));
+				} else {
+					putCodePoint(REPLACEMENT_CHARACTER);
+				}
+			} else if (Character.isLowSurrogate((char) c)) {
+				putCodePoint(REPLACEMENT_CHARACTER);
+			} else if (c < 0x80) {
+				if (c < 0x20 || c == '"' || c == '\\') {
+					putEscapedAscii(c);
+				} else {
+					put(c);
+				}
+			} else {
+				putCodePoint(c);
+			}
+		}
+	}
+
+	private void putEscapedAscii(int c) throws IOException {
+		put('\\');
+		switch (c) {
+		case '"':
+		case '\\':
+			put(c);
+			break;
+		case '\b':
+			put('b');
+			break;
+		case '\f':
+			put('f');
+			break;
+		case '\n':
+			put('n');
+			break;
+		case '\r':
+			put('r');
+			break;
+		case '\t':
+			put('t');
+			break;
+		default:
+			put('u');
+			put('0');
+			put('0');
+			put(HEX[(c >> 4) & 0xF]);
+			put(HEX[c & 0xF]);
+		}
+	}
+
+	private void putCodePoint(int codePoint) throws IOException {
+		if (codePoint < 0x80) {
+			put(codePoint);
+		} else if (codePoint < 0x800) {
+			put(0xC0 | (codePoint >> 6));
+			put(0x80 | (codePoint & 0x3F));
+		} else if (codePoint < 0x10000) {
+			put(0xE0 | (codePoint >> 12));
+			put(0x80 | ((codePoint >> 6) & 0x3F));
+			put(0x80 | (codePoint & 0x3F));
+		} else {
+			put(0xF0 | (codePoint >> 18));
+			put(0x80 | ((codePoint >> 12) & 0x3F));
+			put(0x80 | ((codePoint >> 6) & 0x3F));
+			put(0x80 | (codePoint & 0x3F));
+		}
+	}
+
+	private void putAscii(String value) throws IOException {
+		for (int index = 0; index < value.length(); index++) {
+			put(value.charAt(index));
+		}
+	}
+
+	private void put(int b) throws IOException {
+		if (position == buffer.length) {
+			flushBuffer();
+		}
+		buffer[position++] = (byte) b;
+	}
+
+	private void putBytes(byte[] bytes) throws IOException {
+		putBytes(bytes, 0, bytes.length);
+	}
+
+	private void putBytes(byte[] bytes, int offset, int length)
+			throws IOException {
+		if (length > buffer.length - position) {
+			flushBuffer();
+			if (length > buffer.length) {
+				outputStream.write(bytes, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(bytes, offset, buffer, position, length);
+		position += length;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position > 0) {
+			outputStream.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+
+/**
+ * A result set that can write itself as a JSON document directly from the
+ * way it is stored, without reading every value back as a String.
+ *
+ * @see JsonRowWriter
+ */
+public interface JsonStreamable {
+	/**
+	 * Writes the columns and all rows of the result set to the output stream
+	 * as a JSON document
+	 *
+	 * @param outputStream
+	 *            Stream to write to
+	 * @throws ResultSetException
+	 *             An error occurred reading the result set
+	 * @throws IOException
+	 *             An error occurred reading the result set or writing to the
+	 *             stream
+	 */
+	void writeJson(OutputStream outputStream) throws ResultSetException,
+			IOException;
+
+	/**
+	 * Writes the page of rows that a query returns to the output stream as a
+	 * JSON document, with the token of the next page
+	 *
+	 * @param outputStream
+	 *            Stream to write to
+	 * @param query
+	 *            Query
+	 * @throws ResultSetException
+	 *             An error occurred reading the result set
+	 * @throws IOException
+	 *             An error occurred reading the result set or writing to the
+	 *             stream
+	 * @see ResultSetQuery
+	 */
+	void writeJson(OutputStream outputStream, ResultSetQuery query)
+			throws ResultSetException, IOException;
+}
@@ -6,10 +6,9 @@ package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 
-import org.apache.commons.lang3.ArrayUtils;
-
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 
@@ -17,11 +16,18 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
  * The memory ResultSet stores a result set in JVM memory. It is a fast
  * implementation that provides a way to handle small data sets.
  * 
+ * Rows are stored in fixed size chunks so that appending a row never copies
+ * the rows that have already been added.
+ * 
  * @author Jeremy R. Easton-Marks
  *
  */
 public class MemoryResultSet extends ResultSetImpl {
-	private Row[] data;
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private Row[][] data = new Row[0][];
 	private long size;
 
 	/**
@@ -32,7 +38,18 @@ public class MemoryResultSet extends ResultSetImpl {
 	 */
 	@Override
 	public void appendRow() throws ResultSetException {
-		this.data = ArrayUtils.add(data, new Row(this.getColumnSize()));
+		int chunk = (int) (this.size >>> CHUNK_BITS);
+		if (chunk == this.data.length) {
+			// Grow the chunk directory geometrically, the chunks themselves
+			// are never copied
+			this.data = Arrays.copyOf(this.data,
+					Math.max(4, this.data.length * 2));
+		}
+		if (this.data[chunk] == null) {
+			this.data[chunk] = new Row[CHUNK_SIZE];
+		}
+		this.data[chunk][(int) (this.size & CHUNK_MASK)] = new Row(
+				this.getColumnSize());
 		setSize(this.getSize() + 1);
 		next();
 	}
@@ -60,7 +77,7 @@ public class MemoryResultSet extends ResultSetImpl {
 		if (columnIndex >= getColumnSize()) {
 			throw new ResultSetException("Column not found");
 		}
-		return data[(int) getRow()].getColumn(columnIndex);
+		return getCurrentRow().getColumn(columnIndex);
 	}
 
 	/**
@@ -74,7 +91,7 @@ public class MemoryResultSet extends ResultSetImpl {
 		if (columnIndex >= getColumnSize()) {
 			throw new ResultSetException("Column not found");
 		}
-		data[(int) getRow()].setColumn(columnIndex, value);
+		getCurrentRow().setColumn(columnIndex, value);
 	}
 
 	@Override
@@ -313,4 +330,10 @@ public class MemoryResultSet extends ResultSetImpl {
 		setCell(columnIndex, obj);
 	}
 
+	@Override
+	public Row getCurrentRow() throws ResultSetException {
+		long row = getRow();
+		return data[(int) (row >>> CHUNK_BITS)][(int) (row & CHUNK_MASK)];
+	}
+
 }
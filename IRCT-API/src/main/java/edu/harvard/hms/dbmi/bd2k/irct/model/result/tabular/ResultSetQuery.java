@@ -0,0 +1,543 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+
+/**
+ * A query over the rows of a result set: the columns to return, simple
+ * predicates the rows have to match, and the page of matching rows to return.
+ * Result sets that implement JsonStreamable evaluate the query on the rows as
+ * they are stored, any other result set is queried through its values.
+ *
+ * Numeric columns are compared as numbers. All other columns are compared as
+ * the text they are stored as, by the code points of the text, which also
+ * orders dates and times.
+ *
+ * A page ends with a page token if there may be more matching rows. The token
+ * holds the row the next page starts at, so the next page is read without
+ * reading the rows before it again. A token is only valid for a query of the
+ * same result with the same predicates.
+ */
+public final class ResultSetQuery {
+	public static final int DEFAULT_LIMIT = 100;
+
+	private static final int UNORDERED = Integer.MIN_VALUE;
+
+	/**
+	 * Operators of the predicates
+	 */
+	public enum Operator {
+		EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">="), CONTAINS(
+				null), NULL(null), NOT_NULL(null);
+
+		private final String symbol;
+
+		private Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * Returns the operator with the given name or symbol
+		 *
+		 * @param operator
+		 *            Name or symbol, the name is not case sensitive
+		 * @return Operator, or null if there is none
+		 */
+		public static Operator fromString(String operator) {
+			for (Operator candidate : values()) {
+				if (candidate.name().equalsIgnoreCase(operator)
+						|| (candidate.symbol != null && candidate.symbol
+								.equals(operator))) {
+					return candidate;
+				}
+			}
+			return null;
+		}
+
+		private boolean accepts(int comparison) {
+			if (comparison == UNORDERED) {
+				return this == NE;
+			}
+			switch (this) {
+			case EQ:
+				return comparison == 0;
+			case NE:
+				return comparison != 0;
+			case LT:
+				return comparison < 0;
+			case LE:
+				return comparison <= 0;
+			case GT:
+				return comparison > 0;
+			case GE:
+				return comparison >= 0;
+			default:
+				return false;
+			}
+		}
+	}
+
+	private final Column[] columns;
+	private int[] projection;
+	private final List<Predicate> predicates = new ArrayList<Predicate>();
+	private long offset;
+	private int limit = DEFAULT_LIMIT;
+	private long pageRow = -1;
+	private final Long resultId;
+
+	/**
+	 * Creates a query that returns all columns of the first page of rows
+	 *
+	 * @param columns
+	 *            Columns of the result set
+	 */
+	public ResultSetQuery(Column[] columns) {
+		this(columns, null);
+	}
+
+	/**
+	 * Creates a query of a result that returns all columns of the first page
+	 * of rows. The page tokens of the query are only valid for that result.
+	 *
+	 * @param columns
+	 *            Columns of the result set
+	 * @param resultId
+	 *            Result id, or null if the result set is not a stored result
+	 */
+	public ResultSetQuery(Column[] columns, Long resultId) {
+		this.columns = columns;
+		this.resultId = resultId;
+		this.projection = new int[columns.length];
+		for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+			projection[columnIndex] = columnIndex;
+		}
+	}
+
+	/**
+	 * Sets the columns to return
+	 *
+	 * @param names
+	 *            Names of the columns, in the order they are returned
+	 * @throws ResultSetException
+	 *             A column does not exist
+	 */
+	public void setColumns(List<String> names) throws ResultSetException {
+		int[] projection = new int[names.size()];
+		for (int index = 0; index < projection.length; index++) {
+			projection[index] = findColumn(names.get(index));
+		}
+		this.projection = projection;
+	}
+
+	/**
+	 * Adds a predicate that every returned row has to match
+	 *
+	 * @param column
+	 *            Name of the column
+	 * @param operator
+	 *            Operator
+	 * @param value
+	 *            Value the column is compared to, not used by the NULL and
+	 *            NOT_NULL operators
+	 * @throws ResultSetException
+	 *             The column does not exist, or the value does not apply to
+	 *             the column
+	 */
+	public void addPredicate(String column, Operator operator, String value)
+			throws ResultSetException {
+		int columnIndex = findColumn(column);
+		predicates.add(new Predicate(columnIndex, columns[columnIndex]
+				.getDataType(), operator, value));
+	}
+
+	/**
+	 * Sets the number of matching rows to skip. The offset is not used if a
+	 * page token is set.
+	 *
+	 * @param offset
+	 *            Number of rows
+	 */
+	public void setOffset(long offset) {
+		if (offset < 0) {
+			throw new IllegalArgumentException("The offset can not be negative");
+		}
+		this.offset = offset;
+	}
+
+	/**
+	 * Sets the maximum number of rows to return
+	 *
+	 * @param limit
+	 *            Number of rows
+	 */
+	public void setLimit(int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("The limit must be positive");
+		}
+		this.limit = limit;
+	}
+
+	/**
+	 * Continues a query from the page token of the previous page
+	 *
+	 * @param pageToken
+	 *            Page token
+	 * @throws ResultSetException
+	 *             The page token is not valid for this query
+	 */
+	public void setPageToken(String pageToken) throws ResultSetException {
+		int separator = pageToken.indexOf('.');
+		try {
+			long row = Long.parseLong(pageToken.substring(0, Math.max(0, separator)),
+					Character.MAX_RADIX);
+			long fingerprint = Long.parseLong(pageToken.substring(separator + 1),
+					Character.MAX_RADIX);
+			if (row < 0 || fingerprint != fingerprint()) {
+				throw new ResultSetException(
+						"The page token does not belong to this query");
+			}
+			this.pageRow = row;
+		} catch (NumberFormatException e) {
+			throw new ResultSetException("Invalid page token");
+		}
+	}
+
+	/**
+	 * Writes the page of the query as a JSON document: the returned columns,
+	 * the data array of the matching rows, and the token of the next page.
+	 *
+	 * @param resultSet
+	 *            Result set
+	 * @param outputStream
+	 *            Stream to write to
+	 * @throws ResultSetException
+	 *             An error occurred reading the result set
+	 * @throws IOException
+	 *             An error occurred reading the result set or writing to the
+	 *             stream
+	 */
+	public void writeJson(ResultSet resultSet, OutputStream outputStream)
+			throws ResultSetException, IOException {
+		if (resultSet instanceof JsonStreamable) {
+			((JsonStreamable) resultSet).writeJson(outputStream, this);
+			return;
+		}
+		JsonRowWriter writer = new JsonRowWriter(outputStream);
+		writer.startDocument(getProjectedColumns());
+		long nextRow = writer.writeRows(resultSet, this);
+		writer.endDocument(createPageToken(nextRow));
+	}
+
+	/**
+	 * Returns the columns that are returned
+	 *
+	 * @return Columns
+	 */
+	public Column[] getProjectedColumns() {
+		Column[] projected = new Column[projection.length];
+		for (int index = 0; index < projection.length; index++) {
+			projected[index] = columns[projection[index]];
+		}
+		return projected;
+	}
+
+	int[] getProjection() {
+		return projection;
+	}
+
+	List<Predicate> getPredicates() {
+		return Collections.unmodifiableList(predicates);
+	}
+
+	int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the row to start reading at. Without predicates the offset
+	 * is a row, so the rows before it are not read.
+	 */
+	long getStartRow() {
+		if (pageRow != -1) {
+			return pageRow;
+		}
+		return predicates.isEmpty() ? offset : 0;
+	}
+
+	/**
+	 * Returns the number of matching rows to skip before the page starts
+	 */
+	long getSkip() {
+		return pageRow != -1 || predicates.isEmpty() ? 0 : offset;
+	}
+
+	/**
+	 * Returns if the current row of a result set matches the predicates
+	 */
+	boolean matches(ResultSet resultSet) throws ResultSetException {
+		for (Predicate predicate : predicates) {
+			if (!predicate.matches(resultSet.getObject(predicate.columnIndex))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the token of the page that starts at a row
+	 *
+	 * @param nextRow
+	 *            Row, or -1 if there are no more rows
+	 * @return Page token, or null if there are no more rows
+	 */
+	String createPageToken(long nextRow) {
+		if (nextRow == -1) {
+			return null;
+		}
+		return Long.toString(nextRow, Character.MAX_RADIX) + "."
+				+ Long.toString(fingerprint(), Character.MAX_RADIX);
+	}
+
+	private long fingerprint() {
+		CRC32 crc = new CRC32();
+		if (resultId != null) {
+			crc.update((resultId + "\u0000").getBytes(StandardCharsets.UTF_8));
+		}
+		for (Predicate predicate : predicates) {
+			crc.update((predicate.columnIndex + "\u0000"
+					+ predicate.operator.name() + "\u0000"
+					+ predicate.value + "\u0000")
+					.getBytes(StandardCharsets.UTF_8));
+		}
+		return crc.getValue();
+	}
+
+	private int findColumn(String name) throws ResultSetException {
+		for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+			if (name.equals(columns[columnIndex].getName())) {
+				return columnIndex;
+			}
+		}
+		throw new ResultSetException("Column not found: " + name);
+	}
+
+	/**
+	 * A comparison of a column to a value
+	 */
+	static final class Predicate {
+		private final int columnIndex;
+		private final PrimitiveDataType dataType;
+		private final Operator operator;
+		private final String value;
+		private final boolean numeric;
+		private byte[] text;
+		private boolean integral;
+		private long longValue;
+		private double doubleValue;
+
+		Predicate(int columnIndex, PrimitiveDataType dataType,
+				Operator operator, String value) throws ResultSetException {
+			this.columnIndex = columnIndex;
+			this.dataType = dataType;
+			this.operator = operator;
+			this.value = value;
+			this.numeric = dataType != null
+					&& BinaryRowCodec.fixedWidth(dataType) != -1;
+			if (operator == Operator.NULL || operator == Operator.NOT_NULL) {
+				return;
+			}
+			if (value == null) {
+				throw new ResultSetException("The " + operator
+						+ " operator needs a value");
+			}
+			if (!numeric) {
+				text = value.getBytes(StandardCharsets.UTF_8);
+				return;
+			}
+			if (operator == Operator.CONTAINS) {
+				throw new ResultSetException(
+						"The CONTAINS operator only applies to text columns");
+			}
+
+			String number = value.trim();
+			if (dataType == PrimitiveDataType.BOOLEAN
+					&& (number.equalsIgnoreCase("true") || number
+							.equalsIgnoreCase("false"))) {
+				number = number.equalsIgnoreCase("true") ? "1" : "0";
+			}
+			try {
+				longValue = Long.parseLong(number);
+				doubleValue = longValue;
+				integral = true;
+			} catch (NumberFormatException e) {
+				try {
+					doubleValue = Double.parseDouble(number);
+				} catch (NumberFormatException e2) {
+					throw new ResultSetException("The value " + value
+							+ " is not a number");
+				}
+			}
+		}
+
+		int getColumnIndex() {
+			return columnIndex;
+		}
+
+		/**
+		 * Returns if a value matches
+		 *
+		 * @param cell
+		 *            Value as read from the result set
+		 * @return Matches
+		 */
+		boolean matches(Object cell) {
+			if (cell == null || operator == Operator.NULL
+					|| operator == Operator.NOT_NULL) {
+				return (cell == null) == (operator == Operator.NULL);
+			}
+			if (!numeric) {
+				byte[] bytes = BinaryRowCodec.toText(dataType, cell).getBytes(
+						StandardCharsets.UTF_8);
+				return matchesText(bytes, 0, bytes.length);
+			}
+
+			if (cell instanceof Boolean) {
+				return operator.accepts(compareLong((Boolean) cell ? 1 : 0));
+			} else if (cell instanceof Float || cell instanceof Double) {
+				return operator.accepts(compareDouble(((Number) cell)
+						.doubleValue()));
+			} else if (cell instanceof Number) {
+				return operator.accepts(compareLong(((Number) cell)
+						.longValue()));
+			}
+			String number = cell.toString().trim();
+			if (number.equalsIgnoreCase("true") || number.equalsIgnoreCase("false")) {
+				return operator.accepts(compareLong(number
+						.equalsIgnoreCase("true") ? 1 : 0));
+			}
+			try {
+				return operator.accepts(compareLong(Long.parseLong(number)));
+			} catch (NumberFormatException e) {
+				try {
+					return operator.accepts(compareDouble(Double
+							.parseDouble(number)));
+				} catch (NumberFormatException e2) {
+					return false;
+				}
+			}
+		}
+
+		/**
+		 * Returns if an entry of a row encoded by the BinaryRowCodec matches,
+		 * without decoding it
+		 *
+		 * @param bytes
+		 *            Encoded rows
+		 * @param position
+		 *            Position of the entry
+		 * @return Matches
+		 */
+		boolean matches(byte[] bytes, int position) {
+			boolean isNull = bytes[position] == 0;
+			if (isNull || operator == Operator.NULL
+					|| operator == Operator.NOT_NULL) {
+				return isNull == (operator == Operator.NULL);
+			}
+			position++;
+			if (!numeric) {
+				return matchesText(bytes, position + 4, readInt(bytes, position));
+			}
+
+			switch (dataType) {
+			case BOOLEAN:
+				return operator.accepts(compareLong(bytes[position] == 1 ? 1 : 0));
+			case BYTE:
+				return operator.accepts(compareLong(bytes[position]));
+			case INTEGER:
+				return operator.accepts(compareLong(readInt(bytes, position)));
+			case LONG:
+			case RESULTSET:
+				return operator.accepts(compareLong(readLong(bytes, position)));
+			case FLOAT:
+				return operator.accepts(compareDouble(Float
+						.intBitsToFloat(readInt(bytes, position))));
+			default:
+				return operator.accepts(compareDouble(Double
+						.longBitsToDouble(readLong(bytes, position))));
+			}
+		}
+
+		private boolean matchesText(byte[] bytes, int offset, int length) {
+			if (operator == Operator.CONTAINS) {
+				return indexOf(bytes, offset, length, text) != -1;
+			}
+			// Unsigned UTF-8 bytes are ordered like the code points
+			int common = Math.min(length, text.length);
+			for (int index = 0; index < common; index++) {
+				int comparison = (bytes[offset + index] & 0xFF)
+						- (text[index] & 0xFF);
+				if (comparison != 0) {
+					return operator.accepts(comparison);
+				}
+			}
+			return operator.accepts(length - text.length);
+		}
+
+		private int compareLong(long cell) {
+			if (integral) {
+				return cell < longValue ? -1 : cell > longValue ? 1 : 0;
+			}
+			return compareDouble(cell);
+		}
+
+		private int compareDouble(double cell) {
+			double compared = doubleValue;
+			if (dataType == PrimitiveDataType.FLOAT) {
+				// Compare at the precision the value is stored at
+				compared = (float) compared;
+			}
+			if (cell < compared) {
+				return -1;
+			} else if (cell > compared) {
+				return 1;
+			}
+			return cell == compared ? 0 : UNORDERED;
+		}
+
+		private static int indexOf(byte[] bytes, int offset, int length,
+				byte[] search) {
+			outer: for (int start = 0; start <= length - search.length; start++) {
+				for (int index = 0; index < search.length; index++) {
+					if (bytes[offset + start + index] != search[index]) {
+						continue outer;
+					}
+				}
+				return start;
+			}
+			return -1;
+		}
+
+		private static int readInt(byte[] bytes, int position) {
+			return (bytes[position] & 0xFF) << 24
+					| (bytes[position + 1] & 0xFF) << 16
+					| (bytes[position + 2] & 0xFF) << 8
+					| (bytes[position + 3] & 0xFF);
+		}
+
+		private static long readLong(byte[] bytes, int position) {
+			return (long) readInt(bytes, position) << 32
+					| (readInt(bytes, position + 4) & 0xFFFFFFFFL);
+		}
+	}
+}
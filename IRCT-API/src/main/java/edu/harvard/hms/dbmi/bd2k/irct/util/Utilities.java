@@ -2,10 +2,16 @@ package edu.harvard.hms.dbmi.bd2k.irct.util;
 
 import edu.harvard.hms.dbmi.bd2k.irct.event.IRCTEventListener;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
+import org.apache.log4j.Logger;
+
 public class Utilities {
+	private static Logger logger = Logger.getLogger(Utilities.class);
 	
 	public static final class Naming {
 		
@@ -20,7 +26,27 @@ public class Utilities {
 			InitialContext ic = new InitialContext();
 			return (IRCTEventListener) ic.lookup("java:module/IRCTEventListener");
 		} catch (NamingException e) {
-			e.printStackTrace();
+			logger.error("getIRCTEventListener() " + e.getMessage());
+		}
+		return null;
+	}
+
+	public static ExecutorService getManagedExecutorService() {
+		try {
+			InitialContext ic = new InitialContext();
+			return (ExecutorService) ic.lookup("java:comp/DefaultManagedExecutorService");
+		} catch (NamingException e) {
+			logger.error("getManagedExecutorService() " + e.getMessage());
+		}
+		return null;
+	}
+
+	public static ScheduledExecutorService getManagedScheduledExecutorService() {
+		try {
+			InitialContext ic = new InitialContext();
+			return (ScheduledExecutorService) ic.lookup("java:comp/DefaultManagedScheduledExecutorService");
+		} catch (NamingException e) {
+			logger.warn("getManagedScheduledExecutorService() " + e.getMessage());
 		}
 		return null;
 	}
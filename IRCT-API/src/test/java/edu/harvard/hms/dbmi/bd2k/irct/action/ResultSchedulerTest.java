@@ -0,0 +1,299 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.query.Query;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.ResourceState;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.CallbackQueryResourceImplementationInterface;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.QueryResourceImplementationInterface;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+public class ResultSchedulerTest {
+	private ScheduledExecutorService scheduler;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Hands the result to the callback without blocking the calling thread,
+	 * and polls and calls back on the executor
+	 */
+	@Test
+	public void testScheduleDoesNotBlock() throws InterruptedException,
+			ExecutionException {
+		PollingResource resource = new PollingResource(3);
+		RecordingCallback callback = new RecordingCallback();
+		new ResultScheduler(scheduler, executor).schedule(resource, null,
+				runningResult(), 0, TimeUnit.SECONDS, callback);
+		assertFalse(callback.called.await(0, TimeUnit.MILLISECONDS));
+
+		assertTrue(callback.called.await(10, TimeUnit.SECONDS));
+		assertEquals(ResultStatus.COMPLETE, callback.result.get().getResultStatus());
+		assertEquals(3, resource.polls.get());
+		Thread schedulerThread = scheduler.submit(new Callable<Thread>() {
+			@Override
+			public Thread call() {
+				return Thread.currentThread();
+			}
+		}).get();
+		assertNotSame(schedulerThread, resource.pollThread);
+		assertNotSame(schedulerThread, callback.thread);
+		assertNotSame(Thread.currentThread(), callback.thread);
+	}
+
+	/**
+	 * Does not limit the time a result may take when there is no timeout
+	 */
+	@Test
+	public void testNoTimeout() throws InterruptedException {
+		PollingResource resource = new PollingResource(5);
+		Result result = new ResultScheduler(scheduler, executor).awaitResult(
+				resource, null, runningResult(), 0, TimeUnit.SECONDS);
+
+		assertEquals(ResultStatus.COMPLETE, result.getResultStatus());
+		assertEquals(5, resource.polls.get());
+	}
+
+	/**
+	 * Returns a timed out result only once the poll that is running has
+	 * returned, so nothing writes to the result after it is handed over
+	 */
+	@Test
+	public void testTimeoutWaitsForRunningPoll() throws InterruptedException {
+		PollingResource resource = new PollingResource(Integer.MAX_VALUE);
+		resource.pollDuration = 600;
+		Result result = new ResultScheduler(scheduler, executor).awaitResult(
+				resource, null, runningResult(), 300, TimeUnit.MILLISECONDS);
+
+		assertEquals(ResultStatus.ERROR, result.getResultStatus());
+		assertEquals(1, resource.polls.get());
+		assertEquals(0, resource.running.get());
+	}
+
+	/**
+	 * Does not poll resources that signal their results
+	 */
+	@Test
+	public void testCallbackResource() throws InterruptedException {
+		final CallbackResource resource = new CallbackResource();
+		RecordingCallback callback = new RecordingCallback();
+		new ResultScheduler(scheduler, executor).schedule(resource, null,
+				runningResult(), 0, TimeUnit.SECONDS, callback);
+		assertFalse(callback.called.await(200, TimeUnit.MILLISECONDS));
+
+		Result result = runningResult();
+		result.setResultStatus(ResultStatus.COMPLETE);
+		resource.callback.onResult(result);
+
+		assertTrue(callback.called.await(10, TimeUnit.SECONDS));
+		assertSame(result, callback.result.get());
+		assertEquals(0, ((PollingResource) resource).polls.get());
+	}
+
+	/**
+	 * Polls the result from the scheduler until it is complete
+	 */
+	@Test
+	public void testPollOnScheduler() throws InterruptedException {
+		PollingResource resource = new PollingResource(3);
+		Result result = new ResultScheduler(scheduler, null).awaitResult(resource,
+				null, runningResult(), 10, TimeUnit.SECONDS);
+
+		assertEquals(ResultStatus.COMPLETE, result.getResultStatus());
+		assertEquals(3, resource.polls.get());
+		assertNotSame(Thread.currentThread(), resource.pollThread);
+	}
+
+	/**
+	 * Polls the result from the calling thread when there is no scheduler
+	 */
+	@Test
+	public void testPollOnCallingThread() throws InterruptedException {
+		PollingResource resource = new PollingResource(2);
+		Result result = new ResultScheduler(null, null).awaitResult(resource, null,
+				runningResult(), 10, TimeUnit.SECONDS);
+
+		assertEquals(ResultStatus.COMPLETE, result.getResultStatus());
+		assertEquals(2, resource.polls.get());
+		assertSame(Thread.currentThread(), resource.pollThread);
+	}
+
+	/**
+	 * Returns an error once the timeout has passed and stops polling
+	 */
+	@Test
+	public void testTimeout() throws InterruptedException {
+		for (ScheduledExecutorService pollScheduler : new ScheduledExecutorService[] {
+				scheduler, null }) {
+			PollingResource resource = new PollingResource(Integer.MAX_VALUE);
+			Result result = new ResultScheduler(pollScheduler, null).awaitResult(
+					resource, null, runningResult(), 500,
+					TimeUnit.MILLISECONDS);
+
+			assertEquals(ResultStatus.ERROR, result.getResultStatus());
+			assertTrue(result.getMessage().contains("did not finish"));
+
+			int polls = resource.polls.get();
+			Thread.sleep(ResultScheduler.MAXIMUM_DELAY / 2);
+			assertEquals("Polled after the timeout", polls,
+					resource.polls.get());
+		}
+	}
+
+	/**
+	 * Returns an error if the resource fails to return the result
+	 */
+	@Test
+	public void testPollError() throws InterruptedException {
+		for (ScheduledExecutorService pollScheduler : new ScheduledExecutorService[] {
+				scheduler, null }) {
+			PollingResource resource = new PollingResource(-1);
+			Result result = new ResultScheduler(pollScheduler, null).awaitResult(
+					resource, null, runningResult(), 10, TimeUnit.SECONDS);
+
+			assertEquals(ResultStatus.ERROR, result.getResultStatus());
+			assertEquals("Resource is unavailable", result.getMessage());
+			assertEquals(1, resource.polls.get());
+		}
+	}
+
+	private Result runningResult() {
+		Result result = new Result();
+		result.setResultStatus(ResultStatus.RUNNING);
+		return result;
+	}
+
+	/**
+	 * Records the result it is handed
+	 */
+	private static class RecordingCallback implements ResultCallback {
+		private final CountDownLatch called = new CountDownLatch(1);
+		private final AtomicReference<Result> result = new AtomicReference<Result>();
+		private volatile Thread thread;
+
+		@Override
+		public void onResult(Result result) {
+			this.thread = Thread.currentThread();
+			this.result.set(result);
+			called.countDown();
+		}
+	}
+
+	/**
+	 * A resource that signals its results through a callback
+	 */
+	private static class CallbackResource extends PollingResource implements
+			CallbackQueryResourceImplementationInterface {
+		private volatile ResultCallback callback;
+
+		CallbackResource() {
+			super(Integer.MAX_VALUE);
+		}
+
+		@Override
+		public void registerResultCallback(User user, Result result,
+				ResultCallback callback) {
+			this.callback = callback;
+		}
+	}
+
+	/**
+	 * A resource whose results are complete after a number of polls, or that
+	 * fails to return the results if the number is negative
+	 */
+	private static class PollingResource implements
+			QueryResourceImplementationInterface {
+		private final int completeAfter;
+		private final AtomicInteger polls = new AtomicInteger();
+		private final AtomicInteger running = new AtomicInteger();
+		private volatile Thread pollThread;
+		private long pollDuration;
+
+		PollingResource(int completeAfter) {
+			this.completeAfter = completeAfter;
+		}
+
+		@Override
+		public Result getResults(User user, Result result)
+				throws ResourceInterfaceException {
+			pollThread = Thread.currentThread();
+			running.incrementAndGet();
+			try {
+				if (pollDuration > 0) {
+					Thread.sleep(pollDuration);
+				}
+			} catch (InterruptedException e) {
+				throw new ResourceInterfaceException("Interrupted");
+			} finally {
+				running.decrementAndGet();
+			}
+			if (polls.incrementAndGet() == completeAfter) {
+				result.setResultStatus(ResultStatus.COMPLETE);
+			} else if (completeAfter < 0) {
+				throw new ResourceInterfaceException("Resource is unavailable");
+			}
+			return result;
+		}
+
+		@Override
+		public Result runQuery(User user, Query qep, Result result) {
+			return result;
+		}
+
+		@Override
+		public ResourceState getState() {
+			return ResourceState.READY;
+		}
+
+		@Override
+		public ResultDataType getQueryDataType(Query query) {
+			return ResultDataType.TABULAR;
+		}
+
+		@Override
+		public void setup(Map<String, String> parameters) {
+		}
+
+		@Override
+		public String getType() {
+			return "polling";
+		}
+	}
+}
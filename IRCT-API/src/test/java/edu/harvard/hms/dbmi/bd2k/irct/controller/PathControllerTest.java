@@ -0,0 +1,63 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.ontology.Entity;
+
+public class PathControllerTest {
+
+	/**
+	 * Tests that entities found by more than one search are only returned
+	 * once, in the order they were first found
+	 */
+	@Test
+	public void testMergeMatchesDeduplicatesPuis() {
+		Entity demographics = new Entity("/i2b2/Demographics/");
+		Entity gender = new Entity("/i2b2/Demographics/Gender/");
+		Entity age = new Entity("/i2b2/Demographics/Age/");
+		Entity genderAgain = new Entity("/i2b2/Demographics/Gender/");
+
+		List<List<Entity>> results = new ArrayList<List<Entity>>();
+		results.add(Arrays.asList(demographics, gender));
+		results.add(Collections.<Entity> emptyList());
+		results.add(Arrays.asList(genderAgain, age, demographics));
+
+		List<Entity> matches = PathController.mergeMatches(results);
+
+		assertEquals(3, matches.size());
+		assertSame(demographics, matches.get(0));
+		assertSame(gender, matches.get(1));
+		assertSame(age, matches.get(2));
+	}
+
+	/**
+	 * Tests that entities without a PUI are never merged
+	 */
+	@Test
+	public void testMergeMatchesKeepsEntitiesWithoutPui() {
+		Entity first = new Entity((String) null);
+		Entity second = new Entity((String) null);
+
+		List<List<Entity>> results = new ArrayList<List<Entity>>();
+		results.add(Arrays.asList(first));
+		results.add(Arrays.asList(second));
+
+		List<Entity> matches = PathController.mergeMatches(results);
+
+		assertEquals(2, matches.size());
+		assertTrue(matches.contains(first));
+		assertTrue(matches.contains(second));
+	}
+}
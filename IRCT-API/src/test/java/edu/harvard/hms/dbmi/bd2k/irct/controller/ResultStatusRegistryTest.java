@@ -0,0 +1,98 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
+
+public class ResultStatusRegistryTest {
+
+	/**
+	 * Tests that a listener is told about every update until it is removed
+	 */
+	@Test
+	public void testListenerKeptUntilRemoved() {
+		ResultStatusRegistry registry = new ResultStatusRegistry();
+		RecordingListener listener = new RecordingListener();
+		registry.addListener(1L, listener);
+
+		registry.update(createResult(1L, ResultStatus.RUNNING));
+		registry.update(createResult(1L, ResultStatus.RUNNING));
+		registry.update(createResult(2L, ResultStatus.AVAILABLE));
+		registry.update(createResult(1L, ResultStatus.AVAILABLE));
+		registry.removeListener(1L, listener);
+		registry.update(createResult(1L, ResultStatus.ERROR));
+
+		assertEquals(Arrays.asList(ResultStatus.RUNNING, ResultStatus.RUNNING, ResultStatus.AVAILABLE),
+				listener.statuses);
+		assertEquals(ResultStatus.ERROR, registry.get(1L).getResultStatus());
+	}
+
+	/**
+	 * Tests that a listener can remove itself while it is told, without
+	 * affecting the other listeners of the result
+	 */
+	@Test
+	public void testListenerRemovesItself() {
+		final ResultStatusRegistry registry = new ResultStatusRegistry();
+		RecordingListener other = new RecordingListener();
+		RecordingListener waiting = new RecordingListener() {
+			@Override
+			public void statusChanged(ResultStatusRegistry.Entry entry) {
+				super.statusChanged(entry);
+				if (entry.getResultStatus() != ResultStatus.RUNNING) {
+					registry.removeListener(entry.getResultId(), this);
+				}
+			}
+		};
+		registry.addListener(1L, waiting);
+		registry.addListener(1L, other);
+
+		registry.update(createResult(1L, ResultStatus.RUNNING));
+		registry.update(createResult(1L, ResultStatus.AVAILABLE));
+		registry.update(createResult(1L, ResultStatus.AVAILABLE));
+
+		assertEquals(Arrays.asList(ResultStatus.RUNNING, ResultStatus.AVAILABLE), waiting.statuses);
+		assertEquals(3, other.statuses.size());
+	}
+
+	/**
+	 * Tests that results without an id are not recorded
+	 */
+	@Test
+	public void testResultWithoutId() {
+		ResultStatusRegistry registry = new ResultStatusRegistry();
+		assertNull(registry.update(createResult(null, ResultStatus.RUNNING)));
+		assertNull(registry.update(null));
+		assertNull(registry.get(null));
+	}
+
+	private Result createResult(Long resultId, ResultStatus resultStatus) {
+		Result result = new Result();
+		result.setId(resultId);
+		result.setResultStatus(resultStatus);
+		return result;
+	}
+
+	/**
+	 * Records the statuses it is told about
+	 */
+	private static class RecordingListener implements ResultStatusRegistry.Listener {
+		private final List<ResultStatus> statuses = new ArrayList<ResultStatus>();
+
+		@Override
+		public void statusChanged(ResultStatusRegistry.Entry entry) {
+			statuses.add(entry.getResultStatus());
+		}
+	}
+}
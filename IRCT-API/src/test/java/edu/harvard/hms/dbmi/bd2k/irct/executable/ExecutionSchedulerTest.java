@@ -0,0 +1,435 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.executable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.action.Action;
+import edu.harvard.hms.dbmi.bd2k.irct.action.ActionStatus;
+import edu.harvard.hms.dbmi.bd2k.irct.action.QueryAction;
+import edu.harvard.hms.dbmi.bd2k.irct.controller.ResultStatusRegistry;
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.Resource;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ResultCallback;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+public class ExecutionSchedulerTest {
+	private ExecutorService executor;
+	private List<String> completed;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+		completed = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Tests that a node is only run once all of its children have completed,
+	 * and that it is passed the results of its children
+	 */
+	@Test
+	public void testChildrenRunBeforeParent() throws ResourceInterfaceException {
+		RecordingAction joinAction = new RecordingAction("join");
+		ExecutableChildNode join = new ExecutableChildNode();
+		join.setAction(joinAction);
+		join.addChild("left", new RecordingExecutable("left", 1L, 50));
+		join.addChild("right", new RecordingExecutable("right", 2L, 0));
+
+		Map<String, Executable> children = new LinkedHashMap<String, Executable>();
+		children.put("join", join);
+		children.put("other", new RecordingExecutable("other", 3L, 0));
+
+		Map<String, Result> results = new ExecutionScheduler(executor)
+				.runChildren(new User(), children, false);
+
+		assertEquals(4, completed.size());
+		assertTrue(completed.indexOf("left") < completed.indexOf("join"));
+		assertTrue(completed.indexOf("right") < completed.indexOf("join"));
+		assertEquals(Long.valueOf(1L), joinAction.params.get("left").getId());
+		assertEquals(Long.valueOf(2L), joinAction.params.get("right").getId());
+		assertEquals(2, results.size());
+		assertEquals(Long.valueOf(3L), results.get("other").getId());
+	}
+
+	/**
+	 * Tests that blocking children are run one after another in the order
+	 * they were added
+	 */
+	@Test
+	public void testSequentialChildrenRunInOrder()
+			throws ResourceInterfaceException {
+		AtomicInteger running = new AtomicInteger();
+		Map<String, Executable> children = new LinkedHashMap<String, Executable>();
+		for (int child = 0; child < 4; child++) {
+			RecordingExecutable executable = new RecordingExecutable("child"
+					+ child, (long) child, 20);
+			executable.running = running;
+			children.put("child" + child, executable);
+		}
+
+		new ExecutionScheduler(executor).runChildren(new User(), children,
+				true);
+
+		assertEquals(Arrays.asList("child0", "child1", "child2", "child3"),
+				completed);
+	}
+
+	/**
+	 * Tests that a failed child is rethrown and its parent is not run
+	 */
+	@Test
+	public void testFailurePropagates() {
+		RecordingAction joinAction = new RecordingAction("join");
+		ExecutableChildNode join = new ExecutableChildNode();
+		join.setAction(joinAction);
+		RecordingExecutable failing = new RecordingExecutable("failing", 1L, 0);
+		failing.status = ResultStatus.ERROR;
+		join.addChild("left", failing);
+		join.addChild("right", new RecordingExecutable("right", 2L, 0));
+
+		Map<String, Executable> children = new HashMap<String, Executable>();
+		children.put("join", join);
+		try {
+			new ExecutionScheduler(executor).runChildren(new User(), children,
+					false);
+			fail("Exception not thrown");
+		} catch (ResourceInterfaceException e) {
+			assertTrue(e.getMessage().contains("failing"));
+		}
+		assertFalse(completed.contains("join"));
+	}
+
+	/**
+	 * Tests that a node waiting for a running result completes once the
+	 * result is available
+	 */
+	@Test
+	public void testWaitForRunningResult() throws ResourceInterfaceException {
+		final ResultStatusRegistry registry = new ResultStatusRegistry();
+		final Result input = new Result();
+		input.setId(10L);
+		input.setResultStatus(ResultStatus.RUNNING);
+		registry.update(input);
+
+		RecordingAction joinAction = new RecordingAction("join");
+		ExecutableChildNode join = new ExecutableChildNode();
+		join.setAction(joinAction);
+		join.addChild("LeftResultSet", new ExecutableResultNode(registry, 10L));
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+				completed.add("input");
+				input.setResultStatus(ResultStatus.AVAILABLE);
+				registry.update(input);
+			}
+		});
+
+		Map<String, Executable> children = new HashMap<String, Executable>();
+		children.put("join", join);
+		new ExecutionScheduler(executor).runChildren(new User(), children,
+				false);
+
+		assertEquals(Arrays.asList("input", "join"), completed);
+		assertEquals(Long.valueOf(10L),
+				joinAction.params.get("LeftResultSet").getId());
+	}
+
+	/**
+	 * Tests that executables whose results arrive later do not hold an
+	 * executor thread while they wait, so a plan with more pending results
+	 * than threads completes
+	 */
+	@Test
+	public void testCallbackResultsDoNotHoldThreads()
+			throws InterruptedException {
+		ExecutorService singleThread = Executors.newSingleThreadExecutor();
+		try {
+			final List<ResultCallback> pending = Collections
+					.synchronizedList(new ArrayList<ResultCallback>());
+			RecordingAction joinAction = new RecordingAction("join");
+			ExecutableChildNode join = new ExecutableChildNode();
+			join.setAction(joinAction);
+			for (long child = 0; child < 3; child++) {
+				join.addChild("child" + child, new PendingExecutable(child, pending));
+			}
+
+			final CountDownLatch done = new CountDownLatch(1);
+			final Result[] planResult = new Result[1];
+			new ExecutionScheduler(singleThread).run(new User(), join,
+					new ResultCallback() {
+						@Override
+						public void onResult(Result result) {
+							planResult[0] = result;
+							done.countDown();
+						}
+					});
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (pending.size() < 3 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(3, pending.size());
+			assertFalse(completed.contains("join"));
+			for (long child = 0; child < 3; child++) {
+				Result result = new Result();
+				result.setId(child);
+				result.setResultStatus(ResultStatus.COMPLETE);
+				pending.get((int) child).onResult(result);
+			}
+
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertEquals(ResultStatus.COMPLETE, planResult[0].getResultStatus());
+			assertEquals(Arrays.asList("join"), completed);
+			assertEquals(3, joinAction.params.size());
+		} finally {
+			singleThread.shutdownNow();
+		}
+	}
+
+	/**
+	 * Tests that the number of actions running on a resource at the same
+	 * time is read from the resourceConcurrency parameter of the resource,
+	 * including after the parameter changed
+	 */
+	@Test
+	public void testResourceConcurrency() throws InterruptedException {
+		Resource resource = new Resource();
+		resource.setName("concurrency-" + System.nanoTime());
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("resourceConcurrency", "1");
+		resource.setParameters(parameters);
+
+		assertEquals(1, runConcurrentQueries(resource, 3));
+		parameters.put("resourceConcurrency", "3");
+		assertEquals(3, runConcurrentQueries(resource, 3));
+	}
+
+	/**
+	 * Runs queries on a resource and returns the most that ran at the same
+	 * time
+	 */
+	private int runConcurrentQueries(Resource resource, int queries)
+			throws InterruptedException {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maximum = new AtomicInteger();
+		ExecutableChildNode root = new ExecutableChildNode();
+		root.setAction(new RecordingAction("root"));
+		for (int query = 0; query < queries; query++) {
+			ExecutableChildNode child = new ExecutableChildNode();
+			child.setAction(new SlowQueryAction(resource, running, maximum));
+			root.addChild("query" + query, child);
+		}
+
+		final CountDownLatch done = new CountDownLatch(1);
+		new ExecutionScheduler(executor).run(new User(), root,
+				new ResultCallback() {
+					@Override
+					public void onResult(Result result) {
+						done.countDown();
+					}
+				});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		return maximum.get();
+	}
+
+	/**
+	 * A query action whose results arrive some time after it has run
+	 */
+	private static class SlowQueryAction extends QueryAction {
+		private final AtomicInteger running;
+		private final AtomicInteger maximum;
+
+		SlowQueryAction(Resource resource, AtomicInteger running,
+				AtomicInteger maximum) {
+			setup(resource, null);
+			this.running = running;
+			this.maximum = maximum;
+		}
+
+		@Override
+		public void run(User user) {
+			int now = running.incrementAndGet();
+			int highest;
+			do {
+				highest = maximum.get();
+			} while (now > highest && !maximum.compareAndSet(highest, now));
+		}
+
+		@Override
+		public void getResults(User user, final ResultCallback callback) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						return;
+					}
+					running.decrementAndGet();
+					Result result = new Result();
+					result.setResultStatus(ResultStatus.COMPLETE);
+					callback.onResult(result);
+				}
+			}.start();
+		}
+	}
+
+	/**
+	 * An executable that hands its callback out instead of calling it
+	 */
+	private class PendingExecutable implements CallbackExecutable {
+		private final Long resultId;
+		private final List<ResultCallback> pending;
+
+		PendingExecutable(Long resultId, List<ResultCallback> pending) {
+			this.resultId = resultId;
+			this.pending = pending;
+		}
+
+		@Override
+		public void setup(User user) {
+		}
+
+		@Override
+		public void run() {
+		}
+
+		@Override
+		public ExecutableStatus getStatus() {
+			return ExecutableStatus.RUNNING;
+		}
+
+		@Override
+		public Result getResults() {
+			throw new IllegalStateException("The results of " + resultId
+					+ " are not available yet");
+		}
+
+		@Override
+		public void getResults(ResultCallback callback) {
+			pending.add(callback);
+		}
+	}
+
+	/**
+	 * An executable that records when it completes
+	 */
+	private class RecordingExecutable implements Executable {
+		private final String name;
+		private final Long resultId;
+		private final long duration;
+		private ResultStatus status = ResultStatus.COMPLETE;
+		private AtomicInteger running = new AtomicInteger();
+		private ExecutableStatus state;
+
+		RecordingExecutable(String name, Long resultId, long duration) {
+			this.name = name;
+			this.resultId = resultId;
+			this.duration = duration;
+		}
+
+		@Override
+		public void setup(User user) {
+			state = ExecutableStatus.CREATED;
+		}
+
+		@Override
+		public void run() throws ResourceInterfaceException {
+			state = ExecutableStatus.RUNNING;
+			if (running.incrementAndGet() > 1) {
+				completed.add("overlap");
+			}
+			try {
+				Thread.sleep(duration);
+			} catch (InterruptedException e) {
+				throw new ResourceInterfaceException("Interrupted");
+			} finally {
+				running.decrementAndGet();
+			}
+			completed.add(name);
+			state = ExecutableStatus.COMPLETED;
+		}
+
+		@Override
+		public ExecutableStatus getStatus() {
+			return state;
+		}
+
+		@Override
+		public Result getResults() {
+			Result result = new Result();
+			result.setId(resultId);
+			result.setResultStatus(status);
+			result.setMessage(name + " failed");
+			return result;
+		}
+	}
+
+	/**
+	 * An action that records the results of its children
+	 */
+	private class RecordingAction implements Action {
+		private final String name;
+		private Map<String, Result> params = new HashMap<String, Result>();
+
+		RecordingAction(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void run(User user) {
+			completed.add(name);
+		}
+
+		@Override
+		public void updateActionParams(Map<String, Result> updatedParams) {
+			params.putAll(updatedParams);
+		}
+
+		@Override
+		public Result getResults(User user) {
+			Result result = new Result();
+			result.setResultStatus(ResultStatus.COMPLETE);
+			return result;
+		}
+
+		@Override
+		public ActionStatus getStatus() {
+			return ActionStatus.COMPLETE;
+		}
+	}
+}
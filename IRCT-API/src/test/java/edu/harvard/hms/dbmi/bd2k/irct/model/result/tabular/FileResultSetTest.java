@@ -0,0 +1,161 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+
+public class FileResultSetTest {
+	private Path folder;
+	private String location;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("irct");
+		location = folder.resolve("1").toString();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File file : folder.toFile().listFiles()) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(folder);
+	}
+
+	/**
+	 * Appends more rows than the maximum pending size before the result set
+	 * has been persisted, which writes the rows to a temporary file that is
+	 * moved into place on persist
+	 */
+	@Test
+	public void testAppendBeyondMaxPendingBeforePersist()
+			throws ResultSetException, PersistableException {
+		FileResultSet rs = new FileResultSet();
+		appendColumns(rs);
+		long rows = rs.getMaxPending() * 2 + 10;
+		for (long row = 0; row < rows; row++) {
+			appendRow(rs, row);
+		}
+		rs.persist(location);
+		rs.close();
+
+		assertLoaded(rows);
+	}
+
+	/**
+	 * Appends more rows than the maximum pending size to a persisted result
+	 * set and updates a row that has already been written to the data file
+	 */
+	@Test
+	public void testAppendBeyondMaxPendingAfterPersist()
+			throws ResultSetException, PersistableException {
+		FileResultSet rs = new FileResultSet();
+		rs.persist(location);
+		appendColumns(rs);
+		long rows = rs.getMaxPending() + 10;
+		for (long row = 0; row < rows; row++) {
+			appendRow(rs, row);
+		}
+		rs.merge();
+
+		rs.absolute(5);
+		rs.updateString("name", "updated");
+		rs.merge();
+		rs.close();
+
+		FileResultSet loaded = assertLoaded(rows);
+		loaded.absolute(5);
+		assertEquals("updated", loaded.getString("name"));
+		loaded.close();
+	}
+
+	/**
+	 * Updates the first, last and several middle rows of a persisted result
+	 * set while appending new rows, and checks every row after the merge
+	 */
+	@Test
+	public void testMergeUpdatedRows() throws ResultSetException,
+			PersistableException {
+		FileResultSet rs = new FileResultSet();
+		rs.persist(location);
+		appendColumns(rs);
+		for (long row = 0; row < 5000; row++) {
+			appendRow(rs, row);
+		}
+		rs.merge();
+
+		long[] updatedRows = new long[] { 0, 17, 18, 2500, 4999 };
+		for (long updatedRow : updatedRows) {
+			rs.absolute(updatedRow);
+			rs.updateString("name", "updated " + updatedRow);
+		}
+		for (long row = 5000; row < 5100; row++) {
+			appendRow(rs, row);
+		}
+		rs.merge();
+		rs.close();
+
+		FileResultSet loaded = new FileResultSet();
+		loaded.load(location);
+		assertEquals(5100, loaded.getSize());
+		int updatedIndex = 0;
+		for (long row = 0; row < 5100; row++) {
+			loaded.absolute(row);
+			assertEquals(Long.toString(row), loaded.getString("id"));
+			if ((updatedIndex < updatedRows.length)
+					&& (updatedRows[updatedIndex] == row)) {
+				assertEquals("updated " + row, loaded.getString("name"));
+				updatedIndex++;
+			} else {
+				assertEquals("patient " + row, loaded.getString("name"));
+			}
+		}
+		loaded.close();
+	}
+
+	private FileResultSet assertLoaded(long rows) throws ResultSetException,
+			PersistableException {
+		FileResultSet loaded = new FileResultSet();
+		loaded.load(location);
+		assertEquals(rows, loaded.getSize());
+		loaded.absolute(rows - 1);
+		assertRow(loaded, rows - 1);
+		loaded.absolute(1234);
+		assertRow(loaded, 1234);
+		loaded.absolute(0);
+		assertRow(loaded, 0);
+		return loaded;
+	}
+
+	private void appendColumns(FileResultSet rs) throws ResultSetException {
+		rs.appendColumn(new Column("id", PrimitiveDataType.STRING));
+		rs.appendColumn(new Column("name", PrimitiveDataType.STRING));
+	}
+
+	private void appendRow(FileResultSet rs, long row)
+			throws ResultSetException, PersistableException {
+		rs.appendRow();
+		rs.updateString("id", Long.toString(row));
+		rs.updateString("name", "patient " + row);
+	}
+
+	private void assertRow(FileResultSet rs, long row)
+			throws ResultSetException {
+		assertEquals(Long.toString(row), rs.getString("id"));
+		assertEquals("patient " + row, rs.getString("name"));
+	}
+}
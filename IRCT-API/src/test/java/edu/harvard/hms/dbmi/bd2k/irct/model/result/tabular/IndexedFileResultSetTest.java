@@ -0,0 +1,237 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+
+public class IndexedFileResultSetTest {
+	private Path folder;
+	private String location;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("irct");
+		location = folder.resolve("1").toString();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File file : folder.toFile().listFiles()) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(folder);
+	}
+
+	/**
+	 * Writes rows of every numeric and string type, reloads them from disk
+	 * and reads them back out of order
+	 */
+	@Test
+	public void testPersistAndLoad() throws ResultSetException,
+			PersistableException {
+		IndexedFileResultSet rs = createResultSet(2500);
+		rs.close();
+
+		IndexedFileResultSet loaded = new IndexedFileResultSet();
+		loaded.load(location);
+		assertEquals(2500, loaded.getSize());
+		assertEquals(4, loaded.getColumnSize());
+
+		assertTrue(loaded.absolute(1234));
+		assertRow(loaded, 1234);
+		assertTrue(loaded.absolute(7));
+		assertRow(loaded, 7);
+		assertTrue(loaded.last());
+		assertRow(loaded, 2499);
+
+		loaded.beforeFirst();
+		long count = 0;
+		while (loaded.next()) {
+			assertRow(loaded, count);
+			count++;
+		}
+		assertEquals(2500, count);
+		loaded.close();
+	}
+
+	/**
+	 * Updates a persisted row and checks that the update survives a merge
+	 * and reload while the neighbouring rows remain unchanged
+	 */
+	@Test
+	public void testMergeUpdatedRow() throws ResultSetException,
+			PersistableException {
+		IndexedFileResultSet rs = createResultSet(100);
+		rs.absolute(50);
+		rs.updateString("name", "updated");
+		rs.updateObject(3, null);
+		assertFalse(rs.isCurrent());
+		rs.merge();
+		rs.close();
+
+		IndexedFileResultSet loaded = new IndexedFileResultSet();
+		loaded.load(location);
+		assertEquals(100, loaded.getSize());
+		loaded.absolute(50);
+		assertEquals("updated", loaded.getString("name"));
+		assertNull(loaded.getObject(3));
+		loaded.absolute(49);
+		assertRow(loaded, 49);
+		loaded.absolute(51);
+		assertRow(loaded, 51);
+		loaded.close();
+	}
+
+	/**
+	 * Appends more rows than the maximum pending size to a persisted result
+	 * set, which flushes the pending rows as it goes
+	 */
+	@Test
+	public void testAppendBeyondMaxPending() throws ResultSetException,
+			PersistableException {
+		IndexedFileResultSet rs = new IndexedFileResultSet();
+		rs.persist(location);
+		appendColumns(rs);
+		long rows = rs.getMaxPending() + 10;
+		for (long row = 0; row < rows; row++) {
+			appendRow(rs, row);
+		}
+		rs.merge();
+		rs.close();
+
+		IndexedFileResultSet loaded = new IndexedFileResultSet();
+		loaded.load(location);
+		assertEquals(rows, loaded.getSize());
+		loaded.absolute(rows - 1);
+		assertRow(loaded, rows - 1);
+		loaded.absolute(0);
+		assertRow(loaded, 0);
+		loaded.close();
+	}
+
+	/**
+	 * Appends more rows than the maximum pending size before the result set
+	 * is persisted, which writes them to temporary files that are moved into
+	 * place by the persist
+	 */
+	@Test
+	public void testAppendBeyondMaxPendingBeforePersist()
+			throws ResultSetException, PersistableException {
+		IndexedFileResultSet rs = new IndexedFileResultSet();
+		appendColumns(rs);
+		long rows = rs.getMaxPending() * 2 + 10;
+		for (long row = 0; row < rows; row++) {
+			appendRow(rs, row);
+		}
+		rs.absolute(5);
+		rs.updateString("name", "updated");
+		rs.persist(location);
+		rs.close();
+
+		IndexedFileResultSet loaded = new IndexedFileResultSet();
+		loaded.load(location);
+		assertEquals(rows, loaded.getSize());
+		loaded.absolute(5);
+		assertEquals("updated", loaded.getString("name"));
+		loaded.absolute(rows - 1);
+		assertRow(loaded, rows - 1);
+		loaded.close();
+	}
+
+	/**
+	 * Updates every row, which leaves the replaced versions of the rows in
+	 * the data file until the merge copies the current rows to a new one
+	 */
+	@Test
+	public void testCompactUpdatedRows() throws ResultSetException,
+			PersistableException, IOException {
+		IndexedFileResultSet rs = createResultSet(1000);
+		Path dataFile = Paths.get(location + ".data");
+		long dataSize = Files.size(dataFile);
+
+		for (long row = 0; row < 400; row++) {
+			rs.absolute(row);
+			rs.updateDouble("score", -row);
+		}
+		rs.merge();
+		assertTrue(Files.size(dataFile) > dataSize);
+
+		for (long row = 0; row < 1000; row++) {
+			rs.absolute(row);
+			rs.updateDouble("score", -row);
+		}
+		rs.merge();
+		assertEquals(dataSize, Files.size(dataFile));
+		rs.close();
+
+		IndexedFileResultSet loaded = new IndexedFileResultSet();
+		loaded.load(location);
+		for (long row = 0; row < 1000; row++) {
+			loaded.absolute(row);
+			assertEquals(-row, loaded.getDouble("score"), 0);
+			assertEquals("patient \t\n" + row, loaded.getString("name"));
+		}
+		loaded.close();
+	}
+
+	private IndexedFileResultSet createResultSet(long rows)
+			throws ResultSetException, PersistableException {
+		IndexedFileResultSet rs = new IndexedFileResultSet();
+		rs.persist(location);
+		appendColumns(rs);
+		for (long row = 0; row < rows; row++) {
+			appendRow(rs, row);
+		}
+		rs.merge();
+		return rs;
+	}
+
+	private void appendColumns(IndexedFileResultSet rs)
+			throws ResultSetException {
+		rs.appendColumn(new Column("id", PrimitiveDataType.LONG));
+		rs.appendColumn(new Column("name", PrimitiveDataType.STRING));
+		rs.appendColumn(new Column("score", PrimitiveDataType.DOUBLE));
+		rs.appendColumn(new Column("flag", PrimitiveDataType.BOOLEAN));
+	}
+
+	private void appendRow(IndexedFileResultSet rs, long row)
+			throws ResultSetException, PersistableException {
+		rs.appendRow();
+		rs.updateLong("id", row);
+		rs.updateString("name", "patient \t\n" + row);
+		rs.updateDouble("score", row / 2.0);
+		if (row % 3 != 0) {
+			rs.updateBoolean("flag", row % 2 == 0);
+		}
+	}
+
+	private void assertRow(IndexedFileResultSet rs, long row)
+			throws ResultSetException {
+		assertEquals(row, rs.getLong("id"));
+		assertEquals("patient \t\n" + row, rs.getString("name"));
+		assertEquals(row / 2.0, rs.getDouble("score"), 0);
+		if (row % 3 == 0) {
+			assertNull(rs.getObject(3));
+		} else {
+			assertEquals(row % 2 == 0, rs.getBoolean("flag"));
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+
+public class JsonRowWriterTest {
+	private static final String[] VALUES = new String[] { "plain",
+			"  padded  ", "quote \" and \\ backslash", "line\nbreak\ttab",
+			"é漢字 😀", "" };
+	// The data file of a file result set can not hold values whose UTF-16
+	// encoding contains a delimiter, quote or new line byte
+	private static final String[] FILE_VALUES = new String[] { "plain",
+			"  padded  ", "back\\slash", "é字 😀", "" };
+
+	private Path folder;
+	private String location;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("irct");
+		location = folder.resolve("1").toString();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File file : folder.toFile().listFiles()) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(folder);
+	}
+
+	/**
+	 * Writes a small result set and checks the layout of the document
+	 */
+	@Test
+	public void testDocument() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonRowWriter writer = new JsonRowWriter(out);
+		writer.startDocument(new Column[] {
+				new Column("id", PrimitiveDataType.STRING),
+				new Column("na\"me", PrimitiveDataType.STRING) });
+		writer.startRow();
+		writer.writeCell(0, "1");
+		writer.writeCell(1, null);
+		writer.endRow();
+		writer.startRow();
+		byte[] name = "é\"".getBytes(StandardCharsets.UTF_8);
+		writer.writeUtf8Cell(0, name, 0, name.length);
+		byte[] utf16 = " a\tb ".getBytes(StandardCharsets.UTF_16);
+		writer.writeUtf16Cell(1, utf16, 0, utf16.length);
+		writer.endRow();
+		writer.endDocument();
+
+		assertEquals("{\"columns\":[{\"name\":\"id\",\"dataType\":\"STRING\"},"
+				+ "{\"name\":\"na\\\"me\",\"dataType\":\"STRING\"}],\"data\":["
+				+ "[{\"id\":\"1\"}],"
+				+ "[{\"id\":\"é\\\"\"},{\"na\\\"me\":\"a\\tb\"}]]}",
+				new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Transcodes the data file of a file result set and compares it to the
+	 * document written from the values read back as Strings
+	 */
+	@Test
+	public void testFileResultSet() throws ResultSetException,
+			PersistableException, IOException {
+		FileResultSet rs = new FileResultSet();
+		rs.persist(location);
+		appendRows(rs, 3000, FILE_VALUES);
+		rs.merge();
+		rs.absolute(10);
+		rs.updateString("name", "updated");
+		rs.merge();
+		rs.close();
+
+		FileResultSet transcoded = new FileResultSet();
+		transcoded.load(location);
+		FileResultSet read = new FileResultSet();
+		read.load(location);
+
+		assertEquals(writeRows(read), writeJson(transcoded));
+		transcoded.close();
+		read.close();
+	}
+
+	/**
+	 * Transcodes the rows of an indexed file result set, including a row
+	 * that was updated and moved to the end of the data file, and compares
+	 * it to the document written from the values read back as Strings
+	 */
+	@Test
+	public void testIndexedFileResultSet() throws ResultSetException,
+			PersistableException, IOException {
+		IndexedFileResultSet rs = new IndexedFileResultSet();
+		appendRows(rs, 3000, VALUES);
+		rs.persist(location);
+		rs.absolute(10);
+		rs.updateString("name", "updated");
+		rs.merge();
+		rs.close();
+
+		IndexedFileResultSet transcoded = new IndexedFileResultSet();
+		transcoded.load(location);
+		IndexedFileResultSet read = new IndexedFileResultSet();
+		read.load(location);
+
+		assertEquals(writeRows(read), writeJson(transcoded));
+		transcoded.close();
+		read.close();
+	}
+
+	private void appendRows(ResultSet rs, int rows, String[] values)
+			throws ResultSetException, PersistableException {
+		rs.appendColumn(new Column("id", PrimitiveDataType.STRING));
+		rs.appendColumn(new Column("name", PrimitiveDataType.STRING));
+		rs.appendColumn(new Column("note", PrimitiveDataType.STRING));
+		for (int row = 0; row < rows; row++) {
+			rs.appendRow();
+			rs.updateString("id", Integer.toString(row));
+			rs.updateString("name", values[row % values.length]);
+			if (row % 3 != 0) {
+				rs.updateString("note", "note " + row);
+			}
+		}
+	}
+
+	private String writeJson(JsonStreamable rs) throws ResultSetException,
+			IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		rs.writeJson(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private String writeRows(ResultSet rs) throws ResultSetException,
+			IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonRowWriter writer = new JsonRowWriter(out);
+		writer.startDocument(rs.getColumns());
+		writer.writeRows(rs);
+		writer.endDocument();
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
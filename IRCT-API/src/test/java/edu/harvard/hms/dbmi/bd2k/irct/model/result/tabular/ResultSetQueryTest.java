@@ -0,0 +1,243 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSetQuery.Operator;
+
+public class ResultSetQueryTest {
+	private static final int ROWS = 2000;
+	private static final String[] NAMES = new String[] { "alpha", "Beta",
+			"gamma \"delta\"", "é漢字", "" };
+
+	private Path folder;
+	private String location;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("irct");
+		location = folder.resolve("1").toString();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (File file : folder.toFile().listFiles()) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(folder);
+	}
+
+	/**
+	 * Returns a page of projected columns without reading the rows before
+	 * the offset
+	 */
+	@Test
+	public void testProjectionAndOffset() throws ResultSetException,
+			PersistableException, IOException {
+		IndexedFileResultSet rs = loadResultSet();
+		ResultSetQuery query = new ResultSetQuery(rs.getColumns());
+		query.setColumns(Arrays.asList("name", "id"));
+		query.setOffset(10);
+		query.setLimit(2);
+
+		assertEquals("{\"columns\":[{\"name\":\"name\",\"dataType\":\"STRING\"},"
+				+ "{\"name\":\"id\",\"dataType\":\"LONG\"}],\"data\":["
+				+ "[{\"name\":\"alpha\"},{\"id\":\"10\"}],"
+				+ "[{\"name\":\"Beta\"},{\"id\":\"11\"}]],"
+				+ "\"nextPageToken\":\"c.0\"}", writeJson(rs, query));
+		assertEquals(writeRows(rs, query), writeJson(rs, query));
+		rs.close();
+	}
+
+	/**
+	 * Evaluates predicates on every type of column on the stored rows and
+	 * compares the pages to the pages of the values read back
+	 */
+	@Test
+	public void testPredicates() throws ResultSetException,
+			PersistableException, IOException {
+		IndexedFileResultSet rs = loadResultSet();
+		String[][] predicates = new String[][] { { "id", "GE", "1990" },
+				{ "id", "<", "7.5" }, { "name", "=", "Beta" },
+				{ "name", "CONTAINS", "\"delta" }, { "name", ">", "b" },
+				{ "name", "NE", "" }, { "score", "<=", "3" },
+				{ "weight", "EQ", "0.1" }, { "flag", "EQ", "true" },
+				{ "flag", "NULL", null }, { "count", "NOT_NULL", null },
+				{ "count", "GT", "-5" } };
+		for (String[] predicate : predicates) {
+			ResultSetQuery query = new ResultSetQuery(rs.getColumns());
+			query.addPredicate(predicate[0],
+					Operator.fromString(predicate[1]), predicate[2]);
+			query.setOffset(3);
+			query.setLimit(50);
+			assertEquals(Arrays.toString(predicate), writeRows(rs, query),
+					writeJson(rs, query));
+		}
+
+		ResultSetQuery query = new ResultSetQuery(rs.getColumns());
+		query.addPredicate("id", Operator.LT, "7.5");
+		query.addPredicate("name", Operator.EQ, "Beta");
+		assertTrue(writeJson(rs, query).contains(
+				"\"data\":[[{\"id\":\"1\"},{\"name\":\"Beta\"},"));
+		rs.close();
+	}
+
+	/**
+	 * Follows the page tokens of a query to the last page, and checks that
+	 * the pages hold every matching row once
+	 */
+	@Test
+	public void testPageTokens() throws ResultSetException,
+			PersistableException, IOException {
+		IndexedFileResultSet rs = loadResultSet();
+		int pages = 0;
+		int rows = 0;
+		String pageToken = null;
+		do {
+			ResultSetQuery query = new ResultSetQuery(rs.getColumns());
+			query.setColumns(Arrays.asList("id"));
+			query.addPredicate("flag", Operator.EQ, "false");
+			query.setLimit(100);
+			if (pageToken != null) {
+				query.setPageToken(pageToken);
+			}
+			String page = writeJson(rs, query);
+			assertEquals(writeRows(rs, query), page);
+			rows += page.split("\\[\\{\"id\":").length - 1;
+			pageToken = nextPageToken(page);
+			pages++;
+		} while (pageToken != null);
+
+		// The flag is false for the odd rows that are not a multiple of three
+		assertEquals(667, rows);
+		assertEquals(7, pages);
+
+		ResultSetQuery query = new ResultSetQuery(rs.getColumns());
+		query.setOffset(ROWS - 1);
+		assertNull(nextPageToken(writeJson(rs, query)));
+		rs.close();
+	}
+
+	@Test
+	public void testInvalidQuery() throws ResultSetException,
+			PersistableException {
+		IndexedFileResultSet rs = loadResultSet();
+		ResultSetQuery query = new ResultSetQuery(rs.getColumns());
+		query.addPredicate("id", Operator.GT, "5");
+		String pageToken = query.createPageToken(20);
+
+		ResultSetQuery other = new ResultSetQuery(rs.getColumns());
+		other.addPredicate("id", Operator.GT, "6");
+		assertInvalid(other, pageToken);
+		assertInvalid(other, "20");
+		assertInvalid(other, "-1.0");
+
+		ResultSetQuery result = new ResultSetQuery(rs.getColumns(), 1L);
+		result.addPredicate("id", Operator.GT, "5");
+		ResultSetQuery otherResult = new ResultSetQuery(rs.getColumns(), 2L);
+		otherResult.addPredicate("id", Operator.GT, "5");
+		assertInvalid(query, result.createPageToken(20));
+		assertInvalid(otherResult, result.createPageToken(20));
+		result.setPageToken(result.createPageToken(20));
+		try {
+			other.addPredicate("id", Operator.CONTAINS, "5");
+			fail("CONTAINS applies to text columns only");
+		} catch (ResultSetException e) {
+		}
+		try {
+			other.addPredicate("score", Operator.LT, "five");
+			fail("The value is not a number");
+		} catch (ResultSetException e) {
+		}
+		try {
+			other.setColumns(Arrays.asList("id", "missing"));
+			fail("The column does not exist");
+		} catch (ResultSetException e) {
+		}
+		rs.close();
+	}
+
+	private void assertInvalid(ResultSetQuery query, String pageToken) {
+		try {
+			query.setPageToken(pageToken);
+			fail("The page token " + pageToken + " is not valid");
+		} catch (ResultSetException e) {
+		}
+	}
+
+	private IndexedFileResultSet loadResultSet() throws ResultSetException,
+			PersistableException {
+		IndexedFileResultSet rs = new IndexedFileResultSet();
+		rs.persist(location);
+		rs.appendColumn(new Column("id", PrimitiveDataType.LONG));
+		rs.appendColumn(new Column("name", PrimitiveDataType.STRING));
+		rs.appendColumn(new Column("score", PrimitiveDataType.DOUBLE));
+		rs.appendColumn(new Column("weight", PrimitiveDataType.FLOAT));
+		rs.appendColumn(new Column("flag", PrimitiveDataType.BOOLEAN));
+		rs.appendColumn(new Column("count", PrimitiveDataType.INTEGER));
+		for (int row = 0; row < ROWS; row++) {
+			rs.appendRow();
+			rs.updateLong("id", row);
+			rs.updateString("name", NAMES[row % NAMES.length]);
+			rs.updateDouble("score", row / 2.0);
+			rs.updateFloat("weight", (row % 10) / 10f);
+			if (row % 3 != 0) {
+				rs.updateBoolean("flag", row % 2 == 0);
+			}
+			if (row % 4 != 0) {
+				rs.updateInt("count", row % 20 - 10);
+			}
+		}
+		rs.merge();
+		rs.close();
+
+		IndexedFileResultSet loaded = new IndexedFileResultSet();
+		loaded.load(location);
+		return loaded;
+	}
+
+	private String writeJson(ResultSet rs, ResultSetQuery query)
+			throws ResultSetException, IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		query.writeJson(rs, out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private String writeRows(ResultSet rs, ResultSetQuery query)
+			throws ResultSetException, IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonRowWriter writer = new JsonRowWriter(out);
+		writer.startDocument(query.getProjectedColumns());
+		long nextRow = writer.writeRows(rs, query);
+		writer.endDocument(query.createPageToken(nextRow));
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private String nextPageToken(String page) {
+		int start = page.lastIndexOf("\"nextPageToken\":");
+		String token = page.substring(start + "\"nextPageToken\":".length(),
+				page.length() - 1);
+		return token.equals("null") ? null : token.substring(1,
+				token.length() - 1);
+	}
+}
@@ -5,6 +5,7 @@ package edu.harvard.hms.dbmi.bd2k.irct.cl.filter;
 
 import edu.harvard.hms.dbmi.bd2k.irct.IRCTApplication;
 import edu.harvard.hms.dbmi.bd2k.irct.cl.util.Utilities;
+import edu.harvard.hms.dbmi.bd2k.irct.cl.util.VerifiedTokenCache;
 import edu.harvard.hms.dbmi.bd2k.irct.controller.SecurityController;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import org.apache.log4j.Logger;
@@ -46,6 +47,9 @@ public class SessionFilter implements Filter {
 	@Inject
 	private SecurityController sc;
 
+	@Inject
+	private VerifiedTokenCache verifiedTokens;
+
 	@Override
 	public void init(FilterConfig fliterConfig) throws ServletException {
 	}
@@ -73,10 +77,19 @@ public class SessionFilter implements Filter {
 			try {
 				User user = (User) session.getAttribute("user");
 
+				boolean verified = false;
 				if (user == null
 						|| user.getToken() == null
-						|| !user.getToken().equals(tokenString))
-					user = sc.ensureUserExists(Utilities.extractEmailFromJWT((HttpServletRequest) req, this.clientSecret, this.userField));
+						|| !user.getToken().equals(tokenString)) {
+					// Tokens that have been verified before skip the signature check and the user lookup
+					user = verifiedTokens.get(tokenString);
+					if (user == null) {
+						user = sc.ensureUserExists(Utilities.extractEmailFromJWT((HttpServletRequest) req, this.clientSecret, this.userField));
+						verified = true;
+					} else {
+						logger.debug("doFilter() token was verified before.");
+					}
+				}
 
 				if (user == null)
 					throw new NotAuthorizedException("Cannot create user for the token: " + tokenString);
@@ -102,6 +115,9 @@ public class SessionFilter implements Filter {
 					user.setToken(tokenString);
 					sc.updateUserRecord(user);
 				}
+				if (verified) {
+					verifiedTokens.put(tokenString, user, Utilities.extractExpiresAt(tokenString));
+				}
 				logger.debug("doFilter() User(token:"+user.getToken()+")");
 				
 				session.setAttribute("user", user);
@@ -14,6 +14,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.find.FindByPath;
 import edu.harvard.hms.dbmi.bd2k.irct.model.find.FindInformationInterface;
 import edu.harvard.hms.dbmi.bd2k.irct.model.ontology.Entity;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.Resource;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.CacheResourceImplementationInterface;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.PathResourceImplementationInterface;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import org.apache.commons.lang3.StringUtils;
@@ -295,6 +296,40 @@ public class ResourceService {
             return IRCTResponse.error("Could not find any entities.");
 	}
 
+	/**
+	 * Removes the cached responses of a resource below a path that are
+	 * visible to the user, so changes to the underlying service are returned
+	 * before the cached responses expire
+	 *
+	 * @param path
+	 *            Path, starting with the name of the resource
+	 * @return Response
+	 */
+	@DELETE
+	@Path("/cache{path : .*}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response invalidateCache(@PathParam("path") String path) {
+		logger.debug("DELETE /cache Starting");
+
+		if (!path.startsWith("/"))
+			path = "/" + path;
+
+		String[] pathComponents = path.split("/");
+		Resource resource = pathComponents.length < 2 ? null : rc.getResource(pathComponents[1]);
+		if (resource == null) {
+			return IRCTResponse.protocolError(Response.Status.BAD_REQUEST, "Resource is null and Path is incorrect, nonexistent or malformed");
+		}
+		if (!(resource.getImplementingInterface() instanceof CacheResourceImplementationInterface)) {
+			return IRCTResponse.applicationError(String.format("invalidateCache() resource `%s` does not cache its responses", resource.getName()));
+		}
+
+		((CacheResourceImplementationInterface) resource.getImplementingInterface()).invalidateCache(
+				pathComponents.length == 2 ? null : new Entity(path), (User) session.getAttribute("user"));
+
+		logger.debug("DELETE /cache Finished.");
+		return IRCTResponse.success(String.format("The cached responses of `%s` were removed.", path));
+	}
+
 	/**
 	 * Returns a list of entities based on paths sent in json form:
      * This could be from traversing the paths, or
@@ -331,46 +366,58 @@ public class ResourceService {
     private Response getEntitiesFromPaths(List<String> paths, String relationshipString) {
         User currentUser = (User) session.getAttribute("user");
 
-        //This will contain all resources from all paths
-        List<Entity> allResources = new ArrayList<>();
+        if (relationshipString == null) {
+            relationshipString = "child";
+        }
 
+        //Fetched resources of each path, blank paths are filled in right away,
+        //the other paths are traversed at the same time
+        List<List<Entity>> fetchedResources = new ArrayList<>();
+        List<Integer> traversalIndexes = new ArrayList<>();
+        List<Resource> traversalResources = new ArrayList<>();
+        List<Entity> traversalEntities = new ArrayList<>();
 
         for (String path : paths) {
-            List<Entity> fetchedResources = null;
-            Resource resource = null;
-            Entity entity = null;
+            if (StringUtils.isBlank(path)) {
+                fetchedResources.add(pc.getAllResourcePaths());
+                continue;
+            }
 
-            if (StringUtils.isNotBlank(path)) {
-                if (!path.startsWith("/"))
-                    path = "/" + path;
+            if (!path.startsWith("/"))
+                path = "/" + path;
 
-                resource = rc.getResource(path.split("/")[1]);
-                entity = new Entity(path);
+            Resource resource = rc.getResource(path.split("/")[1]);
+            if (resource == null) {
+                return IRCTResponse.protocolError(Response.Status.BAD_REQUEST, "Resource is null and Path is incorrect, nonexistent or malformed");
             }
 
-            if (resource != null) {
-                if (relationshipString == null) {
-                    relationshipString = "child";
-                }
+            traversalIndexes.add(fetchedResources.size());
+            traversalResources.add(resource);
+            traversalEntities.add(new Entity(path));
+            fetchedResources.add(null);
+        }
 
-                try {
-                    fetchedResources = pc.traversePath(resource, entity, resource.getRelationshipByName(relationshipString), currentUser);
-                } catch (ResourceInterfaceException e) {
-                    logger.error("Unable to fetch resources: ", e);
-                    return IRCTResponse.riError(e.getMessage());
+        if (!traversalResources.isEmpty()) {
+            try {
+                List<List<Entity>> traversed = pc.traversePaths(traversalResources, traversalEntities, relationshipString, currentUser);
+                for (int i = 0; i < traversed.size(); i++) {
+                    fetchedResources.set(traversalIndexes.get(i), traversed.get(i));
                 }
-            } else if (StringUtils.isBlank(path)) {
-            	fetchedResources = pc.getAllResourcePaths();
-            } else {
-                return IRCTResponse.protocolError(Response.Status.BAD_REQUEST, "Resource is null and Path is incorrect, nonexistent or malformed");
+            } catch (ResourceInterfaceException e) {
+                logger.error("Unable to fetch resources: ", e);
+                return IRCTResponse.riError(e.getMessage());
             }
+        }
 
-            //If any resources were successfully fetched, add to the list
-            //Note: if a list with multiple blank puis is sent, this will result in duplicate results
-            if (fetchedResources != null) {
-                allResources.addAll(fetchedResources);
-            }
+        //This will contain all resources from all paths
+        List<Entity> allResources = new ArrayList<>();
 
+        //If any resources were successfully fetched, add to the list
+        //Note: if a list with multiple blank puis is sent, this will result in duplicate results
+        for (List<Entity> fetched : fetchedResources) {
+            if (fetched != null) {
+                allResources.addAll(fetched);
+            }
         }
 
         //If it reaches here empty, presumably the paths were leaf nodes, so we do want to send back the empty list
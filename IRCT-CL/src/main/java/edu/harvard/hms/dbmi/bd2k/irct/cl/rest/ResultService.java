@@ -3,12 +3,22 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package edu.harvard.hms.dbmi.bd2k.irct.cl.rest;
 
+import edu.harvard.hms.dbmi.bd2k.irct.cl.util.DownloadResponses;
+import edu.harvard.hms.dbmi.bd2k.irct.cl.util.ResultDownloadCache;
 import edu.harvard.hms.dbmi.bd2k.irct.util.IRCTResponse;
 import edu.harvard.hms.dbmi.bd2k.irct.controller.ResultController;
+import edu.harvard.hms.dbmi.bd2k.irct.controller.ResultStatusRegistry;
 import edu.harvard.hms.dbmi.bd2k.irct.dataconverter.ResultDataStream;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultDataType;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSetQuery;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.ArrowTabularDataConverter;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow.ArrowStreamWriter;
 import org.apache.log4j.Logger;
 
 import javax.ejb.TransactionAttribute;
@@ -16,13 +26,35 @@ import javax.ejb.TransactionAttributeType;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
 import javax.servlet.http.HttpSession;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Creates a REST interface for the result service
@@ -31,10 +63,20 @@ import java.util.List;
 @RequestScoped
 @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
 public class ResultService {
+	private static final long MAX_STATUS_WAIT = 60;
+	private static final int MAX_STATUS_RESULTS = 1000;
+	private static final int MAX_ARROW_BATCH_SIZE = 1024 * 1024;
+	private static final int MAX_QUERY_LIMIT = 10000;
 	
 	@Inject
 	private ResultController rc;
 
+	@Inject
+	private ResultStatusRegistry resultStatusRegistry;
+
+	@Inject
+	private ResultDownloadCache downloadCache;
+
 	@Inject
 	private HttpSession session;
 	
@@ -83,30 +125,173 @@ public class ResultService {
 	public Response resultStatus(@PathParam("resultId") Long resultId) {
 		logger.debug("GET resultStatus/ starting");
 
+		User user = (User) session.getAttribute("user");
+
+		return resultStatusResponse(rc.getResultStatusEntry(user, resultId));
+	}
+
+	/**
+	 * Returns the status, row count and available formats of many results at
+	 * once. The payload is a JSON array of result ids, or an object with
+	 * such an array as resultIds.
+	 * 
+	 * @param payload
+	 *            Result ids
+	 * @return Array of result statuses
+	 */
+	@POST
+	@Path("/resultStatus")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response resultStatuses(String payload) {
+		logger.debug("POST resultStatus/ starting");
+
 		JsonObjectBuilder response = Json.createObjectBuilder();
+		List<Long> resultIds = new ArrayList<Long>();
+		try (JsonReader jsonReader = Json.createReader(new StringReader(payload))) {
+			JsonStructure json = jsonReader.read();
+			JsonArray jsonIds = json instanceof JsonArray ? (JsonArray) json
+					: ((JsonObject) json).getJsonArray("resultIds");
+			if (jsonIds == null) {
+				throw new JsonException("Missing resultIds");
+			}
+			for (int i = 0; i < jsonIds.size(); i++) {
+				resultIds.add(jsonIds.getJsonNumber(i).longValue());
+			}
+		} catch (JsonException | ClassCastException e) {
+			response.add("status", "Invalid Request");
+			response.add("message", "The payload must be an array of result ids");
+			return Response.status(400).entity(response.build()).build();
+		}
+		if (resultIds.size() > MAX_STATUS_RESULTS) {
+			response.add("status", "Invalid Request");
+			response.add("message", "No more than " + MAX_STATUS_RESULTS + " results can be requested at once");
+			return Response.status(400).entity(response.build()).build();
+		}
+
 		User user = (User) session.getAttribute("user");
+		Map<Long, ResultStatusRegistry.Entry> entries = rc.getResultStatusEntries(user, resultIds);
+		Map<ResultDataType, List<String>> formats = new HashMap<ResultDataType, List<String>>();
 
-		Result result = rc.getResult(user, resultId);
-		if (result == null) {
-			response.add("message", "Unable to get result for that id");
-		} else {
-			response.add("resultId", result.getId());
-			response.add("riActionId", String.valueOf(result.getResourceActionId()));
+		JsonArrayBuilder statuses = Json.createArrayBuilder();
+		for (Long resultId : resultIds) {
+			ResultStatusRegistry.Entry entry = entries.get(resultId);
+			if (entry == null) {
+				statuses.add(Json.createObjectBuilder().add("resultId", resultId)
+						.add("message", "Unable to get result for that id"));
+				continue;
+			}
+			JsonObjectBuilder status = resultStatusJson(entry);
+			if (entry.getRowCount() != null) {
+				status.add("rowCount", entry.getRowCount());
+			}
+			JsonArrayBuilder formatArray = Json.createArrayBuilder();
+			if (entry.getResultStatus() == ResultStatus.AVAILABLE) {
+				List<String> dataTypeFormats = formats.get(entry.getDataType());
+				if (dataTypeFormats == null) {
+					dataTypeFormats = rc.getAvailableFormats(entry.getDataType());
+					formats.put(entry.getDataType(), dataTypeFormats);
+				}
+				for (String format : dataTypeFormats) {
+					formatArray.add(format);
+				}
+			}
+			status.add("formats", formatArray);
+			statuses.add(status);
+		}
+		return Response.ok(statuses.build(), MediaType.APPLICATION_JSON)
+				.build();
+	}
 
-			response.add("status", result.getResultStatus().toString());
+	/**
+	 * Waits for the status of a result to change from the given status and
+	 * returns the new status. If the status does not change before the
+	 * timeout the current status is returned, so a client can call this
+	 * again instead of polling the status.
+	 * 
+	 * @param resultId
+	 *            Id of the result
+	 * @param knownStatus
+	 *            Status the client knows of, defaults to the current status
+	 * @param timeout
+	 *            Maximum number of seconds to wait, defaults to 30
+	 * @param asyncResponse
+	 *            Response that is resumed once the status changes
+	 */
+	@GET
+	@Path("/resultStatus/{resultId}/wait")
+	@Produces(MediaType.APPLICATION_JSON)
+	public void waitForResultStatus(@PathParam("resultId") final Long resultId,
+			@QueryParam("status") String knownStatus,
+			@QueryParam("timeout") @DefaultValue("30") long timeout,
+			@Suspended final AsyncResponse asyncResponse) {
+		logger.debug("GET resultStatus/wait starting");
 
-			response.add("starttime", String.valueOf(result.getStartTime()));
-			response.add("endtime", String.valueOf(result.getEndTime()));
+		final User user = (User) session.getAttribute("user");
+		ResultStatusRegistry.Entry entry = rc.getResultStatusEntry(user, resultId);
+		if (entry == null || entry.isFinal() || timeout <= 0
+				|| (knownStatus != null && !knownStatus.equalsIgnoreCase(String.valueOf(entry.getResultStatus())))) {
+			asyncResponse.resume(resultStatusResponse(entry));
+			return;
+		}
 
-			response.add("dataType", String.valueOf(result.getDataType()));
-			response.add("path", String.valueOf(result.getResultSetLocation()));
+		final ResultStatus waitStatus = entry.getResultStatus();
+		final ResultStatusRegistry.Listener listener = new ResultStatusRegistry.Listener() {
+			@Override
+			public void statusChanged(ResultStatusRegistry.Entry changed) {
+				// Updates that keep the status the client waits on are ignored
+				if (changed.getResultStatus() != waitStatus && changed.isAccessibleBy(user)) {
+					resultStatusRegistry.removeListener(resultId, this);
+					asyncResponse.resume(resultStatusResponse(changed));
+				}
+			}
+		};
+		asyncResponse.setTimeout(Math.min(timeout, MAX_STATUS_WAIT), TimeUnit.SECONDS);
+		asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+			@Override
+			public void handleTimeout(AsyncResponse timedOut) {
+				resultStatusRegistry.removeListener(resultId, listener);
+				timedOut.resume(resultStatusResponse(rc.getResultStatusEntry(user, resultId)));
+			}
+		});
+		resultStatusRegistry.addListener(resultId, listener);
 
-			response.add("message", String.valueOf(result.getMessage()));
+		// The status may have changed before the listener was added
+		entry = rc.getResultStatusEntry(user, resultId);
+		if (entry == null || entry.getResultStatus() != waitStatus) {
+			resultStatusRegistry.removeListener(resultId, listener);
+			asyncResponse.resume(resultStatusResponse(entry));
+		}
+	}
+
+	private Response resultStatusResponse(ResultStatusRegistry.Entry entry) {
+		JsonObjectBuilder response;
+		if (entry == null) {
+			response = Json.createObjectBuilder();
+			response.add("message", "Unable to get result for that id");
+		} else {
+			response = resultStatusJson(entry);
 		}
 		return Response.ok(response.build(), MediaType.APPLICATION_JSON)
 				.build();
 	}
 
+	private JsonObjectBuilder resultStatusJson(ResultStatusRegistry.Entry entry) {
+		JsonObjectBuilder response = Json.createObjectBuilder();
+		response.add("resultId", entry.getResultId());
+		response.add("riActionId", String.valueOf(entry.getResourceActionId()));
+
+		response.add("status", String.valueOf(entry.getResultStatus()));
+
+		response.add("starttime", String.valueOf(entry.getStartTime()));
+		response.add("endtime", String.valueOf(entry.getEndTime()));
+
+		response.add("dataType", String.valueOf(entry.getDataType()));
+		response.add("path", String.valueOf(entry.getResultSetLocation()));
+
+		response.add("message", String.valueOf(entry.getMessage()));
+		return response;
+	}
+
 	/**
 	 * Returns the list of available formats for a result if available
 	 * 
@@ -138,19 +323,28 @@ public class ResultService {
 	 * Yes then the file is returned with Content-Disposition set as attachment
 	 * and a file name.
 	 * 
+	 * The response is compressed if the client accepts gzip or deflate. Once a
+	 * result has been converted, the download is kept on disk and can be
+	 * requested again, or resumed with a byte range, without converting the
+	 * result again. Until then a range request is answered with the whole
+	 * download.
+	 * 
 	 * @param resultId
 	 *            Result Id
 	 * @param format
 	 *            Format
 	 * @param download
 	 *            Download
+	 * @param headers
+	 *            Request headers
 	 * @return Results in desired format
 	 */
 	@GET
 	@Path("/result/{resultId}/{format}")
 	public Response download(@PathParam("resultId") Long resultId,
 			@PathParam("format") String format,
-			@QueryParam("download") String download) {
+			@QueryParam("download") String download,
+			@Context HttpHeaders headers) {
 		
 		logger.debug("GET /result format:"+(format==null?"null":format)+" download:"+(download==null?"null":download));
 		User user = (User) session.getAttribute("user");
@@ -166,15 +360,256 @@ public class ResultService {
 			return IRCTResponse.riError(rds.getMessage());
 		}
 
+		// Only a converted download can be served in parts, a range request
+		// for a download that is not in the cache gets the whole download
+		File file = downloadCache.get(resultId, format, rds.getFileExtension());
+		ResponseBuilder builder;
+		if (file != null) {
+			builder = DownloadResponses.file(file, rds.getMediaType(), headers);
+		} else if (downloadCache.isEnabled()) {
+			builder = DownloadResponses.stream(downloadCache.tee(resultId,
+					format, rds.getFileExtension(), rds.getResult()),
+					rds.getMediaType(), headers, true);
+		} else {
+			builder = DownloadResponses.stream(rds.getResult(),
+					rds.getMediaType(), headers, false);
+		}
+
  		if ((download != null) && (download.equalsIgnoreCase("Yes"))) {
 			logger.debug("GET /result initiate download with mediaType:"+rds.getMediaType().toString());
-			return Response
-					.ok(rds.getResult(), rds.getMediaType())
-					.header("Content-Disposition",
-							"attachment; filename=IRCT-" + resultId
-									+ rds.getFileExtension()).build();
+			builder.header("Content-Disposition",
+					"attachment; filename=IRCT-" + resultId
+							+ rds.getFileExtension());
 		}
 		logger.debug("GET /result returning");
-		return IRCTResponse.success(rds.getResult(), rds.getMediaType());
+		return builder.build();
+	}
+
+	/**
+	 * Streams a tabular result as an Arrow IPC stream. The rows are written
+	 * in record batches of typed vectors, read directly from the stored
+	 * result. A batch is written once it holds batchSize rows, or once its
+	 * buffers reach maxBatchBytes, which bounds the memory used for the
+	 * stream. The stream is compressed if the client accepts gzip or deflate.
+	 * 
+	 * @param resultId
+	 *            Result Id
+	 * @param batchSize
+	 *            Maximum number of rows of a record batch
+	 * @param maxBatchBytes
+	 *            Maximum size in bytes of the buffers of a record batch
+	 * @param headers
+	 *            Request headers
+	 * @return Arrow IPC stream
+	 */
+	@GET
+	@Path("/arrowStream/{resultId}")
+	public Response arrowStream(@PathParam("resultId") Long resultId,
+			@QueryParam("batchSize") Integer batchSize,
+			@QueryParam("maxBatchBytes") Long maxBatchBytes,
+			@Context HttpHeaders headers) {
+		logger.debug("GET /arrowStream batchSize:" + batchSize + " maxBatchBytes:" + maxBatchBytes);
+
+		if (batchSize == null) {
+			batchSize = ArrowStreamWriter.DEFAULT_BATCH_SIZE;
+		} else if (batchSize < 1 || batchSize > MAX_ARROW_BATCH_SIZE) {
+			return IRCTResponse.protocolError(Response.Status.BAD_REQUEST,
+					"batchSize must be between 1 and " + MAX_ARROW_BATCH_SIZE);
+		}
+		if (maxBatchBytes == null) {
+			maxBatchBytes = ArrowStreamWriter.DEFAULT_MAX_BATCH_BYTES;
+		} else if (maxBatchBytes < 1 || maxBatchBytes > ArrowStreamWriter.MAX_BATCH_BYTES) {
+			return IRCTResponse.protocolError(Response.Status.BAD_REQUEST,
+					"maxBatchBytes must be between 1 and " + ArrowStreamWriter.MAX_BATCH_BYTES);
+		}
+
+		User user = (User) session.getAttribute("user");
+		Result result = rc.getResult(user, resultId);
+		if (result == null) {
+			return IRCTResponse.riError("Unable to find result with current user: "
+					+ user.getName() + " and resultId: " + resultId);
+		}
+		if (result.getResultStatus() != ResultStatus.AVAILABLE) {
+			return IRCTResponse.riError("Result is not available");
+		}
+		if (result.getDataType() != ResultDataType.TABULAR) {
+			return IRCTResponse.riError("Only tabular results can be streamed as Arrow");
+		}
+
+		ArrowTabularDataConverter converter = new ArrowTabularDataConverter(
+				batchSize, maxBatchBytes);
+		return DownloadResponses.stream(converter.createStream(result),
+				converter.getMediaType(), headers, false).build();
+	}
+
+	/**
+	 * Returns a page of the rows of a tabular result. The payload selects the
+	 * columns, the predicates the rows have to match, and the page:
+	 * 
+	 * {"columns":["name"],"where":[{"column":"age","operator":"GT","value":65}],
+	 * "offset":0,"limit":100,"pageToken":"..."}
+	 * 
+	 * All fields are optional. The operators are EQ, NE, LT, LE, GT, GE,
+	 * CONTAINS, NULL and NOT_NULL, or their symbols. The rows are read from
+	 * the stored result, so a page does not read the rows before it. The
+	 * response holds the columns, the rows as the data array, and the
+	 * nextPageToken of the next page, which is null after the last page.
+	 * 
+	 * @param resultId
+	 *            Result Id
+	 * @param payload
+	 *            Query
+	 * @param headers
+	 *            Request headers
+	 * @return Page of rows
+	 */
+	@POST
+	@Path("/query/{resultId}")
+	public Response query(@PathParam("resultId") final Long resultId,
+			String payload, @Context HttpHeaders headers) {
+		logger.debug("POST /query resultId:" + resultId);
+
+		JsonObject json;
+		try (JsonReader jsonReader = Json.createReader(new StringReader(
+				payload == null || payload.trim().isEmpty() ? "{}" : payload))) {
+			json = jsonReader.readObject();
+		} catch (JsonException e) {
+			return IRCTResponse.protocolError(Response.Status.BAD_REQUEST,
+					"The payload must be a JSON object");
+		}
+
+		User user = (User) session.getAttribute("user");
+		Result result = rc.getResult(user, resultId);
+		if (result == null) {
+			return IRCTResponse.riError("Unable to find result with current user: "
+					+ user.getName() + " and resultId: " + resultId);
+		}
+		if (result.getResultStatus() != ResultStatus.AVAILABLE) {
+			return IRCTResponse.riError("Result is not available");
+		}
+		if (result.getDataType() != ResultDataType.TABULAR) {
+			return IRCTResponse.riError("Only tabular results can be queried");
+		}
+
+		final ResultSet rs;
+		try {
+			rs = (ResultSet) result.getData();
+			rs.load(result.getResultSetLocation());
+		} catch (ResultSetException | PersistableException e) {
+			logger.error("POST /query Unable to load result #" + resultId + ": " + e.getMessage());
+			return IRCTResponse.riError("Unable to retrieve result.");
+		}
+
+		ResultSetQuery validQuery = null;
+		String message;
+		try {
+			validQuery = createQuery(rs, resultId, json);
+			message = null;
+		} catch (ResultSetException | IllegalArgumentException e) {
+			message = e.getMessage();
+		} catch (ClassCastException | ArithmeticException e) {
+			// A field of the payload does not have the expected type
+			message = "Invalid query";
+		}
+		if (message != null) {
+			try {
+				rs.close();
+			} catch (ResultSetException e) {
+				logger.error("POST /query Unable to close result #" + resultId + ": " + e.getMessage());
+			}
+			return IRCTResponse.protocolError(Response.Status.BAD_REQUEST, message);
+		}
+		final ResultSetQuery query = validQuery;
+
+		StreamingOutput stream = new StreamingOutput() {
+			@Override
+			public void write(OutputStream outputStream) throws IOException,
+					WebApplicationException {
+				try {
+					query.writeJson(rs, outputStream);
+				} catch (ResultSetException e) {
+					logger.error("POST /query Unable to read result: " + e.getMessage());
+					throw new WebApplicationException(e);
+				} finally {
+					try {
+						rs.close();
+					} catch (ResultSetException e) {
+						logger.error("POST /query Unable to close result #" + resultId + ": " + e.getMessage());
+					}
+					outputStream.close();
+				}
+			}
+		};
+		return DownloadResponses.stream(stream, MediaType.APPLICATION_JSON,
+				headers, false).build();
+	}
+
+	private ResultSetQuery createQuery(ResultSet rs, Long resultId,
+			JsonObject json) throws ResultSetException {
+		ResultSetQuery query = new ResultSetQuery(rs.getColumns(), resultId);
+
+		JsonArray columns = json.getJsonArray("columns");
+		if (columns != null) {
+			List<String> names = new ArrayList<String>();
+			for (int i = 0; i < columns.size(); i++) {
+				names.add(columns.getString(i));
+			}
+			query.setColumns(names);
+		}
+
+		JsonArray where = json.getJsonArray("where");
+		if (where != null) {
+			for (int i = 0; i < where.size(); i++) {
+				JsonObject predicate = where.getJsonObject(i);
+				String operatorName = predicate.getString("operator", null);
+				ResultSetQuery.Operator operator = ResultSetQuery.Operator
+						.fromString(operatorName);
+				if (operator == null) {
+					throw new IllegalArgumentException("Unknown operator: "
+							+ operatorName);
+				}
+				String column = predicate.getString("column", null);
+				if (column == null) {
+					throw new IllegalArgumentException("A predicate needs a column");
+				}
+				query.addPredicate(column, operator,
+						predicateValue(predicate.get("value")));
+			}
+		}
+
+		if (json.containsKey("offset")) {
+			query.setOffset(json.getJsonNumber("offset").longValueExact());
+		}
+		if (json.containsKey("limit")) {
+			int limit = json.getJsonNumber("limit").intValueExact();
+			if (limit > MAX_QUERY_LIMIT) {
+				throw new IllegalArgumentException("limit must be between 1 and "
+						+ MAX_QUERY_LIMIT);
+			}
+			query.setLimit(limit);
+		}
+		String pageToken = json.getString("pageToken", null);
+		if (pageToken != null) {
+			query.setPageToken(pageToken);
+		}
+		return query;
+	}
+
+	private String predicateValue(JsonValue value) {
+		if (value == null) {
+			return null;
+		}
+		switch (value.getValueType()) {
+		case STRING:
+			return ((JsonString) value).getString();
+		case NULL:
+			return null;
+		case NUMBER:
+		case TRUE:
+		case FALSE:
+			return value.toString();
+		default:
+			throw new IllegalArgumentException("The value of a predicate must be a string, number or boolean");
+		}
 	}
 }
@@ -6,6 +6,7 @@ package edu.harvard.hms.dbmi.bd2k.irct.cl.rest;
 
 import edu.harvard.hms.dbmi.bd2k.irct.util.IRCTResponse;
 import edu.harvard.hms.dbmi.bd2k.irct.cl.util.Utilities;
+import edu.harvard.hms.dbmi.bd2k.irct.cl.util.VerifiedTokenCache;
 import edu.harvard.hms.dbmi.bd2k.irct.controller.SecurityController;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import org.apache.log4j.Logger;
@@ -46,6 +47,9 @@ public class SecurityService implements Serializable {
 	@Inject
 	private HttpSession session;
 
+	@Inject
+	private VerifiedTokenCache verifiedTokens;
+
 	@javax.annotation.Resource(mappedName ="java:global/redirect_on_success")
 	private String redirectOnSuccess;
 
@@ -135,6 +139,11 @@ public class SecurityService implements Serializable {
 	@Produces(MediaType.APPLICATION_JSON)
 	public Response endSession() {
 		JsonObjectBuilder build = Json.createObjectBuilder();		
+		User user = (User) session.getAttribute("user");
+		if (user != null) {
+			// The token must be verified again after the session has ended
+			verifiedTokens.invalidateUser(user.getUserId());
+		}
 		session.removeAttribute("user");
 		//session.removeAttribute("token");
 		//session.removeAttribute("secureSession");
@@ -0,0 +1,336 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.cl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Builds the responses of downloads. The content coding is negotiated from
+ * the Accept-Encoding header of the request, so a download can be sent gzip
+ * or deflate compressed. Downloads that are kept on disk are also served with
+ * an ETag and in parts, so an interrupted download can be resumed with a
+ * single byte range. Parts are always sent uncompressed.
+ */
+public final class DownloadResponses {
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	private static final int BUFFER_SIZE = 65536;
+	private static final long[] UNSATISFIABLE = new long[0];
+	private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+	private DownloadResponses() {
+	}
+
+	/**
+	 * Creates the response of a download that is converted while it is sent
+	 *
+	 * @param output
+	 *            Converts the result
+	 * @param mediaType
+	 *            Media type of the download
+	 * @param headers
+	 *            Request headers
+	 * @param acceptRanges
+	 *            True if a range request for the download can be served
+	 * @return Response
+	 */
+	public static ResponseBuilder stream(StreamingOutput output,
+			String mediaType, HttpHeaders headers, boolean acceptRanges) {
+		String encoding = negotiateEncoding(headers
+				.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+		ResponseBuilder builder = Response.ok(encode(output, encoding),
+				mediaType).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (encoding != null) {
+			builder.header(HttpHeaders.CONTENT_ENCODING, encoding);
+		}
+		if (acceptRanges) {
+			builder.header("Accept-Ranges", "bytes");
+		}
+		return builder;
+	}
+
+	/**
+	 * Creates the response of a download that is kept on disk. Handles the
+	 * If-None-Match, Range and If-Range headers of the request.
+	 *
+	 * @param file
+	 *            Download
+	 * @param mediaType
+	 *            Media type of the download
+	 * @param headers
+	 *            Request headers
+	 * @return Response
+	 */
+	public static ResponseBuilder file(File file, String mediaType,
+			HttpHeaders headers) {
+		long length = file.length();
+		long lastModified = file.lastModified();
+		String tag = file.getName() + "-" + Long.toHexString(length) + "-"
+				+ Long.toHexString(lastModified);
+
+		long[] range = null;
+		String rangeHeader = headers.getHeaderString("Range");
+		if (rangeHeader != null
+				&& matchesIfRange(headers.getHeaderString("If-Range"), tag,
+						lastModified)) {
+			range = parseRange(rangeHeader, length);
+		}
+		String encoding = range == null ? negotiateEncoding(headers
+				.getHeaderString(HttpHeaders.ACCEPT_ENCODING)) : null;
+		String responseTag = encoding == null ? tag : tag + "-" + encoding;
+
+		if (matchesIfNoneMatch(headers.getHeaderString(HttpHeaders.IF_NONE_MATCH),
+				responseTag)) {
+			return Response.notModified(responseTag)
+					.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+					.header("Accept-Ranges", "bytes");
+		}
+
+		ResponseBuilder builder;
+		if (range == UNSATISFIABLE) {
+			return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+					.header("Content-Range", "bytes */" + length)
+					.header("Accept-Ranges", "bytes");
+		} else if (range != null) {
+			long count = range[1] - range[0] + 1;
+			builder = Response
+					.status(Response.Status.PARTIAL_CONTENT)
+					.entity(new FileOutput(file, range[0], count))
+					.type(mediaType)
+					.header("Content-Range",
+							"bytes " + range[0] + "-" + range[1] + "/" + length)
+					.header(HttpHeaders.CONTENT_LENGTH, count);
+		} else {
+			builder = Response.ok(encode(new FileOutput(file, 0, length), encoding),
+					mediaType);
+			if (encoding == null) {
+				builder.header(HttpHeaders.CONTENT_LENGTH, length);
+			} else {
+				builder.header(HttpHeaders.CONTENT_ENCODING, encoding);
+			}
+		}
+		return builder.tag(responseTag).lastModified(new Date(lastModified))
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+				.header("Accept-Ranges", "bytes");
+	}
+
+	/**
+	 * Returns the content coding to use for a response, gzip is preferred
+	 * over deflate
+	 *
+	 * @param acceptEncoding
+	 *            Accept-Encoding header of the request
+	 * @return Content coding, or null to send the response uncompressed
+	 */
+	static String negotiateEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		float gzip = -1;
+		float deflate = -1;
+		float any = -1;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parameters = coding.split(";");
+			String name = parameters[0].trim().toLowerCase(Locale.ENGLISH);
+			float quality = 1;
+			for (int index = 1; index < parameters.length; index++) {
+				String parameter = parameters[index].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						quality = Float.parseFloat(parameter.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if (name.equals(GZIP) || name.equals("x-gzip")) {
+				gzip = Math.max(gzip, quality);
+			} else if (name.equals(DEFLATE)) {
+				deflate = quality;
+			} else if (name.equals("*")) {
+				any = quality;
+			}
+		}
+		if (gzip < 0) {
+			gzip = any;
+		}
+		if (deflate < 0) {
+			deflate = any;
+		}
+		if (gzip > 0 && gzip >= deflate) {
+			return GZIP;
+		} else if (deflate > 0) {
+			return DEFLATE;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a Range header with a single byte range
+	 *
+	 * @param range
+	 *            Range header
+	 * @param length
+	 *            Length of the download
+	 * @return First and last byte of the range, an empty array if the range
+	 *         can not be satisfied, or null if the header is ignored
+	 */
+	static long[] parseRange(String range, long length) {
+		range = range.trim();
+		if (!range.regionMatches(true, 0, "bytes=", 0, 6)
+				|| range.indexOf(',') != -1) {
+			// Multiple ranges are served as the whole download
+			return null;
+		}
+		String spec = range.substring(6).trim();
+		int dash = spec.indexOf('-');
+		if (dash == -1) {
+			return null;
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			if (first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0 || length == 0) {
+					return UNSATISFIABLE;
+				}
+				return new long[] { Math.max(0, length - suffix), length - 1 };
+			}
+			long start = Long.parseLong(first);
+			long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+			if (start < 0 || end < start) {
+				return null;
+			}
+			if (start >= length) {
+				return UNSATISFIABLE;
+			}
+			return new long[] { start, Math.min(end, length - 1) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static boolean matchesIfRange(String ifRange, String tag,
+			long lastModified) {
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals("\"" + tag + "\"");
+		} else if (ifRange.startsWith("W/")) {
+			// Weak validators can not be used for ranges
+			return false;
+		}
+		SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT,
+				Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(ifRange).getTime() / 1000 == lastModified / 1000;
+		} catch (ParseException e) {
+			return false;
+		}
+	}
+
+	private static boolean matchesIfNoneMatch(String ifNoneMatch, String tag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals("\"" + tag + "\"")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static StreamingOutput encode(final StreamingOutput output,
+			final String encoding) {
+		if (encoding == null) {
+			return output;
+		}
+		return new StreamingOutput() {
+			@Override
+			public void write(OutputStream outputStream) throws IOException,
+					WebApplicationException {
+				Deflater deflater = null;
+				DeflaterOutputStream compressed;
+				if (GZIP.equals(encoding)) {
+					compressed = new GZIPOutputStream(outputStream, BUFFER_SIZE);
+				} else {
+					deflater = new Deflater();
+					compressed = new DeflaterOutputStream(outputStream,
+							deflater, BUFFER_SIZE);
+				}
+				try {
+					output.write(compressed);
+					compressed.close();
+				} finally {
+					if (deflater != null) {
+						deflater.end();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Writes a part of a file
+	 */
+	private static final class FileOutput implements StreamingOutput {
+		private final File file;
+		private final long offset;
+		private final long count;
+
+		FileOutput(File file, long offset, long count) {
+			this.file = file;
+			this.offset = offset;
+			this.count = count;
+		}
+
+		@Override
+		public void write(OutputStream outputStream) throws IOException,
+				WebApplicationException {
+			byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE,
+					Math.max(1, count))];
+			try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+				input.seek(offset);
+				long remaining = count;
+				while (remaining > 0) {
+					int read = input.read(buffer, 0,
+							(int) Math.min(buffer.length, remaining));
+					if (read == -1) {
+						throw new IOException("Unexpected end of " + file.getName());
+					}
+					outputStream.write(buffer, 0, read);
+					remaining -= read;
+				}
+			}
+			outputStream.flush();
+		}
+	}
+}
@@ -0,0 +1,618 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.cl.util;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.log4j.Logger;
+
+import edu.harvard.hms.dbmi.bd2k.irct.IRCTApplication;
+
+/**
+ * Keeps the downloads of results on disk, so a download can be served again,
+ * or in parts, without converting the result again.
+ *
+ * A download is written to the cache while it is streamed to the first
+ * client, and only becomes visible once the conversion has finished. Clients
+ * that ask for the same download in the meantime are served from the file
+ * that is being written, instead of converting the result again. The
+ * conversion is stopped once none of its clients are left.
+ *
+ * Downloads are kept in the downloads folder of the result data folder. They
+ * are removed once they are older than the time to live, and the least
+ * recently used downloads are removed once the cache is larger than the
+ * download cache size.
+ */
+@ApplicationScoped
+public class ResultDownloadCache {
+	public static final String FOLDER = "downloads";
+	public static final long TIME_TO_LIVE = TimeUnit.DAYS.toMillis(7);
+
+	private static final long CLEAN_INTERVAL = TimeUnit.HOURS.toMillis(1);
+	private static final int WRITE_BUFFER_SIZE = 65536;
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	@Inject
+	private IRCTApplication irctApp;
+
+	private Logger logger = Logger.getLogger(this.getClass());
+
+	private final ConcurrentMap<String, Conversion> conversions = new ConcurrentHashMap<String, Conversion>();
+	private final ConcurrentMap<String, Long> lastUsed = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong lastClean = new AtomicLong();
+
+	/**
+	 * Returns true if downloads are kept on disk
+	 *
+	 * @return Is enabled
+	 */
+	public boolean isEnabled() {
+		return irctApp.isDownloadCacheEnabled()
+				&& irctApp.getResultDataFolder() != null;
+	}
+
+	/**
+	 * Returns the download of a result in a format if it is in the cache
+	 *
+	 * @param resultId
+	 *            Result Id
+	 * @param format
+	 *            Format
+	 * @param fileExtension
+	 *            File extension of the format
+	 * @return Download, or null if it is not in the cache
+	 */
+	public File get(Long resultId, String format, String fileExtension) {
+		if (!isEnabled()) {
+			return null;
+		}
+		File file = getFile(resultId, format, fileExtension);
+		if (!file.isFile()) {
+			return null;
+		}
+		lastUsed.put(file.getName(), System.currentTimeMillis());
+		return file;
+	}
+
+	/**
+	 * Returns an output that streams the conversion of a result to the client
+	 * and to the cache at the same time. If the result is already being
+	 * converted, the output follows that conversion instead. The download is
+	 * added to the cache once the conversion has finished.
+	 *
+	 * @param resultId
+	 *            Result Id
+	 * @param format
+	 *            Format
+	 * @param fileExtension
+	 *            File extension of the format
+	 * @param output
+	 *            Converts the result
+	 * @return Output
+	 */
+	public StreamingOutput tee(final Long resultId, final String format,
+			final String fileExtension, final StreamingOutput output) {
+		return new StreamingOutput() {
+			@Override
+			public void write(OutputStream outputStream) throws IOException,
+					WebApplicationException {
+				File file = getFile(resultId, format, fileExtension);
+				while (true) {
+					if (file.isFile()) {
+						lastUsed.put(file.getName(), System.currentTimeMillis());
+						Files.copy(file.toPath(), outputStream);
+						return;
+					}
+					Conversion running = conversions.get(file.getName());
+					if (running == null) {
+						if (convert(file, output, outputStream)) {
+							return;
+						}
+						continue;
+					}
+					InputStream inputStream = running.follow();
+					if (inputStream != null) {
+						try {
+							running.copyTo(inputStream, outputStream);
+						} finally {
+							running.unfollow();
+							inputStream.close();
+						}
+						return;
+					}
+					// The conversion has just finished
+					conversions.remove(file.getName(), running);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Converts a result to the client and to the cache, unless another
+	 * download has started converting it first
+	 *
+	 * @return False if another download is converting the result
+	 */
+	private boolean convert(File file, StreamingOutput output,
+			OutputStream outputStream) throws IOException {
+		Path temporary;
+		OutputStream cacheStream;
+		try {
+			temporary = createTemporaryFile(file);
+		} catch (IOException e) {
+			logger.warn("convert() Unable to cache " + file.getName() + ": "
+					+ e.getMessage());
+			output.write(outputStream);
+			return true;
+		}
+
+		Conversion conversion = new Conversion(temporary, file);
+		if (conversions.putIfAbsent(file.getName(), conversion) != null) {
+			Files.deleteIfExists(temporary);
+			return false;
+		}
+
+		try {
+			cacheStream = new BufferedOutputStream(new ProgressOutputStream(
+					Files.newOutputStream(temporary), conversion),
+					WRITE_BUFFER_SIZE);
+		} catch (IOException e) {
+			logger.warn("convert() Unable to cache " + file.getName() + ": "
+					+ e.getMessage());
+			conversion.fail(e);
+			conversions.remove(file.getName(), conversion);
+			Files.deleteIfExists(temporary);
+			output.write(outputStream);
+			return true;
+		}
+
+		TeeOutputStream tee = new TeeOutputStream(cacheStream, outputStream,
+				conversion);
+		boolean converted = false;
+		try {
+			output.write(tee);
+			tee.close();
+			converted = true;
+		} catch (IOException | RuntimeException e) {
+			conversion.fail(e instanceof IOException ? (IOException) e
+					: new IOException(e.getMessage(), e));
+			throw e;
+		} finally {
+			if (!converted) {
+				tee.closeQuietly();
+				Files.deleteIfExists(temporary);
+				conversions.remove(file.getName(), conversion);
+			}
+		}
+
+		try {
+			if (tee.getCacheException() == null) {
+				conversion.commit();
+			} else {
+				logger.warn("convert() Unable to cache " + file.getName()
+						+ ": " + tee.getCacheException().getMessage());
+				Files.deleteIfExists(temporary);
+			}
+		} finally {
+			conversions.remove(file.getName(), conversion);
+		}
+		removeExpired(file.getParentFile());
+		removeLeastRecentlyUsed(file);
+
+		if (tee.getClientException() != null) {
+			throw tee.getClientException();
+		}
+		return true;
+	}
+
+	private File getFile(Long resultId, String format, String fileExtension) {
+		String name = resultId + "-" + format.replaceAll("[^A-Za-z0-9_-]", "_")
+				+ (fileExtension == null ? "" : fileExtension);
+		return new File(new File(irctApp.getResultDataFolder(), FOLDER), name);
+	}
+
+	private Path createTemporaryFile(File file) throws IOException {
+		Path folder = Files.createDirectories(file.getParentFile().toPath());
+		return Files.createTempFile(folder, file.getName() + ".",
+				TEMPORARY_SUFFIX);
+	}
+
+	private void commit(Path temporary, File file) throws IOException {
+		if (file.isFile()) {
+			// Keep the download that is already served, so its ETag stays the
+			// same for clients that are resuming it
+			Files.delete(temporary);
+		} else {
+			Files.move(temporary, file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		lastUsed.put(file.getName(), System.currentTimeMillis());
+	}
+
+	private void removeExpired(File folder) {
+		long now = System.currentTimeMillis();
+		long last = lastClean.get();
+		if (now - last < CLEAN_INTERVAL || !lastClean.compareAndSet(last, now)) {
+			return;
+		}
+		File[] files = folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (now - file.lastModified() > TIME_TO_LIVE
+					&& !conversions.containsKey(getDownloadName(file))) {
+				delete(file, "removeExpired()");
+			}
+		}
+	}
+
+	/**
+	 * Removes the least recently used downloads until the cache is no larger
+	 * than the download cache size. Downloads that are being written count
+	 * towards the size, but are not removed, nor is the download that was
+	 * just added.
+	 */
+	private synchronized void removeLeastRecentlyUsed(File added) {
+		File[] files = added.getParentFile().listFiles();
+		if (files == null) {
+			return;
+		}
+		long size = 0;
+		List<File> downloads = new ArrayList<File>();
+		for (File file : files) {
+			size += file.length();
+			if (!file.getName().endsWith(TEMPORARY_SUFFIX)
+					&& !file.equals(added)) {
+				downloads.add(file);
+			}
+		}
+		long maximumSize = irctApp.getDownloadCacheSize();
+		if (size <= maximumSize) {
+			return;
+		}
+
+		final ConcurrentMap<String, Long> used = lastUsed;
+		Collections.sort(downloads, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				return Long.compare(getLastUsed(used, file1),
+						getLastUsed(used, file2));
+			}
+		});
+		for (File file : downloads) {
+			if (size <= maximumSize) {
+				break;
+			}
+			long length = file.length();
+			if (delete(file, "removeLeastRecentlyUsed()")) {
+				size -= length;
+			}
+		}
+	}
+
+	private static long getLastUsed(ConcurrentMap<String, Long> used, File file) {
+		Long time = used.get(file.getName());
+		return time == null ? file.lastModified() : time;
+	}
+
+	private boolean delete(File file, String caller) {
+		if (!file.delete()) {
+			logger.warn(caller + " Unable to delete " + file.getName());
+			return false;
+		}
+		lastUsed.remove(file.getName());
+		return true;
+	}
+
+	/**
+	 * Returns the name of the download a file in the cache folder belongs to
+	 */
+	private static String getDownloadName(File file) {
+		String name = file.getName();
+		if (!name.endsWith(TEMPORARY_SUFFIX)) {
+			return name;
+		}
+		String download = name.substring(0,
+				name.length() - TEMPORARY_SUFFIX.length());
+		return download.substring(0, Math.max(0, download.lastIndexOf('.')));
+	}
+
+	/**
+	 * A conversion of a result into the cache. The clients of the conversion
+	 * are counted, so it can be stopped once none of them are left, and the
+	 * number of bytes in the temporary file is tracked, so the downloads that
+	 * follow the conversion can read the file while it is written.
+	 */
+	private final class Conversion {
+		private final Path temporary;
+		private final File file;
+		private int clients = 1;
+		private long length;
+		private boolean finished;
+		private IOException failure;
+
+		Conversion(Path temporary, File file) {
+			this.temporary = temporary;
+			this.file = file;
+		}
+
+		/**
+		 * Adds a client that follows the conversion
+		 *
+		 * @return Temporary file, or null if the conversion has finished
+		 */
+		synchronized InputStream follow() throws IOException {
+			if (finished) {
+				return null;
+			}
+			InputStream inputStream = Files.newInputStream(temporary);
+			clients++;
+			return inputStream;
+		}
+
+		synchronized void unfollow() {
+			clients--;
+		}
+
+		/**
+		 * Removes the client that started the conversion
+		 */
+		synchronized void leave() {
+			clients--;
+		}
+
+		/**
+		 * Fails the conversion if no client follows it, so no client can
+		 * start following it afterwards
+		 *
+		 * @return True if the conversion has failed
+		 */
+		synchronized boolean failIfUnfollowed(IOException failure) {
+			if (clients > 0) {
+				return false;
+			}
+			fail(failure);
+			return true;
+		}
+
+		synchronized void written(long length) {
+			this.length = length;
+			notifyAll();
+		}
+
+		synchronized void fail(IOException failure) {
+			if (!finished) {
+				this.failure = failure;
+				finished = true;
+				notifyAll();
+			}
+		}
+
+		synchronized void commit() throws IOException {
+			try {
+				ResultDownloadCache.this.commit(temporary, file);
+			} finally {
+				finished = true;
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Waits until more than the position has been written, or the
+		 * conversion has finished
+		 *
+		 * @return Number of bytes written
+		 */
+		synchronized long await(long position) throws IOException {
+			while (!finished && length <= position) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for "
+							+ file.getName());
+				}
+			}
+			if (failure != null) {
+				throw new IOException("Unable to convert " + file.getName(),
+						failure);
+			}
+			return length;
+		}
+
+		/**
+		 * Copies the temporary file to a client as it is written
+		 */
+		void copyTo(InputStream inputStream, OutputStream outputStream)
+				throws IOException {
+			byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+			long position = 0;
+			while (true) {
+				long available = await(position);
+				if (available <= position) {
+					return;
+				}
+				while (position < available) {
+					int read = inputStream.read(buffer, 0,
+							(int) Math.min(buffer.length, available - position));
+					if (read < 0) {
+						throw new EOFException(file.getName()
+								+ " ended before the conversion");
+					}
+					outputStream.write(buffer, 0, read);
+					position += read;
+				}
+				outputStream.flush();
+			}
+		}
+	}
+
+	/**
+	 * Tells a conversion how many bytes have reached the temporary file
+	 */
+	private static final class ProgressOutputStream extends FilterOutputStream {
+		private final Conversion conversion;
+		private long length;
+
+		ProgressOutputStream(OutputStream outputStream, Conversion conversion) {
+			super(outputStream);
+			this.conversion = conversion;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			conversion.written(++length);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			length += len;
+			conversion.written(length);
+		}
+	}
+
+	/**
+	 * Writes to the cache and to the client. A branch that fails is dropped,
+	 * and the other one is written on. The stream fails once both have
+	 * failed, or once the client has gone away and no other client follows
+	 * the conversion.
+	 */
+	private static final class TeeOutputStream extends OutputStream {
+		private final OutputStream cacheStream;
+		private final OutputStream clientStream;
+		private final Conversion conversion;
+		private IOException cacheException;
+		private IOException clientException;
+
+		TeeOutputStream(OutputStream cacheStream, OutputStream clientStream,
+				Conversion conversion) {
+			this.cacheStream = cacheStream;
+			this.clientStream = clientStream;
+			this.conversion = conversion;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (cacheException == null) {
+				try {
+					cacheStream.write(b, off, len);
+				} catch (IOException e) {
+					cacheFailed(e);
+				}
+			}
+			if (clientException == null) {
+				try {
+					clientStream.write(b, off, len);
+				} catch (IOException e) {
+					clientFailed(e);
+				}
+			}
+			checkFailed();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (cacheException == null) {
+				try {
+					cacheStream.flush();
+				} catch (IOException e) {
+					cacheFailed(e);
+				}
+			}
+			if (clientException == null) {
+				try {
+					clientStream.flush();
+				} catch (IOException e) {
+					clientFailed(e);
+				}
+			}
+			checkFailed();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				cacheStream.close();
+			} catch (IOException e) {
+				if (cacheException == null) {
+					cacheFailed(e);
+				}
+			}
+			try {
+				clientStream.close();
+			} catch (IOException e) {
+				if (clientException == null) {
+					clientFailed(e);
+				}
+			}
+			checkFailed();
+		}
+
+		void closeQuietly() {
+			try {
+				close();
+			} catch (IOException e) {
+				// The conversion has already failed
+			}
+		}
+
+		IOException getCacheException() {
+			return cacheException;
+		}
+
+		IOException getClientException() {
+			return clientException;
+		}
+
+		private void cacheFailed(IOException e) {
+			cacheException = e;
+			// The clients that follow the conversion read from the cache
+			conversion.fail(e);
+		}
+
+		private void clientFailed(IOException e) {
+			clientException = e;
+			conversion.leave();
+		}
+
+		private void checkFailed() throws IOException {
+			if (clientException != null
+					&& (cacheException != null || conversion
+							.failIfUnfollowed(clientException))) {
+				throw clientException;
+			}
+		}
+	}
+}
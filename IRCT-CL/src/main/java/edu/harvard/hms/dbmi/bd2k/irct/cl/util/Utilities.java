@@ -4,6 +4,7 @@
 package edu.harvard.hms.dbmi.bd2k.irct.cl.util;
 
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTDecodeException;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.Claim;
 import com.auth0.jwt.interfaces.DecodedJWT;
@@ -15,6 +16,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.NotAuthorizedException;
 import javax.ws.rs.core.MultivaluedMap;
 import java.io.UnsupportedEncodingException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -144,6 +146,23 @@ public class Utilities {
 		return userSubject;
 	}
 	
+	/**
+	 * Returns the time a token expires. The token is only decoded, it must
+	 * have been verified before.
+	 * 
+	 * @param tokenString
+	 *            Token
+	 * @return Time the token expires, or null if it has no expiry time
+	 */
+	public static Date extractExpiresAt(String tokenString) {
+		try {
+			return com.auth0.jwt.JWT.decode(tokenString).getExpiresAt();
+		} catch (JWTDecodeException e) {
+			logger.error("extractExpiresAt() unable to decode token: " + e.getMessage());
+			return null;
+		}
+	}
+
 	// TODO This is silly, but for backward compatibility
 	public static String extractHeaderValue(HttpServletRequest req, String headerType) {
 		return Utilities.extractToken(req);		
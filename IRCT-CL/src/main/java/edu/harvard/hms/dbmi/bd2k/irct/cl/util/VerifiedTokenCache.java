@@ -0,0 +1,117 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.cl.util;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+
+/**
+ * Keeps the user of tokens that have already been verified, so a request with
+ * a known token does not have to verify its signature or look up the user
+ * again. An entry is kept until the time to live has passed or the token
+ * itself expires, whichever comes first. The tokens of a user are removed
+ * when the user ends the session.
+ */
+@ApplicationScoped
+public class VerifiedTokenCache {
+	public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+	public static final long DEFAULT_TIME_TO_LIVE = 300;
+
+	private final Cache<String, VerifiedToken> cache;
+
+	/**
+	 * Creates a cache with the default size and time to live
+	 */
+	public VerifiedTokenCache() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE);
+	}
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param maximumSize
+	 *            Maximum number of tokens to keep
+	 * @param timeToLive
+	 *            Maximum number of seconds to keep a token
+	 */
+	public VerifiedTokenCache(long maximumSize, long timeToLive) {
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(timeToLive, TimeUnit.SECONDS).build();
+	}
+
+	/**
+	 * Returns the user of a verified token
+	 *
+	 * @param token
+	 *            Token
+	 * @return User, or null if the token is not known or has expired
+	 */
+	public User get(String token) {
+		if (token == null) {
+			return null;
+		}
+		VerifiedToken verifiedToken = cache.getIfPresent(token);
+		if (verifiedToken == null) {
+			return null;
+		}
+		if (verifiedToken.expiresAt != null
+				&& verifiedToken.expiresAt.getTime() <= System.currentTimeMillis()) {
+			cache.invalidate(token);
+			return null;
+		}
+		return verifiedToken.user;
+	}
+
+	/**
+	 * Adds a verified token
+	 *
+	 * @param token
+	 *            Token
+	 * @param user
+	 *            User of the token
+	 * @param expiresAt
+	 *            Time the token expires, or null if it does not expire
+	 */
+	public void put(String token, User user, Date expiresAt) {
+		if (token == null || user == null) {
+			return;
+		}
+		cache.put(token, new VerifiedToken(user, expiresAt));
+	}
+
+	/**
+	 * Removes all the tokens of a user
+	 *
+	 * @param userId
+	 *            User id
+	 */
+	public void invalidateUser(String userId) {
+		if (userId == null) {
+			return;
+		}
+		for (Map.Entry<String, VerifiedToken> entry : cache.asMap().entrySet()) {
+			if (userId.equals(entry.getValue().user.getUserId())) {
+				cache.invalidate(entry.getKey());
+			}
+		}
+	}
+
+	private static final class VerifiedToken {
+		private final User user;
+		private final Date expiresAt;
+
+		VerifiedToken(User user, Date expiresAt) {
+			this.user = user;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.cl.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class DownloadResponsesTest {
+
+	@Test
+	public void testNegotiateEncoding() {
+		assertNull(DownloadResponses.negotiateEncoding(null));
+		assertNull(DownloadResponses.negotiateEncoding("identity"));
+		assertEquals("gzip", DownloadResponses.negotiateEncoding("gzip, deflate, br"));
+		assertEquals("gzip", DownloadResponses.negotiateEncoding("x-gzip"));
+		assertEquals("deflate", DownloadResponses.negotiateEncoding("gzip;q=0.5, deflate"));
+		assertEquals("deflate", DownloadResponses.negotiateEncoding("gzip;q=0, *"));
+		assertEquals("gzip", DownloadResponses.negotiateEncoding("*;q=0.1"));
+		assertNull(DownloadResponses.negotiateEncoding("gzip;q=0, deflate;q=0"));
+	}
+
+	@Test
+	public void testParseRange() {
+		assertArrayEquals(new long[] { 0, 99 }, DownloadResponses.parseRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[] { 500, 999 }, DownloadResponses.parseRange("bytes=500-", 1000));
+		assertArrayEquals(new long[] { 900, 999 }, DownloadResponses.parseRange("bytes=-100", 1000));
+		assertArrayEquals(new long[] { 0, 999 }, DownloadResponses.parseRange("bytes=-2000", 1000));
+		assertArrayEquals(new long[] { 990, 999 }, DownloadResponses.parseRange("bytes=990-2000", 1000));
+
+		// Unsatisfiable ranges
+		assertEquals(0, DownloadResponses.parseRange("bytes=1000-", 1000).length);
+		assertEquals(0, DownloadResponses.parseRange("bytes=-0", 1000).length);
+		assertEquals(0, DownloadResponses.parseRange("bytes=0-", 0).length);
+
+		// Ignored ranges
+		assertNull(DownloadResponses.parseRange("bytes=0-1,5-6", 1000));
+		assertNull(DownloadResponses.parseRange("items=0-1", 1000));
+		assertNull(DownloadResponses.parseRange("bytes=5-1", 1000));
+		assertNull(DownloadResponses.parseRange("bytes=a-b", 1000));
+	}
+}
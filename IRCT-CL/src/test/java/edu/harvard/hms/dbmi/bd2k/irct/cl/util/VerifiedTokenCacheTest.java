@@ -0,0 +1,59 @@
+package edu.harvard.hms.dbmi.bd2k.irct.cl.util;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class VerifiedTokenCacheTest {
+
+    @Test
+    public void testGetVerifiedToken() {
+        VerifiedTokenCache cache = new VerifiedTokenCache();
+        User user = new User("test@email.com");
+
+        cache.put("token", user, new Date(System.currentTimeMillis() + 60000));
+        assertSame(user, cache.get("token"));
+        assertSame(user, cache.get("token"));
+
+        //Unknown tokens are never returned
+        assertNull(cache.get("otherToken"));
+        assertNull(cache.get(null));
+    }
+
+    @Test
+    public void testExpiredToken() {
+        VerifiedTokenCache cache = new VerifiedTokenCache();
+
+        cache.put("expiredToken", new User("test@email.com"), new Date(System.currentTimeMillis() - 1000));
+        assertNull(cache.get("expiredToken"));
+
+        //Tokens without an expiry time are kept until the time to live has passed
+        User user = new User("test@email.com");
+        cache.put("token", user, null);
+        assertSame(user, cache.get("token"));
+    }
+
+    @Test
+    public void testInvalidateUser() {
+        VerifiedTokenCache cache = new VerifiedTokenCache();
+        User user = new User("test@email.com");
+        User otherUser = new User("other@email.com");
+
+        cache.put("token1", user, null);
+        cache.put("token2", user, null);
+        cache.put("token3", otherUser, null);
+        cache.invalidateUser("test@email.com");
+
+        assertNull(cache.get("token1"));
+        assertNull(cache.get("token2"));
+        assertSame(otherUser, cache.get("token3"));
+
+        //Users without an id have no tokens to remove
+        cache.invalidateUser(null);
+        assertSame(otherUser, cache.get("token3"));
+    }
+}
@@ -23,10 +23,12 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
  * Performs a full outer join between two result sets
  */
 public class FullOuterJoin implements JoinImplementation {
+	private long maxIndexedRows = JoinIndex.DEFAULT_MAX_INDEXED_ROWS;
 
 	@Override
 	public void setup(Map<String, Object> parameters)
 			throws JoinActionSetupException {
+		this.maxIndexedRows = JoinIndex.getMaxIndexedRows(parameters);
 	}
 
 	@Override
@@ -67,6 +69,7 @@ public class FullOuterJoin implements JoinImplementation {
 		}
 
 		LeftOuterJoin leftOuterJoin = new LeftOuterJoin();
+		leftOuterJoin.setMaxIndexedRows(this.maxIndexedRows);
 		
 		ResultSetImpl computedResults = (ResultSetImpl) result.getData();
 		int baseColumn = leftResultSet.getColumnSize();
@@ -83,25 +86,20 @@ public class FullOuterJoin implements JoinImplementation {
 			}
 		}
 
+		// Collect the left join values once instead of scanning the left
+		// result set for every right row
+		JoinIndex leftKeys = new JoinIndex(leftResultSet, leftColumnIndex,
+				this.maxIndexedRows, true);
+
 		// Loop through right result to make sure that right joins occur bringing
 		// in all right matches
 		rightResultSet.beforeFirst();
 
 		while (rightResultSet.next()) {
 			Object rightRowMatchObj = ((ResultSetImpl) rightResultSet).getObject(rightColumnIndex);
-			boolean match = false;
-
-			// Reset resultset before looping through it
-			leftResultSet.beforeFirst();
-			while (leftResultSet.next()) {
-				if (((ResultSetImpl) leftResultSet).getObject(leftColumnIndex).equals(rightRowMatchObj)) {
-					match = true;
-					break;
-				}
-			}
 
 			// If a match isn't found then add it to the results
-			if (!match) {
+			if (!leftKeys.contains(rightRowMatchObj)) {
 				// Add a new row
 				computedResults.appendRow();
 				// Set the join column value
@@ -3,10 +3,30 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package edu.harvard.hms.dbmi.bd2k.irct.join;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.LinkedHashMultimap;
@@ -14,10 +34,13 @@ import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import edu.harvard.hms.dbmi.bd2k.irct.exception.JoinActionSetupException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.BinaryRowCodec;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Row;
@@ -26,6 +49,12 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Row;
  * This is an implementation of a equi hybrid hash join. It performs joins
  * between two result sets of either full, inner, left, or right type.
  * 
+ * If the smaller result set does not fit in a single block both result sets
+ * are partitioned to disk and joined partition by partition as a grace hash
+ * join, so each result set is only read once. At most MAX_PARTITIONS
+ * partitions are written at a time, and a partition that is still larger
+ * than a block is partitioned again with a different hash.
+ * 
  * You can read more about a hybrid hash join at
  * https://en.wikipedia.org/wiki/Hash_join#Hybrid_hash_join
  * 
@@ -52,6 +81,27 @@ public class HashJoinImpl {
 	private HashJoinImplType joinType;
 	private long blockSize;
 	private LinkedHashMultimap<HashCode, Row> hashMultiMap;
+	private Set<Row> matchedOuterRows;
+	private int innerOffset;
+	private int outerOffset;
+	private int outerColumnSize;
+	private int innerColumnSize;
+	private int outputColumnSize;
+	private int parallelism = 1;
+	private int probeBatchSize = PROBE_BATCH_SIZE;
+	private ExecutorService executorService;
+
+	private static ThreadPoolExecutor probeExecutorService;
+
+	static final long DEFAULT_BLOCK_SIZE = 100000L;
+	private static final int PARTITION_BUFFER_SIZE = 65536;
+	private static final int MAX_PARTITIONS = 64;
+	private static final int MAX_PARTITION_DEPTH = 4;
+	private static final int PROBE_BATCH_SIZE = 8192;
+	static final int MAX_PARALLELISM = 64;
+	static final int DEFAULT_PARALLELISM = 2;
+	private static final int PROBE_QUEUE_SIZE = 256;
+	private static final long PROBE_THREAD_KEEP_ALIVE = 60L;
 
 	public HashJoinImpl(ResultSet leftResultSet, ResultSet rightResultSet,
 			int[] leftColumns, int[] rightColumns, HashJoinImplType joinType,
@@ -98,14 +148,101 @@ public class HashJoinImpl {
 
 		hashFunction = Hashing.murmur3_128();
 		hashMultiMap = LinkedHashMultimap.<HashCode, Row> create();
+		matchedOuterRows = Collections
+				.newSetFromMap(new IdentityHashMap<Row, Boolean>());
+	}
+
+	/**
+	 * Returns the maximum number of outer rows that are joined in memory from
+	 * the join parameters. If the blockSize parameter is not set the default
+	 * block size is used.
+	 * 
+	 * @param parameters
+	 *            Join parameters
+	 * @return Block size
+	 * @throws JoinActionSetupException
+	 *             The parameter is not a number greater than zero
+	 */
+	public static long getBlockSize(Map<String, Object> parameters)
+			throws JoinActionSetupException {
+		if ((parameters == null) || (parameters.get("blockSize") == null)) {
+			return DEFAULT_BLOCK_SIZE;
+		}
+		try {
+			long blockSize = Long.parseLong(parameters.get("blockSize")
+					.toString().trim());
+			if (blockSize > 0) {
+				return blockSize;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new JoinActionSetupException(
+				"blockSize must be a number greater than zero");
+	}
+
+	/**
+	 * Returns the probe parallelism from the join parameters. If the
+	 * parallelism parameter is not set the default parallelism is used, up to
+	 * the number of available processors.
+	 * 
+	 * @param parameters
+	 *            Join parameters
+	 * @return Parallelism
+	 * @throws JoinActionSetupException
+	 *             The parameter is not a number between 1 and the maximum
+	 *             parallelism
+	 */
+	public static int getParallelism(Map<String, Object> parameters)
+			throws JoinActionSetupException {
+		if ((parameters == null) || (parameters.get("parallelism") == null)) {
+			return Math.min(DEFAULT_PARALLELISM, Runtime.getRuntime()
+					.availableProcessors());
+		}
+		try {
+			int parallelism = Integer.parseInt(parameters.get("parallelism")
+					.toString().trim());
+			if ((parallelism >= 1) && (parallelism <= MAX_PARALLELISM)) {
+				return parallelism;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new JoinActionSetupException(
+				"parallelism must be a number between 1 and " + MAX_PARALLELISM);
+	}
+
+	/**
+	 * Sets the number of ranges the probe rows are split into so they can be
+	 * matched against the hash table in parallel. The joined rows are still
+	 * written to the output in the order of the probe rows.
+	 * 
+	 * @param parallelism
+	 *            Number of parallel probes, 1 probes on the calling thread
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.min(MAX_PARALLELISM, Math.max(1, parallelism));
+		this.probeBatchSize = (int) Math.min(Integer.MAX_VALUE,
+				(long) PROBE_BATCH_SIZE * this.parallelism);
+	}
+
+	/**
+	 * Sets the executor service the probe ranges run on. If it is not set
+	 * the probe executor service shared by all joins is used.
+	 * 
+	 * @param executorService
+	 *            Executor service
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
 	}
 
 	public ResultSet join(ResultSet output) throws ResultSetException,
 			PersistableException {
 		// Set up columns for output
 		// Calculate offset
-		int innerOffset = 0;
-		int outerOffset = 0;
+		innerOffset = 0;
+		outerOffset = 0;
 		List<String> columnNames = new ArrayList<String>();
 		if (isLeftOuterResultSet) {
 
@@ -149,90 +286,459 @@ public class HashJoinImpl {
 
 			outerOffset = innerResultSet.getColumnSize();
 		}
+		outerColumnSize = outerResultSet.getColumnSize();
+		innerColumnSize = innerResultSet.getColumnSize();
+		outputColumnSize = output.getColumnSize();
+
+		if (outerResultSet.getSize() <= blockSize) {
+			// The outer result set fits in memory so it is hashed directly
+			// and the inner result set is scanned once
+			try {
+				joinBlock(output, new ResultSetRowSource(outerResultSet),
+						new ResultSetRowSource(innerResultSet));
+			} catch (IOException e) {
+				throw new ResultSetException("Unable to join", e);
+			}
+		} else {
+			partitionedJoin(output);
+		}
+
+		return output;
+	}
+
+	/**
+	 * Hashes the outer rows into memory, probes them with the inner rows and
+	 * writes the joined rows to the output
+	 * 
+	 * @param output
+	 *            Output result set
+	 * @param outerRows
+	 *            Outer rows
+	 * @param innerRows
+	 *            Inner rows
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 * @throws PersistableException
+	 *             If a PersistableException occurs
+	 * @throws IOException
+	 *             If a partition can not be read
+	 */
+	private void joinBlock(ResultSet output, RowSource outerRows,
+			RowSource innerRows) throws ResultSetException,
+			PersistableException, IOException {
+		hashMultiMap.clear();
+		matchedOuterRows.clear();
+		try {
+			Row row;
+			while ((row = outerRows.next()) != null) {
+				addToMultiMap(row);
+			}
+
+			List<Row> probeRows = new ArrayList<Row>();
+			while ((row = innerRows.next()) != null) {
+				probeRows.add(row);
+				if (probeRows.size() == probeBatchSize) {
+					probe(output, probeRows);
+					probeRows.clear();
+				}
+			}
+			probe(output, probeRows);
+			writeUnmatchedOuterRows(output);
+		} finally {
+			outerRows.close();
+			innerRows.close();
+			hashMultiMap.clear();
+			matchedOuterRows.clear();
+		}
+	}
+
+	/**
+	 * Performs a grace hash join. Both result sets are read once and their
+	 * rows are written to partitions on disk based on the hash of the join
+	 * columns, so that matching rows always end up in the same partition.
+	 * Each outer partition is then loaded into memory and joined with the
+	 * inner partition of the same number.
+	 * 
+	 * @param output
+	 *            Output result set
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 * @throws PersistableException
+	 *             If a PersistableException occurs
+	 */
+	private void partitionedJoin(ResultSet output) throws ResultSetException,
+			PersistableException {
+		Path partitionDirectory = null;
+		try {
+			partitionDirectory = Files.createTempDirectory("irct-join");
+			joinPartitions(output, new ResultSetRowSource(outerResultSet),
+					outerResultSet.getSize(), new ResultSetRowSource(
+							innerResultSet), partitionDirectory, 0, "");
+		} catch (IOException e) {
+			throw new ResultSetException("Unable to partition the join", e);
+		} finally {
+			deletePartitions(partitionDirectory);
+		}
+	}
+
+	/**
+	 * Partitions the outer and inner rows and joins the partitions one at a
+	 * time. A partition with more outer rows than the block size is
+	 * partitioned again with the hash of the next level, unless the maximum
+	 * depth is reached or the partition did not get any smaller. Then all
+	 * its rows have the same join values and it is joined in memory.
+	 * 
+	 * @param output
+	 *            Output result set
+	 * @param outerRows
+	 *            Outer rows
+	 * @param outerSize
+	 *            Number of outer rows
+	 * @param innerRows
+	 *            Inner rows
+	 * @param partitionDirectory
+	 *            Directory the partitions are written to
+	 * @param level
+	 *            Partitioning level, 0 for the result sets
+	 * @param prefix
+	 *            Prefix of the partition file names
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 * @throws PersistableException
+	 *             If a PersistableException occurs
+	 * @throws IOException
+	 *             If a partition can not be written or read
+	 */
+	private void joinPartitions(ResultSet output, RowSource outerRows,
+			long outerSize, RowSource innerRows, Path partitionDirectory,
+			int level, String prefix) throws ResultSetException,
+			PersistableException, IOException {
+		int partitions = (int) Math.min(MAX_PARTITIONS,
+				Math.max(2, (outerSize + blockSize - 1) / blockSize));
+
+		Column[] outerResultColumns = outerResultSet.getColumns();
+		Column[] innerResultColumns = innerResultSet.getColumns();
+
+		long[] outerSizes = new long[partitions];
+		Path[] outerPartitions = writePartitions(outerRows,
+				outerResultColumns, outerColumns, outerDataTypes, partitions,
+				level, partitionDirectory, prefix + "outer", outerSizes);
+		Path[] innerPartitions = writePartitions(innerRows,
+				innerResultColumns, innerColumns, innerDataTypes, partitions,
+				level, partitionDirectory, prefix + "inner",
+				new long[partitions]);
+
+		for (int partition = 0; partition < partitions; partition++) {
+			RowSource outerPartition = new PartitionRowSource(
+					outerPartitions[partition], outerResultColumns);
+			RowSource innerPartition = new PartitionRowSource(
+					innerPartitions[partition], innerResultColumns);
+			if ((outerSizes[partition] <= blockSize)
+					|| (outerSizes[partition] == outerSize)
+					|| (level + 1 >= MAX_PARTITION_DEPTH)) {
+				joinBlock(output, outerPartition, innerPartition);
+			} else {
+				joinPartitions(output, outerPartition, outerSizes[partition],
+						innerPartition, partitionDirectory, level + 1, prefix
+								+ partition + "-");
+			}
+			Files.deleteIfExists(outerPartitions[partition]);
+			Files.deleteIfExists(innerPartitions[partition]);
+		}
+	}
 
-		outerResultSet.beforeFirst();
+	private Path[] writePartitions(RowSource rows, Column[] resultColumns,
+			int[] columns, PrimitiveDataType[] dataTypes, int partitions,
+			int level, Path partitionDirectory, String prefix,
+			long[] partitionSizes) throws IOException, ResultSetException {
+		byte[][] strings = new byte[resultColumns.length][];
+		ByteBuffer buffer = ByteBuffer.allocate(PARTITION_BUFFER_SIZE);
+
+		Path[] partitionFiles = new Path[partitions];
+		DataOutputStream[] partitionStreams = new DataOutputStream[partitions];
+		try {
+			for (int partition = 0; partition < partitions; partition++) {
+				partitionFiles[partition] = partitionDirectory.resolve(prefix
+						+ partition);
+				partitionStreams[partition] = new DataOutputStream(
+						new BufferedOutputStream(
+								Files.newOutputStream(partitionFiles[partition]),
+								PARTITION_BUFFER_SIZE));
+			}
 
-		// Loop around outer result set until all outer result sets have been
-		// hashed and compared
-		while (outerResultSet.isLast()) {
+			Row row;
+			while ((row = rows.next()) != null) {
+				int partition = Hashing.consistentHash(
+						partitionHash(hashRow(row, columns, dataTypes), level),
+						partitions);
+				partitionSizes[partition]++;
+
+				int encodedSize = BinaryRowCodec.encodedSize(resultColumns,
+						row, strings);
+				if (encodedSize > buffer.capacity()) {
+					buffer = ByteBuffer.allocate(encodedSize);
+				}
+				buffer.clear();
+				BinaryRowCodec.encode(resultColumns, row, strings,
+						encodedSize, buffer);
+				partitionStreams[partition].write(buffer.array(), 0,
+						encodedSize);
+			}
+		} finally {
+			rows.close();
+			for (DataOutputStream partitionStream : partitionStreams) {
+				if (partitionStream != null) {
+					partitionStream.close();
+				}
+			}
+		}
 
-			// Build the multi map from the inner for this block
-			buildMultiMap();
+		return partitionFiles;
+	}
 
-			Set<HashCode> usedKeys = new HashSet<HashCode>();
+	/**
+	 * Returns the hash that rows are partitioned on at a level. Each level
+	 * rehashes the join hash with a different seed so the rows of a
+	 * partition are spread over the partitions of the next level.
+	 * 
+	 * @param hash
+	 *            Hash of the join columns
+	 * @param level
+	 *            Partitioning level
+	 * @return Partition hash
+	 */
+	private HashCode partitionHash(HashCode hash, int level) {
+		if (level == 0) {
+			return hash;
+		}
+		return Hashing.murmur3_128(level).hashBytes(hash.asBytes());
+	}
 
-			// Loop through the inner loop to check for matches
-			innerResultSet.beforeFirst();
-			while (innerResultSet.next()) {
-				// Create hash of inner columns to match on
-				HashCode innerHash = hashResultSetRow(innerColumns,
-						innerDataTypes, innerResultSet);
+	private DataInputStream openPartition(Path partitionFile)
+			throws IOException {
+		return new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(partitionFile), PARTITION_BUFFER_SIZE));
+	}
 
-				// Check if inner columns match on anything in the hash
-				Set<Row> matchedRows = hashMultiMap.get(innerHash);
+	private Row readRow(DataInputStream in, Column[] columns)
+			throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
 
-				// Loop through all matches
-				for (Row row : matchedRows) {
+		ByteBuffer buffer = ByteBuffer.allocate(BinaryRowCodec.ROW_HEADER_SIZE
+				+ length);
+		buffer.putInt(length);
+		in.readFully(buffer.array(), BinaryRowCodec.ROW_HEADER_SIZE, length);
+		buffer.rewind();
+		return BinaryRowCodec.decode(columns, buffer);
+	}
 
-					// Check values to ensure no hash collisions
-					if (trueMatch(row, innerResultSet.getCurrentRow())) {
-						// Write both output rows
-						output.appendRow();
-						writeRow(output, row, outerResultSet.getColumnSize(),
-								outerOffset, ignoreOuterColumns);
-						writeRow(output, innerResultSet.getCurrentRow(),
-								innerResultSet.getColumnSize(), innerOffset,
-								ignoreInnerColumns);
+	private void deletePartitions(Path partitionDirectory) {
+		if (partitionDirectory == null) {
+			return;
+		}
+		try (DirectoryStream<Path> partitionFiles = Files
+				.newDirectoryStream(partitionDirectory)) {
+			for (Path partitionFile : partitionFiles) {
+				Files.deleteIfExists(partitionFile);
+			}
+			Files.deleteIfExists(partitionDirectory);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-						usedKeys.add(innerHash);
-					}
+	private void addToMultiMap(Row outerRow) {
+		hashMultiMap.put(hashRow(outerRow, outerColumns, outerDataTypes),
+				outerRow);
+	}
 
+	/**
+	 * Probes the hash table with a batch of inner rows and writes the joined
+	 * rows to the output. If the parallelism is greater than one the batch
+	 * is split into ranges that are probed in parallel on the executor
+	 * service, each into its own buffer, and the buffers are written to the
+	 * output in order.
+	 * 
+	 * @param output
+	 *            Output result set
+	 * @param probeRows
+	 *            Inner rows
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 * @throws PersistableException
+	 *             If a PersistableException occurs
+	 */
+	private void probe(ResultSet output, List<Row> probeRows)
+			throws ResultSetException, PersistableException {
+		if (probeRows.isEmpty()) {
+			return;
+		}
+
+		int ranges = Math.min(parallelism,
+				(probeRows.size() + PROBE_BATCH_SIZE - 1) / PROBE_BATCH_SIZE);
+		if ((ranges <= 1) || (getExecutorService() == null)) {
+			ProbeBuffer buffer = probeRange(probeRows);
+			writeRows(output, buffer.outputRows);
+			matchedOuterRows.addAll(buffer.matchedRows);
+			return;
+		}
+
+		List<Callable<ProbeBuffer>> probeTasks = new ArrayList<Callable<ProbeBuffer>>();
+		int rangeSize = (probeRows.size() + ranges - 1) / ranges;
+		for (int start = 0; start < probeRows.size(); start += rangeSize) {
+			final List<Row> range = probeRows.subList(start,
+					Math.min(start + rangeSize, probeRows.size()));
+			probeTasks.add(new Callable<ProbeBuffer>() {
+				@Override
+				public ProbeBuffer call() {
+					return probeRange(range);
 				}
-				if (matchedRows.isEmpty()) {
-					if ((joinType == HashJoinImplType.FULLOUTER)
-							|| (!isLeftOuterResultSet && (joinType == HashJoinImplType.LEFTOUTER))
-							|| (isLeftOuterResultSet && (joinType == HashJoinImplType.RIGHTOUTER))) {
-						output.appendRow();
-						writeRow(output, innerResultSet.getCurrentRow(),
-								innerResultSet.getColumnSize(), innerOffset,
-								ignoreInnerColumns);
-					}
+			});
+		}
+
+		try {
+			for (Future<ProbeBuffer> probeTask : getExecutorService()
+					.invokeAll(probeTasks)) {
+				ProbeBuffer buffer = probeTask.get();
+				writeRows(output, buffer.outputRows);
+				matchedOuterRows.addAll(buffer.matchedRows);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResultSetException("Join was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new ResultSetException("Unable to probe the join", e);
+		}
+	}
+
+	/**
+	 * Matches a range of inner rows against the hash table. The hash table is
+	 * only read so ranges can be probed concurrently.
+	 * 
+	 * @param probeRows
+	 *            Inner rows
+	 * @return Joined rows and the outer rows that were matched
+	 */
+	private ProbeBuffer probeRange(List<Row> probeRows) {
+		ProbeBuffer buffer = new ProbeBuffer();
+
+		for (Row innerRow : probeRows) {
+			// Create hash of inner columns to match on
+			HashCode innerHash = hashRow(innerRow, innerColumns,
+					innerDataTypes);
+			boolean matched = false;
+
+			// Loop through all rows that match on the hash
+			for (Row row : hashMultiMap.get(innerHash)) {
+
+				// Check values to ensure no hash collisions
+				if (trueMatch(row, innerRow)) {
+					// Write both rows
+					Row outputRow = new Row(outputColumnSize);
+					copyRow(outputRow, row, outerColumnSize, outerOffset,
+							ignoreOuterColumns);
+					copyRow(outputRow, innerRow, innerColumnSize,
+							innerOffset, ignoreInnerColumns);
+					buffer.outputRows.add(outputRow);
+
+					buffer.matchedRows.add(row);
+					matched = true;
 				}
 			}
-			if ((joinType == HashJoinImplType.FULLOUTER)
-					|| (isLeftOuterResultSet && (joinType == HashJoinImplType.LEFTOUTER))
-					|| (!isLeftOuterResultSet && (joinType == HashJoinImplType.RIGHTOUTER))) {
-				for (HashCode innerHash : hashMultiMap.keySet()) {
-					if (!usedKeys.contains(innerHash)) {
-						output.appendRow();
-						// Check if inner columns match on anything in the hash
-						// Loop through all matches
-						for (Row row : hashMultiMap.get(innerHash)) {
-							writeRow(output, row,
-									outerResultSet.getColumnSize(),
-									outerOffset, ignoreOuterColumns);
-						}
-					}
 
+			if (!matched) {
+				if ((joinType == HashJoinImplType.FULLOUTER)
+						|| (!isLeftOuterResultSet && (joinType == HashJoinImplType.LEFTOUTER))
+						|| (isLeftOuterResultSet && (joinType == HashJoinImplType.RIGHTOUTER))) {
+					Row outputRow = new Row(outputColumnSize);
+					copyRow(outputRow, innerRow, innerColumnSize,
+							innerOffset, ignoreInnerColumns);
+					buffer.outputRows.add(outputRow);
 				}
 			}
 		}
 
-		return output;
+		return buffer;
+	}
+
+	private void writeUnmatchedOuterRows(ResultSet output)
+			throws ResultSetException, PersistableException {
+		if ((joinType == HashJoinImplType.FULLOUTER)
+				|| (isLeftOuterResultSet && (joinType == HashJoinImplType.LEFTOUTER))
+				|| (!isLeftOuterResultSet && (joinType == HashJoinImplType.RIGHTOUTER))) {
+			List<Row> outputRows = new ArrayList<Row>();
+			for (Row row : hashMultiMap.values()) {
+				if (!matchedOuterRows.contains(row)) {
+					Row outputRow = new Row(outputColumnSize);
+					copyRow(outputRow, row, outerColumnSize, outerOffset,
+							ignoreOuterColumns);
+					outputRows.add(outputRow);
+				}
+			}
+			writeRows(output, outputRows);
+		}
 	}
 
-	private void writeRow(ResultSet output, Row row, int colSize, int offset,
-			List<Integer> ignoreColumns) throws ResultSetException {
+	private void writeRows(ResultSet output, List<Row> outputRows)
+			throws ResultSetException, PersistableException {
+		for (Row outputRow : outputRows) {
+			output.appendRow();
+			for (int i = 0; i < outputColumnSize; i++) {
+				Object value = outputRow.getColumn(i);
+				if (value != null) {
+					output.updateObject(i, value);
+				}
+			}
+		}
+	}
+
+	private void copyRow(Row outputRow, Row row, int colSize, int offset,
+			List<Integer> ignoreColumns) {
 		int minus = 0;
 		for (int i = 0; i < colSize; i++) {
 			if (!ignoreColumns.contains(i)) {
-				output.updateObject(i + offset - minus, row.getColumn(i));
+				outputRow.setColumn(i + offset - minus, row.getColumn(i));
 			} else {
 				minus++;
 			}
 		}
 	}
 
+	private ExecutorService getExecutorService() {
+		if (executorService == null) {
+			executorService = getProbeExecutorService();
+		}
+		return executorService;
+	}
+
+	/**
+	 * Returns the executor service the probe ranges of all joins share. The
+	 * probes only use the processor, so they run on their own pool of at most
+	 * one thread per processor instead of the managed executor service the
+	 * join actions run on. Idle threads are stopped, and a probe range that
+	 * does not fit in the queue runs on the calling thread.
+	 * 
+	 * @return Executor service
+	 */
+	private static synchronized ExecutorService getProbeExecutorService() {
+		if (probeExecutorService == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			probeExecutorService = new ThreadPoolExecutor(threads, threads,
+					PROBE_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(PROBE_QUEUE_SIZE),
+					new ThreadFactoryBuilder().setNameFormat("hash-join-probe-%d")
+							.setDaemon(true).build(),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			probeExecutorService.allowCoreThreadTimeOut(true);
+		}
+		return probeExecutorService;
+	}
+
 	private boolean trueMatch(Row outerRow, Row innerRow) {
 
 		for (int i = 0; i < innerColumns.length; i++) {
@@ -251,50 +757,115 @@ public class HashJoinImpl {
 		return true;
 	}
 
-	private void buildMultiMap() throws ResultSetException {
-		hashMultiMap.clear();
-		long counter = 0;
-		while (outerResultSet.next() && counter < blockSize) {
-			counter++;
-			hashMultiMap.put(
-					hashResultSetRow(outerColumns, outerDataTypes,
-							outerResultSet), outerResultSet.getCurrentRow());
-		}
-	}
-
-	private HashCode hashResultSetRow(int[] columns,
-			PrimitiveDataType[] columnDataTypes, ResultSet resultSet)
-			throws ResultSetException {
+	private HashCode hashRow(Row row, int[] columns,
+			PrimitiveDataType[] columnDataTypes) {
 		Hasher columnHash = hashFunction.newHasher();
 
 		for (int columnI = 0; columnI < columns.length; columnI++) {
-			int column = columns[columnI];
+			Object value = row.getColumn(columns[columnI]);
+			if (value == null) {
+				columnHash.putInt(0);
+				continue;
+			}
 			switch (columnDataTypes[columnI].getName()) {
 			case "boolean":
-				columnHash.putBoolean(resultSet.getBoolean(column));
+				columnHash.putBoolean((Boolean) value);
 				break;
 			case "byte":
-				columnHash.putByte(resultSet.getByte(column));
+				columnHash.putByte(((Number) value).byteValue());
 				break;
 			case "double":
-				columnHash.putDouble(resultSet.getDouble(column));
+				columnHash.putDouble(((Number) value).doubleValue());
 				break;
 			case "float":
-				columnHash.putFloat(resultSet.getFloat(column));
+				columnHash.putFloat(((Number) value).floatValue());
 				break;
 			case "integer":
-				columnHash.putInt(resultSet.getInt(column));
+				columnHash.putInt(((Number) value).intValue());
 				break;
 			case "long":
-				columnHash.putLong(resultSet.getLong(column));
+				columnHash.putLong(((Number) value).longValue());
 				break;
 			default:
-				columnHash.putString(resultSet.getString(column),
-						Charsets.UTF_8);
+				columnHash.putString(value.toString(), Charsets.UTF_8);
 				break;
 			}
 		}
 
 		return columnHash.hash();
 	}
+
+	/**
+	 * Rows that are read one at a time from a result set or a partition
+	 */
+	private interface RowSource extends Closeable {
+		/**
+		 * Returns the next row
+		 * 
+		 * @return Row, or null if there are no more rows
+		 * @throws IOException
+		 *             If a partition can not be read
+		 * @throws ResultSetException
+		 *             If a ResultSetException occurs
+		 */
+		Row next() throws IOException, ResultSetException;
+	}
+
+	private static class ResultSetRowSource implements RowSource {
+		private ResultSet resultSet;
+
+		ResultSetRowSource(ResultSet resultSet) throws ResultSetException {
+			this.resultSet = resultSet;
+			resultSet.beforeFirst();
+		}
+
+		@Override
+		public Row next() throws ResultSetException {
+			if (!resultSet.next()) {
+				return null;
+			}
+			return resultSet.getCurrentRow();
+		}
+
+		@Override
+		public void close() {
+			// The result set is owned by the join
+		}
+	}
+
+	private class PartitionRowSource implements RowSource {
+		private Path partitionFile;
+		private Column[] columns;
+		private DataInputStream in;
+
+		PartitionRowSource(Path partitionFile, Column[] columns) {
+			this.partitionFile = partitionFile;
+			this.columns = columns;
+		}
+
+		@Override
+		public Row next() throws IOException {
+			// The partition is only opened once it is read so only the
+			// partitions being joined are open
+			if (in == null) {
+				in = openPartition(partitionFile);
+			}
+			return readRow(in, columns);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Joined rows and matched outer rows from probing a range of inner rows
+	 */
+	private static class ProbeBuffer {
+		private List<Row> outputRows = new ArrayList<Row>();
+		private List<Row> matchedRows = new ArrayList<Row>();
+	}
 }
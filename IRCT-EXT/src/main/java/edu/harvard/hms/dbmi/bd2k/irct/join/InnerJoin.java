@@ -17,6 +17,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableExceptio
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSetImpl;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Row;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 
 /**
@@ -26,11 +27,12 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
  *
  */
 public class InnerJoin implements JoinImplementation {
+	private long maxIndexedRows = JoinIndex.DEFAULT_MAX_INDEXED_ROWS;
 
 	@Override
 	public void setup(Map<String, Object> parameters)
 			throws JoinActionSetupException {
-
+		this.maxIndexedRows = JoinIndex.getMaxIndexedRows(parameters);
 	}
 
 	@Override
@@ -88,26 +90,27 @@ public class InnerJoin implements JoinImplementation {
 		
 		int baseColumn = leftResultSet.getColumnSize();
 
+		// Index the right result set once instead of scanning it for every
+		// left row
+		JoinIndex rightIndex = new JoinIndex(rightResultSet, rightColumnIndex,
+				this.maxIndexedRows, false);
+
 		leftResultSet.beforeFirst();
 		while (leftResultSet.next()) {
 			Object leftRowMatchObj = ((ResultSetImpl) leftResultSet)
 					.getObject(leftColumnIndex);
-			rightResultSet.beforeFirst();
-			while (rightResultSet.next()) {
-				if (((ResultSetImpl) rightResultSet).getObject(rightColumnIndex).equals(leftRowMatchObj)) {
-					// Add a new row
-					computedResults.appendRow();
+			for (Row rightRow : rightIndex.getRows(leftRowMatchObj)) {
+				// Add a new row
+				computedResults.appendRow();
 
-					// Copy Left values over
-					for (int leftColumnIterator = 0; leftColumnIterator < leftResultSet.getColumnSize(); leftColumnIterator++) {
-						computedResults.updateObject(leftColumnIterator, ((ResultSetImpl) leftResultSet).getObject(leftColumnIterator));
-					}
-
-					// Copy Right values over
-					for(int rightColumnIterator = 0; rightColumnIterator < rightColumns.size(); rightColumnIterator++) {
-						computedResults.updateObject(baseColumn + rightColumnIterator, ((ResultSetImpl) rightResultSet).getObject(rightColumns.get(rightColumnIterator)));
-					}
+				// Copy Left values over
+				for (int leftColumnIterator = 0; leftColumnIterator < leftResultSet.getColumnSize(); leftColumnIterator++) {
+					computedResults.updateObject(leftColumnIterator, ((ResultSetImpl) leftResultSet).getObject(leftColumnIterator));
+				}
 
+				// Copy Right values over
+				for(int rightColumnIterator = 0; rightColumnIterator < rightColumns.size(); rightColumnIterator++) {
+					computedResults.updateObject(baseColumn + rightColumnIterator, rightRow.getColumn(rightColumns.get(rightColumnIterator)));
 				}
 			}
 		}
@@ -0,0 +1,174 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.join;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.JoinActionSetupException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Row;
+
+/**
+ * An in memory index of the rows of a result set keyed on the value of the
+ * join column. The index is built with a single pass over the result set so
+ * a join can look up the matching rows instead of scanning the result set
+ * again for every row of the other result set.
+ *
+ * A result set with more rows than the maximum number of indexed rows is not
+ * held in memory. Its rows are looked up by scanning the result set instead,
+ * as the nested loop joins did before.
+ *
+ * Values are matched with equals() in the same way as the nested loop joins
+ * did, and rows with a null join value never match.
+ */
+class JoinIndex {
+	static final long DEFAULT_MAX_INDEXED_ROWS = 1000000L;
+
+	private ResultSet resultSet;
+	private int keyColumn;
+	private Map<Object, List<Row>> index;
+
+	/**
+	 * Creates an index of the rows in the result set, or of only the join
+	 * values
+	 *
+	 * @param resultSet
+	 *            Result set to index
+	 * @param keyColumn
+	 *            Join column
+	 * @param maxIndexedRows
+	 *            Maximum number of rows held in memory
+	 * @param keysOnly
+	 *            Only index the join values, getRows() is not used
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	JoinIndex(ResultSet resultSet, int keyColumn, long maxIndexedRows,
+			boolean keysOnly) throws ResultSetException {
+		this.resultSet = resultSet;
+		this.keyColumn = keyColumn;
+		if (resultSet.getSize() > maxIndexedRows) {
+			return;
+		}
+
+		this.index = new HashMap<Object, List<Row>>();
+		resultSet.beforeFirst();
+		while (resultSet.next()) {
+			Object key = resultSet.getObject(keyColumn);
+			if (key == null) {
+				continue;
+			}
+
+			List<Row> rows = this.index.get(key);
+			if (rows == null) {
+				rows = new ArrayList<Row>(1);
+				this.index.put(key, rows);
+			}
+			if (!keysOnly) {
+				rows.add(copyRow());
+			}
+		}
+	}
+
+	/**
+	 * Returns the rows that match the value in the order they appear in the
+	 * result set
+	 *
+	 * @param key
+	 *            Join value
+	 * @return Matching rows
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	List<Row> getRows(Object key) throws ResultSetException {
+		if (key == null) {
+			return Collections.emptyList();
+		}
+		if (this.index != null) {
+			List<Row> rows = this.index.get(key);
+			if (rows == null) {
+				return Collections.emptyList();
+			}
+			return rows;
+		}
+
+		List<Row> rows = new ArrayList<Row>();
+		resultSet.beforeFirst();
+		while (resultSet.next()) {
+			if (key.equals(resultSet.getObject(keyColumn))) {
+				rows.add(copyRow());
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns if any row of the result set has the join value
+	 *
+	 * @param key
+	 *            Join value
+	 * @return Has the value
+	 * @throws ResultSetException
+	 *             If a ResultSetException occurs
+	 */
+	boolean contains(Object key) throws ResultSetException {
+		if (key == null) {
+			return false;
+		}
+		if (this.index != null) {
+			return this.index.containsKey(key);
+		}
+
+		resultSet.beforeFirst();
+		while (resultSet.next()) {
+			if (key.equals(resultSet.getObject(keyColumn))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the maximum number of indexed rows from the join parameters,
+	 * or the default if the maxIndexedRows parameter is not set
+	 *
+	 * @param parameters
+	 *            Join parameters
+	 * @return Maximum number of indexed rows
+	 * @throws JoinActionSetupException
+	 *             The parameter is not a number that is zero or greater
+	 */
+	static long getMaxIndexedRows(Map<String, Object> parameters)
+			throws JoinActionSetupException {
+		if ((parameters == null) || (parameters.get("maxIndexedRows") == null)) {
+			return DEFAULT_MAX_INDEXED_ROWS;
+		}
+		try {
+			long maxIndexedRows = Long.parseLong(parameters
+					.get("maxIndexedRows").toString().trim());
+			if (maxIndexedRows >= 0) {
+				return maxIndexedRows;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new JoinActionSetupException(
+				"maxIndexedRows must be a number that is zero or greater");
+	}
+
+	private Row copyRow() throws ResultSetException {
+		// Copy the row as some result sets reuse the current row
+		int columnSize = resultSet.getColumnSize();
+		Row row = new Row(columnSize);
+		for (int columnIndex = 0; columnIndex < columnSize; columnIndex++) {
+			row.setColumn(columnIndex, resultSet.getObject(columnIndex));
+		}
+		return row;
+	}
+}
@@ -17,6 +17,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableExceptio
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSetImpl;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Row;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 
 /**
@@ -27,9 +28,22 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
  *
  */
 public class LeftOuterJoin implements JoinImplementation {
+	private long maxIndexedRows = JoinIndex.DEFAULT_MAX_INDEXED_ROWS;
 
 	@Override
 	public void setup(Map<String, Object> parameters) throws JoinActionSetupException {
+		this.maxIndexedRows = JoinIndex.getMaxIndexedRows(parameters);
+	}
+
+	/**
+	 * Sets the maximum number of rows of the right result set that are held
+	 * in memory
+	 *
+	 * @param maxIndexedRows
+	 *            Maximum number of indexed rows
+	 */
+	void setMaxIndexedRows(long maxIndexedRows) {
+		this.maxIndexedRows = maxIndexedRows;
 	}
 
 	@Override
@@ -90,6 +104,11 @@ public class LeftOuterJoin implements JoinImplementation {
 		}
 		int baseColumn = leftResultSet.getColumnSize();
 
+		// Index the right result set once instead of scanning it for every
+		// left row
+		JoinIndex rightIndex = new JoinIndex(rightResultSet, rightColumnIndex,
+				this.maxIndexedRows, false);
+
 		leftResultSet.beforeFirst();
 		while (leftResultSet.next()) {
 			Object leftRowMatchObj = ((ResultSetImpl) leftResultSet)
@@ -106,20 +125,18 @@ public class LeftOuterJoin implements JoinImplementation {
 								.getObject(leftColumnIterator));
 			}
 
-			rightResultSet.beforeFirst();
-			while (rightResultSet.next()) {
-				if (((ResultSetImpl) rightResultSet)
-						.getObject(rightColumnIndex).equals(leftRowMatchObj)) {
-					// Copy Right values over
-					for (int rightColumnIterator = 0; rightColumnIterator < rightColumns
-							.size(); rightColumnIterator++) {
-						computedResults.updateObject(baseColumn
-								+ rightColumnIterator,
-								((ResultSetImpl) rightResultSet)
-										.getObject(rightColumns
-												.get(rightColumnIterator)));
-					}
-
+			// Each match overwrites the previous one, so only the last match
+			// is copied
+			List<Row> rightRows = rightIndex.getRows(leftRowMatchObj);
+			if (!rightRows.isEmpty()) {
+				Row rightRow = rightRows.get(rightRows.size() - 1);
+				// Copy Right values over
+				for (int rightColumnIterator = 0; rightColumnIterator < rightColumns
+						.size(); rightColumnIterator++) {
+					computedResults.updateObject(baseColumn
+							+ rightColumnIterator,
+							rightRow.getColumn(rightColumns
+									.get(rightColumnIterator)));
 				}
 			}
 		}
@@ -4,6 +4,7 @@
 package edu.harvard.hms.dbmi.bd2k.irct.join;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import edu.harvard.hms.dbmi.bd2k.irct.exception.JoinActionSetupException;
 import edu.harvard.hms.dbmi.bd2k.irct.join.HashJoinImpl.HashJoinImplType;
@@ -22,12 +23,26 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
  * join implementation
  */
 public class RightOuterHashJoin implements JoinImplementation {
-	private long blockSize;
+	private long blockSize = HashJoinImpl.DEFAULT_BLOCK_SIZE;
+	private int parallelism = 1;
+	private ExecutorService executorService;
 
 	@Override
 	public void setup(Map<String, Object> parameters)
 			throws JoinActionSetupException {
-		this.blockSize = 100000L;
+		this.blockSize = HashJoinImpl.getBlockSize(parameters);
+		this.parallelism = HashJoinImpl.getParallelism(parameters);
+	}
+
+	/**
+	 * Sets the executor service the join is probed on in parallel. If it is
+	 * not set the probe executor service shared by all joins is used.
+	 * 
+	 * @param executorService
+	 *            Executor service
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
 	}
 
 	@Override
@@ -90,6 +105,8 @@ public class RightOuterHashJoin implements JoinImplementation {
 
 		ResultSet outputResult = (ResultSet) result.getData();
 
+		hashJoin.setParallelism(this.parallelism);
+		hashJoin.setExecutorService(this.executorService);
 		hashJoin.join(outputResult);
 
 		outputResult.beforeFirst();
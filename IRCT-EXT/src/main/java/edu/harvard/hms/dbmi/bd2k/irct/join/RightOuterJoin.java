@@ -17,15 +17,19 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableExceptio
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSetImpl;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Row;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 
 /**
  * Performs a right outer join between two result sets
  */
 public class RightOuterJoin implements JoinImplementation {
+	private long maxIndexedRows = JoinIndex.DEFAULT_MAX_INDEXED_ROWS;
+
 	@Override
 	public void setup(Map<String, Object> parameters)
 			throws JoinActionSetupException {
+		this.maxIndexedRows = JoinIndex.getMaxIndexedRows(parameters);
 	}
 
 	@Override
@@ -83,6 +87,11 @@ public class RightOuterJoin implements JoinImplementation {
 		
 		int baseColumn = leftColumns.size();
 
+		// Index the left result set once instead of scanning it for every
+		// right row
+		JoinIndex leftIndex = new JoinIndex(leftResultSet, leftColumnIndex,
+				this.maxIndexedRows, false);
+
 		rightResultSet.beforeFirst();
 		while (rightResultSet.next()) {
 			Object rightRowMatchObj = ((ResultSetImpl) rightResultSet).getObject(rightColumnIndex);
@@ -95,15 +104,15 @@ public class RightOuterJoin implements JoinImplementation {
 				computedResults.updateObject(baseColumn + rightColumnIterator, ((ResultSetImpl) rightResultSet).getObject(rightColumnIterator));
 			}
 
-			leftResultSet.beforeFirst();
-			while (leftResultSet.next()) {
-				if (((ResultSetImpl) leftResultSet).getObject(leftColumnIndex).equals(rightRowMatchObj)) {
-
-					// Copy Left values over
-					for(int leftColumnIterator = 0; leftColumnIterator < leftColumns.size(); leftColumnIterator++) {
-						computedResults.updateObject(leftColumnIterator, ((ResultSetImpl) leftResultSet).getObject(leftColumns.get(leftColumnIterator)));
-					}
+			// Each match overwrites the previous one, so only the last match
+			// is copied
+			List<Row> leftRows = leftIndex.getRows(rightRowMatchObj);
+			if (!leftRows.isEmpty()) {
+				Row leftRow = leftRows.get(leftRows.size() - 1);
 
+				// Copy Left values over
+				for(int leftColumnIterator = 0; leftColumnIterator < leftColumns.size(); leftColumnIterator++) {
+					computedResults.updateObject(leftColumnIterator, leftRow.getColumn(leftColumns.get(leftColumnIterator)));
 				}
 			}
 		}
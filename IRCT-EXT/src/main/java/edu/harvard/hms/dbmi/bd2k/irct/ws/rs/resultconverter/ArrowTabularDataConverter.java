@@ -0,0 +1,111 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter;
+
+import edu.harvard.hms.dbmi.bd2k.irct.dataconverter.ResultDataConverter;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow.ArrowStreamWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A data converter that returns an Arrow IPC stream, with a typed vector for
+ * each column of the result
+ */
+public class ArrowTabularDataConverter implements ResultDataConverter {
+	public static final String MEDIA_TYPE = "application/vnd.apache.arrow.stream";
+
+	private Log log;
+	private final int batchSize;
+	private final long maxBatchBytes;
+
+	public ArrowTabularDataConverter() {
+		this(ArrowStreamWriter.DEFAULT_BATCH_SIZE,
+				ArrowStreamWriter.DEFAULT_MAX_BATCH_BYTES);
+	}
+
+	/**
+	 * Creates a converter with the given record batch sizes
+	 *
+	 * @param batchSize
+	 *            Maximum number of rows of a record batch
+	 * @param maxBatchBytes
+	 *            Maximum memory used by the rows of a record batch
+	 */
+	public ArrowTabularDataConverter(int batchSize, long maxBatchBytes) {
+		log = LogFactory.getLog("Arrow Tabular Data Converter");
+		this.batchSize = batchSize;
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	@Override
+	public ResultDataType getResultDataType() {
+		return ResultDataType.TABULAR;
+	}
+
+	@Override
+	public String getFileExtension() {
+		return ".arrows";
+	}
+
+	@Override
+	public String getName() {
+		return "ARROW";
+	}
+
+	@Override
+	public String getMediaType() {
+		return MEDIA_TYPE;
+	}
+
+	@Override
+	public StreamingOutput createStream(final Result result) {
+		StreamingOutput stream = new StreamingOutput() {
+			@Override
+			public void write(OutputStream outputStream) throws IOException,
+					WebApplicationException {
+				ResultSet rs = null;
+				try {
+					rs = (ResultSet) result.getData();
+					rs.load(result.getResultSetLocation());
+
+					ArrowStreamWriter writer = new ArrowStreamWriter(
+							outputStream, rs.getColumns(), batchSize,
+							maxBatchBytes);
+					writer.writeRows(rs);
+					writer.finish();
+					if (writer.getInvalidValues() != 0) {
+						log.info("Wrote " + writer.getInvalidValues()
+								+ " values that do not match the type of their column as null");
+					}
+				} catch (ResultSetException | PersistableException e) {
+					log.info("Error creating Arrow Stream: " + e.getMessage());
+					// Fail the stream, so a partial result is not taken for the whole one
+					throw new WebApplicationException(e);
+				} finally {
+					if (rs != null && !rs.isClosed()) {
+						try {
+							rs.close();
+						} catch (ResultSetException e) {
+							e.printStackTrace();
+						}
+					}
+					if (outputStream != null) {
+						outputStream.close();
+					}
+				}
+			}
+		};
+		return stream;
+	}
+}
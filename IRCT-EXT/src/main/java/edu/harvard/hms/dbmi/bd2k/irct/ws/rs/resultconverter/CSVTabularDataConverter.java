@@ -87,6 +87,8 @@ public class CSVTabularDataConverter implements ResultDataConverter {
 					
 				} catch (ResultSetException | PersistableException e) {
 					log.info("Error creating CSV Stream: " + e.getMessage());
+					// Fail the stream, so a partial result is not taken for the whole one
+					throw new WebApplicationException(e);
 				} finally {
 					if(printer != null) {
 						printer.close();
@@ -9,6 +9,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultDataType;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.JsonStreamable;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -69,6 +70,11 @@ public class JSONTabularDataConverter implements ResultDataConverter {
 				try {
 					rs = (ResultSet) result.getData();
 					rs.load(result.getResultSetLocation());
+					if (rs instanceof JsonStreamable) {
+						((JsonStreamable) rs).writeJson(outputStream);
+						return;
+					}
+
 					Map<String, Object> properties = new HashMap<String, Object>(
 							1);
 					JsonGeneratorFactory jgf = Json.createGeneratorFactory(properties);
@@ -91,7 +97,7 @@ public class JSONTabularDataConverter implements ResultDataConverter {
 							String value = rs.getString(columnIndex);
 							if(value != null) {
 								jg.writeStartObject();
-								jg.write(rs.getColumn(columnIndex).getName(), rs.getString(columnIndex));
+								jg.write(rs.getColumn(columnIndex).getName(), value);
 								jg.writeEnd();
 							}
 							
@@ -105,6 +111,8 @@ public class JSONTabularDataConverter implements ResultDataConverter {
 					
 				} catch (ResultSetException | PersistableException e) {
 					log.info("Error creating JSON Stream: " + e.getMessage());
+					// Fail the stream, so a partial result is not taken for the whole one
+					throw new WebApplicationException(e);
 				} finally {
 					
 					if(jg != null) {
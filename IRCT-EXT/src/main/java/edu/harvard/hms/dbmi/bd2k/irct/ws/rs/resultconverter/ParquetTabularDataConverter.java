@@ -0,0 +1,92 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter;
+
+import edu.harvard.hms.dbmi.bd2k.irct.dataconverter.ResultDataConverter;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.parquet.ParquetWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A data converter that returns a Parquet file, with a typed column for each
+ * column of the result
+ */
+public class ParquetTabularDataConverter implements ResultDataConverter {
+
+	private Log log;
+
+	public ParquetTabularDataConverter() {
+		log = LogFactory.getLog("Parquet Tabular Data Converter");
+	}
+
+	@Override
+	public ResultDataType getResultDataType() {
+		return ResultDataType.TABULAR;
+	}
+
+	@Override
+	public String getFileExtension() {
+		return ".parquet";
+	}
+
+	@Override
+	public String getName() {
+		return "PARQUET";
+	}
+
+	@Override
+	public String getMediaType() {
+		return "application/vnd.apache.parquet";
+	}
+
+	@Override
+	public StreamingOutput createStream(final Result result) {
+		StreamingOutput stream = new StreamingOutput() {
+			@Override
+			public void write(OutputStream outputStream) throws IOException,
+					WebApplicationException {
+				ResultSet rs = null;
+				try {
+					rs = (ResultSet) result.getData();
+					rs.load(result.getResultSetLocation());
+
+					ParquetWriter writer = new ParquetWriter(outputStream,
+							rs.getColumns());
+					writer.writeRows(rs);
+					writer.finish();
+					if (writer.getInvalidValues() != 0) {
+						log.info("Wrote " + writer.getInvalidValues()
+								+ " values that do not match the type of their column as null");
+					}
+				} catch (ResultSetException | PersistableException e) {
+					log.info("Error creating Parquet Stream: " + e.getMessage());
+					// Fail the stream, so a partial result is not taken for the whole one
+					throw new WebApplicationException(e);
+				} finally {
+					if (rs != null && !rs.isClosed()) {
+						try {
+							rs.close();
+						} catch (ResultSetException e) {
+							e.printStackTrace();
+						}
+					}
+					if (outputStream != null) {
+						outputStream.close();
+					}
+				}
+			}
+		};
+		return stream;
+	}
+}
@@ -0,0 +1,132 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Converts the values of a result set to the type of their column, for the
+ * typed export formats. Values are usually read back as the Java type of
+ * their column, values that were stored as Strings are parsed. A value that
+ * can not be converted throws an IllegalArgumentException.
+ *
+ * Dates and times are converted to their local date and time, as if they
+ * were in UTC, as the data types have no time zone.
+ */
+public final class TypedValues {
+	public static final long MILLIS_PER_DAY = 86400000L;
+
+	private static final String DATE_PATTERN = "yyyy-MM-dd";
+	private static final String DATETIME_PATTERN = "yyyy-MM-dd HH:mm:ss";
+	private static final String TIME_PATTERN = "HH:mm:ss";
+
+	private TypedValues() {
+	}
+
+	public static boolean toBoolean(Object value) {
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		String string = value.toString().trim();
+		if (string.equalsIgnoreCase("true")) {
+			return true;
+		} else if (string.equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new IllegalArgumentException("Not a boolean: " + string);
+	}
+
+	public static byte toByte(Object value) {
+		return value instanceof Number ? ((Number) value).byteValue() : Byte
+				.parseByte(value.toString().trim());
+	}
+
+	public static int toInt(Object value) {
+		return value instanceof Number ? ((Number) value).intValue() : Integer
+				.parseInt(value.toString().trim());
+	}
+
+	public static long toLong(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : Long
+				.parseLong(value.toString().trim());
+	}
+
+	public static float toFloat(Object value) {
+		return value instanceof Number ? ((Number) value).floatValue() : Float
+				.parseFloat(value.toString().trim());
+	}
+
+	public static double toDouble(Object value) {
+		return value instanceof Number ? ((Number) value).doubleValue()
+				: Double.parseDouble(value.toString().trim());
+	}
+
+	/**
+	 * Returns the number of days since the epoch of a date
+	 *
+	 * @param value
+	 *            Date, or a String in yyyy-MM-dd format
+	 * @param timeZone
+	 *            Time zone of the date
+	 * @return Days
+	 */
+	public static int toLocalDays(Object value, TimeZone timeZone) {
+		return (int) floorDiv(toLocalMillis(value, DATE_PATTERN, timeZone),
+				MILLIS_PER_DAY);
+	}
+
+	/**
+	 * Returns the number of milliseconds since the epoch of a date and time
+	 *
+	 * @param value
+	 *            Date, or a String in yyyy-MM-dd HH:mm:ss format
+	 * @param timeZone
+	 *            Time zone of the date
+	 * @return Milliseconds
+	 */
+	public static long toLocalMillis(Object value, TimeZone timeZone) {
+		return toLocalMillis(value, DATETIME_PATTERN, timeZone);
+	}
+
+	/**
+	 * Returns the number of milliseconds since midnight of a time
+	 *
+	 * @param value
+	 *            Date, or a String in HH:mm:ss format
+	 * @param timeZone
+	 *            Time zone of the date
+	 * @return Milliseconds
+	 */
+	public static int toLocalMillisOfDay(Object value, TimeZone timeZone) {
+		long millis = toLocalMillis(value, TIME_PATTERN, timeZone);
+		return (int) (millis - floorDiv(millis, MILLIS_PER_DAY) * MILLIS_PER_DAY);
+	}
+
+	private static long toLocalMillis(Object value, String pattern,
+			TimeZone timeZone) {
+		Date date;
+		if (value instanceof Date) {
+			date = (Date) value;
+		} else {
+			SimpleDateFormat format = new SimpleDateFormat(pattern);
+			format.setLenient(false);
+			format.setTimeZone(timeZone);
+			try {
+				date = format.parse(value.toString().trim());
+			} catch (ParseException e) {
+				throw new IllegalArgumentException("Not a " + pattern
+						+ " date: " + value, e);
+			}
+		}
+		return date.getTime() + timeZone.getOffset(date.getTime());
+	}
+
+	private static long floorDiv(long dividend, long divisor) {
+		long quotient = dividend / divisor;
+		return dividend % divisor < 0 ? quotient - 1 : quotient;
+	}
+}
@@ -90,6 +90,8 @@ public class XMLTabularDataConverter implements ResultDataConverter {
 					
 				} catch (ResultSetException | PersistableException | XMLStreamException e) {
 					log.info("Error creating XML Stream: " + e.getMessage());
+					// Fail the stream, so a partial result is not taken for the whole one
+					throw new WebApplicationException(e);
 				} finally {
 					if(xtw != null) {
 						try {
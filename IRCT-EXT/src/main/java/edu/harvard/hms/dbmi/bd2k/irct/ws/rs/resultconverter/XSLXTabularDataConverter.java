@@ -106,6 +106,8 @@ public class XSLXTabularDataConverter implements ResultDataConverter {
 
 				} catch (ResultSetException | PersistableException e) {
 					log.info("Error creating XSLX Stream: " + e.getMessage());
+					// Fail the stream, so a partial result is not taken for the whole one
+					throw new WebApplicationException(e);
 				} finally {
 					if (wb != null) {
 						wb.close();
@@ -0,0 +1,398 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.TypedValues;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow.FlatBufferWriter.LongStructVector;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow.FlatBufferWriter.Table;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow.FlatBufferWriter.TableVector;
+
+/**
+ * Writes a tabular result as an Arrow IPC stream: a schema message followed
+ * by record batches, without needing the Arrow libraries. Every column is a
+ * nullable field with an Arrow type that matches its data type:
+ *
+ * BOOLEAN as Bool, BYTE as Int8, INTEGER as Int32, LONG as Int64, FLOAT as
+ * Float32, DOUBLE as Float64, DATE as Date32, DATETIME as Timestamp in
+ * milliseconds without a time zone, TIME as Time32 in milliseconds, and all
+ * other data types as Utf8.
+ *
+ * Rows are buffered until the batch size or the maximum size of a batch is
+ * reached, then the record batch is written and the next one is started, so
+ * the memory used does not depend on the size of the result. A value that
+ * can not be converted to the type of its column is written as null.
+ */
+public final class ArrowStreamWriter {
+	public static final int DEFAULT_BATCH_SIZE = 65536;
+	public static final long DEFAULT_MAX_BATCH_BYTES = 64L * 1024 * 1024;
+	// The offsets of variable length values are 32 bit
+	public static final long MAX_BATCH_BYTES = 1024L * 1024 * 1024;
+
+	private static final int CONTINUATION = 0xFFFFFFFF;
+	private static final int METADATA_V5 = 4;
+	private static final int HEADER_SCHEMA = 1;
+	private static final int HEADER_RECORD_BATCH = 3;
+	private static final int TYPE_INT = 2;
+	private static final int TYPE_FLOATING_POINT = 3;
+	private static final int TYPE_UTF8 = 5;
+	private static final int TYPE_BOOL = 6;
+	private static final int TYPE_DATE = 8;
+	private static final int TYPE_TIME = 9;
+	private static final int TYPE_TIMESTAMP = 10;
+	private static final int PRECISION_SINGLE = 1;
+	private static final int PRECISION_DOUBLE = 2;
+	private static final int DATE_UNIT_DAY = 0;
+	private static final int TIME_UNIT_MILLISECOND = 1;
+	private static final byte[] PADDING = new byte[8];
+
+	private final OutputStream outputStream;
+	private final int batchSize;
+	private final long maxBatchBytes;
+	private final PrimitiveDataType[] dataTypes;
+	private final ColumnVector[] vectors;
+	private final TimeZone timeZone = TimeZone.getDefault();
+
+	private int batchCount;
+	private long invalidValues;
+
+	/**
+	 * Creates a writer with the default batch sizes, and writes the schema
+	 *
+	 * @param outputStream
+	 *            Stream to write to
+	 * @param columns
+	 *            Columns of the result
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public ArrowStreamWriter(OutputStream outputStream, Column[] columns)
+			throws IOException {
+		this(outputStream, columns, DEFAULT_BATCH_SIZE, DEFAULT_MAX_BATCH_BYTES);
+	}
+
+	/**
+	 * Creates a writer, and writes the schema
+	 *
+	 * @param outputStream
+	 *            Stream to write to
+	 * @param columns
+	 *            Columns of the result
+	 * @param batchSize
+	 *            Maximum number of rows of a record batch
+	 * @param maxBatchBytes
+	 *            Maximum memory used by the rows of a record batch, no more
+	 *            than MAX_BATCH_BYTES
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public ArrowStreamWriter(OutputStream outputStream, Column[] columns,
+			int batchSize, long maxBatchBytes) throws IOException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive");
+		}
+		if (maxBatchBytes < 1 || maxBatchBytes > MAX_BATCH_BYTES) {
+			throw new IllegalArgumentException(
+					"The maximum batch size must be between 1 and "
+							+ MAX_BATCH_BYTES + " bytes");
+		}
+		this.outputStream = new BufferedOutputStream(outputStream, 65536);
+		this.batchSize = batchSize;
+		this.maxBatchBytes = maxBatchBytes;
+		this.dataTypes = new PrimitiveDataType[columns.length];
+		this.vectors = new ColumnVector[columns.length];
+
+		List<Table> fields = new ArrayList<Table>();
+		for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+			PrimitiveDataType dataType = columns[columnIndex].getDataType();
+			dataTypes[columnIndex] = dataType;
+			vectors[columnIndex] = createVector(dataType);
+
+			String name = columns[columnIndex].getName();
+			fields.add(new Table()
+					.addString(0, name == null ? "" : name)
+					.addBoolean(1, true)
+					.addByte(2, getTypeId(dataType))
+					.addNode(3, createType(dataType))
+					.addNode(5, new TableVector(new ArrayList<Table>())));
+		}
+		Table schema = new Table().addShort(0, 0).addNode(1,
+				new TableVector(fields));
+		writeMessage(HEADER_SCHEMA, schema, 0);
+	}
+
+	/**
+	 * Writes all rows of a result set
+	 *
+	 * @param resultSet
+	 *            Result set
+	 * @throws ResultSetException
+	 *             An error occurred reading the result set
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void writeRows(ResultSet resultSet) throws ResultSetException,
+			IOException {
+		resultSet.beforeFirst();
+		while (resultSet.next()) {
+			for (int columnIndex = 0; columnIndex < vectors.length; columnIndex++) {
+				addValue(columnIndex, resultSet.getObject(columnIndex));
+			}
+			endRow();
+		}
+	}
+
+	/**
+	 * Writes the last record batch and the end of the stream, and flushes the
+	 * stream. The stream is not closed.
+	 *
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void finish() throws IOException {
+		if (vectors.length > 0 && vectors[0].getLength() > 0) {
+			writeRecordBatch();
+		}
+		writeInt(CONTINUATION);
+		writeInt(0);
+		outputStream.flush();
+	}
+
+	/**
+	 * Returns the number of record batches written
+	 *
+	 * @return Number of record batches
+	 */
+	public int getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * Returns the number of values that could not be converted to the type of
+	 * their column, and were written as null
+	 *
+	 * @return Number of values
+	 */
+	public long getInvalidValues() {
+		return invalidValues;
+	}
+
+	private void endRow() throws IOException {
+		if (vectors.length == 0) {
+			return;
+		}
+		long bufferedSize = 0;
+		for (ColumnVector vector : vectors) {
+			bufferedSize += vector.getBufferedSize();
+		}
+		if (vectors[0].getLength() >= batchSize || bufferedSize >= maxBatchBytes) {
+			writeRecordBatch();
+		}
+	}
+
+	private void writeRecordBatch() throws IOException {
+		int bufferCount = 0;
+		for (ColumnVector vector : vectors) {
+			bufferCount += vector.getBufferCount();
+		}
+		long[] nodes = new long[vectors.length * 2];
+		long[] buffers = new long[bufferCount * 2];
+		long bodyLength = 0;
+		int bufferIndex = 0;
+		for (int columnIndex = 0; columnIndex < vectors.length; columnIndex++) {
+			ColumnVector vector = vectors[columnIndex];
+			nodes[columnIndex * 2] = vector.getLength();
+			nodes[columnIndex * 2 + 1] = vector.getNullCount();
+			for (int index = 0; index < vector.getBufferCount(); index++) {
+				int size = vector.getBufferSize(index);
+				buffers[bufferIndex++] = bodyLength;
+				buffers[bufferIndex++] = size;
+				bodyLength += size + padding(size);
+			}
+		}
+
+		Table recordBatch = new Table()
+				.addLong(0, vectors[0].getLength())
+				.addNode(1, new LongStructVector(nodes, 2))
+				.addNode(2, new LongStructVector(buffers, 2));
+		writeMessage(HEADER_RECORD_BATCH, recordBatch, bodyLength);
+
+		for (ColumnVector vector : vectors) {
+			for (int index = 0; index < vector.getBufferCount(); index++) {
+				int size = vector.getBufferSize(index);
+				outputStream.write(vector.getBuffer(index), 0, size);
+				outputStream.write(PADDING, 0, padding(size));
+			}
+			vector.clear();
+		}
+		batchCount++;
+	}
+
+	/**
+	 * Writes an encapsulated message: the continuation marker, the size of
+	 * the metadata and the metadata, padded to eight bytes. The body of the
+	 * message follows.
+	 */
+	private void writeMessage(int headerType, Table header, long bodyLength)
+			throws IOException {
+		Table message = new Table().addShort(0, METADATA_V5)
+				.addByte(1, headerType).addNode(2, header)
+				.addLong(3, bodyLength);
+		byte[] metadata = FlatBufferWriter.finish(message);
+		writeInt(CONTINUATION);
+		writeInt(metadata.length);
+		outputStream.write(metadata);
+	}
+
+	private void writeInt(int value) throws IOException {
+		outputStream.write(value);
+		outputStream.write(value >>> 8);
+		outputStream.write(value >>> 16);
+		outputStream.write(value >>> 24);
+	}
+
+	private static int padding(int size) {
+		return (8 - size % 8) % 8;
+	}
+
+	private void addValue(int columnIndex, Object value) {
+		ColumnVector vector = vectors[columnIndex];
+		if (value == null) {
+			vector.addNull();
+			return;
+		}
+		PrimitiveDataType dataType = dataTypes[columnIndex];
+		if (getTypeId(dataType) == TYPE_UTF8) {
+			vector.addBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		try {
+			switch (dataType) {
+			case BOOLEAN:
+				vector.addBoolean(TypedValues.toBoolean(value));
+				break;
+			case BYTE:
+				vector.addNumber(TypedValues.toByte(value));
+				break;
+			case INTEGER:
+				vector.addNumber(TypedValues.toInt(value));
+				break;
+			case LONG:
+				vector.addNumber(TypedValues.toLong(value));
+				break;
+			case FLOAT:
+				vector.addNumber(Float.floatToRawIntBits(TypedValues
+						.toFloat(value)));
+				break;
+			case DOUBLE:
+				vector.addNumber(Double.doubleToRawLongBits(TypedValues
+						.toDouble(value)));
+				break;
+			case DATE:
+				vector.addNumber(TypedValues.toLocalDays(value, timeZone));
+				break;
+			case DATETIME:
+				vector.addNumber(TypedValues.toLocalMillis(value, timeZone));
+				break;
+			case TIME:
+				vector.addNumber(TypedValues.toLocalMillisOfDay(value, timeZone));
+				break;
+			default:
+				vector.addNull();
+			}
+		} catch (IllegalArgumentException e) {
+			invalidValues++;
+			vector.addNull();
+		}
+	}
+
+	private static int getTypeId(PrimitiveDataType dataType) {
+		if (dataType == null) {
+			return TYPE_UTF8;
+		}
+		switch (dataType) {
+		case BOOLEAN:
+			return TYPE_BOOL;
+		case BYTE:
+		case INTEGER:
+		case LONG:
+			return TYPE_INT;
+		case FLOAT:
+		case DOUBLE:
+			return TYPE_FLOATING_POINT;
+		case DATE:
+			return TYPE_DATE;
+		case DATETIME:
+			return TYPE_TIMESTAMP;
+		case TIME:
+			return TYPE_TIME;
+		default:
+			return TYPE_UTF8;
+		}
+	}
+
+	private static Table createType(PrimitiveDataType dataType) {
+		Table type = new Table();
+		switch (getTypeId(dataType)) {
+		case TYPE_INT:
+			type.addInt(0, dataType == PrimitiveDataType.BYTE ? 8
+					: dataType == PrimitiveDataType.INTEGER ? 32 : 64);
+			type.addBoolean(1, true);
+			break;
+		case TYPE_FLOATING_POINT:
+			type.addShort(0, dataType == PrimitiveDataType.FLOAT ? PRECISION_SINGLE
+					: PRECISION_DOUBLE);
+			break;
+		case TYPE_DATE:
+			type.addShort(0, DATE_UNIT_DAY);
+			break;
+		case TYPE_TIME:
+			type.addShort(0, TIME_UNIT_MILLISECOND);
+			type.addInt(1, 32);
+			break;
+		case TYPE_TIMESTAMP:
+			type.addShort(0, TIME_UNIT_MILLISECOND);
+			break;
+		default:
+			// Bool and Utf8 have no parameters
+		}
+		return type;
+	}
+
+	private static ColumnVector createVector(PrimitiveDataType dataType) {
+		switch (getTypeId(dataType)) {
+		case TYPE_BOOL:
+			return new ColumnVector(ColumnVector.LAYOUT_BOOLEAN, 0);
+		case TYPE_UTF8:
+			return new ColumnVector(ColumnVector.LAYOUT_VARIABLE, 0);
+		default:
+			int width;
+			switch (dataType) {
+			case BYTE:
+				width = 1;
+				break;
+			case LONG:
+			case DOUBLE:
+			case DATETIME:
+				width = 8;
+				break;
+			default:
+				width = 4;
+			}
+			return new ColumnVector(ColumnVector.LAYOUT_FIXED, width);
+		}
+	}
+}
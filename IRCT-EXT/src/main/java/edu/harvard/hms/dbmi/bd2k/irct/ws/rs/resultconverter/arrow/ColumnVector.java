@@ -0,0 +1,170 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow;
+
+import java.util.Arrays;
+
+/**
+ * Buffers the values of a column for the current record batch in the Arrow
+ * columnar layout: a validity bitmap followed by either a bitmap of booleans,
+ * little endian values of a fixed width, or the offsets and bytes of
+ * variable length values.
+ */
+final class ColumnVector {
+	static final int LAYOUT_BOOLEAN = 0;
+	static final int LAYOUT_FIXED = 1;
+	static final int LAYOUT_VARIABLE = 2;
+
+	private final int layout;
+	private final int width;
+
+	private int length;
+	private int nullCount;
+	private byte[] validity = new byte[128];
+	private byte[] values;
+	private int valuesSize;
+	private byte[] data;
+	private int dataSize;
+
+	/**
+	 * Creates a vector
+	 *
+	 * @param layout
+	 *            Layout of the values
+	 * @param width
+	 *            Width of a value in bytes, if the layout is fixed
+	 */
+	ColumnVector(int layout, int width) {
+		this.layout = layout;
+		this.width = width;
+		switch (layout) {
+		case LAYOUT_BOOLEAN:
+			values = new byte[128];
+			break;
+		case LAYOUT_FIXED:
+			values = new byte[1024 * width];
+			break;
+		default:
+			values = new byte[4096];
+			data = new byte[8192];
+			valuesSize = 4;
+		}
+	}
+
+	void addNull() {
+		nullCount++;
+		addSlot(false);
+		if (layout == LAYOUT_VARIABLE) {
+			putInt(dataSize);
+		} else if (layout == LAYOUT_FIXED) {
+			putLittleEndian(0, width);
+		}
+	}
+
+	void addBoolean(boolean value) {
+		addSlot(true);
+		if (value) {
+			values[(length - 1) >>> 3] |= 1 << ((length - 1) & 7);
+		}
+	}
+
+	/**
+	 * Adds an integer, or the raw bits of a floating point value
+	 */
+	void addNumber(long value) {
+		addSlot(true);
+		putLittleEndian(value, width);
+	}
+
+	void addBytes(byte[] value) {
+		addSlot(true);
+		if (dataSize + value.length > data.length) {
+			data = Arrays.copyOf(data,
+					Math.max(data.length * 2, dataSize + value.length));
+		}
+		System.arraycopy(value, 0, data, dataSize, value.length);
+		dataSize += value.length;
+		putInt(dataSize);
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	int getNullCount() {
+		return nullCount;
+	}
+
+	/**
+	 * Returns the memory used by the buffered values
+	 */
+	long getBufferedSize() {
+		return (length + 7) / 8 + getBufferSize(1) + dataSize;
+	}
+
+	/**
+	 * Returns the number of buffers of the vector: the validity bitmap, then
+	 * the values, or the offsets and bytes of variable length values
+	 */
+	int getBufferCount() {
+		return layout == LAYOUT_VARIABLE ? 3 : 2;
+	}
+
+	byte[] getBuffer(int index) {
+		return index == 0 ? validity : index == 1 ? values : data;
+	}
+
+	/**
+	 * Returns the size of a buffer. The validity bitmap is left empty if there
+	 * are no nulls.
+	 */
+	int getBufferSize(int index) {
+		switch (index) {
+		case 0:
+			return nullCount == 0 ? 0 : (length + 7) / 8;
+		case 1:
+			return layout == LAYOUT_BOOLEAN ? (length + 7) / 8 : valuesSize;
+		default:
+			return dataSize;
+		}
+	}
+
+	void clear() {
+		Arrays.fill(validity, 0, (length + 7) / 8, (byte) 0);
+		if (layout == LAYOUT_BOOLEAN) {
+			Arrays.fill(values, 0, (length + 7) / 8, (byte) 0);
+		}
+		length = 0;
+		nullCount = 0;
+		// The offsets start with the offset of the first value
+		valuesSize = layout == LAYOUT_VARIABLE ? 4 : 0;
+		dataSize = 0;
+	}
+
+	private void addSlot(boolean valid) {
+		if (length == validity.length * 8) {
+			validity = Arrays.copyOf(validity, validity.length * 2);
+			if (layout == LAYOUT_BOOLEAN) {
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+		}
+		if (valid) {
+			validity[length >>> 3] |= 1 << (length & 7);
+		}
+		length++;
+	}
+
+	private void putInt(int value) {
+		putLittleEndian(value, 4);
+	}
+
+	private void putLittleEndian(long value, int size) {
+		if (valuesSize + size > values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
+		}
+		for (int b = 0; b < size; b++) {
+			values[valuesSize++] = (byte) (value >>> (b * 8));
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Serializes the FlatBuffers tables of the Arrow metadata. The tables are
+ * built as a tree and written front to back: every table is preceded by its
+ * vtable and followed by the strings, vectors and tables it refers to, so all
+ * offsets point forward as FlatBuffers requires. Every scalar is aligned to
+ * its size relative to the start of the buffer.
+ */
+final class FlatBufferWriter {
+	private byte[] buffer = new byte[256];
+	private int position;
+
+	private FlatBufferWriter() {
+	}
+
+	/**
+	 * Serializes a root table
+	 *
+	 * @param root
+	 *            Root table
+	 * @return FlatBuffer, padded to a multiple of eight bytes
+	 */
+	static byte[] finish(Table root) {
+		FlatBufferWriter out = new FlatBufferWriter();
+		out.putInt(0);
+		int rootPosition = root.write(out);
+		out.patchInt(0, rootPosition);
+		out.align(8);
+		return Arrays.copyOf(out.buffer, out.position);
+	}
+
+	abstract static class Node {
+		/**
+		 * Writes the node
+		 *
+		 * @return Position of the node that offsets should point at
+		 */
+		abstract int write(FlatBufferWriter out);
+	}
+
+	static final class Table extends Node {
+		private final List<Slot> slots = new ArrayList<Slot>();
+
+		Table addBoolean(int id, boolean value) {
+			return add(id, 1, value ? 1 : 0, null);
+		}
+
+		Table addByte(int id, int value) {
+			return add(id, 1, value, null);
+		}
+
+		Table addShort(int id, int value) {
+			return add(id, 2, value, null);
+		}
+
+		Table addInt(int id, int value) {
+			return add(id, 4, value, null);
+		}
+
+		Table addLong(int id, long value) {
+			return add(id, 8, value, null);
+		}
+
+		Table addString(int id, String value) {
+			return add(id, 4, 0, new StringNode(value));
+		}
+
+		Table addNode(int id, Node node) {
+			return add(id, 4, 0, node);
+		}
+
+		private Table add(int id, int size, long value, Node node) {
+			slots.add(new Slot(id, size, value, node));
+			return this;
+		}
+
+		@Override
+		int write(FlatBufferWriter out) {
+			int fieldCount = 0;
+			for (Slot slot : slots) {
+				fieldCount = Math.max(fieldCount, slot.id + 1);
+			}
+			int vtableSize = 4 + 2 * fieldCount;
+			out.align(2);
+			int vtablePosition = out.reserve(vtableSize);
+
+			// The vtable precedes the table, so the signed offset to it is
+			// positive
+			out.align(8);
+			int tablePosition = out.position;
+			out.putInt(tablePosition - vtablePosition);
+
+			// Larger fields first, which keeps the padding to a minimum
+			List<Slot> sorted = new ArrayList<Slot>(slots);
+			Collections.sort(sorted, new Comparator<Slot>() {
+				@Override
+				public int compare(Slot slot1, Slot slot2) {
+					return slot2.size - slot1.size;
+				}
+			});
+			for (Slot slot : sorted) {
+				out.align(slot.size);
+				slot.position = out.position;
+				out.patchShort(vtablePosition + 4 + 2 * slot.id,
+						slot.position - tablePosition);
+				out.putLittleEndian(slot.value, slot.size);
+			}
+			out.patchShort(vtablePosition, vtableSize);
+			out.patchShort(vtablePosition + 2, out.position - tablePosition);
+
+			for (Slot slot : sorted) {
+				if (slot.node != null) {
+					int nodePosition = slot.node.write(out);
+					out.patchInt(slot.position, nodePosition - slot.position);
+				}
+			}
+			return tablePosition;
+		}
+	}
+
+	static final class TableVector extends Node {
+		private final List<Table> tables;
+
+		TableVector(List<Table> tables) {
+			this.tables = tables;
+		}
+
+		@Override
+		int write(FlatBufferWriter out) {
+			out.align(4);
+			int vectorPosition = out.position;
+			out.putInt(tables.size());
+			int offsetsPosition = out.reserve(4 * tables.size());
+			for (int index = 0; index < tables.size(); index++) {
+				int offsetPosition = offsetsPosition + 4 * index;
+				int tablePosition = tables.get(index).write(out);
+				out.patchInt(offsetPosition, tablePosition - offsetPosition);
+			}
+			return vectorPosition;
+		}
+	}
+
+	/**
+	 * A vector of structs that consist of longs only
+	 */
+	static final class LongStructVector extends Node {
+		private final long[] values;
+		private final int fieldsPerStruct;
+
+		LongStructVector(long[] values, int fieldsPerStruct) {
+			this.values = values;
+			this.fieldsPerStruct = fieldsPerStruct;
+		}
+
+		@Override
+		int write(FlatBufferWriter out) {
+			// The structs that follow the length are aligned to eight bytes
+			out.align(4);
+			if (out.position % 8 == 0) {
+				out.putInt(0);
+			}
+			int vectorPosition = out.position;
+			out.putInt(values.length / fieldsPerStruct);
+			for (long value : values) {
+				out.putLittleEndian(value, 8);
+			}
+			return vectorPosition;
+		}
+	}
+
+	private static final class StringNode extends Node {
+		private final byte[] bytes;
+
+		StringNode(String value) {
+			this.bytes = value.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		int write(FlatBufferWriter out) {
+			out.align(4);
+			int stringPosition = out.position;
+			out.putInt(bytes.length);
+			out.ensureCapacity(bytes.length + 1);
+			System.arraycopy(bytes, 0, out.buffer, out.position, bytes.length);
+			out.position += bytes.length + 1;
+			return stringPosition;
+		}
+	}
+
+	private static final class Slot {
+		private final int id;
+		private final int size;
+		private final long value;
+		private final Node node;
+		private int position;
+
+		Slot(int id, int size, long value, Node node) {
+			this.id = id;
+			this.size = size;
+			this.value = value;
+			this.node = node;
+		}
+	}
+
+	private void align(int alignment) {
+		int padding = (alignment - position % alignment) % alignment;
+		reserve(padding);
+	}
+
+	private int reserve(int size) {
+		ensureCapacity(size);
+		int start = position;
+		position += size;
+		return start;
+	}
+
+	private void ensureCapacity(int size) {
+		if (position + size > buffer.length) {
+			buffer = Arrays.copyOf(buffer,
+					Math.max(buffer.length * 2, position + size));
+		}
+	}
+
+	private void putInt(int value) {
+		putLittleEndian(value, 4);
+	}
+
+	private void putLittleEndian(long value, int size) {
+		ensureCapacity(size);
+		for (int b = 0; b < size; b++) {
+			buffer[position++] = (byte) (value >>> (b * 8));
+		}
+	}
+
+	private void patchShort(int at, int value) {
+		buffer[at] = (byte) value;
+		buffer[at + 1] = (byte) (value >>> 8);
+	}
+
+	private void patchInt(int at, int value) {
+		for (int b = 0; b < 4; b++) {
+			buffer[at + b] = (byte) (value >>> (b * 8));
+		}
+	}
+}
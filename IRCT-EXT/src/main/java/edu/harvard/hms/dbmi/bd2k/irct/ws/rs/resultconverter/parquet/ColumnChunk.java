@@ -0,0 +1,456 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.parquet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Buffers the values of a column for the current row group, and writes them
+ * as a column chunk: an optional dictionary page followed by a single data
+ * page. Values are dictionary encoded if that makes the chunk smaller and
+ * the dictionary is not too large, otherwise they are plain encoded. Pages
+ * are GZIP compressed. The statistics of the chunk are kept once it is
+ * written, strings longer than the maximum statistics size have no minimum
+ * and maximum.
+ */
+final class ColumnChunk {
+	static final int MAX_DICTIONARY_SIZE = 1024 * 1024;
+	static final int MAX_STATISTICS_SIZE = 4096;
+
+	static final int PAGE_DATA = 0;
+	static final int PAGE_DICTIONARY = 2;
+	static final int ENCODING_PLAIN = 0;
+	static final int ENCODING_PLAIN_DICTIONARY = 2;
+	static final int ENCODING_RLE = 3;
+
+	// Estimated memory used by a buffered byte array besides its bytes
+	private static final int BINARY_OVERHEAD = 24;
+
+	private final int physicalType;
+
+	private int rowCount;
+	private int[] definitionLevels = new int[1024];
+	private int valueCount;
+	private long[] numbers;
+	private byte[][] binaries;
+	private long bufferedSize;
+
+	// Set when the chunk is written
+	private long firstPageOffset;
+	private long dataPageOffset;
+	private long dictionaryPageOffset = -1;
+	private int[] encodings;
+	private long uncompressedSize;
+	private long compressedSize;
+	private long nullCount;
+	private byte[] minValue;
+	private byte[] maxValue;
+
+	ColumnChunk(int physicalType) {
+		this.physicalType = physicalType;
+		if (physicalType == ParquetWriter.TYPE_BYTE_ARRAY) {
+			binaries = new byte[1024][];
+		} else {
+			numbers = new long[1024];
+		}
+	}
+
+	void addNull() {
+		addLevel(0);
+	}
+
+	/**
+	 * Adds a boolean, integer or the raw bits of a floating point value
+	 */
+	void addNumber(long value) {
+		addLevel(1);
+		if (valueCount == numbers.length) {
+			numbers = Arrays.copyOf(numbers, valueCount * 2);
+		}
+		numbers[valueCount++] = value;
+		bufferedSize += 8;
+	}
+
+	void addBinary(byte[] value) {
+		addLevel(1);
+		if (valueCount == binaries.length) {
+			binaries = Arrays.copyOf(binaries, valueCount * 2);
+		}
+		binaries[valueCount++] = value;
+		bufferedSize += value.length + BINARY_OVERHEAD;
+	}
+
+	/**
+	 * Returns the estimated memory used by the buffered values
+	 */
+	long getBufferedSize() {
+		return bufferedSize + rowCount * 4L;
+	}
+
+	/**
+	 * Writes the buffered values as a column chunk and clears them
+	 *
+	 * @param out
+	 *            Stream to write to
+	 * @param offset
+	 *            Position of the stream in the file
+	 * @return Number of bytes written
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	long write(OutputStream out, long offset) throws IOException {
+		firstPageOffset = offset;
+		uncompressedSize = 0;
+		compressedSize = 0;
+		updateStatistics();
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writeDefinitionLevels(body);
+
+		Dictionary dictionary = physicalType == ParquetWriter.TYPE_BOOLEAN ? null
+				: createDictionary();
+		int valueEncoding;
+		if (dictionary != null) {
+			ByteArrayOutputStream dictionaryBody = new ByteArrayOutputStream();
+			writePlain(dictionary.values, dictionary.size, dictionaryBody);
+			dictionaryPageOffset = offset;
+			offset += writePage(out, PAGE_DICTIONARY, dictionary.size,
+					ENCODING_PLAIN_DICTIONARY, dictionaryBody);
+
+			int bitWidth = Math.max(1, HybridEncoder.bitWidth(dictionary.size - 1));
+			body.write(bitWidth);
+			HybridEncoder.encode(dictionary.indices, valueCount, bitWidth, body);
+			valueEncoding = ENCODING_PLAIN_DICTIONARY;
+			encodings = new int[] { ENCODING_PLAIN_DICTIONARY, ENCODING_RLE };
+		} else {
+			dictionaryPageOffset = -1;
+			writePlain(physicalType == ParquetWriter.TYPE_BYTE_ARRAY ? binaries
+					: numbers, valueCount, body);
+			valueEncoding = ENCODING_PLAIN;
+			encodings = new int[] { ENCODING_PLAIN, ENCODING_RLE };
+		}
+		dataPageOffset = offset;
+		offset += writePage(out, PAGE_DATA, rowCount, valueEncoding, body);
+
+		long written = offset - firstPageOffset;
+		clear();
+		return written;
+	}
+
+	int getPhysicalType() {
+		return physicalType;
+	}
+
+	long getFirstPageOffset() {
+		return firstPageOffset;
+	}
+
+	long getDataPageOffset() {
+		return dataPageOffset;
+	}
+
+	long getDictionaryPageOffset() {
+		return dictionaryPageOffset;
+	}
+
+	int[] getEncodings() {
+		return encodings;
+	}
+
+	long getUncompressedSize() {
+		return uncompressedSize;
+	}
+
+	long getCompressedSize() {
+		return compressedSize;
+	}
+
+	long getNullCount() {
+		return nullCount;
+	}
+
+	/**
+	 * Returns the plain encoded minimum value
+	 *
+	 * @return Minimum, or null if there is none
+	 */
+	byte[] getMinValue() {
+		return minValue;
+	}
+
+	/**
+	 * Returns the plain encoded maximum value
+	 *
+	 * @return Maximum, or null if there is none
+	 */
+	byte[] getMaxValue() {
+		return maxValue;
+	}
+
+	private void addLevel(int level) {
+		if (rowCount == definitionLevels.length) {
+			definitionLevels = Arrays.copyOf(definitionLevels, rowCount * 2);
+		}
+		definitionLevels[rowCount++] = level;
+	}
+
+	private void clear() {
+		rowCount = 0;
+		valueCount = 0;
+		bufferedSize = 0;
+		if (binaries != null) {
+			Arrays.fill(binaries, null);
+		}
+	}
+
+	/**
+	 * Keeps the statistics of the buffered values. Strings are ordered by
+	 * their unsigned bytes, floating point values ignore NaN and have a
+	 * negative zero minimum and a positive zero maximum.
+	 */
+	private void updateStatistics() {
+		nullCount = rowCount - valueCount;
+		minValue = null;
+		maxValue = null;
+		if (valueCount == 0) {
+			return;
+		}
+
+		switch (physicalType) {
+		case ParquetWriter.TYPE_BYTE_ARRAY:
+			byte[] minBinary = binaries[0];
+			byte[] maxBinary = binaries[0];
+			for (int index = 1; index < valueCount; index++) {
+				if (compareUnsigned(binaries[index], minBinary) < 0) {
+					minBinary = binaries[index];
+				} else if (compareUnsigned(binaries[index], maxBinary) > 0) {
+					maxBinary = binaries[index];
+				}
+			}
+			if (maxBinary.length <= MAX_STATISTICS_SIZE
+					&& minBinary.length <= MAX_STATISTICS_SIZE) {
+				minValue = minBinary;
+				maxValue = maxBinary;
+			}
+			break;
+		case ParquetWriter.TYPE_FLOAT:
+		case ParquetWriter.TYPE_DOUBLE:
+			boolean isFloat = physicalType == ParquetWriter.TYPE_FLOAT;
+			double minDouble = Double.NaN;
+			double maxDouble = Double.NaN;
+			for (int index = 0; index < valueCount; index++) {
+				double value = isFloat ? Float.intBitsToFloat((int) numbers[index])
+						: Double.longBitsToDouble(numbers[index]);
+				if (Double.isNaN(value)) {
+					continue;
+				}
+				if (Double.isNaN(minDouble) || value < minDouble) {
+					minDouble = value;
+				}
+				if (Double.isNaN(maxDouble) || value > maxDouble) {
+					maxDouble = value;
+				}
+			}
+			if (!Double.isNaN(minDouble)) {
+				minDouble = minDouble == 0 ? -0.0 : minDouble;
+				maxDouble = maxDouble == 0 ? 0.0 : maxDouble;
+				if (isFloat) {
+					minValue = toLittleEndian(Float.floatToIntBits((float) minDouble), 4);
+					maxValue = toLittleEndian(Float.floatToIntBits((float) maxDouble), 4);
+				} else {
+					minValue = toLittleEndian(Double.doubleToLongBits(minDouble), 8);
+					maxValue = toLittleEndian(Double.doubleToLongBits(maxDouble), 8);
+				}
+			}
+			break;
+		default:
+			long minNumber = numbers[0];
+			long maxNumber = numbers[0];
+			for (int index = 1; index < valueCount; index++) {
+				minNumber = Math.min(minNumber, numbers[index]);
+				maxNumber = Math.max(maxNumber, numbers[index]);
+			}
+			int width = physicalType == ParquetWriter.TYPE_BOOLEAN ? 1 : plainWidth();
+			minValue = toLittleEndian(minNumber, width);
+			maxValue = toLittleEndian(maxNumber, width);
+		}
+	}
+
+	private static int compareUnsigned(byte[] left, byte[] right) {
+		int length = Math.min(left.length, right.length);
+		for (int index = 0; index < length; index++) {
+			int compare = (left[index] & 0xFF) - (right[index] & 0xFF);
+			if (compare != 0) {
+				return compare;
+			}
+		}
+		return left.length - right.length;
+	}
+
+	private void writeDefinitionLevels(ByteArrayOutputStream body) {
+		ByteArrayOutputStream levels = new ByteArrayOutputStream();
+		HybridEncoder.encode(definitionLevels, rowCount, 1, levels);
+		writeLittleEndian(levels.size(), 4, body);
+		body.write(levels.toByteArray(), 0, levels.size());
+	}
+
+	/**
+	 * Creates the dictionary of the buffered values
+	 *
+	 * @return Dictionary, or null if the values should be plain encoded
+	 */
+	private Dictionary createDictionary() {
+		if (valueCount == 0) {
+			return null;
+		}
+		boolean binary = binaries != null;
+		// Every entry takes at least four bytes
+		int capacity = Math.min(valueCount, MAX_DICTIONARY_SIZE / 4 + 1);
+		long[] numberEntries = binary ? null : new long[capacity];
+		byte[][] binaryEntries = binary ? new byte[capacity][] : null;
+		int[] indices = new int[valueCount];
+		int size = 0;
+		long dictionarySize = 0;
+		long plainSize = 0;
+
+		Map<Object, Integer> entries = new HashMap<Object, Integer>();
+		for (int index = 0; index < valueCount; index++) {
+			Object key = binary ? ByteBuffer.wrap(binaries[index]) : Long
+					.valueOf(numbers[index]);
+			int width = binary ? 4 + binaries[index].length : plainWidth();
+			Integer entry = entries.get(key);
+			if (entry == null) {
+				if (dictionarySize + width > MAX_DICTIONARY_SIZE) {
+					return null;
+				}
+				entry = size;
+				entries.put(key, entry);
+				if (binary) {
+					binaryEntries[size++] = binaries[index];
+				} else {
+					numberEntries[size++] = numbers[index];
+				}
+				dictionarySize += width;
+			}
+			indices[index] = entry;
+			plainSize += width;
+		}
+
+		long indexSize = (long) valueCount
+				* Math.max(1, HybridEncoder.bitWidth(size - 1)) / 8;
+		if (dictionarySize + indexSize >= plainSize) {
+			return null;
+		}
+		return new Dictionary(binary ? binaryEntries : numberEntries, size,
+				indices);
+	}
+
+	private int plainWidth() {
+		return physicalType == ParquetWriter.TYPE_INT64
+				|| physicalType == ParquetWriter.TYPE_DOUBLE ? 8 : 4;
+	}
+
+	private void writePlain(Object values, int count, ByteArrayOutputStream out) {
+		switch (physicalType) {
+		case ParquetWriter.TYPE_BOOLEAN:
+			long[] booleans = (long[]) values;
+			int bits = 0;
+			int bitCount = 0;
+			for (int index = 0; index < count; index++) {
+				bits |= (booleans[index] != 0 ? 1 : 0) << bitCount++;
+				if (bitCount == 8) {
+					out.write(bits);
+					bits = 0;
+					bitCount = 0;
+				}
+			}
+			if (bitCount > 0) {
+				out.write(bits);
+			}
+			break;
+		case ParquetWriter.TYPE_BYTE_ARRAY:
+			byte[][] bytes = (byte[][]) values;
+			for (int index = 0; index < count; index++) {
+				writeLittleEndian(bytes[index].length, 4, out);
+				out.write(bytes[index], 0, bytes[index].length);
+			}
+			break;
+		default:
+			long[] numbers = (long[]) values;
+			int width = plainWidth();
+			for (int index = 0; index < count; index++) {
+				writeLittleEndian(numbers[index], width, out);
+			}
+		}
+	}
+
+	private long writePage(OutputStream out, int pageType, int valueCount,
+			int encoding, ByteArrayOutputStream body) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+				body.size() / 4 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed, 65536);
+		body.writeTo(gzip);
+		gzip.close();
+
+		CompactProtocolWriter header = new CompactProtocolWriter();
+		header.structBegin();
+		header.fieldI32(1, pageType);
+		header.fieldI32(2, body.size());
+		header.fieldI32(3, compressed.size());
+		if (pageType == PAGE_DATA) {
+			header.fieldStructBegin(5);
+			header.fieldI32(1, valueCount);
+			header.fieldI32(2, encoding);
+			header.fieldI32(3, ENCODING_RLE);
+			header.fieldI32(4, ENCODING_RLE);
+			header.structEnd();
+		} else {
+			header.fieldStructBegin(7);
+			header.fieldI32(1, valueCount);
+			header.fieldI32(2, encoding);
+			header.structEnd();
+		}
+		header.structEnd();
+
+		byte[] headerBytes = header.toByteArray();
+		out.write(headerBytes);
+		compressed.writeTo(out);
+
+		uncompressedSize += headerBytes.length + body.size();
+		compressedSize += headerBytes.length + compressed.size();
+		return headerBytes.length + compressed.size();
+	}
+
+	private static byte[] toLittleEndian(long value, int width) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(width);
+		writeLittleEndian(value, width, out);
+		return out.toByteArray();
+	}
+
+	private static void writeLittleEndian(long value, int width,
+			ByteArrayOutputStream out) {
+		for (int b = 0; b < width; b++) {
+			out.write((int) (value >>> (b * 8)));
+		}
+	}
+
+	private static final class Dictionary {
+		private final Object values;
+		private final int size;
+		private final int[] indices;
+
+		Dictionary(Object values, int size, int[] indices) {
+			this.values = values;
+			this.size = size;
+			this.indices = indices;
+		}
+	}
+}
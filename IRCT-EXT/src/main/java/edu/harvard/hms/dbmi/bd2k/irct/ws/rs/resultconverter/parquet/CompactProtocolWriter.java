@@ -0,0 +1,135 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.parquet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes the Thrift compact protocol, which is used for the page headers and
+ * the footer of a Parquet file. Only the parts of the protocol that Parquet
+ * metadata needs are supported.
+ */
+final class CompactProtocolWriter {
+	static final byte TYPE_BOOLEAN_TRUE = 1;
+	static final byte TYPE_BOOLEAN_FALSE = 2;
+	static final byte TYPE_BYTE = 3;
+	static final byte TYPE_I16 = 4;
+	static final byte TYPE_I32 = 5;
+	static final byte TYPE_I64 = 6;
+	static final byte TYPE_BINARY = 8;
+	static final byte TYPE_LIST = 9;
+	static final byte TYPE_STRUCT = 12;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final Deque<Integer> lastFieldIds = new ArrayDeque<Integer>();
+	private int lastFieldId;
+
+	/**
+	 * Starts a struct that is not a field, such as the outer struct or an
+	 * element of a list
+	 */
+	void structBegin() {
+		lastFieldIds.push(lastFieldId);
+		lastFieldId = 0;
+	}
+
+	void structEnd() {
+		out.write(0);
+		lastFieldId = lastFieldIds.pop();
+	}
+
+	void fieldStructBegin(int fieldId) {
+		fieldHeader(fieldId, TYPE_STRUCT);
+		structBegin();
+	}
+
+	void fieldBoolean(int fieldId, boolean value) {
+		fieldHeader(fieldId, value ? TYPE_BOOLEAN_TRUE : TYPE_BOOLEAN_FALSE);
+	}
+
+	void fieldByte(int fieldId, int value) {
+		fieldHeader(fieldId, TYPE_BYTE);
+		out.write(value);
+	}
+
+	void fieldI16(int fieldId, short value) {
+		fieldHeader(fieldId, TYPE_I16);
+		writeI32(value);
+	}
+
+	void fieldI32(int fieldId, int value) {
+		fieldHeader(fieldId, TYPE_I32);
+		writeI32(value);
+	}
+
+	void fieldI64(int fieldId, long value) {
+		fieldHeader(fieldId, TYPE_I64);
+		writeI64(value);
+	}
+
+	void fieldString(int fieldId, String value) {
+		fieldHeader(fieldId, TYPE_BINARY);
+		writeString(value);
+	}
+
+	void fieldBinary(int fieldId, byte[] value) {
+		fieldHeader(fieldId, TYPE_BINARY);
+		writeVarint(value.length);
+		out.write(value, 0, value.length);
+	}
+
+	void fieldListBegin(int fieldId, byte elementType, int size) {
+		fieldHeader(fieldId, TYPE_LIST);
+		if (size < 15) {
+			out.write(size << 4 | elementType);
+		} else {
+			out.write(0xF0 | elementType);
+			writeVarint(size);
+		}
+	}
+
+	void writeI32(int value) {
+		writeVarint((value << 1) ^ (value >> 31));
+	}
+
+	void writeI64(long value) {
+		writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	void writeString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	int size() {
+		return out.size();
+	}
+
+	byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+	private void fieldHeader(int fieldId, byte type) {
+		int delta = fieldId - lastFieldId;
+		if (delta > 0 && delta <= 15) {
+			out.write(delta << 4 | type);
+		} else {
+			out.write(type);
+			writeI32(fieldId);
+		}
+		lastFieldId = fieldId;
+	}
+
+	private void writeVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
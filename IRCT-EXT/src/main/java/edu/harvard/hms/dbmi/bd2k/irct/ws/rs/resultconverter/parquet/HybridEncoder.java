@@ -0,0 +1,104 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.parquet;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Writes the run length / bit packing hybrid encoding of Parquet, which is
+ * used for definition levels and dictionary indices. Runs of at least eight
+ * equal values are run length encoded, everything else is bit packed in
+ * groups of eight values.
+ */
+final class HybridEncoder {
+	private static final int MIN_RUN = 8;
+
+	private HybridEncoder() {
+	}
+
+	/**
+	 * Returns the number of bits needed to hold a value
+	 *
+	 * @param maxValue
+	 *            Largest value
+	 * @return Bit width
+	 */
+	static int bitWidth(int maxValue) {
+		return 32 - Integer.numberOfLeadingZeros(maxValue);
+	}
+
+	/**
+	 * Encodes values
+	 *
+	 * @param values
+	 *            Values, none of them may need more than the bit width
+	 * @param count
+	 *            Number of values
+	 * @param bitWidth
+	 *            Bit width
+	 * @param out
+	 *            Stream to write to
+	 */
+	static void encode(int[] values, int count, int bitWidth,
+			ByteArrayOutputStream out) {
+		int index = 0;
+		while (index < count) {
+			int run = runLength(values, index, count);
+			if (run >= MIN_RUN) {
+				writeVarint(run << 1, out);
+				int value = values[index];
+				for (int b = 0; b < (bitWidth + 7) / 8; b++) {
+					out.write(value >>> (b * 8));
+				}
+				index += run;
+				continue;
+			}
+
+			// Bit pack groups of eight values until a long run starts. Only
+			// the last group of the values may be padded.
+			int start = index;
+			do {
+				index = Math.min(index + MIN_RUN, count);
+			} while (index < count && runLength(values, index, count) < MIN_RUN);
+			int groups = (index - start + MIN_RUN - 1) / MIN_RUN;
+			writeVarint(groups << 1 | 1, out);
+			bitPack(values, start, index, groups * MIN_RUN, bitWidth, out);
+		}
+	}
+
+	private static int runLength(int[] values, int index, int count) {
+		int end = index + 1;
+		while (end < count && values[end] == values[index]) {
+			end++;
+		}
+		return end - index;
+	}
+
+	private static void bitPack(int[] values, int start, int end,
+			int paddedCount, int bitWidth, ByteArrayOutputStream out) {
+		long buffer = 0;
+		int bits = 0;
+		for (int index = 0; index < paddedCount; index++) {
+			long value = start + index < end ? values[start + index] : 0;
+			buffer |= (value & ((1L << bitWidth) - 1)) << bits;
+			bits += bitWidth;
+			while (bits >= 8) {
+				out.write((int) buffer);
+				buffer >>>= 8;
+				bits -= 8;
+			}
+		}
+		if (bits > 0) {
+			out.write((int) buffer);
+		}
+	}
+
+	private static void writeVarint(int value, ByteArrayOutputStream out) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
@@ -0,0 +1,422 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.parquet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.TypedValues;
+
+/**
+ * Writes a tabular result as a Parquet file to a stream, without needing
+ * Hadoop or a seekable file. Every column is an optional column with a
+ * Parquet type that matches its data type:
+ *
+ * BOOLEAN as BOOLEAN, BYTE as INT32 (INT_8), INTEGER as INT32, LONG as INT64,
+ * FLOAT as FLOAT, DOUBLE as DOUBLE, DATE as INT32 (DATE), DATETIME as INT64
+ * (TIMESTAMP in milliseconds, local time), TIME as INT32 (TIME in
+ * milliseconds, local time), and all other data types as UTF-8 strings.
+ *
+ * Rows are buffered until the row group size is reached, then the row group
+ * is written and the next one is started, so the memory used does not depend
+ * on the size of the result. A value that can not be converted to the type of
+ * its column is written as null. Every column chunk has statistics with the
+ * number of nulls and the minimum and maximum value in the type defined
+ * order of its column.
+ */
+public final class ParquetWriter {
+	public static final int DEFAULT_ROW_GROUP_SIZE = 32 * 1024 * 1024;
+
+	static final int TYPE_BOOLEAN = 0;
+	static final int TYPE_INT32 = 1;
+	static final int TYPE_INT64 = 2;
+	static final int TYPE_FLOAT = 4;
+	static final int TYPE_DOUBLE = 5;
+	static final int TYPE_BYTE_ARRAY = 6;
+
+	private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+	private static final int REPETITION_OPTIONAL = 1;
+	private static final int CONVERTED_UTF8 = 0;
+	private static final int CONVERTED_DATE = 6;
+	private static final int CONVERTED_INT_8 = 15;
+	private static final int CODEC_GZIP = 2;
+	private static final String CREATED_BY = "IRCT";
+
+	private final OutputStream outputStream;
+	private final long rowGroupSize;
+	private final PrimitiveDataType[] dataTypes;
+	private final String[] names;
+	private final ColumnChunk[] chunks;
+	private final List<byte[]> rowGroups = new ArrayList<byte[]>();
+	private final TimeZone timeZone = TimeZone.getDefault();
+
+	private long position;
+	private long rowCount;
+	private int rowGroupRowCount;
+	private long invalidValues;
+
+	/**
+	 * Creates a writer with the default row group size
+	 *
+	 * @param outputStream
+	 *            Stream to write to
+	 * @param columns
+	 *            Columns of the result
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public ParquetWriter(OutputStream outputStream, Column[] columns)
+			throws IOException {
+		this(outputStream, columns, DEFAULT_ROW_GROUP_SIZE);
+	}
+
+	/**
+	 * Creates a writer
+	 *
+	 * @param outputStream
+	 *            Stream to write to
+	 * @param columns
+	 *            Columns of the result
+	 * @param rowGroupSize
+	 *            Estimated memory used by the rows of a row group
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public ParquetWriter(OutputStream outputStream, Column[] columns,
+			long rowGroupSize) throws IOException {
+		this.outputStream = new BufferedOutputStream(outputStream, 65536);
+		this.rowGroupSize = rowGroupSize;
+		this.dataTypes = new PrimitiveDataType[columns.length];
+		this.names = new String[columns.length];
+		this.chunks = new ColumnChunk[columns.length];
+
+		Set<String> usedNames = new HashSet<String>();
+		for (int columnIndex = 0; columnIndex < columns.length; columnIndex++) {
+			dataTypes[columnIndex] = columns[columnIndex].getDataType();
+			chunks[columnIndex] = new ColumnChunk(
+					getPhysicalType(dataTypes[columnIndex]));
+
+			// Parquet readers expect the column names to be unique
+			String name = columns[columnIndex].getName();
+			if (name == null || name.isEmpty()) {
+				name = "column" + (columnIndex + 1);
+			}
+			String uniqueName = name;
+			for (int suffix = 2; !usedNames.add(uniqueName); suffix++) {
+				uniqueName = name + "_" + suffix;
+			}
+			names[columnIndex] = uniqueName;
+		}
+
+		this.outputStream.write(MAGIC);
+		position = MAGIC.length;
+	}
+
+	/**
+	 * Writes all rows of a result set
+	 *
+	 * @param resultSet
+	 *            Result set
+	 * @throws ResultSetException
+	 *             An error occurred reading the result set
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void writeRows(ResultSet resultSet) throws ResultSetException,
+			IOException {
+		resultSet.beforeFirst();
+		while (resultSet.next()) {
+			for (int columnIndex = 0; columnIndex < chunks.length; columnIndex++) {
+				addValue(columnIndex, resultSet.getObject(columnIndex));
+			}
+			endRow();
+		}
+	}
+
+	/**
+	 * Writes the last row group and the footer, and flushes the stream. The
+	 * stream is not closed.
+	 *
+	 * @throws IOException
+	 *             An error occurred writing to the stream
+	 */
+	public void finish() throws IOException {
+		if (rowGroupRowCount > 0) {
+			writeRowGroup();
+		}
+
+		CompactProtocolWriter footer = new CompactProtocolWriter();
+		footer.structBegin();
+		footer.fieldI32(1, 1);
+		footer.fieldListBegin(2, CompactProtocolWriter.TYPE_STRUCT,
+				chunks.length + 1);
+		footer.structBegin();
+		footer.fieldString(4, "schema");
+		footer.fieldI32(5, chunks.length);
+		footer.structEnd();
+		for (int columnIndex = 0; columnIndex < chunks.length; columnIndex++) {
+			writeSchemaElement(footer, columnIndex);
+		}
+		footer.fieldI64(3, rowCount);
+		footer.fieldListBegin(4, CompactProtocolWriter.TYPE_STRUCT,
+				rowGroups.size());
+		byte[] footerStart = footer.toByteArray();
+		footer.fieldString(6, CREATED_BY);
+		footer.fieldListBegin(7, CompactProtocolWriter.TYPE_STRUCT,
+				chunks.length);
+		for (int columnIndex = 0; columnIndex < chunks.length; columnIndex++) {
+			// The type defined order, which the statistics are written in
+			footer.structBegin();
+			footer.fieldStructBegin(1);
+			footer.structEnd();
+			footer.structEnd();
+		}
+		footer.structEnd();
+		byte[] footerEnd = footer.toByteArray();
+
+		// The row groups are encoded on their own, as they are written
+		int length = footerEnd.length;
+		outputStream.write(footerStart);
+		for (byte[] rowGroup : rowGroups) {
+			outputStream.write(rowGroup);
+			length += rowGroup.length;
+		}
+		outputStream.write(footerEnd, footerStart.length, footerEnd.length
+				- footerStart.length);
+		outputStream.write(length);
+		outputStream.write(length >>> 8);
+		outputStream.write(length >>> 16);
+		outputStream.write(length >>> 24);
+		outputStream.write(MAGIC);
+		outputStream.flush();
+	}
+
+	/**
+	 * Returns the number of values that could not be converted to the type of
+	 * their column, and were written as null
+	 *
+	 * @return Number of values
+	 */
+	public long getInvalidValues() {
+		return invalidValues;
+	}
+
+	private void endRow() throws IOException {
+		rowCount++;
+		rowGroupRowCount++;
+		long bufferedSize = 0;
+		for (ColumnChunk chunk : chunks) {
+			bufferedSize += chunk.getBufferedSize();
+		}
+		if (bufferedSize >= rowGroupSize || rowGroupRowCount == Integer.MAX_VALUE) {
+			writeRowGroup();
+		}
+	}
+
+	private void writeRowGroup() throws IOException {
+		// The ordinal of a row group is an i16
+		if (rowGroups.size() > Short.MAX_VALUE) {
+			throw new IOException("The result has more than "
+					+ (Short.MAX_VALUE + 1) + " row groups");
+		}
+		long start = position;
+		long uncompressedSize = 0;
+		long compressedSize = 0;
+		for (ColumnChunk chunk : chunks) {
+			position += chunk.write(outputStream, position);
+			uncompressedSize += chunk.getUncompressedSize();
+			compressedSize += chunk.getCompressedSize();
+		}
+
+		CompactProtocolWriter rowGroup = new CompactProtocolWriter();
+		rowGroup.structBegin();
+		rowGroup.fieldListBegin(1, CompactProtocolWriter.TYPE_STRUCT,
+				chunks.length);
+		for (int columnIndex = 0; columnIndex < chunks.length; columnIndex++) {
+			writeColumnChunk(rowGroup, columnIndex);
+		}
+		rowGroup.fieldI64(2, uncompressedSize);
+		rowGroup.fieldI64(3, rowGroupRowCount);
+		rowGroup.fieldI64(5, start);
+		rowGroup.fieldI64(6, compressedSize);
+		rowGroup.fieldI16(7, (short) rowGroups.size());
+		rowGroup.structEnd();
+		rowGroups.add(rowGroup.toByteArray());
+
+		rowGroupRowCount = 0;
+	}
+
+	private void writeColumnChunk(CompactProtocolWriter out, int columnIndex) {
+		ColumnChunk chunk = chunks[columnIndex];
+		out.structBegin();
+		out.fieldI64(2, chunk.getFirstPageOffset());
+		out.fieldStructBegin(3);
+		out.fieldI32(1, chunk.getPhysicalType());
+		int[] encodings = chunk.getEncodings();
+		out.fieldListBegin(2, CompactProtocolWriter.TYPE_I32, encodings.length);
+		for (int encoding : encodings) {
+			out.writeI32(encoding);
+		}
+		out.fieldListBegin(3, CompactProtocolWriter.TYPE_BINARY, 1);
+		out.writeString(names[columnIndex]);
+		out.fieldI32(4, CODEC_GZIP);
+		out.fieldI64(5, rowGroupRowCount);
+		out.fieldI64(6, chunk.getUncompressedSize());
+		out.fieldI64(7, chunk.getCompressedSize());
+		out.fieldI64(9, chunk.getDataPageOffset());
+		if (chunk.getDictionaryPageOffset() >= 0) {
+			out.fieldI64(11, chunk.getDictionaryPageOffset());
+		}
+		out.fieldStructBegin(12);
+		out.fieldI64(3, chunk.getNullCount());
+		if (chunk.getMinValue() != null) {
+			out.fieldBinary(5, chunk.getMaxValue());
+			out.fieldBinary(6, chunk.getMinValue());
+		}
+		out.structEnd();
+		out.structEnd();
+		out.structEnd();
+	}
+
+	private void writeSchemaElement(CompactProtocolWriter out, int columnIndex) {
+		PrimitiveDataType dataType = dataTypes[columnIndex];
+		out.structBegin();
+		out.fieldI32(1, chunks[columnIndex].getPhysicalType());
+		out.fieldI32(3, REPETITION_OPTIONAL);
+		out.fieldString(4, names[columnIndex]);
+
+		// Annotations, both as the legacy converted type where one exists and
+		// as the logical type
+		switch (dataType == null ? PrimitiveDataType.STRING : dataType) {
+		case BOOLEAN:
+		case INTEGER:
+		case LONG:
+		case FLOAT:
+		case DOUBLE:
+			break;
+		case BYTE:
+			out.fieldI32(6, CONVERTED_INT_8);
+			out.fieldStructBegin(10);
+			out.fieldStructBegin(10);
+			out.fieldByte(1, 8);
+			out.fieldBoolean(2, true);
+			out.structEnd();
+			out.structEnd();
+			break;
+		case DATE:
+			out.fieldI32(6, CONVERTED_DATE);
+			out.fieldStructBegin(10);
+			out.fieldStructBegin(6);
+			out.structEnd();
+			out.structEnd();
+			break;
+		case DATETIME:
+		case TIME:
+			// Local times have no converted type, those are adjusted to UTC
+			out.fieldStructBegin(10);
+			out.fieldStructBegin(dataType == PrimitiveDataType.TIME ? 7 : 8);
+			out.fieldBoolean(1, false);
+			out.fieldStructBegin(2);
+			out.fieldStructBegin(1);
+			out.structEnd();
+			out.structEnd();
+			out.structEnd();
+			out.structEnd();
+			break;
+		default:
+			out.fieldI32(6, CONVERTED_UTF8);
+			out.fieldStructBegin(10);
+			out.fieldStructBegin(1);
+			out.structEnd();
+			out.structEnd();
+		}
+		out.structEnd();
+	}
+
+	private void addValue(int columnIndex, Object value) {
+		ColumnChunk chunk = chunks[columnIndex];
+		if (value == null) {
+			chunk.addNull();
+			return;
+		}
+		if (chunk.getPhysicalType() == TYPE_BYTE_ARRAY) {
+			chunk.addBinary(value.toString().getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		try {
+			switch (dataTypes[columnIndex]) {
+			case BOOLEAN:
+				chunk.addNumber(TypedValues.toBoolean(value) ? 1 : 0);
+				break;
+			case BYTE:
+				chunk.addNumber(TypedValues.toByte(value));
+				break;
+			case INTEGER:
+				chunk.addNumber(TypedValues.toInt(value));
+				break;
+			case LONG:
+				chunk.addNumber(TypedValues.toLong(value));
+				break;
+			case FLOAT:
+				chunk.addNumber(Float.floatToRawIntBits(TypedValues
+						.toFloat(value)));
+				break;
+			case DOUBLE:
+				chunk.addNumber(Double.doubleToRawLongBits(TypedValues
+						.toDouble(value)));
+				break;
+			case DATE:
+				chunk.addNumber(TypedValues.toLocalDays(value, timeZone));
+				break;
+			case DATETIME:
+				chunk.addNumber(TypedValues.toLocalMillis(value, timeZone));
+				break;
+			case TIME:
+				chunk.addNumber(TypedValues.toLocalMillisOfDay(value, timeZone));
+				break;
+			default:
+				chunk.addNull();
+			}
+		} catch (IllegalArgumentException e) {
+			invalidValues++;
+			chunk.addNull();
+		}
+	}
+
+	private static int getPhysicalType(PrimitiveDataType dataType) {
+		if (dataType == null) {
+			return TYPE_BYTE_ARRAY;
+		}
+		switch (dataType) {
+		case BOOLEAN:
+			return TYPE_BOOLEAN;
+		case BYTE:
+		case INTEGER:
+		case DATE:
+		case TIME:
+			return TYPE_INT32;
+		case LONG:
+		case DATETIME:
+			return TYPE_INT64;
+		case FLOAT:
+			return TYPE_FLOAT;
+		case DOUBLE:
+			return TYPE_DOUBLE;
+		default:
+			return TYPE_BYTE_ARRAY;
+		}
+	}
+}
@@ -2,8 +2,12 @@ set @jsonDataConverterId = (select IF(id is NULL,0,max(id)) from DataConverterIm
 set @xmlDataConverterId = @jsonDataConverterId + 1;
 set @xlsxDataConverterId = @xmlDataConverterId + 1;
 set @csvDataConverterId = @xlsxDataConverterId + 1;
+set @parquetDataConverterId = @csvDataConverterId + 1;
+set @arrowDataConverterId = @parquetDataConverterId + 1;
 
 insert into DataConverterImplementation(id, dataConverter, format, resultDataType) values(@jsonDataConverterId, 'edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.JSONTabularDataConverter', 'JSON', 'TABULAR');
 insert into DataConverterImplementation(id, dataConverter, format, resultDataType) values(@xmlDataConverterId, 'edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.XMLTabularDataConverter', 'XML', 'TABULAR');
 insert into DataConverterImplementation(id, dataConverter, format, resultDataType) values(@xlsxDataConverterId, 'edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.XSLXTabularDataConverter', 'XLSX', 'TABULAR');
-insert into DataConverterImplementation(id, dataConverter, format, resultDataType) values(@csvDataConverterId, 'edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.CSVTabularDataConverter', 'CSV', 'TABULAR');
\ No newline at end of file
+insert into DataConverterImplementation(id, dataConverter, format, resultDataType) values(@csvDataConverterId, 'edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.CSVTabularDataConverter', 'CSV', 'TABULAR');
+insert into DataConverterImplementation(id, dataConverter, format, resultDataType) values(@parquetDataConverterId, 'edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.ParquetTabularDataConverter', 'PARQUET', 'TABULAR');
+insert into DataConverterImplementation(id, dataConverter, format, resultDataType) values(@arrowDataConverterId, 'edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.ArrowTabularDataConverter', 'ARROW', 'TABULAR');
\ No newline at end of file
@@ -9,7 +9,8 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({ FullOuterHashJoinTest.class, InnerHashJoinTest.class,
-		LeftOuterHashJoinTest.class, RightOuterHashJoinTest.class })
+		LeftOuterHashJoinTest.class, ParallelHashJoinTest.class,
+		PartitionedHashJoinTest.class, RightOuterHashJoinTest.class })
 public class AllHashTests {
 
 }
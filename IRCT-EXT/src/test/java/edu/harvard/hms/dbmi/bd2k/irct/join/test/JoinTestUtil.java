@@ -3,10 +3,21 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package edu.harvard.hms.dbmi.bd2k.irct.join.test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.JoinActionSetupException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.join.Join;
+import edu.harvard.hms.dbmi.bd2k.irct.model.join.JoinImplementation;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 
 public class JoinTestUtil {
 	
@@ -95,4 +106,178 @@ public class JoinTestUtil {
 		return mrs;
 	}
 
+	/**
+	 * Creates a left result set with duplicate and null join values
+	 * 
+	 * @return ResultSet
+	 * @throws ResultSetException An exception occurred
+	 * @throws PersistableException An exception occurred
+	 */
+	public static ResultSet createDuplicateLeftResult() throws ResultSetException, PersistableException {
+		Column leftIdColumn = new Column();
+		leftIdColumn.setName("id");
+		leftIdColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		Column leftNameColumn = new Column();
+		leftNameColumn.setName("Name");
+		leftNameColumn.setDataType(PrimitiveDataType.STRING);
+
+		return createResultSet(new Column[] { leftIdColumn, leftNameColumn },
+				new Object[] { 1, "Jeremy", 2, "James", null, "Nobody", 2,
+						"Jim" });
+	}
+
+	/**
+	 * Creates a right result set with duplicate and null join values
+	 * 
+	 * @return ResultSet
+	 * @throws ResultSetException An exception occurred
+	 * @throws PersistableException An exception occurred
+	 */
+	public static ResultSet createDuplicateRightResult() throws ResultSetException, PersistableException {
+		Column rightIdColumn = new Column();
+		rightIdColumn.setName("user_id");
+		rightIdColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		Column rightAgeColumn = new Column();
+		rightAgeColumn.setName("Age");
+		rightAgeColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		return createResultSet(new Column[] { rightIdColumn, rightAgeColumn },
+				new Object[] { 2, 30, 1, 20, 2, 31, null, 40, 5, 10 });
+	}
+
+	/**
+	 * Creates a left result set of id and Name columns. Every nullInterval
+	 * row has a null id, the rows before skewedRows have the id 7, and the
+	 * other rows have one of distinctIds ids.
+	 * 
+	 * @param rows Number of rows
+	 * @param nullInterval Interval of the rows with a null id
+	 * @param skewedRows Number of leading rows with the same id
+	 * @param distinctIds Number of different ids of the other rows
+	 * @return ResultSet
+	 * @throws ResultSetException An exception occurred
+	 * @throws PersistableException An exception occurred
+	 */
+	public static ResultSet createGeneratedLeftResult(int rows, int nullInterval, int skewedRows, int distinctIds) throws ResultSetException, PersistableException {
+		Column leftIdColumn = new Column();
+		leftIdColumn.setName("id");
+		leftIdColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		Column leftNameColumn = new Column();
+		leftNameColumn.setName("Name");
+		leftNameColumn.setDataType(PrimitiveDataType.STRING);
+
+		Object[] values = new Object[rows * 2];
+		for (int row = 0; row < rows; row++) {
+			values[row * 2] = generateId(row, nullInterval, skewedRows, distinctIds);
+			values[row * 2 + 1] = "Name " + row;
+		}
+		return createResultSet(new Column[] { leftIdColumn, leftNameColumn }, values);
+	}
+
+	/**
+	 * Creates a right result set of user_id and Age columns. The user ids are
+	 * generated the same way as the ids of the left result set.
+	 * 
+	 * @param rows Number of rows
+	 * @param nullInterval Interval of the rows with a null user id
+	 * @param skewedRows Number of leading rows with the same user id
+	 * @param distinctIds Number of different user ids of the other rows
+	 * @return ResultSet
+	 * @throws ResultSetException An exception occurred
+	 * @throws PersistableException An exception occurred
+	 */
+	public static ResultSet createGeneratedRightResult(int rows, int nullInterval, int skewedRows, int distinctIds) throws ResultSetException, PersistableException {
+		Column rightIdColumn = new Column();
+		rightIdColumn.setName("user_id");
+		rightIdColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		Column rightAgeColumn = new Column();
+		rightAgeColumn.setName("Age");
+		rightAgeColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		Object[] values = new Object[rows * 2];
+		for (int row = 0; row < rows; row++) {
+			values[row * 2] = generateId(row, nullInterval, skewedRows, distinctIds);
+			values[row * 2 + 1] = row;
+		}
+		return createResultSet(new Column[] { rightIdColumn, rightAgeColumn }, values);
+	}
+
+	private static Integer generateId(int row, int nullInterval, int skewedRows, int distinctIds) {
+		if (row % nullInterval == 0) {
+			return null;
+		} else if (row < skewedRows) {
+			return 7;
+		}
+		return row % distinctIds;
+	}
+
+	/**
+	 * Sets up a join with the parameters and joins the id column of the left
+	 * result set with the user_id column of the right result set
+	 * 
+	 * @param joinImplementation Join to run
+	 * @param parameters Join parameters
+	 * @param leftResultSet Left result set
+	 * @param rightResultSet Right result set
+	 * @return Joined rows
+	 * @throws ResultSetException An exception occurred
+	 * @throws PersistableException An exception occurred
+	 * @throws JoinActionSetupException An exception occurred
+	 */
+	public static ResultSet runJoin(JoinImplementation joinImplementation, Map<String, Object> parameters, ResultSet leftResultSet, ResultSet rightResultSet) throws ResultSetException, PersistableException, JoinActionSetupException {
+		joinImplementation.setup(parameters);
+
+		Result result = new Result();
+		result.setData(new MemoryResultSet());
+		Join join = new Join();
+		join.getObjectValues().put("LeftResultSet", leftResultSet);
+		join.getStringValues().put("LeftColumn", "id");
+		join.getObjectValues().put("RightResultSet", rightResultSet);
+		join.getStringValues().put("RightColumn", "user_id");
+
+		return (ResultSet) joinImplementation.run(new User(), join, result).getData();
+	}
+
+	/**
+	 * Returns the number of rows of a result set
+	 * 
+	 * @param resultSet Result set
+	 * @return Number of rows
+	 * @throws ResultSetException An exception occurred
+	 */
+	public static int countRows(ResultSet resultSet) throws ResultSetException {
+		int rows = 0;
+		resultSet.beforeFirst();
+		while (resultSet.next()) {
+			rows++;
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the rows of a result set as sorted strings, to compare joins
+	 * that do not return the rows in the same order
+	 * 
+	 * @param resultSet Result set
+	 * @return Sorted rows
+	 * @throws ResultSetException An exception occurred
+	 */
+	public static List<String> sortedRows(ResultSet resultSet) throws ResultSetException {
+		List<String> rows = new ArrayList<String>();
+		resultSet.beforeFirst();
+		while (resultSet.next()) {
+			StringBuilder row = new StringBuilder();
+			for (int columnIndex = 0; columnIndex < resultSet.getColumnSize(); columnIndex++) {
+				row.append(resultSet.getObject(columnIndex)).append('|');
+			}
+			rows.add(row.toString());
+		}
+		Collections.sort(rows);
+		return rows;
+	}
+
 }
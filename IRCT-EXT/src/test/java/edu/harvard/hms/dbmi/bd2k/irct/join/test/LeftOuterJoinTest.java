@@ -171,6 +171,46 @@ public class LeftOuterJoinTest {
 
 	}
 
+	/**
+	 * Runs a join between two result sets with duplicate and null join
+	 * values, once with the result set indexed in memory and once with it
+	 * scanned for every row
+	 */
+	@Test
+	public void testRunDuplicateAndNullKeys() {
+		for (String maxIndexedRows : new String[] { "1000", "0" }) {
+			LeftOuterJoin loj = new LeftOuterJoin();
+			User user = new User();
+			Result result = new Result();
+			MemoryResultSet rsi = new MemoryResultSet();
+			Join join = new Join();
+
+			try {
+				HashMap<String, Object> parameters = new HashMap<String, Object>();
+				parameters.put("maxIndexedRows", maxIndexedRows);
+				loj.setup(parameters);
+				result.setData(rsi);
+
+				join.getObjectValues().put("LeftResultSet",
+						JoinTestUtil.createDuplicateLeftResult());
+				join.getStringValues().put("LeftColumn", "id");
+				join.getObjectValues().put("RightResultSet",
+						JoinTestUtil.createDuplicateRightResult());
+				join.getStringValues().put("RightColumn", "user_id");
+
+				ResultSetImpl returnedData = (ResultSetImpl) loj.run(user,
+						join, result).getData();
+				assertTrue("Results are not equal with maxIndexedRows "
+						+ maxIndexedRows, JoinTestUtil.isEqual(returnedData,
+						createDuplicateComparator()));
+			} catch (ResultSetException | PersistableException
+					| JoinActionSetupException e) {
+				e.printStackTrace();
+				fail("Exception thrown");
+			}
+		}
+	}
+
 	/**
 	 * Tests to make sure that the result type that is returned is tabular;
 	 */
@@ -256,4 +296,32 @@ public class LeftOuterJoinTest {
 				20, 2, "James", 30, 3, "Bob", null });
 	}
 
+	/**
+	 * Creates a comparator result set for the duplicate and null join values
+	 * 
+	 * @return ResultSet
+	 * @throws ResultSetException An exception occurred
+	 * @throws PersistableException An exception occurred
+	 */
+	private ResultSet createDuplicateComparator() throws ResultSetException,
+			PersistableException {
+		Column leftIdColumn = new Column();
+		leftIdColumn.setName("id");
+		leftIdColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		Column leftNameColumn = new Column();
+		leftNameColumn.setName("Name");
+		leftNameColumn.setDataType(PrimitiveDataType.STRING);
+
+		Column rightAgeColumn = new Column();
+		rightAgeColumn.setName("Age");
+		rightAgeColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		return JoinTestUtil.createResultSet(new Column[] { leftIdColumn, leftNameColumn, rightAgeColumn },
+				new Object[] { 1, "Jeremy", 20,
+						2, "James", 31,
+						null, "Nobody", null,
+						2, "Jim", 31 });
+	}
+
 }
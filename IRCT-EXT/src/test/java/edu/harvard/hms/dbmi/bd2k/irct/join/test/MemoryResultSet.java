@@ -36,8 +36,9 @@ public class MemoryResultSet extends ResultSetImpl {
 			results = new ArrayList<Row>();
 		}
 
+		// Rows are always appended to the end as in the file backed result sets
 		results.add(new Row(this.getColumnSize()));
-		setRowPosition(getRowPosition() + 1);
+		setRowPosition(results.size() - 1);
 	}
 
 	public void setCell(int columnIndex, Object obj)
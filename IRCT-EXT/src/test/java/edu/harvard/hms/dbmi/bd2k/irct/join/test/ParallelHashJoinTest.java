@@ -0,0 +1,140 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.join.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.JoinActionSetupException;
+import edu.harvard.hms.dbmi.bd2k.irct.join.FullOuterHashJoin;
+import edu.harvard.hms.dbmi.bd2k.irct.join.HashJoinImpl;
+import edu.harvard.hms.dbmi.bd2k.irct.join.InnerHashJoin;
+import edu.harvard.hms.dbmi.bd2k.irct.join.LeftOuterHashJoin;
+import edu.harvard.hms.dbmi.bd2k.irct.join.RightOuterHashJoin;
+import edu.harvard.hms.dbmi.bd2k.irct.model.join.JoinImplementation;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+
+public class ParallelHashJoinTest {
+	private ExecutorService executorService;
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	/**
+	 * Tests that probing in parallel returns the same rows in the same order
+	 * as probing on the calling thread for every join type
+	 */
+	@Test
+	public void testParallelEqualsSerial() {
+		JoinImplementation[][] joins = new JoinImplementation[][] {
+				{ new InnerHashJoin(), new InnerHashJoin() },
+				{ new LeftOuterHashJoin(), new LeftOuterHashJoin() },
+				{ new RightOuterHashJoin(), new RightOuterHashJoin() },
+				{ new FullOuterHashJoin(), new FullOuterHashJoin() } };
+		((InnerHashJoin) joins[0][1]).setExecutorService(executorService);
+		((LeftOuterHashJoin) joins[1][1]).setExecutorService(executorService);
+		((RightOuterHashJoin) joins[2][1]).setExecutorService(executorService);
+		((FullOuterHashJoin) joins[3][1]).setExecutorService(executorService);
+
+		try {
+			for (JoinImplementation[] join : joins) {
+				ResultSet serial = runJoin(join[0], "1");
+				ResultSet parallel = runJoin(join[1], "4");
+
+				assertTrue("No rows returned",
+						JoinTestUtil.countRows(serial) > 0);
+				assertEquals("Row counts are not equal",
+						JoinTestUtil.countRows(serial),
+						JoinTestUtil.countRows(parallel));
+				assertTrue(join[0].getClass().getSimpleName()
+						+ " results are not equal",
+						JoinTestUtil.isEqual(parallel, serial));
+			}
+		} catch (ResultSetException | PersistableException
+				| JoinActionSetupException e) {
+			e.printStackTrace();
+			fail("Exception thrown");
+		}
+	}
+
+	/**
+	 * Tests that a join without an executor service is probed in parallel on
+	 * the shared probe executor service
+	 */
+	@Test
+	public void testSharedProbeExecutor() {
+		try {
+			ResultSet serial = runJoin(new InnerHashJoin(), "1");
+			ResultSet parallel = runJoin(new InnerHashJoin(), "4");
+
+			assertTrue("Results are not equal",
+					JoinTestUtil.isEqual(parallel, serial));
+		} catch (ResultSetException | PersistableException
+				| JoinActionSetupException e) {
+			e.printStackTrace();
+			fail("Exception thrown");
+		}
+	}
+
+	/**
+	 * Tests that the default parallelism does not use every processor
+	 */
+	@Test
+	public void testDefaultParallelism() {
+		try {
+			assertTrue("Default parallelism is too high",
+					HashJoinImpl.getParallelism(null) <= 2);
+		} catch (JoinActionSetupException e) {
+			e.printStackTrace();
+			fail("Exception thrown");
+		}
+	}
+
+	/**
+	 * Tests that the setup fails on a parallelism that is not a number or is
+	 * out of range
+	 */
+	@Test
+	public void testSetupInvalidParallelism() {
+		for (String parallelism : new String[] { "all", "0", "100000" }) {
+			HashMap<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("parallelism", parallelism);
+			try {
+				new InnerHashJoin().setup(parameters);
+				fail("Exception not thrown for " + parallelism);
+			} catch (JoinActionSetupException e) {
+			}
+		}
+	}
+
+	private ResultSet runJoin(JoinImplementation joinImplementation,
+			String parallelism) throws ResultSetException,
+			PersistableException, JoinActionSetupException {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("parallelism", parallelism);
+		// The right result set is large enough to be probed in more than one
+		// range
+		return JoinTestUtil.runJoin(joinImplementation, parameters,
+				JoinTestUtil.createGeneratedLeftResult(2000, 97, 0, 1500),
+				JoinTestUtil.createGeneratedRightResult(40000, 101, 0, 3000));
+	}
+}
@@ -0,0 +1,85 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.join.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.JoinActionSetupException;
+import edu.harvard.hms.dbmi.bd2k.irct.join.FullOuterHashJoin;
+import edu.harvard.hms.dbmi.bd2k.irct.join.InnerHashJoin;
+import edu.harvard.hms.dbmi.bd2k.irct.join.LeftOuterHashJoin;
+import edu.harvard.hms.dbmi.bd2k.irct.join.RightOuterHashJoin;
+import edu.harvard.hms.dbmi.bd2k.irct.model.join.JoinImplementation;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+
+public class PartitionedHashJoinTest {
+
+	/**
+	 * Tests that the partitioned join returns the same rows as the in memory
+	 * join for every join type. The small block size partitions the result
+	 * sets more than once, and the skewed join value can not be split.
+	 */
+	@Test
+	public void testPartitionedEqualsInMemory() {
+		JoinImplementation[][] joins = new JoinImplementation[][] {
+				{ new InnerHashJoin(), new InnerHashJoin() },
+				{ new LeftOuterHashJoin(), new LeftOuterHashJoin() },
+				{ new RightOuterHashJoin(), new RightOuterHashJoin() },
+				{ new FullOuterHashJoin(), new FullOuterHashJoin() } };
+
+		try {
+			for (JoinImplementation[] join : joins) {
+				List<String> inMemory = runJoin(join[0], null);
+				List<String> partitioned = runJoin(join[1], "3");
+
+				assertTrue("No rows returned", inMemory.size() > 0);
+				assertEquals(join[0].getClass().getSimpleName()
+						+ " results are not equal", inMemory, partitioned);
+			}
+		} catch (ResultSetException | PersistableException
+				| JoinActionSetupException e) {
+			e.printStackTrace();
+			fail("Exception thrown");
+		}
+	}
+
+	/**
+	 * Tests that the setup fails on a block size that is not a number or is
+	 * not greater than zero
+	 */
+	@Test
+	public void testSetupInvalidBlockSize() {
+		for (String blockSize : new String[] { "large", "0", "-10" }) {
+			HashMap<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("blockSize", blockSize);
+			try {
+				new InnerHashJoin().setup(parameters);
+				fail("Exception not thrown for " + blockSize);
+			} catch (JoinActionSetupException e) {
+			}
+		}
+	}
+
+	private List<String> runJoin(JoinImplementation joinImplementation,
+			String blockSize) throws ResultSetException, PersistableException,
+			JoinActionSetupException {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		if (blockSize != null) {
+			parameters.put("blockSize", blockSize);
+		}
+		// The partitioned join does not return the rows in the same order
+		return JoinTestUtil.sortedRows(JoinTestUtil.runJoin(
+				joinImplementation, parameters,
+				JoinTestUtil.createGeneratedLeftResult(500, 37, 60, 150),
+				JoinTestUtil.createGeneratedRightResult(800, 41, 100, 200)));
+	}
+}
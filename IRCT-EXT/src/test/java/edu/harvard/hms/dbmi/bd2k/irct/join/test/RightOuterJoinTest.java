@@ -173,6 +173,46 @@ public class RightOuterJoinTest {
 
 	}
 
+	/**
+	 * Runs a join between two result sets with duplicate and null join
+	 * values, once with the result set indexed in memory and once with it
+	 * scanned for every row
+	 */
+	@Test
+	public void testRunDuplicateAndNullKeys() {
+		for (String maxIndexedRows : new String[] { "1000", "0" }) {
+			RightOuterJoin roj = new RightOuterJoin();
+			User user = new User();
+			Result result = new Result();
+			MemoryResultSet rsi = new MemoryResultSet();
+			Join join = new Join();
+
+			try {
+				HashMap<String, Object> parameters = new HashMap<String, Object>();
+				parameters.put("maxIndexedRows", maxIndexedRows);
+				roj.setup(parameters);
+				result.setData(rsi);
+
+				join.getObjectValues().put("LeftResultSet",
+						JoinTestUtil.createDuplicateLeftResult());
+				join.getStringValues().put("LeftColumn", "id");
+				join.getObjectValues().put("RightResultSet",
+						JoinTestUtil.createDuplicateRightResult());
+				join.getStringValues().put("RightColumn", "user_id");
+
+				ResultSetImpl returnedData = (ResultSetImpl) roj.run(user,
+						join, result).getData();
+				assertTrue("Results are not equal with maxIndexedRows "
+						+ maxIndexedRows, JoinTestUtil.isEqual(returnedData,
+						createDuplicateComparator()));
+			} catch (ResultSetException | PersistableException
+					| JoinActionSetupException e) {
+				e.printStackTrace();
+				fail("Exception thrown");
+			}
+		}
+	}
+
 	/**
 	 * Tests to make sure that the result type that is returned is tabular;
 	 */
@@ -253,4 +293,33 @@ public class RightOuterJoinTest {
 				rightIdColumn, rightAgeColumn }, new Object[] { "Jeremy", 1, 20, "James", 2, 30, null, 5, 10 });
 	}
 
+	/**
+	 * Creates a comparator result set for the duplicate and null join values
+	 * 
+	 * @return ResultSet
+	 * @throws ResultSetException An exception occurred
+	 * @throws PersistableException An exception occurred
+	 */
+	private ResultSet createDuplicateComparator() throws ResultSetException,
+			PersistableException {
+		Column leftNameColumn = new Column();
+		leftNameColumn.setName("Name");
+		leftNameColumn.setDataType(PrimitiveDataType.STRING);
+
+		Column rightIdColumn = new Column();
+		rightIdColumn.setName("user_id");
+		rightIdColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		Column rightAgeColumn = new Column();
+		rightAgeColumn.setName("Age");
+		rightAgeColumn.setDataType(PrimitiveDataType.INTEGER);
+
+		return JoinTestUtil.createResultSet(new Column[] { leftNameColumn, rightIdColumn, rightAgeColumn },
+				new Object[] { "Jim", 2, 30,
+						"Jeremy", 1, 20,
+						"Jim", 2, 31,
+						null, null, 40,
+						null, 5, 10 });
+	}
+
 }
@@ -0,0 +1,98 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.arrow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
+
+public class ArrowStreamWriterTest {
+
+	/**
+	 * The vtable precedes the table, and the fields are aligned to their size
+	 */
+	@Test
+	public void testFlatBuffer() {
+		byte[] buffer = FlatBufferWriter.finish(new FlatBufferWriter.Table()
+				.addInt(0, 7).addShort(1, 2));
+		assertArrayEquals(new byte[] { 16, 0, 0, 0, 8, 0, 10, 0, 4, 0, 8, 0,
+				0, 0, 0, 0, 12, 0, 0, 0, 7, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0 },
+				buffer);
+	}
+
+	@Test
+	public void testVariableLengthVector() {
+		ColumnVector vector = new ColumnVector(ColumnVector.LAYOUT_VARIABLE, 0);
+		vector.addBytes("a".getBytes(StandardCharsets.UTF_8));
+		vector.addNull();
+		vector.addBytes("bc".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(3, vector.getLength());
+		assertEquals(1, vector.getNullCount());
+		assertArrayEquals(new byte[] { 5 }, buffer(vector, 0));
+		assertArrayEquals(new byte[] { 0, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 3,
+				0, 0, 0 }, buffer(vector, 1));
+		assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8),
+				buffer(vector, 2));
+
+		// Without nulls the validity bitmap is left out
+		vector.clear();
+		vector.addBytes("d".getBytes(StandardCharsets.UTF_8));
+		assertEquals(0, vector.getBufferSize(0));
+		assertArrayEquals(new byte[] { 0, 0, 0, 0, 1, 0, 0, 0 },
+				buffer(vector, 1));
+	}
+
+	@Test
+	public void testBooleanVector() {
+		ColumnVector vector = new ColumnVector(ColumnVector.LAYOUT_BOOLEAN, 0);
+		for (int index = 0; index < 10; index++) {
+			if (index == 4) {
+				vector.addNull();
+			} else {
+				vector.addBoolean(index % 3 == 0);
+			}
+		}
+		assertArrayEquals(new byte[] { (byte) 0xEF, 0x03 }, buffer(vector, 0));
+		assertArrayEquals(new byte[] { 0x49, 0x02 }, buffer(vector, 1));
+	}
+
+	/**
+	 * A result without rows is a stream with only the schema
+	 */
+	@Test
+	public void testEmptyStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ArrowStreamWriter writer = new ArrowStreamWriter(out, new Column[] {
+				new Column("id", PrimitiveDataType.INTEGER),
+				new Column("name", PrimitiveDataType.STRING) });
+		writer.finish();
+		assertEquals(0, writer.getBatchCount());
+
+		ByteBuffer stream = ByteBuffer.wrap(out.toByteArray()).order(
+				ByteOrder.LITTLE_ENDIAN);
+		assertEquals(-1, stream.getInt(0));
+		int metadataLength = stream.getInt(4);
+		assertEquals(0, metadataLength % 8);
+		assertEquals(8 + metadataLength + 8, stream.capacity());
+		assertEquals(-1, stream.getInt(8 + metadataLength));
+		assertEquals(0, stream.getInt(12 + metadataLength));
+	}
+
+	private static byte[] buffer(ColumnVector vector, int index) {
+		return Arrays.copyOf(vector.getBuffer(index),
+				vector.getBufferSize(index));
+	}
+}
@@ -0,0 +1,456 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ws.rs.resultconverter.parquet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.MemoryResultSet;
+
+public class ParquetWriterTest {
+
+	/**
+	 * The bit packing example of the Parquet encoding specification
+	 */
+	@Test
+	public void testBitPacked() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HybridEncoder.encode(new int[] { 0, 1, 2, 3, 4, 5, 6, 7 }, 8, 3, out);
+		assertArrayEquals(new byte[] { 0x03, (byte) 0x88, (byte) 0xC6,
+				(byte) 0xFA }, out.toByteArray());
+	}
+
+	/**
+	 * A run of equal values is run length encoded, the values around it are
+	 * bit packed with the last group padded
+	 */
+	@Test
+	public void testRunLength() {
+		int[] values = new int[13];
+		Arrays.fill(values, 0, 10, 5);
+		values[10] = 1;
+		values[11] = 2;
+		values[12] = 3;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HybridEncoder.encode(values, values.length, 3, out);
+		assertArrayEquals(new byte[] { 0x14, 0x05, 0x03, (byte) 0xD1, 0x00,
+				0x00 }, out.toByteArray());
+	}
+
+	@Test
+	public void testCompactProtocol() {
+		CompactProtocolWriter out = new CompactProtocolWriter();
+		out.structBegin();
+		out.fieldI32(1, -1);
+		out.fieldString(4, "a");
+		out.fieldI64(20, 300);
+		out.fieldBoolean(21, true);
+		out.structEnd();
+		assertArrayEquals(new byte[] { 0x15, 0x01, 0x38, 0x01, 'a', 0x06,
+				0x28, (byte) 0xD8, 0x04, 0x11, 0x00 }, out.toByteArray());
+	}
+
+	/**
+	 * A result without rows is a file with only a footer
+	 */
+	@Test
+	public void testEmptyFile() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ParquetWriter writer = new ParquetWriter(out, new Column[] {
+				new Column("id", PrimitiveDataType.INTEGER),
+				new Column("name", PrimitiveDataType.STRING) });
+		writer.finish();
+
+		byte[] file = out.toByteArray();
+		byte[] magic = "PAR1".getBytes(StandardCharsets.US_ASCII);
+		assertArrayEquals(magic, Arrays.copyOfRange(file, 0, 4));
+		assertArrayEquals(magic, Arrays.copyOfRange(file, file.length - 4,
+				file.length));
+		int footerLength = ByteBuffer.wrap(file, file.length - 8, 4)
+				.order(ByteOrder.LITTLE_ENDIAN).getInt();
+		assertEquals(file.length - 12, footerLength);
+	}
+
+	/**
+	 * Writes two row groups and reads back the footer, the pages of every
+	 * column chunk, the column chunk metadata and the statistics
+	 */
+	@Test
+	public void testRowGroups() throws Exception {
+		Column[] columns = new Column[] {
+				new Column("id", PrimitiveDataType.INTEGER),
+				new Column("name", PrimitiveDataType.STRING),
+				new Column("score", PrimitiveDataType.DOUBLE) };
+		Object[][] rows = new Object[][] { { 1, "b", 2.5 },
+				{ 2, "a", -1.5 }, { 3, null, 0.0 }, { 4, "c", 7.25 },
+				{ 5, "a", null }, { 6, "b", 1.0 }, { 7, "b", Double.NaN },
+				{ 8, "d", 4.0 }, { 9, "b", null }, { 10, "b", -2.0 } };
+		MemoryResultSet resultSet = new MemoryResultSet();
+		for (Column column : columns) {
+			resultSet.appendColumn(column);
+		}
+		for (Object[] row : rows) {
+			resultSet.appendRow();
+			for (int columnIndex = 0; columnIndex < row.length; columnIndex++) {
+				resultSet.updateObject(columnIndex, row[columnIndex]);
+			}
+		}
+
+		// The buffered size reaches 230 bytes after the fifth row
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ParquetWriter writer = new ParquetWriter(out, columns, 230);
+		writer.writeRows(resultSet);
+		writer.finish();
+		byte[] file = out.toByteArray();
+
+		int footerLength = ByteBuffer.wrap(file, file.length - 8, 4)
+				.order(ByteOrder.LITTLE_ENDIAN).getInt();
+		CompactReader reader = new CompactReader(file, file.length - 8
+				- footerLength);
+		Struct footer = reader.readStruct();
+		assertEquals(file.length - 8, reader.position);
+		assertEquals(1L, footer.get(1));
+		assertEquals(10L, footer.get(3));
+		assertEquals(4, footer.getList(2).size());
+		assertEquals(3, footer.getList(7).size());
+		for (Object columnOrder : footer.getList(7)) {
+			assertEquals(CompactProtocolWriter.TYPE_STRUCT,
+					((Struct) columnOrder).getType(1));
+		}
+
+		List<Object> rowGroups = footer.getList(4);
+		assertEquals(2, rowGroups.size());
+		int[][] dictionarySizes = new int[][] { { 0, 3, 0 }, { 0, 2, 0 } };
+		for (int ordinal = 0; ordinal < rowGroups.size(); ordinal++) {
+			Struct rowGroup = (Struct) rowGroups.get(ordinal);
+			assertEquals(CompactProtocolWriter.TYPE_I16,
+					rowGroup.getType(7));
+			assertEquals((long) ordinal, rowGroup.get(7));
+			assertEquals(5L, rowGroup.get(3));
+
+			List<Object> chunks = rowGroup.getList(1);
+			assertEquals(3, chunks.size());
+			long compressedSize = 0;
+			long uncompressedSize = 0;
+			for (int columnIndex = 0; columnIndex < chunks.size(); columnIndex++) {
+				Struct chunk = (Struct) chunks.get(columnIndex);
+				Struct metaData = chunk.getStruct(3);
+				assertEquals(columns[columnIndex].getName(), new String(
+						(byte[]) metaData.getList(3).get(0),
+						StandardCharsets.UTF_8));
+				assertEquals(2L, metaData.get(4));
+				assertEquals(5L, metaData.get(5));
+				if (columnIndex == 0) {
+					assertEquals(rowGroup.get(5), chunk.get(2));
+				}
+
+				int dictionarySize = dictionarySizes[ordinal][columnIndex];
+				long offset = (Long) chunk.get(2);
+				long chunkSize = 0;
+				long chunkUncompressedSize = 0;
+				if (dictionarySize > 0) {
+					assertEquals(offset, metaData.get(11));
+					Page dictionaryPage = readPage(file, offset);
+					assertEquals(2L, dictionaryPage.header.get(1));
+					assertEquals((long) dictionarySize, dictionaryPage.header
+							.getStruct(7).get(1));
+					chunkSize += dictionaryPage.size;
+					chunkUncompressedSize += dictionaryPage.uncompressedSize;
+					offset += dictionaryPage.size;
+				} else {
+					assertNull(metaData.get(11));
+				}
+				assertEquals(offset, metaData.get(9));
+
+				Page dataPage = readPage(file, offset);
+				Struct dataPageHeader = dataPage.header.getStruct(5);
+				assertEquals(0L, dataPage.header.get(1));
+				assertEquals(5L, dataPageHeader.get(1));
+				assertEquals(dictionarySize > 0 ? 2L : 0L,
+						dataPageHeader.get(2));
+				assertEquals(3L, dataPageHeader.get(3));
+				chunkSize += dataPage.size;
+				chunkUncompressedSize += dataPage.uncompressedSize;
+
+				assertEquals(chunkSize, metaData.get(7));
+				assertEquals(chunkUncompressedSize, metaData.get(6));
+				compressedSize += chunkSize;
+				uncompressedSize += chunkUncompressedSize;
+
+				// The definition levels and the plain values of the ids
+				int[] levels = dataPage.readDefinitionLevels(5);
+				for (int row = 0; row < 5; row++) {
+					Object value = rows[ordinal * 5 + row][columnIndex];
+					assertEquals(value == null ? 0 : 1, levels[row]);
+				}
+				if (columnIndex == 0) {
+					for (int row = 0; row < 5; row++) {
+						assertEquals(rows[ordinal * 5 + row][0],
+								dataPage.body.getInt());
+					}
+				}
+			}
+			assertEquals(compressedSize, rowGroup.get(6));
+			assertEquals(uncompressedSize, rowGroup.get(2));
+		}
+
+		assertStatistics((Struct) rowGroups.get(0), 0, 0, int32(1), int32(5));
+		assertStatistics((Struct) rowGroups.get(0), 1, 1, utf8("a"), utf8("c"));
+		assertStatistics((Struct) rowGroups.get(0), 2, 1, float64(-1.5),
+				float64(7.25));
+		assertStatistics((Struct) rowGroups.get(1), 0, 0, int32(6), int32(10));
+		assertStatistics((Struct) rowGroups.get(1), 1, 0, utf8("b"), utf8("d"));
+		assertStatistics((Struct) rowGroups.get(1), 2, 1, float64(-2.0),
+				float64(4.0));
+	}
+
+	/**
+	 * Floating point statistics ignore NaN and use a negative zero minimum
+	 * and a positive zero maximum, a chunk of only nulls has no minimum and
+	 * maximum
+	 */
+	@Test
+	public void testFloatingPointStatistics() throws IOException {
+		ColumnChunk chunk = new ColumnChunk(ParquetWriter.TYPE_DOUBLE);
+		chunk.addNumber(Double.doubleToRawLongBits(0.0));
+		chunk.addNumber(Double.doubleToRawLongBits(Double.NaN));
+		chunk.addNull();
+		chunk.write(new ByteArrayOutputStream(), 4);
+		assertEquals(1, chunk.getNullCount());
+		assertArrayEquals(float64(-0.0), chunk.getMinValue());
+		assertArrayEquals(float64(0.0), chunk.getMaxValue());
+
+		chunk.addNull();
+		chunk.write(new ByteArrayOutputStream(), 4);
+		assertEquals(1, chunk.getNullCount());
+		assertNull(chunk.getMinValue());
+		assertNull(chunk.getMaxValue());
+	}
+
+	private void assertStatistics(Struct rowGroup, int columnIndex,
+			long nullCount, byte[] minValue, byte[] maxValue) {
+		Struct statistics = ((Struct) rowGroup.getList(1).get(columnIndex))
+				.getStruct(3).getStruct(12);
+		assertEquals(nullCount, statistics.get(3));
+		assertArrayEquals(maxValue, (byte[]) statistics.get(5));
+		assertArrayEquals(minValue, (byte[]) statistics.get(6));
+	}
+
+	private static byte[] int32(int value) {
+		return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(value).array();
+	}
+
+	private static byte[] float64(double value) {
+		return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+				.putDouble(value).array();
+	}
+
+	private static byte[] utf8(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static Page readPage(byte[] file, long offset) throws IOException {
+		CompactReader reader = new CompactReader(file, (int) offset);
+		Struct header = reader.readStruct();
+		int headerSize = reader.position - (int) offset;
+		int compressedSize = ((Long) header.get(3)).intValue();
+		int uncompressedSize = ((Long) header.get(2)).intValue();
+
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(file,
+				reader.position, compressedSize));
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int read; (read = in.read(buffer)) > 0;) {
+			body.write(buffer, 0, read);
+		}
+		assertEquals(uncompressedSize, body.size());
+
+		return new Page(header, headerSize + compressedSize, headerSize
+				+ uncompressedSize, ByteBuffer.wrap(body.toByteArray())
+				.order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	/**
+	 * A page read from the file
+	 */
+	private static final class Page {
+		private final Struct header;
+		private final long size;
+		private final long uncompressedSize;
+		private final ByteBuffer body;
+
+		Page(Struct header, long size, long uncompressedSize, ByteBuffer body) {
+			this.header = header;
+			this.size = size;
+			this.uncompressedSize = uncompressedSize;
+			this.body = body;
+		}
+
+		/**
+		 * Reads the definition levels at the start of a data page
+		 */
+		int[] readDefinitionLevels(int count) {
+			int length = body.getInt();
+			int end = body.position() + length;
+			int[] levels = new int[count];
+			int index = 0;
+			while (body.position() < end) {
+				int header = readVarint();
+				if ((header & 1) == 0) {
+					int level = body.get();
+					for (int run = 0; run < header >>> 1; run++) {
+						levels[index++] = level;
+					}
+				} else {
+					for (int group = 0; group < header >>> 1; group++) {
+						int bits = body.get() & 0xFF;
+						for (int bit = 0; bit < 8 && index < count; bit++) {
+							levels[index++] = bits >>> bit & 1;
+						}
+					}
+				}
+			}
+			return levels;
+		}
+
+		private int readVarint() {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = body.get();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The fields of a struct, and the compact protocol type of each field
+	 */
+	private static final class Struct {
+		private final Map<Integer, Object> values = new HashMap<Integer, Object>();
+		private final Map<Integer, Integer> types = new HashMap<Integer, Integer>();
+
+		Object get(int fieldId) {
+			return values.get(fieldId);
+		}
+
+		Struct getStruct(int fieldId) {
+			return (Struct) values.get(fieldId);
+		}
+
+		@SuppressWarnings("unchecked")
+		List<Object> getList(int fieldId) {
+			return (List<Object>) values.get(fieldId);
+		}
+
+		int getType(int fieldId) {
+			return types.get(fieldId);
+		}
+	}
+
+	/**
+	 * Reads the parts of the Thrift compact protocol that the writer uses.
+	 * Integers are read as longs, binaries as byte arrays.
+	 */
+	private static final class CompactReader {
+		private final byte[] bytes;
+		private int position;
+
+		CompactReader(byte[] bytes, int position) {
+			this.bytes = bytes;
+			this.position = position;
+		}
+
+		Struct readStruct() {
+			Struct struct = new Struct();
+			int fieldId = 0;
+			while (true) {
+				int header = bytes[position++] & 0xFF;
+				if (header == 0) {
+					return struct;
+				}
+				int type = header & 0x0F;
+				int delta = header >>> 4;
+				fieldId = delta == 0 ? (int) readZigZag() : fieldId + delta;
+				struct.types.put(fieldId, type);
+				if (type == CompactProtocolWriter.TYPE_BOOLEAN_TRUE
+						|| type == CompactProtocolWriter.TYPE_BOOLEAN_FALSE) {
+					struct.values.put(fieldId,
+							type == CompactProtocolWriter.TYPE_BOOLEAN_TRUE);
+				} else {
+					struct.values.put(fieldId, readValue(type));
+				}
+			}
+		}
+
+		private Object readValue(int type) {
+			switch (type) {
+			case CompactProtocolWriter.TYPE_BYTE:
+				return (long) bytes[position++];
+			case CompactProtocolWriter.TYPE_I16:
+			case CompactProtocolWriter.TYPE_I32:
+			case CompactProtocolWriter.TYPE_I64:
+				return readZigZag();
+			case CompactProtocolWriter.TYPE_BINARY:
+				int length = (int) readVarint();
+				byte[] value = Arrays.copyOfRange(bytes, position, position
+						+ length);
+				position += length;
+				return value;
+			case CompactProtocolWriter.TYPE_LIST:
+				int header = bytes[position++] & 0xFF;
+				int size = header >>> 4 == 15 ? (int) readVarint()
+						: header >>> 4;
+				List<Object> list = new ArrayList<Object>();
+				for (int index = 0; index < size; index++) {
+					list.add(readValue(header & 0x0F));
+				}
+				return list;
+			case CompactProtocolWriter.TYPE_STRUCT:
+				return readStruct();
+			default:
+				throw new IllegalStateException("Unexpected type " + type);
+			}
+		}
+
+		private long readZigZag() {
+			long value = readVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private long readVarint() {
+			long value = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = bytes[position++];
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+		}
+	}
+}
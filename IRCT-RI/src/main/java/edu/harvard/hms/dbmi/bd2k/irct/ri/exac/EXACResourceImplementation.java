@@ -12,6 +12,7 @@ import java.util.Map;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonStructure;
@@ -23,7 +24,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 
 import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.find.FindInformationInterface;
@@ -44,9 +45,9 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
-import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.FileResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+import edu.harvard.hms.dbmi.bd2k.util.HttpClientPool;
 
 public class EXACResourceImplementation implements
 		QueryResourceImplementationInterface,
@@ -56,6 +57,7 @@ public class EXACResourceImplementation implements
 	private ResourceState resourceState;
 	private String resourceName;
 	private String resourceURL;
+	private HttpClientPool httpClientPool;
 	private String[] exacColumns = { "allele_count", "allele_freq", "allele_num",
 			"alt", "chrom", "filter", "hom_count", "pop_acs.African",
 			"pop_acs.East Asian", "pop_acs.European (Finnish)",
@@ -84,6 +86,10 @@ public class EXACResourceImplementation implements
 		}
 		this.resourceName = parameters.get("resourceName");
 		this.resourceURL = parameters.get("resourceURL");
+		if (this.httpClientPool != null) {
+			this.httpClientPool.close();
+		}
+		this.httpClientPool = new HttpClientPool(false, parameters);
 		this.resourceState = ResourceState.READY;
 	}
 
@@ -220,11 +226,14 @@ public class EXACResourceImplementation implements
 		}
 
 		HttpGet get = new HttpGet(urlString);
+		HttpResponse response = null;
 		try {
-			HttpResponse response = client.execute(get);
-			JsonReader reader = Json.createReader(response.getEntity()
-					.getContent());
-			JsonStructure results = reader.read();
+			response = client.execute(get);
+			JsonStructure results;
+			try (JsonReader reader = Json.createReader(response.getEntity()
+					.getContent())) {
+				results = reader.read();
+			}
 			if (results.getValueType().equals(ValueType.ARRAY)) {
 				result = convertJsonArrayToResultSet((JsonArray) results,
 						result);
@@ -232,11 +241,14 @@ public class EXACResourceImplementation implements
 				result = convertJsonObjectToResultSet((JsonObject) results,
 						result);
 			}
-			reader.close();
 			result.setResultStatus(ResultStatus.COMPLETE);
-		} catch (IOException e) {
+		} catch (IOException | JsonException e) {
 			result.setResultStatus(ResultStatus.ERROR);
 			result.setMessage(e.getMessage());
+		} finally {
+			if (response != null) {
+				EntityUtils.consumeQuietly(response.getEntity());
+			}
 		}
 
 		// Format Results
@@ -283,9 +295,13 @@ public class EXACResourceImplementation implements
 			try {
 				post.setEntity(new StringEntity(jsonArray.build().toString()));
 				HttpResponse response = client.execute(post);
-				JsonReader reader = Json.createReader(response.getEntity()
-						.getContent());
-				JsonObject responseObject = reader.readObject();
+				JsonObject responseObject;
+				try (JsonReader reader = Json.createReader(response
+						.getEntity().getContent())) {
+					responseObject = reader.readObject();
+				} finally {
+					EntityUtils.consumeQuietly(response.getEntity());
+				}
 				
 				//Merge the results back into the result set
 				resultSetField.beforeFirst();
@@ -315,7 +331,7 @@ public class EXACResourceImplementation implements
 				
 				result.setData(rs);
 				result.setResultStatus(ResultStatus.COMPLETE);
-			} catch (IOException | PersistableException e) {
+			} catch (IOException | JsonException | PersistableException e) {
 				e.printStackTrace();
 				result.setResultStatus(ResultStatus.ERROR);
 				result.setMessage(e.getMessage());
@@ -421,7 +437,7 @@ public class EXACResourceImplementation implements
 	private Result convertJsonArrayToResultSet(JsonArray exacJSONResults,
 			Result result) {
 
-		FileResultSet mrs = (FileResultSet) result.getData();
+		ResultSet mrs = (ResultSet) result.getData();
 		try {
 			if (exacJSONResults.size() == 0) {
 				result.setData(mrs);
@@ -513,8 +529,7 @@ public class EXACResourceImplementation implements
 	}
 
 	private HttpClient createClient(User user) {
-		HttpClientBuilder returns = HttpClientBuilder.create();
-		return returns.build();
+		return httpClientPool.getClient();
 	};
 
 	private Entity createEntity(String name, String resourceString,
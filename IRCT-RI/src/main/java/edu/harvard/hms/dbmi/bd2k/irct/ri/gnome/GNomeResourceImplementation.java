@@ -26,7 +26,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
-import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.FileResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import edu.harvard.hms.dbmi.bd2k.util.Utility;
 import org.apache.http.HttpEntity;
@@ -253,7 +253,7 @@ public class GNomeResourceImplementation implements
 
 	private void parseData(Result result, JsonNode responseJsonNode)
 			throws PersistableException, ResultSetException{
-		FileResultSet frs = (FileResultSet) result.getData();
+		ResultSet frs = (ResultSet) result.getData();
 
 		String responseStatus = responseJsonNode.get("status").textValue();
 
@@ -17,6 +17,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.query.WhereClause;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.LogicalOperator;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.ResourceState;
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.CacheResourceImplementationInterface;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.PathResourceImplementationInterface;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.QueryResourceImplementationInterface;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
@@ -25,9 +26,12 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
-import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.FileResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+import edu.harvard.hms.dbmi.bd2k.irct.util.Utilities;
+import edu.harvard.hms.dbmi.bd2k.util.HttpClientPool;
 import edu.harvard.hms.dbmi.i2b2.api.crc.CRCCell;
+import edu.harvard.hms.dbmi.i2b2.api.crc.PatientDataStream;
 import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.*;
 import edu.harvard.hms.dbmi.i2b2.api.crc.xml.psm.ConstrainDateTimeType;
 import edu.harvard.hms.dbmi.i2b2.api.crc.xml.psm.ConstrainDateType;
@@ -49,42 +53,38 @@ import edu.harvard.hms.dbmi.i2b2.api.pm.xml.ProjectType;
 import org.apache.http.Header;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.HttpClientConnectionManager;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.socket.PlainConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.log4j.Logger;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 import javax.xml.bind.JAXBException;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A resource implementation of a resource that communicates with the i2b2
  * servers via XML
  */
 public class I2B2XMLResourceImplementation
-		implements QueryResourceImplementationInterface, PathResourceImplementationInterface {
+		implements QueryResourceImplementationInterface, PathResourceImplementationInterface,
+		CacheResourceImplementationInterface {
 
 	Logger logger = Logger.getLogger(this.getClass());
 
+	private static final int DEFAULT_PDO_PAGE_SIZE = 10000;
+	private static final int PDO_FETCH_THREADS = 8;
+	private static ExecutorService pdoFetchExecutor;
+
 	protected String resourceName;
 	protected String resourceURL;
 	protected String domain;
@@ -100,6 +100,10 @@ public class I2B2XMLResourceImplementation
 	protected ONTCell ontCell;
 
 	protected ResourceState resourceState;
+	protected HttpClientPool httpClientPool;
+	protected int pdoPageSize;
+	protected OntologyCache ontologyCache;
+	protected OntologySubtreeWalker ontologySubtreeWalker;
 
 	@Override
 	public void setup(Map<String, String> parameters) throws ResourceInterfaceException {
@@ -155,6 +159,24 @@ public class I2B2XMLResourceImplementation
 		}
 		logger.debug("setup() ```ignoreCeriticate``` is "+ (this.ignoreCertificate ? "TRUE" : "FALSE"));
 
+		if (httpClientPool != null) {
+			httpClientPool.close();
+		}
+		httpClientPool = new HttpClientPool(this.ignoreCertificate, parameters);
+
+		this.pdoPageSize = DEFAULT_PDO_PAGE_SIZE;
+		if (parameters.get("pdoPageSize") != null) {
+			try {
+				this.pdoPageSize = Math.max(1, Integer.parseInt(parameters.get("pdoPageSize").trim()));
+			} catch (NumberFormatException e) {
+				logger.warn("setup() Invalid ```pdoPageSize```, using the default of " + DEFAULT_PDO_PAGE_SIZE);
+			}
+		}
+		logger.debug("setup() ```pdoPageSize``` is " + this.pdoPageSize);
+
+		ontologyCache = new OntologyCache(parameters);
+		ontologySubtreeWalker = new OntologySubtreeWalker(parameters);
+
 		// Setup Cells
 		logger.debug("setup() Setting up CRCCell");
 		crcCell = new CRCCell();
@@ -190,11 +212,8 @@ public class I2B2XMLResourceImplementation
 
 				// If first then get projects
 				if (pathComponents.length == 2) {
-					logger.debug("getPathRelationship() creating PMCell.");
-					pmCell = createPMCell();
-
-					ConfigureType configureType = pmCell.getUserConfiguration(client, null,
-							new String[] { "undefined" });
+					logger.debug("getPathRelationship() getting the projects of the user.");
+					ConfigureType configureType = getUserConfiguration(client, user);
 					for (ProjectType pt : configureType.getUser().getProject()) {
 						logger.debug("getPathRelationship() ProjectType:"+pt.getName()+" "+pt.getDescription());
 
@@ -211,11 +230,10 @@ public class I2B2XMLResourceImplementation
 					}
 
 				} else {
-					ontCell = createOntCell(pathComponents[2]);
 					ConceptsType conceptsType = null;
 					if (pathComponents.length == 3) {
 						// If beyond second then get ontology categories
-						conceptsType = ontCell.getCategories(client, false, false, true, "core");
+						conceptsType = getCategories(client, pathComponents[2], user);
 					} else {
 						// If second then get categories
 						String myPath = "\\";
@@ -224,7 +242,7 @@ public class I2B2XMLResourceImplementation
 						}
 						basePath = pathComponents[0] + "/" + pathComponents[1] + "/" + pathComponents[2];
 
-						conceptsType = ontCell.getChildren(client, myPath, false, true, false, -1, "core");
+						conceptsType = getChildren(client, pathComponents[2], myPath, user);
 
 					}
 					// Convert ConceptsType to Entities
@@ -243,9 +261,7 @@ public class I2B2XMLResourceImplementation
 				if (resourcePath.lastIndexOf('\\') != resourcePath.length() - 1) {
 					resourcePath += '\\';
 				}
-				ontCell = createOntCell(pathComponents[2]);
-				ModifiersType modifiersType = ontCell.getModifiers(client, false, false, null, -1, resourcePath, false,
-						null);
+				ModifiersType modifiersType = getModifiers(client, pathComponents[2], resourcePath, user);
 				entities = convertModifiersTypeToEntities(basePath, modifiersType);
 			} else if (relationship == I2B2OntologyRelationship.TERM) {
 				String resourcePath = getResourcePathFromPUI(basePath);
@@ -257,11 +273,7 @@ public class I2B2XMLResourceImplementation
 				if (resourcePath.lastIndexOf('\\') != resourcePath.length() - 1) {
 					resourcePath += '\\';
 				}
-				ontCell = createOntCell(pathComponents[2]);
-
-				ConceptsType conceptsType = null;
-
-				conceptsType = ontCell.getTermInfo(client, true, resourcePath, true, -1, true, "core");
+				ConceptsType conceptsType = getTermInfo(client, pathComponents[2], resourcePath, user);
 				entities = convertConceptsTypeToEntities(basePath, conceptsType);
 			} else {
 				throw new ResourceInterfaceException(relationship.toString() + " not supported by this resource");
@@ -298,10 +310,9 @@ public class I2B2XMLResourceImplementation
 		try {
 
 			if ((path == null) || (path.getPui().split("/").length <= 2)) {
-				pmCell = createPMCell();
-				ConfigureType configureType = pmCell.getUserConfiguration(client, null, new String[] { "undefined" });
+				ConfigureType configureType = getUserConfiguration(client, user);
 				for (ProjectType pt : configureType.getUser().getProject()) {
-					for (ConceptType category : getCategories(client, pt.getId()).getConcept()) {
+					for (ConceptType category : getCategories(client, pt.getId(), user).getConcept()) {
 
 						String categoryName = converti2b2Path(category.getKey()).split("/")[1];
 
@@ -313,7 +324,7 @@ public class I2B2XMLResourceImplementation
 				String[] pathComponents = path.getPui().split("/");
 				if (pathComponents.length == 3) {
 					// Get All Categories
-					for (ConceptType category : getCategories(client, pathComponents[2]).getConcept()) {
+					for (ConceptType category : getCategories(client, pathComponents[2], user).getConcept()) {
 						String categoryName = converti2b2Path(category.getKey()).split("/")[1];
 						entities.addAll(convertConceptsTypeToEntities("/" + this.resourceName + "/" + pathComponents[2],
 								runNameSearch(client, pathComponents[2], categoryName, strategy, searchTerm)));
@@ -337,8 +348,7 @@ public class I2B2XMLResourceImplementation
 		try {
 
 			if ((path == null) || (path.getPui().split("/").length <= 2)) {
-				pmCell = createPMCell();
-				ConfigureType configureType = pmCell.getUserConfiguration(client, null, new String[] { "undefined" });
+				ConfigureType configureType = getUserConfiguration(client, user);
 				for (ProjectType pt : configureType.getUser().getProject()) {
 					entities.addAll(convertConceptsTypeToEntities("/" + this.resourceName + "/" + pt.getId(),
 							runCategorySearch(client, pt.getId(), null, ontologyType, ontologyTerm)));
@@ -517,6 +527,7 @@ public class I2B2XMLResourceImplementation
 
 			HttpClient client = createClient(user);
 			String resultInstanceId = result.getResourceActionId();
+			String queryId = resultInstanceId.split("\\|")[1];
 			String resultId = resultInstanceId.split("\\|")[2];
 
 			// Get PDO List
@@ -524,18 +535,56 @@ public class I2B2XMLResourceImplementation
 					"resultInstanceId:"+(resultInstanceId==null?"NULL":resultInstanceId)+
 					" and resultId:"+(resultId==null?"NULL":resultId));
 
-			PatientDataResponseType pdrt = null;
+			Map<String, String> selectMap = null;
 			if (result.getMetaData().containsKey("aliasMap"))
-				pdrt = crcCell.getPDOfromInputList(client, resultId, 0, 100000, false, false, false,
-					null, result.getMetaData());
-			else
-				pdrt = crcCell.getPDOfromInputList(client, resultId, 0, 100000, false, false, false,
-						OutputOptionSelectType.USING_INPUT_LIST);
+				selectMap = (Map<String, String>) result.getMetaData().get("aliasMap");
+
+			ResultSet resultSet = (ResultSet) result.getData();
+			PatientDataPageWriter pageWriter = new PatientDataPageWriter(resultSet, selectMap);
+			long setSize = getPatientSetSize(client, queryId, resultId);
+			logger.debug("getResults() retrieving a patient set of " + setSize + " in pages of " + pdoPageSize);
+
+			// The next page is requested while the current page is read
+			ExecutorService fetchExecutor = getPDOFetchExecutor();
+			PDOPage nextPage = new PDOPage(client, resultId, 0, result).submit(fetchExecutor);
+			try {
+				for (int min = 0; nextPage != null; min += pdoPageSize) {
+					PDOPage page = nextPage;
+					nextPage = null;
+					PatientDataStream pdoStream = page.get();
+
+					int nextMin = min + pdoPageSize;
+					if (setSize < 0 || nextMin <= setSize) {
+						nextPage = new PDOPage(client, resultId, nextMin, result).submit(fetchExecutor);
+					}
 
-			convertPatientDataResponseTypeToResultSet(pdrt, result);
+					int patients;
+					try {
+						pageWriter.startPage();
+						pdoStream.read(pageWriter);
+						patients = pageWriter.endPage();
+					} finally {
+						pdoStream.close();
+					}
+					logger.debug("getResults() appended page " + min + " with " + patients + " patients");
+					if (setSize < 0 && patients == 0 && nextPage != null) {
+						nextPage.discard();
+						nextPage = null;
+					}
+				}
+			} finally {
+				if (nextPage != null) {
+					nextPage.discard();
+				}
+			}
 
-			logger.debug("getResults() calling *convertPatientSetToResultSet*");
-//			result = convertPatientSetToResultSet(pdrt, result);
+			String pageError = pageWriter.getError();
+			if (pageError != null) {
+				result.setResultStatus(ResultStatus.ERROR);
+				result.setMessage(pageError);
+				return result;
+			}
+			result.setData(resultSet);
 
 			logger.debug("getResults() Setting ```ResultStatus``` to COMPLETE.");
 			result.setResultStatus(ResultStatus.COMPLETE);
@@ -548,6 +597,142 @@ public class I2B2XMLResourceImplementation
 		return result;
 	}
 
+	/**
+	 * Returns the number of patients in the patient set of a query, or -1 if
+	 * it is not known
+	 */
+	private long getPatientSetSize(HttpClient client, String queryId, String resultId) {
+		try {
+			List<QueryResultInstanceType> resultInstances = crcCell
+					.getQueryResultInstanceListFromQueryInstanceId(client, queryId);
+			for (QueryResultInstanceType resultInstance : resultInstances) {
+				if (resultId.equals(resultInstance.getResultInstanceId())) {
+					return resultInstance.getSetSize();
+				}
+			}
+		} catch (JAXBException | I2B2InterfaceException | IOException e) {
+			logger.warn("getPatientSetSize() unable to get the patient set size: " + e.getMessage());
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the managed executor the pages of patient data are requested
+	 * on, or a bounded pool if the container does not provide one
+	 */
+	private static synchronized ExecutorService getPDOFetchExecutor() {
+		ExecutorService managedExecutor = Utilities.getManagedExecutorService();
+		if (managedExecutor != null) {
+			return managedExecutor;
+		}
+		if (pdoFetchExecutor == null) {
+			pdoFetchExecutor = Executors.newFixedThreadPool(PDO_FETCH_THREADS, new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "i2b2-pdo-fetch-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pdoFetchExecutor;
+	}
+
+	/**
+	 * A page of patient data that is requested from the CRC cell on an
+	 * executor. A page that is discarded is closed once its request
+	 * completes, so the connection is returned to the pool without blocking a
+	 * thread while waiting for it.
+	 */
+	private class PDOPage implements Callable<PatientDataStream> {
+		private final HttpClient client;
+		private final String resultId;
+		private final int min;
+		private final Result result;
+		private Future<PatientDataStream> future;
+		private PatientDataStream stream;
+		private boolean discarded;
+
+		PDOPage(HttpClient client, String resultId, int min, Result result) {
+			this.client = client;
+			this.resultId = resultId;
+			this.min = min;
+			this.result = result;
+		}
+
+		PDOPage submit(ExecutorService executor) {
+			this.future = executor.submit(this);
+			return this;
+		}
+
+		@Override
+		public PatientDataStream call() throws Exception {
+			int max = min + pdoPageSize - 1;
+			logger.debug("PDOPage.call() fetching patients " + min + " to " + max);
+			PatientDataStream pageStream = crcCell.streamPDOfromInputList(client, resultId, min, max, false, false,
+					false, OutputOptionSelectType.USING_INPUT_LIST, result.getMetaData());
+			synchronized (this) {
+				if (!discarded) {
+					stream = pageStream;
+					return pageStream;
+				}
+			}
+			pageStream.close();
+			return null;
+		}
+
+		/**
+		 * Waits for the page and hands it over to the caller, who has to close
+		 * it
+		 */
+		PatientDataStream get() throws JAXBException, I2B2InterfaceException, IOException {
+			try {
+				PatientDataStream pageStream = future.get();
+				synchronized (this) {
+					stream = null;
+				}
+				return pageStream;
+			} catch (InterruptedException e) {
+				discard();
+				Thread.currentThread().interrupt();
+				throw new I2B2InterfaceException("Interrupted while retrieving patient data", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof JAXBException) {
+					throw (JAXBException) cause;
+				} else if (cause instanceof I2B2InterfaceException) {
+					throw (I2B2InterfaceException) cause;
+				} else if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new I2B2InterfaceException("Unable to retrieve patient data: " + cause.getMessage(), e);
+			}
+		}
+
+		/**
+		 * Cancels the page if it has not been requested yet, and closes it if
+		 * it has already been received
+		 */
+		void discard() {
+			future.cancel(false);
+			PatientDataStream openStream;
+			synchronized (this) {
+				discarded = true;
+				openStream = stream;
+				stream = null;
+			}
+			if (openStream != null) {
+				try {
+					openStream.close();
+				} catch (IOException e) {
+					logger.debug("PDOPage.discard() unable to close page: " + e.getMessage());
+				}
+			}
+		}
+	}
+
 	/**
 	 * Checks to see if the result is available
 	 *
@@ -637,7 +822,7 @@ public class I2B2XMLResourceImplementation
                     && !result.getMetaData().isEmpty()
                     && result.getMetaData().containsKey("only_count")) {
                 long counts = queryResultInstance.getSetSize();
-                FileResultSet frs = (FileResultSet) result.getData();
+                ResultSet frs = (ResultSet) result.getData();
                 try {
                     frs.appendColumn(new Column("patient_set_counts", PrimitiveDataType.STRING));
                     frs.appendRow();
@@ -770,279 +955,6 @@ public class I2B2XMLResourceImplementation
 		return myPath;
 	}
 
-	/**
-	 * to save i2b2 xml query response to FileResultSet
-	 * This method is too complicated, which map the data from xml to Pojo
-	 * then creates the FileResultSet (the columns and rows). Hope no one will touch
-	 * this code again...
-	 *
-	 * @param patientDataResponse
-	 * @param result
-	 * @return
-	 */
-	private void convertPatientDataResponseTypeToResultSet(PatientDataResponseType patientDataResponse, Result result)
-			throws ResultSetException, PersistableException{
-		logger.debug("convertPatientDataResponseTypeToResultSet() starting...");
-
-		if (patientDataResponse == null || patientDataResponse.getPatientData() == null){
-			logger.error("convertPatientDataResponseTypeToResultSet() patient data is null");
-			result.setResultStatus(ResultStatus.ERROR);
-			result.setMessage("No patient data retrieved from i2b2");
-			return;
-		}
-
-		PatientSet patientSet = patientDataResponse.getPatientData().getPatientSet();
-		if (patientSet == null
-				|| patientSet.getPatient() == null
-				|| patientSet.getPatient().isEmpty()){
-			logger.error("convertPatientDataResponseTypeToResultSet() patient set is null or empty");
-			result.setResultStatus(ResultStatus.ERROR);
-			result.setMessage("No patient set retrieved from i2b2");
-			return;
-		}
-
-		// if no alias map, means no select blocks, just go with the old convert patientset method
-		if (!result.getMetaData().containsKey("aliasMap")){
-			convertPatientSetToResultSet(patientDataResponse, result);
-			return;
-		}
-
-		List<ObservationSet> observationSetList = patientDataResponse.getPatientData().getObservationSet();
-		ConceptSet conceptSet = patientDataResponse.getPatientData().getConceptSet();
-
-		// generate columns and check if all aliasMap only in patient set
-		// if any data in patient set, will mark it into a map, later will retrieve it
-		// Notice: please make sure this map is a linkedHashMap, since we need the sequence
-		Map<String, String> selectMap = (Map<String, String>) result.getMetaData().get("aliasMap");
-
-		if (observationSetList.isEmpty()) {
-			logger.error("convertPatientDataResponseTypeToResultSet() observation set is empty with select blocks size: " +
-					selectMap.size());
-			result.setResultStatus(ResultStatus.ERROR);
-			result.setMessage("No observation set retrieved from i2b2");
-			return;
-		}
-
-		if (conceptSet == null || conceptSet.getConcept().isEmpty()){
-			logger.error("convertPatientDataResponseTypeToResultSet() concept set is empty with select blocks size: " +
-					selectMap.size());
-			result.setResultStatus(ResultStatus.ERROR);
-			result.setMessage("No concept set retrieved from i2b2");
-			return;
-		}
-
-		List<edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ConceptType> conceptTypeList = conceptSet.getConcept();
-		FileResultSet mrs = (FileResultSet) result.getData();
-
-		// append column here from ConceptType and create a map between alias name and concept_cd
-		// first append patient Id
-		mrs.appendColumn(
-				new Column("Patient Id", PrimitiveDataType.STRING));
-
-		// #############################################################################################################
-		// ######## anyone who want to modify the code below, please be sure you read the following notice first #######
-		// #############################################################################################################
-		// Following is explaining how i2b2 xml response works with FileResultSet.
-		// Notice: aliasMap may not be a leaf node !!!!!!!!!
-		// means the size of conceptType list might not be the same as the size of aliasMap
-		// because... the path of given selects in aliasMap might not be a leaf node,
-		// which might contain multiple concepts, maybe hundreds or even more,
-		// depends on which level the given selects are at.
-		// In this not-leaf-node situation, the alias map might be even not include into the conceptType list.
-		// Therefore, the solution is that just showing whatever
-		// in the concept list, put all of them into the FileResultSet column,
-		// if aliasMap is included, then change the name to the alias,
-		// if not, just put concept_cd as the column name
-		// So we need a alias name and concept_cd mapping as well for later append rows....
-		Map<String, String> conceptCD_aliasName_Map = new HashMap<>();
-
-		// conceptPath, the format of conceptPath is \xxx\xxxx\xxxxxx\
-		// but format of the key in aliasMap is \\domainname\xxx\xxxx\xxxxx\
-		// we need to pre-process the selectMap to make key match the format of conceptPath
-		Map<String, String> preProcessedSelectMap = new LinkedHashMap<>();
-
-		for (Map.Entry<String, String> entry : selectMap.entrySet()){
-			String preProcessedKey = "\\";
-			String[] splitKeys = entry.getKey().split("\\\\");
-			for (int i = 3 ; i<splitKeys.length; i++){
-				if (!splitKeys[i].equals(""))
-					preProcessedKey += splitKeys[i]+"\\";
-			}
-			preProcessedSelectMap.put(preProcessedKey, entry.getValue());
-		}
-
- 		for (edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ConceptType conceptType : conceptTypeList){
-			// check if the conceptType is in alias map
-
-			// Notice: there is a small chance that the same concept code data is
-			// in two totally not related places(paths).
-			// in that case, this is how we handle it here:
-			// 1. we check if the concept code is already in the conceptCD_aliasName_map
-			// 2. if not, we identify this is a new concept, add it into the map
-			// 3. if yes, we check if the current nameValue is in aliasMap's value set,
-			// 4. if yes, means this conceptCD is already perfectly matched, do nothing
-			// 5. if no, we check if current processing concept code has a
-			//    matched alias
-			// 6. if yes, we put the alias there
-			// 7. if no, we just leave ignore it - keep the original one there
-			// Notice: we don't add columns here, after the conceptCD_aliasName_map is completed
-			//         we will add columns
-			for (String key : preProcessedSelectMap.keySet()) {
-				String conceptCD = conceptType.getConceptCd();
-
-
-				 if (key.contains(conceptType.getConceptPath())
-						|| conceptType.getConceptPath().contains(key)){
-					String aliasName = key;
-					if (preProcessedSelectMap.get(key)!=null)
-						aliasName = preProcessedSelectMap.get(key);
-
-					// check if the conceptCD is already in the c_a_map
-					if (conceptCD_aliasName_Map.containsKey(conceptCD)){
-						// check if the name is in aliasMap
-						// notice: this is in bad performance to search the value in a HashMap
-						if (preProcessedSelectMap.containsValue(conceptCD_aliasName_Map
-								.get(conceptCD))){
-							continue;
-						}
-						// check if the aliasName actually from user input alias
-						// key of selectMap/aliasMap is a path not alias
-						else if (aliasName.equals(key)){
-							continue;
-						}
-					}
-
-					conceptCD_aliasName_Map.put(conceptCD, aliasName);
-				} else {
-
-				 	// still need to check if the concept code is already there
-				 	if (conceptCD_aliasName_Map.containsKey(conceptCD)){
-						continue;
-					}
-
-					String name = conceptType.getNameChar();
-					if (name == null)
-						name = conceptType.getConceptPath();
-					conceptCD_aliasName_Map.put(conceptCD, name);
-				}
-			}
-		}
-
-		for (String conceptName: conceptCD_aliasName_Map.values()){
-			mrs.appendColumn(
-				new Column(conceptName, PrimitiveDataType.STRING));
-		}
-
-
-		// appending rows....
-		// ############ please read notice if you are going to change the code ############
-		// Notice: in the i2b2 xml response, all patients are in observationSet list grouped by patient number
-		// but, each observationSet will have its own patient no.1 group, no.2 group...
-		// which will cause problem... because FileResultSet seems can only append row by row??
-		// means if you finished row 1, you cannot go back to add data to it??? <- needs to confirm
-
-		// didn't figure out the best performance way of handling this, now go nuts...
-		// 1. save everything into a temporary storage which is Map<StringOfPatientId, Map<StringOfColumnName, StringOfValue>>
-		// 2. after everything retrieved from observationSet, start to append row by row
-		Map<String, Map<String,String>> whateverStorage = new HashMap<>();
- 		for (ObservationSet observationSet : observationSetList){
-
- 			for (ObservationType observationType : observationSet.getObservation()){
- 				String patientId = observationType.getPatientId().getValue();
- 				String columnName = (conceptCD_aliasName_Map.containsKey(observationType.getConceptCd().getValue()))?
-						conceptCD_aliasName_Map.get(observationType.getConceptCd().getValue())
-						:observationType.getConceptCd().getValue();
-
-
- 				// handle where to retrieve the value
-				// several cases:
-				// 1. value type is T (means text), Tval has data
-				// 2. value type is N (means number), Nval has data
-				// 3. value type is null (maybe value is not a observation fact), Tval, Nval both are null
-				String value = "";
-				String valueType = observationType.getValuetypeCd();
-				if (valueType == null || valueType.equals("@")){
-					value = observationType.getConceptCd().getValue(); // like Gender, Age something
-				} else if (valueType.equals("T")){
-					value = observationType.getTvalChar();
-				} else if (valueType.equals("N")){
-					value = observationType.getNvalNum().getValue().toPlainString();
-				}
-				if (value == null)
-					value = "";
-
- 				if (whateverStorage.containsKey(patientId)) {
- 					whateverStorage.get(patientId)
-							.put(columnName, value);
-				} else {
- 					Map<String, String> temp = new HashMap<>();
- 					temp.put(columnName, value);
- 					whateverStorage.put(patientId, temp);
-				}
-			}
-		}
-
-		// ok... now start to append rows... the whole thing is terrible... anyways... too many words... get things done
-		for (Map.Entry<String, Map<String, String>> entry : whateverStorage.entrySet()){
-			mrs.appendRow();
-			mrs.updateString("Patient Id", entry.getKey());
-			for (Map.Entry<String, String> innerEntry : entry.getValue().entrySet()){
-				mrs.updateString(innerEntry.getKey(), innerEntry.getValue());
-			}
-		}
-		result.setData(mrs);
-
- 		logger.info("FileResultSet generated with column size: "+ mrs.getColumnSize());
-
-	}
-
-	/**
-	 * FileResultSet will be used to store data
-	 * @param patientDataResponse
-	 * @param result
-	 * @return
-	 * @throws ResultSetException
-	 * @throws PersistableException
-	 */
-	private Result convertPatientSetToResultSet(PatientDataResponseType patientDataResponse, Result result)
-			throws ResultSetException, PersistableException {
-		logger.debug("convertPatientSetToResultSet() Starting...");
-
-		PatientSet patientSet = patientDataResponse.getPatientData().getPatientSet();
-		logger.debug("convertPatientSetToResultSet() getting data from ```result```.");
-		FileResultSet mrs = (FileResultSet) result.getData();
-
-		if (patientSet.getPatient().size() == 0) {
-			logger.warn("convertPatientSetToResultSet() patient set size is 0.");
-			return result;
-		} else {
-			logger.debug("convertPatientSetToResultSet() patient set size is "+patientSet.getPatient().size());
-		}
-
-		PatientType columnPT = patientSet.getPatient().get(0);
-		Column idColumn = new Column();
-		idColumn.setName("Patient Id");
-		idColumn.setDataType(PrimitiveDataType.STRING);
-		mrs.appendColumn(idColumn);
-		for (ParamType paramType : columnPT.getParam()) {
-			Column column = new Column();
-			column.setName(paramType.getColumn());
-			column.setDataType(PrimitiveDataType.STRING);
-			mrs.appendColumn(column);
-		}
-
-		for (PatientType patientType : patientSet.getPatient()) {
-			mrs.appendRow();
-			mrs.updateString("Patient Id", patientType.getPatientId().getValue());
-			for (ParamType paramType : patientType.getParam()) {
-				mrs.updateString(paramType.getColumn(), paramType.getValue());
-			}
-		}
-		result.setData(mrs);
-
-		return result;
-	}
-
 	private String getPathFromField(Entity field) {
 		return getPathFromString(field.getPui());
 	}
@@ -1216,11 +1128,116 @@ public class I2B2XMLResourceImplementation
 		return ontCell.getNameInfo(client, true, category, false, strategy, searchTerm, -1, null, true, "core");
 	}
 
-	private ConceptsType getCategories(HttpClient client, String projectId)
-			throws JAXBException, ClientProtocolException, IOException, I2B2InterfaceException {
-		ONTCell ontCell = createOntCell(projectId);
+	private ConfigureType getUserConfiguration(final HttpClient client, User user)
+			throws JAXBException, I2B2InterfaceException, IOException {
+		return ontologyCache.get(getOntologyCacheScope(user), "", "", "PROJECTS",
+				new OntologyCache.Loader<ConfigureType>() {
+					@Override
+					public ConfigureType load() throws JAXBException, I2B2InterfaceException, IOException {
+						return createPMCell().getUserConfiguration(client, null, new String[] { "undefined" });
+					}
+				});
+	}
+
+	private ConceptsType getCategories(final HttpClient client, final String projectId, User user)
+			throws JAXBException, I2B2InterfaceException, IOException {
+		return ontologyCache.get(getOntologyCacheScope(user), projectId, "", "CATEGORIES",
+				new OntologyCache.Loader<ConceptsType>() {
+					@Override
+					public ConceptsType load() throws JAXBException, I2B2InterfaceException, IOException {
+						return createOntCell(projectId).getCategories(client, false, false, true, "core");
+					}
+				});
+	}
+
+	private ConceptsType getChildren(final HttpClient client, final String projectId, final String parentKey,
+			User user) throws JAXBException, I2B2InterfaceException, IOException {
+		return ontologyCache.get(getOntologyCacheScope(user), projectId, parentKey, "CHILDREN",
+				new OntologyCache.Loader<ConceptsType>() {
+					@Override
+					public ConceptsType load() throws JAXBException, I2B2InterfaceException, IOException {
+						return createOntCell(projectId).getChildren(client, parentKey, false, true, false, -1,
+								"core");
+					}
+				});
+	}
+
+	private ModifiersType getModifiers(final HttpClient client, final String projectId, final String self,
+			User user) throws JAXBException, I2B2InterfaceException, IOException {
+		return ontologyCache.get(getOntologyCacheScope(user), projectId, self, "MODIFIERS",
+				new OntologyCache.Loader<ModifiersType>() {
+					@Override
+					public ModifiersType load() throws JAXBException, I2B2InterfaceException, IOException {
+						return createOntCell(projectId).getModifiers(client, false, false, null, -1, self, false,
+								null);
+					}
+				});
+	}
+
+	private ConceptsType getTermInfo(final HttpClient client, final String projectId, final String self,
+			User user) throws JAXBException, I2B2InterfaceException, IOException {
+		return ontologyCache.get(getOntologyCacheScope(user), projectId, self, "TERM",
+				new OntologyCache.Loader<ConceptsType>() {
+					@Override
+					public ConceptsType load() throws JAXBException, I2B2InterfaceException, IOException {
+						return createOntCell(projectId).getTermInfo(client, true, self, true, -1, true, "core");
+					}
+				});
+	}
+
+	/**
+	 * Returns the scope in which cached ontology responses can be shared. All
+	 * calls to the ontology cell are made with the credentials of the
+	 * resource, so every user sees the same ontology. Implementations that
+	 * call the ontology cell on behalf of the user must return a scope per
+	 * user.
+	 *
+	 * @param user User
+	 * @return Scope
+	 */
+	protected String getOntologyCacheScope(User user) {
+		return "";
+	}
+
+	@Override
+	public void invalidateCache(Entity path, User user) {
+		invalidateOntologyCache(user == null ? null : getOntologyCacheScope(user), path == null ? null : path.getPui());
+	}
+
+	/**
+	 * Removes the cached ontology responses and walked folders of a scope
+	 * below a path. The path of the resource removes everything of the scope,
+	 * the path of a project everything of the project.
+	 *
+	 * @param scope Scope, or null for all scopes
+	 * @param pui Path, or null for all paths
+	 */
+	public void invalidateOntologyCache(String scope, String pui) {
+		if (ontologyCache == null) {
+			return;
+		}
+		String[] pathComponents = pui == null ? new String[0] : pui.split("/");
+		if (pathComponents.length <= 2) {
+			ontologyCache.invalidate(scope, null, null);
+			ontologySubtreeWalker.invalidate(scope, null);
+		} else {
+			ontologyCache.invalidate(scope, pathComponents[2], getResourcePathFromPUI(pui));
+			ontologySubtreeWalker.invalidate(scope, pui);
+		}
+		logger.info("invalidateOntologyCache() Removed the cached ontology of " + (pui == null ? "all paths" : pui)
+				+ (scope == null ? "" : " for " + scope));
+	}
 
-		return ontCell.getCategories(client, false, false, true, "core");
+	/**
+	 * Removes all cached ontology responses and walked folders
+	 */
+	public void invalidateOntologyCache() {
+		if (ontologyCache == null) {
+			return;
+		}
+		ontologyCache.invalidateAll();
+		ontologySubtreeWalker.invalidateAll();
+		logger.info("invalidateOntologyCache() Removed the cached ontology");
 	}
 
 	private ConceptsType runCategorySearch(HttpClient client, String projectId, String category, String ontologyType,
@@ -1243,6 +1260,9 @@ public class I2B2XMLResourceImplementation
 	}
 
 	private ONTCell createOntCell(String projectId) throws JAXBException {
+		// Every call gets its own cell, since the connection is project specific
+		// and cached responses are reloaded in the background
+		ONTCell ontCell = new ONTCell();
 		if (this.useProxy) {
 			ontCell.setupConnection(this.resourceURL, this.domain, "", "", projectId, this.useProxy,
 					this.proxyURL + "/OntologyService");
@@ -1254,6 +1274,7 @@ public class I2B2XMLResourceImplementation
 	}
 
 	private PMCell createPMCell() throws JAXBException {
+		PMCell pmCell = new PMCell();
 		if (this.useProxy) {
 			pmCell.setupConnection(this.resourceURL, this.domain, "", "", "", this.useProxy,
 					this.proxyURL + "/PMService");
@@ -1271,99 +1292,45 @@ public class I2B2XMLResourceImplementation
 	 * @return
 	 */
 	protected HttpClient createClient(User user) {
-		// SSL WRAPAROUND
 		logger.debug("createClient() user:" + user.getName());
-		HttpClientBuilder returns = null;
-
-		if (ignoreCertificate) {
-			logger.debug("createClient() ignoring certificates");
-			try {
-				// CLIENT CONNECTION
-				returns = ignoreCertificate();
-			} catch (NoSuchAlgorithmException | KeyManagementException e) {
-				e.printStackTrace();
-			}
-		} else {
-			returns = HttpClientBuilder.create();
-		}
-
 		List<Header> defaultHeaders = new ArrayList<Header>();
 
 		this.addAuthenticationHeader(user, defaultHeaders);
 
-		logger.debug("createClient() Header `Content-Type: application/x-www-form-urlencoded` will be added to the builder.");
+		logger.debug("createClient() Header `Content-Type: application/x-www-form-urlencoded` will be added to the client.");
 		defaultHeaders.add(new BasicHeader("Content-Type", "application/x-www-form-urlencoded"));
-		returns.setDefaultHeaders(defaultHeaders);
 		logger.debug("createClient() Finished");
-		return returns.build();
+		return httpClientPool.getClient(defaultHeaders);
 	}
 
 	protected void addAuthenticationHeader(User user, List<Header> defaultHeaders) {
 		// Do nothing.
 	}
 
-	private HttpClientBuilder ignoreCertificate() throws NoSuchAlgorithmException, KeyManagementException {
-		System.setProperty("jsse.enableSNIExtension", "false");
-
-		TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-
-			public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-				return null;
-			}
-
-			public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {
-			}
-
-			public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {
-			}
-		} };
-
-		SSLContext sslContext;
-
-		sslContext = SSLContext.getInstance("SSL");
-		sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-
-		HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
-
-		SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
-
-		Registry<ConnectionSocketFactory> r = RegistryBuilder.<ConnectionSocketFactory>create().register("https", sslsf)
-				.register("http", PlainConnectionSocketFactory.getSocketFactory())
-				.build();
-
-		HttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(r);
-
-		return HttpClients.custom().setConnectionManager(cm);
-	}
-
-
-    protected Map<String, String> getAllChildrenAsAliasMap(String basePUI, String subPUI, boolean compact, User user) throws ResourceInterfaceException {
+    protected Map<String, String> getAllChildrenAsAliasMap(String basePUI, String subPUI, boolean compact, final User user) throws ResourceInterfaceException {
         Map<String, String> returns = new HashMap<String, String>();
 
-        Entity baseEntity = new Entity(basePUI);
-        for(Entity entity : getPathRelationship(baseEntity, I2B2OntologyRelationship.CHILD, user)) {
-
-            if(entity.getAttributes().containsKey("visualattributes")) {
-                String visualAttributes = entity.getAttributes().get("visualattributes");
-
-                if(visualAttributes.startsWith("C") || visualAttributes.startsWith("F")) {
-                    returns.putAll(getAllChildrenAsAliasMap(entity.getPui(), subPUI, compact, user));
-                } else if (visualAttributes.startsWith("L")) {
-                    String pui = convertPUItoI2B2Path(entity.getPui()).replaceAll("%2[f,F]", "/")  + "\\";
-                    String alias =  pui;
-                    if(compact) {
-                        alias = basePUI;
-                    }
-                    if(subPUI != null) {
-                        alias = alias.replaceAll(subPUI, "");
-                    }
-                    if(alias.endsWith("/")) {
-                        alias = alias.substring(0, alias.length() - 1);
+        List<OntologySubtreeWalker.Leaf> leaves = ontologySubtreeWalker.getLeaves(getOntologyCacheScope(user), basePUI,
+                new OntologySubtreeWalker.ChildLoader() {
+                    @Override
+                    public List<Entity> getChildren(String pui) throws ResourceInterfaceException {
+                        return getPathRelationship(new Entity(pui), I2B2OntologyRelationship.CHILD, user);
                     }
-                    returns.put(pui, alias);
-                }
+                });
 
+        for (OntologySubtreeWalker.Leaf leaf : leaves) {
+            String pui = convertPUItoI2B2Path(leaf.pui).replaceAll("%2[f,F]", "/")  + "\\";
+            String alias =  pui;
+            if(compact) {
+                alias = leaf.folderPUI;
+            }
+            if(subPUI != null) {
+                alias = alias.replaceAll(subPUI, "");
+            }
+            if(alias.endsWith("/")) {
+                alias = alias.substring(0, alias.length() - 1);
             }
+            returns.put(pui, alias);
         }
 
         return returns;
@@ -0,0 +1,316 @@
+package edu.harvard.hms.dbmi.bd2k.irct.ri.i2b2;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.xml.bind.JAXBException;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import edu.harvard.hms.dbmi.bd2k.irct.util.Utilities;
+import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
+
+/**
+ * Caches the responses of the i2b2 ontology cell, and the project lists of
+ * the PM cell. The ontology rarely changes, while the same parts of the tree
+ * are requested over and over again when browsing or searching it.
+ *
+ * Entries are keyed by scope, project, path and relationship. The scope
+ * separates the entries of users that can see different parts of the
+ * ontology, entries are only shared within the same scope. Entries are
+ * always loaded with the loader of the current caller, so no client or
+ * credentials of an earlier caller are kept. An entry that is older than the
+ * refresh time is still returned while it is reloaded on the managed
+ * executor, or reloaded by the caller if there is none. An entry that is
+ * older than the expire time is removed.
+ *
+ * The cache can be tuned with the following optional resource parameters:
+ * ontologyCacheSize (number of entries), ontologyCacheRefresh and
+ * ontologyCacheExpire (both in seconds). A size of 0 disables the cache.
+ */
+class OntologyCache {
+	static final long DEFAULT_MAXIMUM_SIZE = 10000;
+	static final long DEFAULT_REFRESH_AFTER = 300;
+	static final long DEFAULT_EXPIRE_AFTER = 3600;
+
+	private static Logger logger = Logger.getLogger(OntologyCache.class);
+
+	private final Cache<Key, Entry> cache;
+	private final ExecutorService refreshExecutor;
+	private final Ticker ticker;
+	private final long refreshAfterNanos;
+
+	/**
+	 * Creates a cache with the size and times from the resource parameters
+	 * that reloads entries on the managed executor
+	 *
+	 * @param parameters Resource parameters, may be null
+	 */
+	OntologyCache(Map<String, String> parameters) {
+		this(parameters, Utilities.getManagedExecutorService(), Ticker.systemTicker());
+	}
+
+	/**
+	 * Creates a cache with the size and times from the resource parameters
+	 *
+	 * @param parameters Resource parameters, may be null
+	 * @param refreshExecutor Executor entries are reloaded on, or null to
+	 *            reload them on the calling thread
+	 * @param ticker Source of the time
+	 */
+	OntologyCache(Map<String, String> parameters, ExecutorService refreshExecutor, Ticker ticker) {
+		long maximumSize = getLong(parameters, "ontologyCacheSize", DEFAULT_MAXIMUM_SIZE);
+		long refreshAfter = getLong(parameters, "ontologyCacheRefresh", DEFAULT_REFRESH_AFTER);
+		long expireAfter = getLong(parameters, "ontologyCacheExpire", DEFAULT_EXPIRE_AFTER);
+
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(Math.max(0, maximumSize))
+				.expireAfterWrite(Math.max(1, expireAfter), TimeUnit.SECONDS)
+				.ticker(ticker)
+				.build();
+		this.refreshExecutor = refreshExecutor;
+		this.ticker = ticker;
+		if (refreshAfter > 0 && refreshAfter < expireAfter) {
+			this.refreshAfterNanos = TimeUnit.SECONDS.toNanos(refreshAfter);
+		} else {
+			this.refreshAfterNanos = -1;
+		}
+	}
+
+	/**
+	 * Returns the cached response, or loads it if it is not in the cache
+	 *
+	 * @param scope Scope of the user, entries are only shared within a scope
+	 * @param projectId Project
+	 * @param path Ontology path
+	 * @param relationship Relationship of the response to the path
+	 * @param loader Loads the response from the ontology cell for the current
+	 *            caller
+	 * @return Response
+	 * @throws JAXBException An error occurred while loading the response
+	 * @throws I2B2InterfaceException An error occurred while loading the response
+	 * @throws IOException An error occurred while loading the response
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T get(String scope, String projectId, String path, String relationship, final Loader<T> loader)
+			throws JAXBException, I2B2InterfaceException, IOException {
+		final Key key = new Key(scope, projectId, path, relationship);
+		Entry entry;
+		try {
+			entry = cache.get(key, new Callable<Entry>() {
+				@Override
+				public Entry call() throws Exception {
+					logger.debug("get() loading " + key);
+					Object value = loader.load();
+					return value == null ? null : new Entry(value, ticker.read());
+				}
+			});
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof JAXBException) {
+				throw (JAXBException) cause;
+			} else if (cause instanceof I2B2InterfaceException) {
+				throw (I2B2InterfaceException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new I2B2InterfaceException("Unable to load " + relationship + " of " + path + ": "
+					+ cause.getMessage(), e);
+		} catch (CacheLoader.InvalidCacheLoadException e) {
+			// The ontology cell returned nothing, which is not cached
+			return null;
+		}
+
+		if (refreshAfterNanos > 0 && ticker.read() - entry.loaded > refreshAfterNanos
+				&& entry.refreshing.compareAndSet(false, true)) {
+			Entry refreshed = refresh(key, entry, loader);
+			if (refreshed != null) {
+				entry = refreshed;
+			}
+		}
+		return (T) entry.value;
+	}
+
+	/**
+	 * Reloads a stale entry with the loader of the current caller. The entry
+	 * is reloaded on the refresh executor and the stale entry is returned in
+	 * the meantime. Without a refresh executor the entry is reloaded on the
+	 * calling thread.
+	 *
+	 * @return The reloaded entry if it was reloaded on the calling thread
+	 */
+	private Entry refresh(final Key key, final Entry stale, final Loader<?> loader) {
+		if (refreshExecutor != null) {
+			try {
+				refreshExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						reload(key, stale, loader);
+					}
+				});
+				return null;
+			} catch (RejectedExecutionException e) {
+				logger.warn("refresh() Executor rejected the reload of " + key + ", reloading on the calling thread");
+			}
+		}
+		return reload(key, stale, loader);
+	}
+
+	/**
+	 * Reloads an entry and replaces the stale entry with it. A failed reload
+	 * keeps the stale entry until it expires or a later reload succeeds.
+	 *
+	 * @return The reloaded entry, or null if it could not be reloaded
+	 */
+	private Entry reload(Key key, Entry stale, Loader<?> loader) {
+		try {
+			logger.debug("reload() " + key);
+			Object value = loader.load();
+			if (value == null) {
+				return null;
+			}
+			Entry entry = new Entry(value, ticker.read());
+			cache.asMap().replace(key, stale, entry);
+			return entry;
+		} catch (JAXBException | I2B2InterfaceException | IOException | RuntimeException e) {
+			logger.warn("reload() Unable to reload " + key + ": " + e.getMessage());
+			return null;
+		} finally {
+			stale.refreshing.set(false);
+		}
+	}
+
+	/**
+	 * Removes the entries of a scope, project and path. The entries of the
+	 * path and of the paths below it are removed, a null argument matches
+	 * every scope, project or path.
+	 *
+	 * @param scope Scope, or null for all scopes
+	 * @param projectId Project, or null for all projects
+	 * @param path Ontology path, or null for all paths
+	 */
+	void invalidate(String scope, String projectId, String path) {
+		String pathPrefix = path == null ? null : normalizePath(path);
+		for (Key key : cache.asMap().keySet()) {
+			if ((scope == null || key.scope.equals(scope)) && (projectId == null || key.projectId.equals(projectId))
+					&& (pathPrefix == null || isBelow(normalizePath(key.path), pathPrefix))) {
+				cache.invalidate(key);
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Strips the leading and trailing backslashes of a path, as the paths of
+	 * children, modifiers and terms are not escaped the same way
+	 */
+	private static String normalizePath(String path) {
+		int start = 0;
+		int end = path.length();
+		while (start < end && path.charAt(start) == '\\') {
+			start++;
+		}
+		while (end > start && path.charAt(end - 1) == '\\') {
+			end--;
+		}
+		return path.substring(start, end);
+	}
+
+	private static boolean isBelow(String path, String pathPrefix) {
+		return pathPrefix.isEmpty() || path.equals(pathPrefix) || path.startsWith(pathPrefix + "\\");
+	}
+
+	static long getLong(Map<String, String> parameters, String name, long defaultValue) {
+		if (parameters == null || parameters.get(name) == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(parameters.get(name).trim());
+		} catch (NumberFormatException e) {
+			logger.warn("getLong() Invalid value for `" + name + "`, using the default of " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Loads a response from the ontology cell
+	 */
+	interface Loader<T> {
+		T load() throws JAXBException, I2B2InterfaceException, IOException;
+	}
+
+	/**
+	 * A cached response and the time it was loaded
+	 */
+	private static final class Entry {
+		private final Object value;
+		private final long loaded;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry(Object value, long loaded) {
+			this.value = value;
+			this.loaded = loaded;
+		}
+	}
+
+	/**
+	 * The key of an entry, it only identifies the request
+	 */
+	private static final class Key {
+		private final String scope;
+		private final String projectId;
+		private final String path;
+		private final String relationship;
+
+		Key(String scope, String projectId, String path, String relationship) {
+			this.scope = scope == null ? "" : scope;
+			this.projectId = projectId == null ? "" : projectId;
+			this.path = path == null ? "" : path;
+			this.relationship = relationship;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return scope.equals(other.scope) && projectId.equals(other.projectId) && path.equals(other.path)
+					&& relationship.equals(other.relationship);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = scope.hashCode();
+			hash = 31 * hash + projectId.hashCode();
+			hash = 31 * hash + path.hashCode();
+			return 31 * hash + relationship.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return relationship + " " + projectId + ":" + path + (scope.isEmpty() ? "" : " for " + scope);
+		}
+	}
+}
@@ -0,0 +1,394 @@
+package edu.harvard.hms.dbmi.bd2k.irct.ri.i2b2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.ontology.Entity;
+import edu.harvard.hms.dbmi.bd2k.irct.util.Utilities;
+
+/**
+ * Finds all the leaves below a folder of the ontology. The tree is walked one
+ * level at a time, and the children of all the folders of a level are
+ * requested at the same time by workers on the managed executor and by the
+ * walking thread. The number of requests running at the same time is bound by
+ * a semaphore, so expanding a large folder takes about the time of the depth
+ * of the tree instead of the number of its folders. The walking thread runs
+ * the requests no worker has started, so a walk finishes even when every
+ * thread of the executor is busy.
+ *
+ * The leaves of every folder that was walked are kept, so a later query that
+ * selects the same folder, or one of its sub folders, does not walk the tree
+ * again. Like the ontology cache the leaves are kept per scope, and the expire
+ * time is set with the ontologyCacheExpire resource parameter. The kept
+ * folders are weighed by their number of leaves, the total is bound by the
+ * ontologyCacheLeaves parameter, and an ontologyCacheSize of 0 disables them.
+ * The number of concurrent requests is set with the ontologyParallelism
+ * parameter.
+ */
+class OntologySubtreeWalker {
+	static final int DEFAULT_PARALLELISM = 8;
+	static final long DEFAULT_MAXIMUM_LEAVES = 1000000;
+
+	private static Logger logger = Logger.getLogger(OntologySubtreeWalker.class);
+
+	private final ExecutorService executor;
+	private final int parallelism;
+	private final Semaphore permits;
+	private final Cache<Key, List<Leaf>> subtrees;
+
+	/**
+	 * Creates a walker with the parallelism and cache settings from the
+	 * resource parameters that requests the children on the managed executor
+	 *
+	 * @param parameters Resource parameters, may be null
+	 */
+	OntologySubtreeWalker(Map<String, String> parameters) {
+		this(parameters, Utilities.getManagedExecutorService());
+	}
+
+	/**
+	 * Creates a walker with the parallelism and cache settings from the
+	 * resource parameters
+	 *
+	 * @param parameters Resource parameters, may be null
+	 * @param executor Executor the children are requested on, or null to
+	 *            request them on the walking thread
+	 */
+	OntologySubtreeWalker(Map<String, String> parameters, ExecutorService executor) {
+		this.parallelism = (int) Math.max(1,
+				OntologyCache.getLong(parameters, "ontologyParallelism", DEFAULT_PARALLELISM));
+		long maximumSize = OntologyCache.getLong(parameters, "ontologyCacheSize",
+				OntologyCache.DEFAULT_MAXIMUM_SIZE);
+		long maximumLeaves = OntologyCache.getLong(parameters, "ontologyCacheLeaves", DEFAULT_MAXIMUM_LEAVES);
+		long expireAfter = OntologyCache.getLong(parameters, "ontologyCacheExpire",
+				OntologyCache.DEFAULT_EXPIRE_AFTER);
+
+		this.subtrees = CacheBuilder.newBuilder()
+				.maximumWeight(maximumSize <= 0 ? 0 : Math.max(0, maximumLeaves))
+				.weigher(new Weigher<Key, List<Leaf>>() {
+					@Override
+					public int weigh(Key key, List<Leaf> leaves) {
+						// Folders without leaves still take up an entry
+						return leaves.size() + 1;
+					}
+				})
+				.expireAfterWrite(Math.max(1, expireAfter), TimeUnit.SECONDS)
+				.build();
+		this.executor = executor;
+		this.permits = new Semaphore(parallelism);
+	}
+
+	/**
+	 * Returns all the leaves below a folder
+	 *
+	 * @param scope Scope of the user, walked folders are only shared within a scope
+	 * @param basePUI Folder to start from
+	 * @param childLoader Returns the children of a folder
+	 * @return Leaves
+	 * @throws ResourceInterfaceException An error occurred
+	 */
+	List<Leaf> getLeaves(String scope, String basePUI, final ChildLoader childLoader)
+			throws ResourceInterfaceException {
+		scope = scope == null ? "" : scope;
+		List<Leaf> cached = subtrees.getIfPresent(new Key(scope, basePUI));
+		if (cached != null) {
+			return cached;
+		}
+
+		Map<String, List<String>> folderChildren = new HashMap<String, List<String>>();
+		Map<String, List<Leaf>> folderLeaves = new HashMap<String, List<Leaf>>();
+		Map<String, List<Leaf>> walked = new HashMap<String, List<Leaf>>();
+		Set<String> visited = new HashSet<String>();
+		visited.add(basePUI);
+
+		List<String> level = Collections.singletonList(basePUI);
+		int depth = 0;
+		while (!level.isEmpty()) {
+			Map<String, ChildRequest> requests = new LinkedHashMap<String, ChildRequest>();
+			try {
+				for (String folder : level) {
+					cached = subtrees.getIfPresent(new Key(scope, folder));
+					if (cached != null) {
+						walked.put(folder, cached);
+						continue;
+					}
+					requests.put(folder, new ChildRequest(folder, childLoader));
+				}
+				startWorkers(requests.values());
+
+				List<String> nextLevel = new ArrayList<String>();
+				for (Map.Entry<String, ChildRequest> request : requests.entrySet()) {
+					String folder = request.getKey();
+					List<String> children = new ArrayList<String>();
+					List<Leaf> leaves = new ArrayList<Leaf>();
+					for (Entity entity : request.getValue().get()) {
+						if (!entity.getAttributes().containsKey("visualattributes")) {
+							continue;
+						}
+						String visualAttributes = entity.getAttributes().get("visualattributes");
+						if (visualAttributes.startsWith("C") || visualAttributes.startsWith("F")) {
+							children.add(entity.getPui());
+							if (visited.add(entity.getPui())) {
+								nextLevel.add(entity.getPui());
+							}
+						} else if (visualAttributes.startsWith("L")) {
+							leaves.add(new Leaf(entity.getPui(), folder));
+						}
+					}
+					folderChildren.put(folder, children);
+					folderLeaves.put(folder, leaves);
+				}
+				level = nextLevel;
+				depth++;
+			} finally {
+				for (ChildRequest request : requests.values()) {
+					request.cancel();
+				}
+			}
+		}
+		logger.debug("getLeaves() walked " + folderLeaves.size() + " folders in " + depth + " levels below "
+				+ basePUI);
+
+		return collectLeaves(scope, basePUI, folderChildren, folderLeaves, walked);
+	}
+
+	/**
+	 * Removes the walked folders of a scope that contain a path or are below
+	 * it, as the leaves of the folders above a path include the leaves below
+	 * it
+	 *
+	 * @param scope Scope, or null for all scopes
+	 * @param pui Path, or null for all paths
+	 */
+	void invalidate(String scope, String pui) {
+		for (Key key : subtrees.asMap().keySet()) {
+			if ((scope == null || key.scope.equals(scope))
+					&& (pui == null || isBelow(key.pui, pui) || isBelow(pui, key.pui))) {
+				subtrees.invalidate(key);
+			}
+		}
+	}
+
+	/**
+	 * Removes all walked folders
+	 */
+	void invalidateAll() {
+		subtrees.invalidateAll();
+	}
+
+	private static boolean isBelow(String pui, String folder) {
+		String prefix = folder.endsWith("/") ? folder : folder + "/";
+		return pui.equals(folder) || (pui + "/").startsWith(prefix);
+	}
+
+	/**
+	 * Collects the leaves below a folder from the walked levels, and keeps
+	 * the leaves of every folder on the way
+	 */
+	private List<Leaf> collectLeaves(String scope, String folder, Map<String, List<String>> folderChildren,
+			Map<String, List<Leaf>> folderLeaves, Map<String, List<Leaf>> walked) {
+		if (walked.containsKey(folder)) {
+			return walked.get(folder);
+		}
+		// Guards against folders that contain themselves
+		walked.put(folder, Collections.<Leaf> emptyList());
+		List<Leaf> leaves = new ArrayList<Leaf>(folderLeaves.get(folder));
+		for (String child : folderChildren.get(folder)) {
+			leaves.addAll(collectLeaves(scope, child, folderChildren, folderLeaves, walked));
+		}
+		leaves = Collections.unmodifiableList(leaves);
+		walked.put(folder, leaves);
+		subtrees.put(new Key(scope, folder), leaves);
+		return leaves;
+	}
+
+	/**
+	 * Starts workers on the executor that run the requests of a level while
+	 * permits are free. The walking thread runs the requests that are left.
+	 */
+	private void startWorkers(Collection<ChildRequest> requests) {
+		if (executor == null || requests.size() <= 1) {
+			return;
+		}
+		Queue<ChildRequest> pending = new ConcurrentLinkedQueue<ChildRequest>(requests);
+		int workers = Math.min(parallelism - 1, requests.size() - 1);
+		for (int worker = 0; worker < workers; worker++) {
+			try {
+				executor.execute(new Worker(pending));
+			} catch (RejectedExecutionException e) {
+				logger.debug("startWorkers() executor rejected a worker, started " + worker + " of " + workers);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Runs the pending requests of a level on the executor. A worker never
+	 * waits for a permit, it stops once all permits are taken.
+	 */
+	private class Worker implements Runnable {
+		private final Queue<ChildRequest> pending;
+
+		Worker(Queue<ChildRequest> pending) {
+			this.pending = pending;
+		}
+
+		@Override
+		public void run() {
+			while (!pending.isEmpty() && permits.tryAcquire()) {
+				try {
+					ChildRequest request = pending.poll();
+					if (request != null) {
+						request.runClaimed();
+					}
+				} finally {
+					permits.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Requests the children of a folder. The request is run once, by a worker
+	 * or by the walking thread, whichever claims it first.
+	 */
+	private class ChildRequest {
+		private final String folder;
+		private final ChildLoader childLoader;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile List<Entity> children;
+		private volatile ResourceInterfaceException failure;
+
+		ChildRequest(String folder, ChildLoader childLoader) {
+			this.folder = folder;
+			this.childLoader = childLoader;
+		}
+
+		/**
+		 * Runs the request unless it was claimed already, the caller holds a
+		 * permit
+		 */
+		void runClaimed() {
+			if (!claimed.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				children = childLoader.getChildren(folder);
+			} catch (ResourceInterfaceException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				logger.error("runClaimed() Exception:", e);
+				failure = new ResourceInterfaceException(String.valueOf(e.getMessage()));
+			} finally {
+				done.countDown();
+			}
+		}
+
+		/**
+		 * Returns the children, running the request on the calling thread if
+		 * no worker has claimed it yet
+		 */
+		List<Entity> get() throws ResourceInterfaceException {
+			try {
+				if (!claimed.get()) {
+					permits.acquire();
+					try {
+						runClaimed();
+					} finally {
+						permits.release();
+					}
+				}
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ResourceInterfaceException("Interrupted while walking the ontology");
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return children;
+		}
+
+		/**
+		 * Keeps the workers from running the request if it has not started
+		 */
+		void cancel() {
+			if (claimed.compareAndSet(false, true)) {
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Returns the children of a folder
+	 */
+	interface ChildLoader {
+		List<Entity> getChildren(String pui) throws ResourceInterfaceException;
+	}
+
+	/**
+	 * The key of a walked folder
+	 */
+	private static final class Key {
+		private final String scope;
+		private final String pui;
+
+		Key(String scope, String pui) {
+			this.scope = scope;
+			this.pui = pui;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return scope.equals(other.scope) && pui.equals(other.pui);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * scope.hashCode() + pui.hashCode();
+		}
+	}
+
+	/**
+	 * A leaf of the ontology and the folder it is in
+	 */
+	static final class Leaf {
+		final String pui;
+		final String folderPUI;
+
+		Leaf(String pui, String folderPUI) {
+			this.pui = pui;
+			this.folderPUI = folderPUI;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package edu.harvard.hms.dbmi.bd2k.irct.ri.i2b2;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.resource.PrimitiveDataType;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
+import edu.harvard.hms.dbmi.i2b2.api.crc.PatientDataHandler;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ConceptType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ObservationType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ParamType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.PatientType;
+import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
+
+/**
+ * Appends i2b2 PDO responses to a result set one page at a time while they are
+ * read from a PatientDataStream. A page holds all the data of a window of the
+ * patient set. The columns are created from the first page that contains
+ * data, after that pages only append rows.
+ *
+ * Without select clauses the patients are written as they are read. With
+ * select clauses (the aliasMap) the observations of each patient are pivoted
+ * into a single row with a column per select alias, these rows are written
+ * once the page has been read. The columns only depend on the selects, so
+ * every page has the same columns. Observations of concepts that are not
+ * under any select have no column and are dropped.
+ */
+class PatientDataPageWriter implements PatientDataHandler {
+
+	private Logger logger = Logger.getLogger(this.getClass());
+
+	private final ResultSet resultSet;
+	private final Map<String, String> preProcessedSelectMap;
+	private final Map<String, String> conceptCD_aliasName_Map = new HashMap<>();
+	private final Set<String> columnNames = new HashSet<>();
+	private final Set<String> droppedConcepts = new HashSet<>();
+	private boolean columnsCreated;
+
+	// Map<StringOfPatientId, Map<StringOfConceptCode, StringOfValue>> of the current page
+	private final Map<String, Map<String, String>> patientRows = new LinkedHashMap<>();
+	private int pagePatients;
+
+	private long patientCount;
+	private long observationCount;
+	private long conceptCount;
+	private long droppedObservationCount;
+
+	/**
+	 * Creates a writer for the given result set
+	 *
+	 * @param resultSet Result set to append to
+	 * @param selectMap Select paths and their alias, or null if there are no
+	 *                  select clauses
+	 */
+	PatientDataPageWriter(ResultSet resultSet, Map<String, String> selectMap) {
+		this.resultSet = resultSet;
+
+		if (selectMap == null) {
+			this.preProcessedSelectMap = null;
+			return;
+		}
+
+		// conceptPath, the format of conceptPath is \xxx\xxxx\xxxxxx\
+		// but format of the key in aliasMap is \\domainname\xxx\xxxx\xxxxx\
+		// we need to pre-process the selectMap to make key match the format of conceptPath
+		this.preProcessedSelectMap = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : selectMap.entrySet()){
+			String preProcessedKey = "\\";
+			String[] splitKeys = entry.getKey().split("\\\\");
+			for (int i = 3 ; i<splitKeys.length; i++){
+				if (!splitKeys[i].equals(""))
+					preProcessedKey += splitKeys[i]+"\\";
+			}
+			preProcessedSelectMap.put(preProcessedKey, entry.getValue());
+		}
+	}
+
+	/**
+	 * Starts a new page of patient data
+	 */
+	void startPage() {
+		pagePatients = 0;
+		patientRows.clear();
+	}
+
+	/**
+	 * Appends the observations of the current page to the result set
+	 *
+	 * @return Number of patients in the page
+	 * @throws ResultSetException An error occurred
+	 * @throws PersistableException An error occurred
+	 */
+	int endPage() throws ResultSetException, PersistableException {
+		if (preProcessedSelectMap != null && !patientRows.isEmpty()) {
+			appendObservationRows();
+		}
+		patientRows.clear();
+		return pagePatients;
+	}
+
+	@Override
+	public void concept(ConceptType concept) {
+		if (preProcessedSelectMap == null) {
+			return;
+		}
+		conceptCount++;
+		mapConcept(concept);
+	}
+
+	@Override
+	public void patient(PatientType patient) throws I2B2InterfaceException {
+		pagePatients++;
+		patientCount++;
+		if (preProcessedSelectMap != null) {
+			return;
+		}
+
+		try {
+			if (!columnsCreated) {
+				createPatientColumns(patient);
+			}
+			resultSet.appendRow();
+			resultSet.updateString("Patient Id", patient.getPatientId().getValue());
+			for (ParamType paramType : patient.getParam()) {
+				resultSet.updateString(paramType.getColumn(), paramType.getValue());
+			}
+		} catch (ResultSetException | PersistableException e) {
+			throw new I2B2InterfaceException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Notice: in the i2b2 xml response, all patients are in observationSet list grouped by patient number
+	 * but, each observationSet will have its own patient no.1 group, no.2 group...
+	 * so the observations of the page are collected per patient before the rows are appended.
+	 * The concept set of the page may follow the observations, so the column
+	 * of an observation is only looked up once the page has been read.
+	 */
+	@Override
+	public void observation(ObservationType observationType) {
+		if (preProcessedSelectMap == null) {
+			return;
+		}
+		observationCount++;
+		String patientId = observationType.getPatientId().getValue();
+		String conceptCD = observationType.getConceptCd().getValue();
+
+		// handle where to retrieve the value
+		// several cases:
+		// 1. value type is T (means text), Tval has data
+		// 2. value type is N (means number), Nval has data
+		// 3. value type is null (maybe value is not a observation fact), Tval, Nval both are null
+		String value = "";
+		String valueType = observationType.getValuetypeCd();
+		if (valueType == null || valueType.equals("@")){
+			value = observationType.getConceptCd().getValue(); // like Gender, Age something
+		} else if (valueType.equals("T")){
+			value = observationType.getTvalChar();
+		} else if (valueType.equals("N")){
+			value = observationType.getNvalNum().getValue().toPlainString();
+		}
+		if (value == null)
+			value = "";
+
+		Map<String, String> row = patientRows.get(patientId);
+		if (row == null) {
+			row = new LinkedHashMap<>();
+			patientRows.put(patientId, row);
+		}
+		row.put(conceptCD, value);
+	}
+
+	/**
+	 * Returns the reason the retrieved data can not be used, or null if the
+	 * data is complete. Only meaningful once all pages have been appended.
+	 *
+	 * @return Error message
+	 */
+	String getError() {
+		if (patientCount == 0) {
+			logger.error("getError() patient set is null or empty");
+			return "No patient set retrieved from i2b2";
+		}
+		if (preProcessedSelectMap == null) {
+			return null;
+		}
+		if (observationCount == 0) {
+			logger.error("getError() observation set is empty with select blocks size: " +
+					preProcessedSelectMap.size());
+			return "No observation set retrieved from i2b2";
+		}
+		if (conceptCount == 0) {
+			logger.error("getError() concept set is empty with select blocks size: " +
+					preProcessedSelectMap.size());
+			return "No concept set retrieved from i2b2";
+		}
+		if (droppedObservationCount > 0) {
+			logger.warn("getError() dropped " + droppedObservationCount + " observations of "
+					+ droppedConcepts.size() + " concepts that are not under any select");
+		}
+		return null;
+	}
+
+	private void createPatientColumns(PatientType columnPT) throws ResultSetException {
+		Column idColumn = new Column();
+		idColumn.setName("Patient Id");
+		idColumn.setDataType(PrimitiveDataType.STRING);
+		resultSet.appendColumn(idColumn);
+		for (ParamType paramType : columnPT.getParam()) {
+			Column column = new Column();
+			column.setName(paramType.getColumn());
+			column.setDataType(PrimitiveDataType.STRING);
+			resultSet.appendColumn(column);
+		}
+		columnsCreated = true;
+	}
+
+	private void appendObservationRows() throws ResultSetException, PersistableException {
+		if (!columnsCreated) {
+			createObservationColumns();
+		}
+
+		for (Map.Entry<String, Map<String, String>> entry : patientRows.entrySet()){
+			resultSet.appendRow();
+			resultSet.updateString("Patient Id", entry.getKey());
+			for (Map.Entry<String, String> innerEntry : entry.getValue().entrySet()){
+				String columnName = conceptCD_aliasName_Map.get(innerEntry.getKey());
+				if (columnName == null) {
+					dropObservation(innerEntry.getKey());
+					continue;
+				}
+				resultSet.updateString(columnName, innerEntry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Drops an observation of a concept that is not under any select, the
+	 * concept is only logged the first time
+	 */
+	private void dropObservation(String conceptCD) {
+		droppedObservationCount++;
+		if (droppedConcepts.add(conceptCD)) {
+			logger.warn("appendObservationRows() dropping the observations of " + conceptCD
+					+ ", it is not under any select");
+		}
+	}
+
+	/**
+	 * Creates the patient id column and a column for every select alias.
+	 * Since the columns can not change once rows have been added, the
+	 * columns only depend on the selects and not on the concepts of a page.
+	 */
+	private void createObservationColumns() throws ResultSetException {
+		appendObservationColumn("Patient Id");
+		for (Map.Entry<String, String> entry : preProcessedSelectMap.entrySet()) {
+			appendObservationColumn(entry.getValue() != null ? entry.getValue() : entry.getKey());
+		}
+		columnsCreated = true;
+
+		logger.info("createObservationColumns() FileResultSet generated with column size: "+ resultSet.getColumnSize());
+	}
+
+	private void appendObservationColumn(String name) throws ResultSetException {
+		if (columnNames.add(name)) {
+			resultSet.appendColumn(new Column(name, PrimitiveDataType.STRING));
+		}
+	}
+
+	/**
+	 * Maps the concept code of a concept to the name of the column it is stored in.
+	 *
+	 * Notice: aliasMap may not be a leaf node, means the size of conceptType list
+	 * might not be the same as the size of aliasMap, because the path of given
+	 * selects in aliasMap might not be a leaf node, which might contain multiple
+	 * concepts. Every concept under a select path is stored in the column of
+	 * that select, a concept that is not under any select is not mapped.
+	 *
+	 * There is a small chance that the same concept code data is in two totally
+	 * not related places(paths). In that case the alias the user asked for wins
+	 * over the path of the select, and otherwise the first select wins.
+	 */
+	private void mapConcept(ConceptType conceptType) {
+		String conceptCD = conceptType.getConceptCd();
+		String conceptPath = conceptType.getConceptPath();
+
+		String aliasName = null;
+		for (Map.Entry<String, String> entry : preProcessedSelectMap.entrySet()) {
+			String key = entry.getKey();
+			if (key.contains(conceptPath) || conceptPath.contains(key)) {
+				if (entry.getValue() != null) {
+					aliasName = entry.getValue();
+					break;
+				}
+				if (aliasName == null) {
+					aliasName = key;
+				}
+			}
+		}
+		if (aliasName == null) {
+			return;
+		}
+
+		// check if the conceptCD is already in the c_a_map with an alias the user asked for
+		String mappedName = conceptCD_aliasName_Map.get(conceptCD);
+		if (mappedName == null
+				|| (!preProcessedSelectMap.containsValue(mappedName) && preProcessedSelectMap.containsValue(aliasName))) {
+			conceptCD_aliasName_Map.put(conceptCD, aliasName);
+		}
+	}
+}
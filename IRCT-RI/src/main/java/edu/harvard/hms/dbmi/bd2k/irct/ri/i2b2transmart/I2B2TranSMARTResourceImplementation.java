@@ -31,6 +31,7 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 import javax.json.*;
@@ -116,9 +117,13 @@ public class I2B2TranSMARTResourceImplementation extends
 				java.util.logging.Logger.getGlobal().log(java.util.logging.Level.FINE, "getPathRelationship() making call over HTTP");
 				HttpResponse response = client.execute(post);
 
-				JsonReader jsonReader = Json.createReader(response.getEntity()
-						.getContent());
-				JsonObject responseContent = jsonReader.readObject();
+				JsonObject responseContent;
+				try (JsonReader jsonReader = Json.createReader(response
+						.getEntity().getContent())) {
+					responseContent = jsonReader.readObject();
+				} finally {
+					EntityUtils.consumeQuietly(response.getEntity());
+				}
 
 				java.util.logging.Logger.getGlobal().log(java.util.logging.Level.FINE, "getPathRelationship() ResponseEntity:"
 						+responseContent.toString());
@@ -283,16 +288,16 @@ public class I2B2TranSMARTResourceImplementation extends
 			HttpResponse response = client.execute(get);
 
 			// Parse the response from i2b2/tranSMART
-			try {
-				JsonParser parser = Json.createParser(response.getEntity()
-						.getContent());
-
+			try (JsonParser parser = Json.createParser(response.getEntity()
+					.getContent())) {
 				convertJsonStreamToResultSet(rs, parser, aliasMap, pivot, entryMap,
 						additionalFields);
 			} catch (Exception e) {
 				logger.error("runClinicalDataQuery() Exception parsing i2b2/tranSMART response: "+e.getMessage());
 				result.setResultStatus(ResultStatus.ERROR);
 				result.setMessage(e.getMessage());
+			} finally {
+				EntityUtils.consumeQuietly(response.getEntity());
 			}
 
 		}
@@ -466,9 +471,13 @@ public class I2B2TranSMARTResourceImplementation extends
 			HttpClient client = createClient(user);
 			HttpGet get = new HttpGet(uri);
 			HttpResponse response = client.execute(get);
-			JsonReader reader = Json.createReader(response.getEntity()
-					.getContent());
-			JsonArray arrayResults = reader.readArray();
+			JsonArray arrayResults;
+			try (JsonReader reader = Json.createReader(response.getEntity()
+					.getContent())) {
+				arrayResults = reader.readArray();
+			} finally {
+				EntityUtils.consumeQuietly(response.getEntity());
+			}
 
 			for (JsonValue val : arrayResults) {
 				JsonObject returnObject = (JsonObject) val;
@@ -500,4 +509,13 @@ public class I2B2TranSMARTResourceImplementation extends
 		defaultHeaders.add(new BasicHeader("Authorization", "Bearer "+token));
 	}
 
+	/**
+	 * The ontology is requested with the token of the user, so cached
+	 * responses are only shared between calls of the same user
+	 */
+	@Override
+	protected String getOntologyCacheScope(User user) {
+		return user.getName();
+	}
+
 }
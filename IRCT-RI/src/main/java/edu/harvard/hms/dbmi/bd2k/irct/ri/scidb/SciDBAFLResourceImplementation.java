@@ -9,33 +9,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.client.HttpClient;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.HttpClientConnectionManager;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -56,14 +40,16 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.resource.ResourceState;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.PathResourceImplementationInterface;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.ProcessResourceImplementationInterface;
 import edu.harvard.hms.dbmi.bd2k.irct.model.resource.implementation.QueryResourceImplementationInterface;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.Persistable;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.Result;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultDataType;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
-import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.FileResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+import edu.harvard.hms.dbmi.bd2k.util.HttpClientPool;
 import edu.harvard.hms.dbmi.scidb.SciDB;
 import edu.harvard.hms.dbmi.scidb.SciDBAggregateFactory;
 import edu.harvard.hms.dbmi.scidb.SciDBArray;
@@ -88,6 +74,7 @@ public class SciDBAFLResourceImplementation implements
 	private String password;
 
 	private ResourceState resourceState;
+	private HttpClientPool httpClientPool;
 
 	/*
 	 * (non-Javadoc)
@@ -125,6 +112,11 @@ public class SciDBAFLResourceImplementation implements
 			throw new RuntimeException("Missing `password` parameter.");
 		}
 
+		if (httpClientPool != null) {
+			httpClientPool.close();
+		}
+		httpClientPool = new HttpClientPool(true, parameters);
+
 		logger.debug( "setup() Finished. Resource is in READY state.");
 		resourceState = ResourceState.READY;
 	}
@@ -547,7 +539,7 @@ public class SciDBAFLResourceImplementation implements
 			String line = null;
 
 			boolean firstLine = true;
-			FileResultSet rs = (FileResultSet) result.getData();
+			ResultSet rs = (ResultSet) result.getData();
 			logger.debug( "getResults() reading output from SciDB query response");
 
 			while ((line = in.readLine()) != null) {
@@ -567,16 +559,13 @@ public class SciDBAFLResourceImplementation implements
 					for (int datai = 0; datai < rs.getColumns().length; datai++) {
 						rs.updateString(datai, record.get(datai));
 					}
-					if (rs.getRow() % (rs.getMaxPending() - 1) == 0) {
-						rs.merge();
-					}
 				}
 			}
 			logger.debug( "getResults() setting data for resultId:"+result.getId());
 
 			logger.debug( "getResults() `FileResultSet` size:"+rs.getSize());
 			logger.debug( "getResults() `FileResultSet` closed?:"+rs.isClosed());
-			logger.debug( "getResults() `FileResultSet` persisted?:"+rs.isPersisted());
+			logger.debug( "getResults() `FileResultSet` persisted?:"+((Persistable) rs).isPersisted());
 
 			result.setData(rs);
 			result.setResultStatus(ResultStatus.COMPLETE);
@@ -592,11 +581,11 @@ public class SciDBAFLResourceImplementation implements
 		return result;
 	}
 
-	private FileResultSet createColumns(Result result, String headerLine)
+	private ResultSet createColumns(Result result, String headerLine)
 			throws ResultSetException {
 		logger.debug( "createColumns() Starting...");
 
-		FileResultSet rs = (FileResultSet) result.getData();
+		ResultSet rs = (ResultSet) result.getData();
 
 		headerLine = headerLine.replaceAll("\\{", "").replaceAll("\\} ", ",");
 		String[] columnNames = headerLine.split(",");
@@ -684,75 +673,9 @@ public class SciDBAFLResourceImplementation implements
 	 * @return
 	 */
 	protected HttpClient createClient() {
-		logger.debug( "createClient() Starting...");
-
-		// SSL WRAPAROUND
-		HttpClientBuilder returns = HttpClientBuilder.create();
-
-		if (1==1) {
-			logger.debug( "createClient() Ignoring certificate errors.");
-			try {
-				// CLIENT CONNECTION
-				returns = ignoreCertificate();
-			} catch (NoSuchAlgorithmException | KeyManagementException e) {
-				logger.error( "createClient() Failed to ignore certificate errors:"+e.getMessage());
-				e.printStackTrace();
-			}
-		}
-		//else {
-		//	returns = HttpClientBuilder.create();
-		//}
-
 		List<Header> defaultHeaders = new ArrayList<Header>();
-		logger.error( "createClient() Set default header Content-type.");
 		defaultHeaders.add(new BasicHeader("Content-Type", "application/x-www-form-urlencoded"));
-		returns.setDefaultHeaders(defaultHeaders);
-
-		logger.debug( "createClient() Finished. Returning HttpClientBuilder instance.");
-		return returns.build();
-	}
-
-	private HttpClientBuilder ignoreCertificate()
-			throws NoSuchAlgorithmException, KeyManagementException {
-		logger.debug( "ignoreCertificate() Starting...");
-
-		System.setProperty("jsse.enableSNIExtension", "false");
-
-		TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-
-			public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-				return null;
-			}
-
-			public void checkClientTrusted(
-					java.security.cert.X509Certificate[] certs, String authType) {
-			}
-
-			public void checkServerTrusted(
-					java.security.cert.X509Certificate[] certs, String authType) {
-			}
-		} };
-
-		SSLContext sslContext;
-
-		sslContext = SSLContext.getInstance("SSL");
-		sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-
-		HttpsURLConnection.setDefaultSSLSocketFactory(sslContext
-				.getSocketFactory());
-
-		SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(
-				sslContext, NoopHostnameVerifier.INSTANCE);
-
-		Registry<ConnectionSocketFactory> r = RegistryBuilder
-				.<ConnectionSocketFactory> create().register("https", sslsf)
-				.build();
-
-		HttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(
-				r);
-
-		logger.debug( "ignoreCertificate() Finished.");
-		return HttpClients.custom().setConnectionManager(cm);
+		return httpClientPool.getClient(defaultHeaders);
 	}
 
 	private static String inputStreamToString(InputStream inputStream)
@@ -9,34 +9,18 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.client.HttpClient;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.HttpClientConnectionManager;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 
 import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
@@ -60,8 +44,9 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
-import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.FileResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
+import edu.harvard.hms.dbmi.bd2k.util.HttpClientPool;
 import edu.harvard.hms.dbmi.scidb.SciDB;
 import edu.harvard.hms.dbmi.scidb.SciDBAggregateFactory;
 import edu.harvard.hms.dbmi.scidb.SciDBArray;
@@ -88,6 +73,7 @@ public class SciDBResourceImplementation implements
 	private String resourceURL;
 
 	private ResourceState resourceState;
+	private HttpClientPool httpClientPool;
 
 	/*
 	 * (non-Javadoc)
@@ -115,6 +101,11 @@ public class SciDBResourceImplementation implements
 			this.ignoreCertificate = false;
 		}
 
+		if (httpClientPool != null) {
+			httpClientPool.close();
+		}
+		httpClientPool = new HttpClientPool(this.ignoreCertificate, parameters);
+
 		resourceState = ResourceState.READY;
 	}
 
@@ -515,7 +506,7 @@ public class SciDBResourceImplementation implements
 			String line = null;
 
 			boolean firstLine = true;
-			FileResultSet rs = (FileResultSet) result.getData();
+			ResultSet rs = (ResultSet) result.getData();
 			while ((line = in.readLine()) != null) {
 				if (firstLine) {
 					rs = createColumns(result, line);
@@ -533,9 +524,6 @@ public class SciDBResourceImplementation implements
 					for (int datai = 0; datai < rs.getColumns().length; datai++) {
 						rs.updateString(datai, record.get(datai));
 					}
-					if (rs.getRow() % (rs.getMaxPending() - 1) == 0) {
-						rs.merge();
-					}
 				}
 			}
 
@@ -552,9 +540,9 @@ public class SciDBResourceImplementation implements
 		return result;
 	}
 
-	private FileResultSet createColumns(Result result, String headerLine)
+	private ResultSet createColumns(Result result, String headerLine)
 			throws ResultSetException {
-		FileResultSet rs = (FileResultSet) result.getData();
+		ResultSet rs = (ResultSet) result.getData();
 
 		headerLine = headerLine.replaceAll("\\{", "").replaceAll("\\} ", ",");
 		String[] columnNames = headerLine.split(",");
@@ -635,66 +623,11 @@ public class SciDBResourceImplementation implements
 	 * @return
 	 */
 	protected HttpClient createClient(User user) {
-		// SSL WRAPAROUND
-		HttpClientBuilder returns = null;
-
-		if (ignoreCertificate) {
-			try {
-				// CLIENT CONNECTION
-				returns = ignoreCertificate();
-			} catch (NoSuchAlgorithmException | KeyManagementException e) {
-				e.printStackTrace();
-			}
-		} else {
-			returns = HttpClientBuilder.create();
-		}
-
 		List<Header> defaultHeaders = new ArrayList<Header>();
 
 		defaultHeaders.add(new BasicHeader("Content-Type","application/x-www-form-urlencoded"));
-		returns.setDefaultHeaders(defaultHeaders);
-
-		return returns.build();
-	}
-
-	private HttpClientBuilder ignoreCertificate()
-			throws NoSuchAlgorithmException, KeyManagementException {
-		System.setProperty("jsse.enableSNIExtension", "false");
-
-		TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-
-			public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-				return null;
-			}
-
-			public void checkClientTrusted(
-					java.security.cert.X509Certificate[] certs, String authType) {
-			}
-
-			public void checkServerTrusted(
-					java.security.cert.X509Certificate[] certs, String authType) {
-			}
-		} };
-
-		SSLContext sslContext;
-
-		sslContext = SSLContext.getInstance("SSL");
-		sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-
-		HttpsURLConnection.setDefaultSSLSocketFactory(sslContext
-				.getSocketFactory());
-
-		SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(
-				sslContext, NoopHostnameVerifier.INSTANCE);
-
-		Registry<ConnectionSocketFactory> r = RegistryBuilder
-				.<ConnectionSocketFactory> create().register("https", sslsf)
-				.build();
-
-		HttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(
-				r);
 
-		return HttpClients.custom().setConnectionManager(cm);
+		return httpClientPool.getClient(defaultHeaders);
 	}
 
 	private static String inputStreamToString(InputStream inputStream)
@@ -23,7 +23,7 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.*;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
-import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.FileResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import edu.harvard.hms.dbmi.bd2k.util.Utility;
 import org.apache.http.HttpEntity;
@@ -543,7 +543,7 @@ public class HAIL implements QueryResourceImplementationInterface,
 
     private void parseData(Result result, JsonNode responseJsonNode)
             throws PersistableException, ResultSetException{
-        FileResultSet frs = (FileResultSet) result.getData();
+        ResultSet frs = (ResultSet) result.getData();
 
         //Expected to be a string in TSV format.
         //If not, a ResultSetException will most likely occur while appending rows or columns
@@ -3,18 +3,12 @@ package edu.harvard.hms.dbmi.bd2k.picsure.ri;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 import javax.xml.bind.JAXBException;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -22,15 +16,6 @@ import javax.xml.datatype.DatatypeFactory;
 import org.apache.http.Header;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.HttpClientConnectionManager;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.log4j.Logger;
 
@@ -55,9 +40,10 @@ import edu.harvard.hms.dbmi.bd2k.irct.model.result.ResultStatus;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
 import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.Column;
-import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.FileResultSet;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.ResultSet;
 import edu.harvard.hms.dbmi.bd2k.irct.model.security.User;
 import edu.harvard.hms.dbmi.bd2k.irct.ri.i2b2.I2B2OntologyRelationship;
+import edu.harvard.hms.dbmi.bd2k.util.HttpClientPool;
 import edu.harvard.hms.dbmi.i2b2.api.crc.CRCCell;
 import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.OutputOptionSelectType;
 import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ParamType;
@@ -111,6 +97,7 @@ public class I2B2Passthrough
 	protected ONTCell ontCell;
 
 	protected ResourceState resourceState;
+	protected HttpClientPool httpClientPool;
 
 	@Override
 	public void setup(Map<String, String> parameters) throws ResourceInterfaceException {
@@ -123,6 +110,11 @@ public class I2B2Passthrough
 			throw new ResourceInterfaceException("Missing mandatory `resourceURL` parameter.");
 		}
 
+		if (httpClientPool != null) {
+			httpClientPool.close();
+		}
+		httpClientPool = new HttpClientPool(this.ignoreCertificate, parameters);
+
 		// Setup Cells
 		logger.debug("setup() Setting up CRCCell");
 		crcCell = new CRCCell();
@@ -656,7 +648,7 @@ public class I2B2Passthrough
 
 		PatientSet patientSet = patientDataResponse.getPatientData().getPatientSet();
 		logger.debug("convertPatientSetToResultSet() getting data from ```result```.");
-		FileResultSet mrs = (FileResultSet) result.getData();
+		ResultSet mrs = (ResultSet) result.getData();
 
 		if (patientSet.getPatient().size() == 0) {
 			logger.debug("convertPatientSetToResultSet() patient set size is 0.");
@@ -912,67 +904,18 @@ public class I2B2Passthrough
 	 * @return
 	 */
 	protected HttpClient createClient(User user) {
-		// SSL WRAPAROUND
 		logger.debug("createClient() user:" + user.getName());
-		HttpClientBuilder returns = null;
-
-		if (ignoreCertificate) {
-			logger.debug("createClient() ignoring certificates");
-			try {
-				// CLIENT CONNECTION
-				returns = ignoreCertificate();
-			} catch (NoSuchAlgorithmException | KeyManagementException e) {
-				e.printStackTrace();
-			}
-		} else {
-			returns = HttpClientBuilder.create();
-		}
-
 		List<Header> defaultHeaders = new ArrayList<Header>();
 
 		this.addAuthenticationHeader(user, defaultHeaders);
 
-		logger.debug("createClient() Header `Content-Type: application/x-www-form-urlencoded` will be added to the builder.");
+		logger.debug("createClient() Header `Content-Type: application/x-www-form-urlencoded` will be added to the client.");
 		defaultHeaders.add(new BasicHeader("Content-Type", "application/x-www-form-urlencoded"));
-		returns.setDefaultHeaders(defaultHeaders);
 		logger.debug("createClient() Finished");
-		return returns.build();
+		return httpClientPool.getClient(defaultHeaders);
 	}
 
 	protected void addAuthenticationHeader(User user, List<Header> defaultHeaders) {
 		// Do nothing.
 	}
-
-	private HttpClientBuilder ignoreCertificate() throws NoSuchAlgorithmException, KeyManagementException {
-		System.setProperty("jsse.enableSNIExtension", "false");
-
-		TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-
-			public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-				return null;
-			}
-
-			public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {
-			}
-
-			public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {
-			}
-		} };
-
-		SSLContext sslContext;
-
-		sslContext = SSLContext.getInstance("SSL");
-		sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-
-		HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
-
-		SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
-
-		Registry<ConnectionSocketFactory> r = RegistryBuilder.<ConnectionSocketFactory>create().register("https", sslsf)
-				.build();
-
-		HttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(r);
-
-		return HttpClients.custom().setConnectionManager(cm);
-	}
 }
@@ -0,0 +1,188 @@
+package edu.harvard.hms.dbmi.bd2k.util;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.http.Header;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.log4j.Logger;
+
+/**
+ * A connection pool that is shared by all the calls a resource makes. The pool
+ * is configured once when the resource is setup and keeps connections alive
+ * between calls. Clients handed out by the pool are light weight and only
+ * carry the headers of a single user, the connections themselves are shared.
+ *
+ * The pool can be tuned with the following optional resource parameters:
+ * maxConnections, maxConnectionsPerRoute, connectTimeout, socketTimeout and
+ * connectionRequestTimeout. Timeouts are in milliseconds, a socket timeout of
+ * 0 waits forever for a response.
+ *
+ * Callers have to consume or close the entity of every response, otherwise
+ * the connection is not returned to the pool.
+ */
+public class HttpClientPool {
+	public static final int DEFAULT_MAX_CONNECTIONS = 100;
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+	public static final int DEFAULT_SOCKET_TIMEOUT = 300000;
+	public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 60000;
+	private static final int VALIDATE_AFTER_INACTIVITY = 5000;
+
+	private static Logger logger = Logger.getLogger(HttpClientPool.class);
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final RequestConfig requestConfig;
+
+	/**
+	 * Creates a connection pool with the default limits and timeouts
+	 *
+	 * @param ignoreCertificate
+	 *            Accept any server certificate
+	 */
+	public HttpClientPool(boolean ignoreCertificate) {
+		this(ignoreCertificate, null);
+	}
+
+	/**
+	 * Creates a connection pool with the limits and timeouts from the
+	 * resource parameters
+	 *
+	 * @param ignoreCertificate
+	 *            Accept any server certificate
+	 * @param parameters
+	 *            Resource parameters, may be null
+	 */
+	public HttpClientPool(boolean ignoreCertificate,
+			Map<String, String> parameters) {
+		PoolingHttpClientConnectionManager cm = null;
+		if (ignoreCertificate) {
+			try {
+				cm = new PoolingHttpClientConnectionManager(
+						ignoreCertificateRegistry());
+			} catch (NoSuchAlgorithmException | KeyManagementException e) {
+				logger.error("HttpClientPool() Failed to ignore certificate errors:"
+						+ e.getMessage());
+			}
+		}
+		if (cm == null) {
+			cm = new PoolingHttpClientConnectionManager();
+		}
+
+		cm.setMaxTotal(getInt(parameters, "maxConnections",
+				DEFAULT_MAX_CONNECTIONS));
+		cm.setDefaultMaxPerRoute(getInt(parameters, "maxConnectionsPerRoute",
+				DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+		cm.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+		this.connectionManager = cm;
+
+		this.requestConfig = RequestConfig
+				.custom()
+				.setConnectTimeout(
+						getInt(parameters, "connectTimeout",
+								DEFAULT_CONNECT_TIMEOUT))
+				.setSocketTimeout(
+						getInt(parameters, "socketTimeout",
+								DEFAULT_SOCKET_TIMEOUT))
+				.setConnectionRequestTimeout(
+						getInt(parameters, "connectionRequestTimeout",
+								DEFAULT_CONNECTION_REQUEST_TIMEOUT)).build();
+	}
+
+	/**
+	 * Returns a client that uses the pooled connections
+	 *
+	 * @return Client
+	 */
+	public HttpClient getClient() {
+		return getClient(new ArrayList<Header>());
+	}
+
+	/**
+	 * Returns a client that uses the pooled connections and adds the given
+	 * headers to every request it sends
+	 *
+	 * @param headers
+	 *            Headers to add to each request
+	 * @return Client
+	 */
+	public HttpClient getClient(List<Header> headers) {
+		return HttpClientBuilder.create()
+				.setConnectionManager(this.connectionManager)
+				.setConnectionManagerShared(true)
+				.setDefaultRequestConfig(this.requestConfig)
+				.setDefaultHeaders(headers).build();
+	}
+
+	/**
+	 * Closes the pool and all the connections in it
+	 */
+	public void close() {
+		this.connectionManager.shutdown();
+	}
+
+	private static int getInt(Map<String, String> parameters, String name,
+			int defaultValue) {
+		if (parameters == null || parameters.get(name) == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(parameters.get(name).trim());
+		} catch (NumberFormatException e) {
+			logger.warn("getInt() Invalid value for `" + name
+					+ "`, using the default of " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	private static Registry<ConnectionSocketFactory> ignoreCertificateRegistry()
+			throws NoSuchAlgorithmException, KeyManagementException {
+		System.setProperty("jsse.enableSNIExtension", "false");
+
+		TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
+
+			public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+				return null;
+			}
+
+			public void checkClientTrusted(
+					java.security.cert.X509Certificate[] certs, String authType) {
+			}
+
+			public void checkServerTrusted(
+					java.security.cert.X509Certificate[] certs, String authType) {
+			}
+		} };
+
+		SSLContext sslContext = SSLContext.getInstance("SSL");
+		sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
+
+		HttpsURLConnection.setDefaultSSLSocketFactory(sslContext
+				.getSocketFactory());
+
+		SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(
+				sslContext, NoopHostnameVerifier.INSTANCE);
+
+		return RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("https", sslsf)
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.build();
+	}
+}
@@ -0,0 +1,271 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ri.i2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
+
+public class OntologyCacheTest {
+	private ManualTicker ticker;
+	private Map<String, String> parameters;
+
+	@Before
+	public void setUp() {
+		ticker = new ManualTicker();
+		parameters = new HashMap<String, String>();
+		parameters.put("ontologyCacheRefresh", "60");
+		parameters.put("ontologyCacheExpire", "600");
+	}
+
+	/**
+	 * Tests that a cached response is returned without loading it again, and
+	 * that responses are only shared within the same scope
+	 */
+	@Test
+	public void testScopes() throws Exception {
+		OntologyCache cache = new OntologyCache(parameters, null, ticker);
+		CountingLoader first = new CountingLoader("first");
+		CountingLoader second = new CountingLoader("second");
+
+		assertEquals("first", cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", first));
+		assertEquals("first", cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", second));
+		assertEquals(1, first.loads.get());
+		assertEquals(0, second.loads.get());
+
+		assertEquals("second", cache.get("user", "Demo", "\\\\i2b2\\", "CHILDREN", second));
+		assertEquals("second", cache.get("", "Other", "\\\\i2b2\\", "CHILDREN", second));
+		assertEquals("second", cache.get("", "Demo", "\\\\i2b2\\", "TERM", second));
+		assertEquals(3, second.loads.get());
+	}
+
+	/**
+	 * Tests that a stale entry is reloaded on the calling thread with the
+	 * loader of the current caller when there is no refresh executor
+	 */
+	@Test
+	public void testRefreshWithCurrentLoader() throws Exception {
+		OntologyCache cache = new OntologyCache(parameters, null, ticker);
+		CountingLoader first = new CountingLoader("first");
+		CountingLoader second = new CountingLoader("second");
+
+		cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", first);
+		ticker.advance(61, TimeUnit.SECONDS);
+
+		assertEquals("second", cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", second));
+		assertEquals(1, first.loads.get());
+		assertEquals(1, second.loads.get());
+	}
+
+	/**
+	 * Tests that a stale entry is returned while it is reloaded on the
+	 * refresh executor with the loader of the current caller
+	 */
+	@Test
+	public void testRefreshOnExecutor() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			OntologyCache cache = new OntologyCache(parameters, executor, ticker);
+			CountingLoader first = new CountingLoader("first");
+			CountingLoader second = new CountingLoader("second");
+
+			cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", first);
+			ticker.advance(61, TimeUnit.SECONDS);
+
+			assertEquals("first", cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", second));
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+
+			assertEquals("second", cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", first));
+			assertEquals(1, first.loads.get());
+			assertEquals(1, second.loads.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Tests that a failed reload keeps the stale entry, and that an entry is
+	 * loaded again once it has expired
+	 */
+	@Test
+	public void testFailedRefreshAndExpiry() throws Exception {
+		OntologyCache cache = new OntologyCache(parameters, null, ticker);
+		CountingLoader failing = new CountingLoader(null);
+		failing.failure = new IOException("i2b2 is unavailable");
+
+		cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", new CountingLoader("first"));
+		ticker.advance(61, TimeUnit.SECONDS);
+		assertEquals("first", cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", failing));
+		assertEquals(1, failing.loads.get());
+
+		ticker.advance(600, TimeUnit.SECONDS);
+		assertEquals("second", cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", new CountingLoader("second")));
+	}
+
+	/**
+	 * Tests that an empty response is not cached
+	 */
+	@Test
+	public void testNullNotCached() throws Exception {
+		OntologyCache cache = new OntologyCache(parameters, null, ticker);
+		CountingLoader empty = new CountingLoader(null);
+
+		assertNull(cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", empty));
+		assertNull(cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", empty));
+		assertEquals(2, empty.loads.get());
+	}
+
+	/**
+	 * Tests that the exceptions of the loader are rethrown as they are, and
+	 * that failures are not cached
+	 */
+	@Test
+	public void testLoaderExceptions() throws Exception {
+		OntologyCache cache = new OntologyCache(parameters, null, ticker);
+		CountingLoader failing = new CountingLoader(null);
+
+		failing.failure = new I2B2InterfaceException("Project not found");
+		try {
+			cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", failing);
+			fail("Exception not thrown");
+		} catch (I2B2InterfaceException e) {
+			assertEquals("Project not found", e.getMessage());
+		}
+
+		failing.failure = new IOException("Connection reset");
+		try {
+			cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", failing);
+			fail("Exception not thrown");
+		} catch (IOException e) {
+			assertEquals("Connection reset", e.getMessage());
+		}
+
+		failing.failure = new IllegalStateException("Unexpected response");
+		try {
+			cache.get("", "Demo", "\\\\i2b2\\", "CHILDREN", failing);
+			fail("Exception not thrown");
+		} catch (I2B2InterfaceException e) {
+			assertEquals("Unable to load CHILDREN of \\\\i2b2\\: Unexpected response", e.getMessage());
+		}
+		assertEquals(3, failing.loads.get());
+	}
+
+	/**
+	 * Tests that the entries of a path and of the paths below it are removed,
+	 * whether the path was escaped as the path of children or of a term
+	 */
+	@Test
+	public void testInvalidatePath() throws Exception {
+		OntologyCache cache = new OntologyCache(parameters, null, ticker);
+		CountingLoader loader = new CountingLoader("value");
+
+		cache.get("", "Demo", "\\\\i2b2\\Demographics", "CHILDREN", loader);
+		cache.get("", "Demo", "\\i2b2\\Demographics\\Age\\", "TERM", loader);
+		cache.get("", "Demo", "\\\\i2b2\\Diagnoses", "CHILDREN", loader);
+		cache.get("", "Demo", "\\\\i2b2\\Demographics Extra", "CHILDREN", loader);
+		cache.get("", "Other", "\\\\i2b2\\Demographics", "CHILDREN", loader);
+		assertEquals(5, loader.loads.get());
+
+		cache.invalidate(null, "Demo", "\\i2b2\\Demographics\\");
+
+		cache.get("", "Demo", "\\\\i2b2\\Demographics", "CHILDREN", loader);
+		cache.get("", "Demo", "\\i2b2\\Demographics\\Age\\", "TERM", loader);
+		assertEquals(7, loader.loads.get());
+		cache.get("", "Demo", "\\\\i2b2\\Diagnoses", "CHILDREN", loader);
+		cache.get("", "Demo", "\\\\i2b2\\Demographics Extra", "CHILDREN", loader);
+		cache.get("", "Other", "\\\\i2b2\\Demographics", "CHILDREN", loader);
+		assertEquals(7, loader.loads.get());
+	}
+
+	/**
+	 * Tests that the entries of a scope or project are removed, and that all
+	 * entries are removed
+	 */
+	@Test
+	public void testInvalidateScopeAndProject() throws Exception {
+		OntologyCache cache = new OntologyCache(parameters, null, ticker);
+		CountingLoader loader = new CountingLoader("value");
+
+		cache.get("", "", "", "PROJECTS", loader);
+		cache.get("", "Demo", "", "CATEGORIES", loader);
+		cache.get("user", "Demo", "", "CATEGORIES", loader);
+		cache.get("user", "Other", "", "CATEGORIES", loader);
+		assertEquals(4, loader.loads.get());
+
+		cache.invalidate("user", "Demo", null);
+		cache.get("user", "Demo", "", "CATEGORIES", loader);
+		cache.get("user", "Other", "", "CATEGORIES", loader);
+		cache.get("", "Demo", "", "CATEGORIES", loader);
+		assertEquals(5, loader.loads.get());
+
+		cache.invalidate("", null, null);
+		cache.get("", "", "", "PROJECTS", loader);
+		cache.get("", "Demo", "", "CATEGORIES", loader);
+		cache.get("user", "Other", "", "CATEGORIES", loader);
+		assertEquals(7, loader.loads.get());
+
+		cache.invalidateAll();
+		cache.get("user", "Other", "", "CATEGORIES", loader);
+		assertEquals(8, loader.loads.get());
+	}
+
+	/**
+	 * A loader that returns a fixed response or fails, and counts its loads
+	 */
+	private static class CountingLoader implements OntologyCache.Loader<String> {
+		private final String response;
+		private final AtomicInteger loads = new AtomicInteger();
+		private Exception failure;
+
+		CountingLoader(String response) {
+			this.response = response;
+		}
+
+		@Override
+		public String load() throws I2B2InterfaceException, IOException {
+			loads.incrementAndGet();
+			if (failure instanceof I2B2InterfaceException) {
+				throw (I2B2InterfaceException) failure;
+			} else if (failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			return response;
+		}
+	}
+
+	/**
+	 * A ticker that only advances when it is told to
+	 */
+	private static class ManualTicker extends Ticker {
+		private final AtomicLong nanos = new AtomicLong();
+
+		void advance(long time, TimeUnit unit) {
+			nanos.addAndGet(unit.toNanos(time));
+		}
+
+		@Override
+		public long read() {
+			return nanos.get();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ri.i2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.exception.ResourceInterfaceException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.ontology.Entity;
+
+public class OntologySubtreeWalkerTest {
+
+	/**
+	 * Tests that the leaves of every folder are found, and that walked
+	 * folders are not requested again
+	 */
+	@Test
+	public void testWalkWithoutExecutor() throws Exception {
+		OntologySubtreeWalker walker = new OntologySubtreeWalker(null, null);
+		TreeLoader loader = new TreeLoader(3, 3, 0);
+
+		List<OntologySubtreeWalker.Leaf> leaves = walker.getLeaves("", "/r", loader);
+		assertEquals(27, leaves.size());
+		assertEquals(13, loader.requests.get());
+
+		assertEquals(9, walker.getLeaves("", "/r/0", loader).size());
+		assertEquals(13, loader.requests.get());
+	}
+
+	/**
+	 * Tests that no more requests than the ontologyParallelism run at the
+	 * same time, even when the executor has more threads
+	 */
+	@Test
+	public void testParallelism() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			Map<String, String> parameters = new HashMap<String, String>();
+			parameters.put("ontologyParallelism", "3");
+			OntologySubtreeWalker walker = new OntologySubtreeWalker(parameters, executor);
+			TreeLoader loader = new TreeLoader(2, 8, 20);
+
+			assertEquals(64, walker.getLeaves("", "/r", loader).size());
+			assertTrue("Requests did not run in parallel", loader.maximumRunning.get() > 1);
+			assertTrue("Too many requests ran at the same time: " + loader.maximumRunning.get(),
+					loader.maximumRunning.get() <= 3);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Tests that a walk finishes on the walking thread when every thread of
+	 * the executor is busy
+	 */
+	@Test
+	public void testBusyExecutor() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		final CountDownLatch blocked = new CountDownLatch(1);
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						blocked.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			OntologySubtreeWalker walker = new OntologySubtreeWalker(null, executor);
+
+			assertEquals(27, walker.getLeaves("", "/r", new TreeLoader(3, 3, 0)).size());
+		} finally {
+			blocked.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Tests that the walked folders are weighed by their leaves, so a folder
+	 * with many more leaves than the ontologyCacheLeaves is not kept
+	 */
+	@Test
+	public void testLeafWeight() throws Exception {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("ontologyCacheLeaves", "100");
+		OntologySubtreeWalker walker = new OntologySubtreeWalker(parameters, null);
+		TreeLoader loader = new TreeLoader(2, 12, 0);
+
+		assertEquals(12, walker.getLeaves("", "/r/1", loader).size());
+		walker.getLeaves("", "/r/1", loader);
+		assertEquals(1, loader.requests.get());
+
+		assertEquals(144, walker.getLeaves("", "/r", loader).size());
+		assertEquals(13, loader.requests.get());
+		walker.getLeaves("", "/r", loader);
+		assertTrue(loader.requests.get() > 13);
+	}
+
+	/**
+	 * Tests that the walked folders above and below a path are removed, and
+	 * that the folders of other scopes and paths are kept
+	 */
+	@Test
+	public void testInvalidate() throws Exception {
+		OntologySubtreeWalker walker = new OntologySubtreeWalker(null, null);
+		TreeLoader loader = new TreeLoader(3, 3, 0);
+
+		walker.getLeaves("", "/r", loader);
+		walker.getLeaves("user", "/r", loader);
+		assertEquals(26, loader.requests.get());
+
+		walker.invalidate("", "/r/1");
+		walker.getLeaves("", "/r/2", loader);
+		walker.getLeaves("user", "/r", loader);
+		assertEquals(26, loader.requests.get());
+
+		walker.getLeaves("", "/r/1", loader);
+		assertEquals(30, loader.requests.get());
+		walker.getLeaves("", "/r", loader);
+		assertEquals(31, loader.requests.get());
+
+		walker.invalidateAll();
+		walker.getLeaves("user", "/r", loader);
+		assertEquals(44, loader.requests.get());
+	}
+
+	/**
+	 * Returns a tree of folders with the given depth and number of children,
+	 * the children of the last level are leaves
+	 */
+	private static class TreeLoader implements OntologySubtreeWalker.ChildLoader {
+		private final int depth;
+		private final int width;
+		private final long delay;
+		private final AtomicInteger requests = new AtomicInteger();
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger maximumRunning = new AtomicInteger();
+
+		TreeLoader(int depth, int width, long delay) {
+			this.depth = depth;
+			this.width = width;
+			this.delay = delay;
+		}
+
+		@Override
+		public List<Entity> getChildren(String pui) throws ResourceInterfaceException {
+			requests.incrementAndGet();
+			int now = running.incrementAndGet();
+			int maximum;
+			do {
+				maximum = maximumRunning.get();
+			} while (now > maximum && !maximumRunning.compareAndSet(maximum, now));
+			try {
+				if (delay > 0) {
+					Thread.sleep(delay);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ResourceInterfaceException("Interrupted");
+			} finally {
+				running.decrementAndGet();
+			}
+
+			int level = pui.split("/").length - 2;
+			List<Entity> children = new ArrayList<Entity>();
+			for (int child = 0; child < width; child++) {
+				Entity entity = new Entity(pui + "/" + child);
+				entity.setAttributes(Collections.singletonMap("visualattributes",
+						level + 1 < depth ? "FA" : "LA"));
+				children.add(entity);
+			}
+			return children;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.bd2k.irct.ri.i2b2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.PersistableException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.exception.ResultSetException;
+import edu.harvard.hms.dbmi.bd2k.irct.model.result.tabular.MemoryResultSet;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ConceptType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ObservationType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ParamType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.PatientIdType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.PatientType;
+import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
+
+public class PatientDataPageWriterTest {
+
+	/**
+	 * Tests that the patients are written as they are read when there are no
+	 * select clauses
+	 */
+	@Test
+	public void testPatientPages() throws Exception {
+		MemoryResultSet resultSet = new MemoryResultSet();
+		PatientDataPageWriter writer = new PatientDataPageWriter(resultSet, null);
+
+		writer.startPage();
+		writer.patient(createPatient("1", "sex_cd", "M"));
+		writer.patient(createPatient("2", "sex_cd", "F"));
+		assertEquals(2, writer.endPage());
+
+		writer.startPage();
+		writer.patient(createPatient("3", "sex_cd", "F"));
+		assertEquals(1, writer.endPage());
+
+		assertNull(writer.getError());
+		assertEquals(3, resultSet.getSize());
+		assertEquals(2, resultSet.getColumnSize());
+
+		resultSet.absolute(2);
+		assertEquals("3", resultSet.getString("Patient Id"));
+		assertEquals("F", resultSet.getString("sex_cd"));
+	}
+
+	/**
+	 * Tests that the observations of a patient are pivoted into a single row
+	 * with a column per select alias, across pages
+	 */
+	@Test
+	public void testObservationPages() throws Exception {
+		MemoryResultSet resultSet = new MemoryResultSet();
+		PatientDataPageWriter writer = new PatientDataPageWriter(resultSet, createSelectMap());
+
+		writer.startPage();
+		writer.concept(createConcept("\\Demographics\\Gender\\Male\\", "DEM|SEX:m", "Male"));
+		writer.concept(createConcept("\\Demographics\\Age\\", "DEM|AGE", "Age in years"));
+		writer.patient(createPatient("1"));
+		writer.patient(createPatient("2"));
+		writer.observation(createObservation("1", "DEM|SEX:m", null, null));
+		writer.observation(createObservation("2", "DEM|AGE", "N", "42"));
+		writer.observation(createObservation("1", "DEM|AGE", "N", "37"));
+		assertEquals(2, writer.endPage());
+
+		writer.startPage();
+		writer.concept(createConcept("\\Demographics\\Age\\", "DEM|AGE", "Age in years"));
+		writer.patient(createPatient("3"));
+		writer.observation(createObservation("3", "DEM|AGE", "N", "50"));
+		assertEquals(1, writer.endPage());
+
+		assertNull(writer.getError());
+		assertEquals(3, resultSet.getSize());
+		assertEquals(3, resultSet.getColumnSize());
+
+		resultSet.absolute(0);
+		assertEquals("1", resultSet.getString("Patient Id"));
+		assertEquals("DEM|SEX:m", resultSet.getString("Gender"));
+		assertEquals("37", resultSet.getString("Age"));
+
+		resultSet.absolute(1);
+		assertEquals("2", resultSet.getString("Patient Id"));
+		assertNull(resultSet.getString("Gender"));
+		assertEquals("42", resultSet.getString("Age"));
+
+		resultSet.absolute(2);
+		assertEquals("3", resultSet.getString("Patient Id"));
+		assertEquals("50", resultSet.getString("Age"));
+	}
+
+	/**
+	 * Tests that the observations of a concept that is not under any select
+	 * are dropped on every page, and that the columns only depend on the
+	 * selects
+	 */
+	@Test
+	public void testUnmappedConceptDropped() throws Exception {
+		MemoryResultSet resultSet = new MemoryResultSet();
+		PatientDataPageWriter writer = new PatientDataPageWriter(resultSet, createSelectMap());
+
+		writer.startPage();
+		writer.concept(createConcept("\\Demographics\\Age\\", "DEM|AGE", "Age"));
+		writer.concept(createConcept("\\Labs\\Sodium\\", "LAB|NA", "Sodium"));
+		writer.patient(createPatient("1"));
+		writer.observation(createObservation("1", "DEM|AGE", "N", "37"));
+		writer.observation(createObservation("1", "LAB|NA", "N", "140"));
+		writer.endPage();
+
+		writer.startPage();
+		writer.concept(createConcept("\\Labs\\Glucose\\", "LAB|GLU", "Glucose"));
+		writer.patient(createPatient("2"));
+		writer.observation(createObservation("2", "LAB|GLU", "T", "high"));
+		writer.observation(createObservation("2", "DEM|AGE", "N", "42"));
+		assertEquals(1, writer.endPage());
+
+		assertNull(writer.getError());
+		assertEquals(2, resultSet.getSize());
+		assertEquals(3, resultSet.getColumnSize());
+
+		resultSet.absolute(0);
+		assertEquals("1", resultSet.getString("Patient Id"));
+		assertEquals("37", resultSet.getString("Age"));
+
+		resultSet.absolute(1);
+		assertEquals("2", resultSet.getString("Patient Id"));
+		assertEquals("42", resultSet.getString("Age"));
+	}
+
+	/**
+	 * Tests that observations that are read before the concept set of their
+	 * page are stored in the column of their select
+	 */
+	@Test
+	public void testConceptsAfterObservations() throws Exception {
+		MemoryResultSet resultSet = new MemoryResultSet();
+		PatientDataPageWriter writer = new PatientDataPageWriter(resultSet, createSelectMap());
+
+		writer.startPage();
+		writer.observation(createObservation("1", "DEM|AGE", "N", "37"));
+		writer.patient(createPatient("1"));
+		writer.concept(createConcept("\\Demographics\\Age\\", "DEM|AGE", "Age in years"));
+		assertEquals(1, writer.endPage());
+
+		assertNull(writer.getError());
+		resultSet.absolute(0);
+		assertEquals("37", resultSet.getString("Age"));
+	}
+
+	/**
+	 * Tests that an empty patient set or missing observations are reported
+	 */
+	@Test
+	public void testEmptyPages() throws ResultSetException, PersistableException, I2B2InterfaceException {
+		PatientDataPageWriter writer = new PatientDataPageWriter(new MemoryResultSet(), null);
+		writer.startPage();
+		assertEquals(0, writer.endPage());
+		assertEquals("No patient set retrieved from i2b2", writer.getError());
+
+		writer = new PatientDataPageWriter(new MemoryResultSet(), createSelectMap());
+		writer.startPage();
+		writer.patient(createPatient("1"));
+		assertEquals(1, writer.endPage());
+		assertEquals("No observation set retrieved from i2b2", writer.getError());
+	}
+
+	private Map<String, String> createSelectMap() {
+		Map<String, String> selectMap = new LinkedHashMap<String, String>();
+		selectMap.put("\\\\i2b2\\Demographics\\Gender\\", "Gender");
+		selectMap.put("\\\\i2b2\\Demographics\\Age\\", "Age");
+		return selectMap;
+	}
+
+	private ConceptType createConcept(String conceptPath, String conceptCd, String name) {
+		ConceptType concept = new ConceptType();
+		concept.setConceptPath(conceptPath);
+		concept.setConceptCd(conceptCd);
+		concept.setNameChar(name);
+		return concept;
+	}
+
+	private PatientType createPatient(String patientId, String... params) {
+		PatientType patient = new PatientType();
+		PatientIdType patientIdType = new PatientIdType();
+		patientIdType.setValue(patientId);
+		patient.setPatientId(patientIdType);
+		for (int param = 0; param < params.length; param += 2) {
+			ParamType paramType = new ParamType();
+			paramType.setColumn(params[param]);
+			paramType.setValue(params[param + 1]);
+			patient.getParam().add(paramType);
+		}
+		return patient;
+	}
+
+	private ObservationType createObservation(String patientId, String conceptCd, String valueType,
+			String value) {
+		ObservationType observation = new ObservationType();
+		PatientIdType patientIdType = new PatientIdType();
+		patientIdType.setValue(patientId);
+		observation.setPatientId(patientIdType);
+		ObservationType.ConceptCd conceptCdType = new ObservationType.ConceptCd();
+		conceptCdType.setValue(conceptCd);
+		observation.setConceptCd(conceptCdType);
+		observation.setValuetypeCd(valueType);
+		if ("N".equals(valueType)) {
+			ObservationType.NvalNum nvalNum = new ObservationType.NvalNum();
+			nvalNum.setValue(new BigDecimal(value));
+			observation.setNvalNum(nvalNum);
+		} else if ("T".equals(valueType)) {
+			observation.setTvalChar(value);
+		}
+		return observation;
+	}
+}
@@ -16,6 +16,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 import edu.harvard.hms.dbmi.scidb.exception.NotConnectedException;
@@ -2342,7 +2343,8 @@ public class SciDB {
 			URI uri = new URIBuilder(this.url + "/release_session")
 					.addParameter("id", this.sessionId).build();
 			HttpGet closeSession = new HttpGet(uri);
-			client.execute(closeSession);
+			HttpResponse response = client.execute(closeSession);
+			EntityUtils.consumeQuietly(response.getEntity());
 			this.connected = false;
 			return true;
 		} catch (IOException | URISyntaxException e) {
@@ -8,6 +8,7 @@ import java.util.HashMap;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
 
 /**
  * Provides an implementation that describes the API for setting up connectors
@@ -46,6 +47,18 @@ public abstract class Cell {
 		pdoMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 		return pdoMarshaller;
 	};
+
+	/**
+	 * Creates an unmarshaller for the given package. Like the marshaller, an
+	 * unmarshaller is not thread-safe and must not be shared between requests.
+	 * 
+	 * @param packageName
+	 * @return
+	 * @throws JAXBException
+	 */
+	protected final Unmarshaller unmarshaller(String packageName) throws JAXBException{
+		return jaxbContext(packageName).createUnmarshaller();
+	};
 	
 	/**
 	 * Sets up all needed parameters to communicate with the implementing
@@ -594,6 +594,63 @@ public class CRCCell extends Cell {
 			I2B2InterfaceException, IOException {
 		
 		logger.debug("getPDOfromInputList() Starting...");
+
+		return (PatientDataResponseType) this.getPDOResponseType(runRequest(
+				client, createPDOfromInputListRequest(collectionId, min, max,
+						onlyKeys, blob, techdata, select, metaData),
+				"/pdorequest"));
+	}
+
+	/**
+	 * Requests a list of PDOs from an Input List and returns the response as
+	 * a stream, so it can be read without holding the complete response in
+	 * memory. The stream must be closed by the caller.
+	 * 
+	 * @param client
+	 *            HTTPClient
+	 * @param collectionId
+	 *            Collection Id
+	 * @param min
+	 *            Minimum to return
+	 * @param max
+	 *            Maximum to return
+	 * @param onlyKeys
+	 *            Only keys
+	 * @param blob
+	 *            Blobs
+	 * @param techdata
+	 *            Techdata
+	 * @param select
+	 *            Output option
+	 * @param metaData
+	 * 			  any additional data that will be used
+	 * @return A stream of the PDO
+	 * @throws JAXBException
+	 *             An Exception Occurred
+	 * @throws ClientProtocolException
+	 *             An Exception Occurred
+	 * @throws I2B2InterfaceException
+	 *             An Exception Occurred
+	 * @throws IOException
+	 *             An Exception Occurred
+	 */
+	public PatientDataStream streamPDOfromInputList(HttpClient client,
+			String collectionId, int min, int max, boolean onlyKeys,
+			boolean blob, boolean techdata, OutputOptionSelectType select, Map metaData)
+			throws JAXBException, ClientProtocolException,
+			I2B2InterfaceException, IOException {
+
+		logger.debug("streamPDOfromInputList() Starting...");
+
+		String request = createPDOfromInputListRequest(collectionId, min, max,
+				onlyKeys, blob, techdata, select, metaData);
+		return new PatientDataStream(runRequest(client, request, "/pdorequest"),
+				unmarshaller(PDO));
+	}
+
+	private String createPDOfromInputListRequest(String collectionId, int min,
+			int max, boolean onlyKeys, boolean blob, boolean techdata,
+			OutputOptionSelectType select, Map metaData) throws JAXBException {
 		
 		RequestMessageType rmt = createMinimumPDOBaseMessage(PdoRequestTypeType.GET_PDO_FROM_INPUT_LIST, "/pdorequest");
         logger.debug("getPDOfromInputList() created ```RequestMessageType```");
@@ -699,8 +756,7 @@ public class CRCCell extends Cell {
 		logger.debug("getPDOfromInputList() set pdoMarshaller");
 
 
-		return (PatientDataResponseType) this.getPDOResponseType(runRequest(
-				client, sw.toString(), "/pdorequest"));
+		return sw.toString();
 	}
 
 	/**
@@ -0,0 +1,49 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.i2b2.api.crc;
+
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ConceptType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ObservationType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.PatientType;
+import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
+
+/**
+ * Receives the contents of a PDO response as it is read by a
+ * PatientDataStream. The elements are handed over in document order, so all
+ * concepts are received before the patients, and all patients before the
+ * observations.
+ */
+public interface PatientDataHandler {
+
+	/**
+	 * A concept of the concept set was read
+	 * 
+	 * @param concept
+	 *            Concept
+	 * @throws I2B2InterfaceException
+	 *             An Exception Occurred
+	 */
+	void concept(ConceptType concept) throws I2B2InterfaceException;
+
+	/**
+	 * A patient of the patient set was read
+	 * 
+	 * @param patient
+	 *            Patient
+	 * @throws I2B2InterfaceException
+	 *             An Exception Occurred
+	 */
+	void patient(PatientType patient) throws I2B2InterfaceException;
+
+	/**
+	 * An observation of an observation set was read
+	 * 
+	 * @param observation
+	 *            Observation
+	 * @throws I2B2InterfaceException
+	 *             An Exception Occurred
+	 */
+	void observation(ObservationType observation)
+			throws I2B2InterfaceException;
+}
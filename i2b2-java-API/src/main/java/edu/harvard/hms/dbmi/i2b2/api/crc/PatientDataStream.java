@@ -0,0 +1,149 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.i2b2.api.crc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ConceptType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ObservationType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.PatientType;
+import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
+
+/**
+ * A PDO response that is read while it is received. Instead of unmarshalling
+ * the complete response message, the response is walked with a pull parser
+ * and only the individual concepts, patients and observations are
+ * unmarshalled and handed to a PatientDataHandler. The memory used is
+ * therefore bound by the size of a single element and not the size of the
+ * response.
+ * 
+ * The stream must be closed once it is no longer needed to release the
+ * connection it was read from.
+ */
+public class PatientDataStream implements Closeable {
+	private static final XMLInputFactory xmlInputFactory = createXMLInputFactory();
+
+	private Logger logger = Logger.getLogger(this.getClass());
+
+	private final InputStream inputStream;
+	private final Unmarshaller unmarshaller;
+
+	PatientDataStream(InputStream inputStream, Unmarshaller unmarshaller) {
+		this.inputStream = inputStream;
+		this.unmarshaller = unmarshaller;
+	}
+
+	/**
+	 * Reads the response and hands every concept, patient and observation to
+	 * the handler
+	 * 
+	 * @param handler
+	 *            Handler
+	 * @throws JAXBException
+	 *             An Exception Occurred
+	 * @throws I2B2InterfaceException
+	 *             The i2b2 request failed or the response could not be read
+	 */
+	public void read(PatientDataHandler handler) throws JAXBException,
+			I2B2InterfaceException {
+		XMLStreamReader reader = null;
+		try {
+			reader = xmlInputFactory.createXMLStreamReader(inputStream);
+			boolean inHeader = false;
+			boolean statusChecked = false;
+			String set = null;
+
+			while (reader.hasNext()) {
+				int event = reader.getEventType();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					String name = reader.getLocalName();
+					if (name.equals("response_header")) {
+						inHeader = false;
+					} else if (name.equals(set)) {
+						set = null;
+					}
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if (name.equals("response_header")) {
+						inHeader = true;
+					} else if (inHeader && !statusChecked && name.equals("status")) {
+						checkStatus(reader);
+						statusChecked = true;
+						continue;
+					} else if (name.equals("concept_set")
+							|| name.equals("patient_set")
+							|| name.equals("observation_set")) {
+						set = name;
+					} else if ("concept_set".equals(set) && name.equals("concept")) {
+						handler.concept(unmarshaller.unmarshal(reader,
+								ConceptType.class).getValue());
+						continue;
+					} else if ("patient_set".equals(set) && name.equals("patient")) {
+						handler.patient(unmarshaller.unmarshal(reader,
+								PatientType.class).getValue());
+						continue;
+					} else if ("observation_set".equals(set) && name.equals("observation")) {
+						handler.observation(unmarshaller.unmarshal(reader,
+								ObservationType.class).getValue());
+						continue;
+					}
+				}
+				reader.next();
+			}
+		} catch (XMLStreamException e) {
+			logger.error("read() Unable to read the PDO response: " + e.getMessage());
+			throw new I2B2InterfaceException("Unable to read the PDO response", e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					logger.warn("read() Unable to close the reader: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the stream and the connection it was read from
+	 */
+	@Override
+	public void close() throws IOException {
+		inputStream.close();
+	}
+
+	/**
+	 * Checks the status of the response header. The reader is left after the
+	 * end of the status element.
+	 */
+	private void checkStatus(XMLStreamReader reader)
+			throws XMLStreamException, I2B2InterfaceException {
+		String type = reader.getAttributeValue(null, "type");
+		String message = reader.getElementText();
+		reader.next();
+		if (!"DONE".equals(type)) {
+			logger.error("read() with status: " + type
+					+ ". The status message: " + message);
+			throw new I2B2InterfaceException(message);
+		}
+	}
+
+	private static XMLInputFactory createXMLInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+}
@@ -19,6 +19,7 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 
 import edu.harvard.hms.dbmi.i2b2.api.Cell;
 import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
@@ -1171,6 +1172,7 @@ public class ONTCell extends Cell {
 
 		HttpResponse response = client.execute(post);
 		if((response.getStatusLine() != null) &&  (response.getStatusLine().getStatusCode() != 200)) {
+			EntityUtils.consumeQuietly(response.getEntity());
 			throw new I2B2InterfaceException("Non 200 response from PM Server");
 		}
 		
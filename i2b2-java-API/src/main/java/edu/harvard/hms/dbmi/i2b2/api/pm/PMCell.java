@@ -21,6 +21,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 
 import edu.harvard.hms.dbmi.i2b2.api.Cell;
 import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
@@ -1927,6 +1928,7 @@ public class PMCell extends Cell {
 
 		HttpResponse response = client.execute(post);
 		if((response.getStatusLine() != null) &&  (response.getStatusLine().getStatusCode() != 200)) {
+			EntityUtils.consumeQuietly(response.getEntity());
 			throw new I2B2InterfaceException("Non 200 response from PM Server");
 		}
 		return response.getEntity().getContent();
@@ -0,0 +1,157 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package edu.harvard.hms.dbmi.i2b2.api.crc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ConceptType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.ObservationType;
+import edu.harvard.hms.dbmi.i2b2.api.crc.xml.pdo.PatientType;
+import edu.harvard.hms.dbmi.i2b2.api.exception.I2B2InterfaceException;
+
+public class PatientDataStreamTest {
+
+	/**
+	 * Tests that a response with an error status fails with the status
+	 * message before any data is handed over
+	 */
+	@Test
+	public void testErrorStatus() throws Exception {
+		CountingHandler handler = new CountingHandler();
+		try {
+			read(createResponse("ERROR", "Query was not found",
+					"<patient_set><patient/></patient_set>"), handler);
+			fail("Exception not thrown");
+		} catch (I2B2InterfaceException e) {
+			assertEquals("Query was not found", e.getMessage());
+		}
+		assertEquals(0, handler.elements);
+	}
+
+	/**
+	 * Tests that a page without any concepts, patients or observations is
+	 * read without calling the handler
+	 */
+	@Test
+	public void testEmptyPage() throws Exception {
+		CountingHandler handler = new CountingHandler();
+		read(createResponse("DONE", "Success",
+				"<concept_set/><patient_set/><observation_set/>"), handler);
+		assertEquals(0, handler.elements);
+
+		read(createResponse("DONE", "Success", ""), handler);
+		assertEquals(0, handler.elements);
+	}
+
+	/**
+	 * Tests that a response that is not XML fails
+	 */
+	@Test
+	public void testMalformedResponse() throws Exception {
+		try {
+			read("<response><response_header>", new CountingHandler());
+			fail("Exception not thrown");
+		} catch (I2B2InterfaceException e) {
+			assertEquals("Unable to read the PDO response", e.getMessage());
+		}
+	}
+
+	/**
+	 * Tests that external entities are not resolved
+	 */
+	@Test
+	public void testExternalEntityRejected() throws Exception {
+		File secret = File.createTempFile("pdo-secret", ".txt");
+		secret.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(secret)) {
+			out.write("top secret".getBytes(StandardCharsets.UTF_8));
+		}
+
+		String response = "<?xml version=\"1.0\"?>"
+				+ "<!DOCTYPE response [<!ENTITY xxe SYSTEM \""
+				+ secret.toURI() + "\">]>"
+				+ createResponse("ERROR", "&xxe;", "");
+		try {
+			read(response, new CountingHandler());
+			fail("Exception not thrown");
+		} catch (I2B2InterfaceException e) {
+			assertFalse(String.valueOf(e.getMessage()).contains("top secret"));
+		}
+	}
+
+	/**
+	 * Tests that closing the stream closes the response it is read from
+	 */
+	@Test
+	public void testClose() throws IOException {
+		final boolean[] closed = new boolean[1];
+		InputStream inputStream = new ByteArrayInputStream(new byte[0]) {
+			@Override
+			public void close() throws IOException {
+				closed[0] = true;
+			}
+		};
+		new PatientDataStream(inputStream, null).close();
+		assertTrue(closed[0]);
+	}
+
+	/**
+	 * Reads a response. No elements are unmarshalled by these responses, so
+	 * no unmarshaller is needed.
+	 */
+	private void read(String response, PatientDataHandler handler)
+			throws Exception {
+		PatientDataStream stream = new PatientDataStream(
+				new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), null);
+		try {
+			stream.read(handler);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private String createResponse(String status, String message, String sets) {
+		return "<ns5:response xmlns:ns5=\"http://www.i2b2.org/xsd/hive/msg/1.1/\">"
+				+ "<message_header/>"
+				+ "<response_header><result_status><status type=\"" + status + "\">"
+				+ message + "</status></result_status></response_header>"
+				+ "<message_body><ns3:response xmlns:ns3=\"http://www.i2b2.org/xsd/cell/crc/pdo/1.1/\">"
+				+ "<ns2:patient_data xmlns:ns2=\"http://www.i2b2.org/xsd/hive/pdo/1.1/\">"
+				+ sets + "</ns2:patient_data></ns3:response></message_body></ns5:response>";
+	}
+
+	/**
+	 * Counts the elements it is handed
+	 */
+	private static class CountingHandler implements PatientDataHandler {
+		private int elements;
+
+		@Override
+		public void concept(ConceptType concept) {
+			elements++;
+		}
+
+		@Override
+		public void patient(PatientType patient) {
+			elements++;
+		}
+
+		@Override
+		public void observation(ObservationType observation) {
+			elements++;
+		}
+	}
+}